@@ -22,6 +22,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.telephony.AccessNetworkConstants;
 import android.telephony.AccessNetworkConstants.AccessNetworkType;
 import android.telephony.TelephonyManager;
@@ -122,6 +123,9 @@ class AccessNetworkEvaluator {
     private int mCachedTransportTypeForEmergencyInitialConnect =
             AccessNetworkConstants.TRANSPORT_TYPE_INVALID;
     private int mLastEvaluateSpecificReason = EVALUATE_SPECIFIC_REASON_NONE;
+    /** Count of the evaluations run, to tell whether a callback led to one. */
+    private long mEvaluationCount;
+    private final CallbackLatencyTracker mCallbackLatencyTracker = new CallbackLatencyTracker();
 
     AccessNetworkEvaluator(QnsComponents qnsComponents, int netCapability, int slotIndex) {
         mNetCapability = netCapability;
@@ -370,6 +374,12 @@ class AccessNetworkEvaluator {
                 mThresholdListener, mNetCapability, null, mSlotIndex);
         mCellularQualityMonitor.registerThresholdChange(
                 mThresholdListener, mNetCapability, null, mSlotIndex);
+        int notificationInterval = mConfigManager.getThresholdNotificationMinInterval();
+        mWifiQualityMonitor.setNotificationMinInterval(
+                mNetCapability, mSlotIndex, notificationInterval);
+        mCellularQualityMonitor.setNotificationMinInterval(
+                mNetCapability, mSlotIndex, notificationInterval);
+        mWifiQualityMonitor.setSignalFilter(mSlotIndex, mConfigManager.getWifiRssiFilterConfig());
         mIwlanNetworkStatusTracker.registerIwlanNetworksChanged(
                 mSlotIndex, mHandler, EVENT_IWLAN_NETWORK_STATUS_CHANGED);
         mDataConnectionStatusTracker.registerDataConnectionStatusChanged(
@@ -379,7 +389,10 @@ class AccessNetworkEvaluator {
         mQnsImsManager.registerSipDialogSessionStateChanged(
                 mHandler, EVENT_SIP_DIALOG_SESSION_STATE_CHANGED);
         mCellularNetworkStatusTracker.registerQnsTelephonyInfoChanged(
-                mNetCapability, mHandler, EVENT_QNS_TELEPHONY_INFO_CHANGED);
+                mNetCapability,
+                mHandler,
+                EVENT_QNS_TELEPHONY_INFO_CHANGED,
+                getEvaluatedQnsTelephonyInfoFields());
         if (mNetCapability == NetworkCapabilities.NET_CAPABILITY_IMS
                 || mNetCapability == NetworkCapabilities.NET_CAPABILITY_EIMS) {
             mCallStatusTracker.registerCallTypeChangedListener(
@@ -456,6 +469,27 @@ class AccessNetworkEvaluator {
         Log.d(mLogTag, s);
     }
 
+    /**
+     * Returns the fields of the QnsTelephonyInfo {@link #onQnsTelephonyInfoChanged} depends on,
+     * the changes of the other fields are not notified.
+     */
+    private int getEvaluatedQnsTelephonyInfoFields() {
+        int fields =
+                QnsTelephonyListener.INFO_FIELD_DATA_NETWORK_TYPE
+                        | QnsTelephonyListener.INFO_FIELD_DATA_REG_STATE
+                        | QnsTelephonyListener.INFO_FIELD_COVERAGE
+                        | QnsTelephonyListener.INFO_FIELD_CELLULAR_AVAILABLE;
+        if (mNetCapability == NetworkCapabilities.NET_CAPABILITY_IMS
+                || mNetCapability == NetworkCapabilities.NET_CAPABILITY_EIMS) {
+            fields |=
+                    QnsTelephonyListener.INFO_FIELD_VOPS_SUPPORT
+                            | QnsTelephonyListener.INFO_FIELD_VOPS_EMERGENCY_SUPPORT
+                            | QnsTelephonyListener.INFO_FIELD_VOICE_BARRING
+                            | QnsTelephonyListener.INFO_FIELD_EMERGENCY_BARRING;
+        }
+        return fields;
+    }
+
     protected void onQnsTelephonyInfoChanged(QnsTelephonyListener.QnsTelephonyInfo info) {
         boolean needEvaluate = false;
 
@@ -1035,28 +1069,28 @@ class AccessNetworkEvaluator {
 
     private void validateWfcSettingsAndUpdate() {
         boolean roaming = (mCoverage == QnsConstants.COVERAGE_ROAM);
-        boolean wfcSetting =
-                QnsUtils.isWfcEnabled(mQnsImsManager, mQnsProvisioningListener, roaming);
+        // served from the settings cache of the dispatcher, so no IPC is made per evaluation.
+        boolean wfcSetting = mQnsEventDispatcher.isWfcEnabled(roaming);
         if (roaming && mSettingWfcRoamingEnabled != wfcSetting) {
             log("validateWfcSettingsAndUpdate, found wfc roaming setting mismatch");
             if (wfcSetting) {
                 mWfcPlatformEnabled = true;
                 mSettingWfcRoamingEnabled = true;
             } else {
-                mWfcPlatformEnabled = QnsUtils.isWfcEnabledByPlatform(mQnsImsManager);
+                mWfcPlatformEnabled = mQnsEventDispatcher.isWfcEnabledByPlatform();
                 mSettingWfcRoamingEnabled = false;
             }
-            mSettingWfcRoamingMode = QnsUtils.getWfcMode(mQnsImsManager, true);
+            mSettingWfcRoamingMode = mQnsEventDispatcher.getWfcMode(true);
         } else if (!roaming && mSettingWfcEnabled != wfcSetting) {
             log("validateWfcSettingsAndUpdate, found wfc setting mismatch");
             if (wfcSetting) {
                 mWfcPlatformEnabled = true;
                 mSettingWfcEnabled = true;
             } else {
-                mWfcPlatformEnabled = QnsUtils.isWfcEnabledByPlatform(mQnsImsManager);
+                mWfcPlatformEnabled = mQnsEventDispatcher.isWfcEnabledByPlatform();
                 mSettingWfcEnabled = false;
             }
-            mSettingWfcMode = QnsUtils.getWfcMode(mQnsImsManager, false);
+            mSettingWfcMode = mQnsEventDispatcher.getWfcMode(false);
         }
     }
 
@@ -1237,11 +1271,31 @@ class AccessNetworkEvaluator {
         evaluate(EVALUATE_SPECIFIC_REASON_NONE);
     }
 
+    /**
+     * Records the latency from a framework callback to the end of the evaluation it led to.
+     *
+     * @param source CallbackLatencyTracker.SOURCE_* of the callback.
+     * @param callbackTimeNanos elapsed realtime in nanoseconds of the callback, 0 if unknown.
+     * @param evaluationCount count of the evaluations before the callback was handled.
+     */
+    private void recordCallbackLatency(int source, long callbackTimeNanos, long evaluationCount) {
+        if (callbackTimeNanos > 0 && mEvaluationCount != evaluationCount) {
+            mCallbackLatencyTracker.record(
+                    source, SystemClock.elapsedRealtimeNanos() - callbackTimeNanos);
+        }
+    }
+
+    @VisibleForTesting
+    CallbackLatencyTracker getCallbackLatencyTracker() {
+        return mCallbackLatencyTracker;
+    }
+
     protected synchronized void evaluate(int specificReason) {
         if (!mInitialized) {
             if (DBG) log("ANE is not initialized yet.");
             return;
         }
+        mEvaluationCount++;
         mLastEvaluateSpecificReason = specificReason;
         log("evaluate reason:" + evaluateSpecificReasonToString(specificReason));
         if (mNetCapability == NetworkCapabilities.NET_CAPABILITY_EIMS) {
@@ -1976,12 +2030,19 @@ class AccessNetworkEvaluator {
         public void handleMessage(Message message) {
             log("handleMessage msg=" + message.what);
             QnsAsyncResult ar = (QnsAsyncResult) message.obj;
+            long evaluationCount = mEvaluationCount;
             switch (message.what) {
                 case EVENT_IWLAN_NETWORK_STATUS_CHANGED:
                     onIwlanNetworkStatusChanged((IwlanAvailabilityInfo) ar.mResult);
                     break;
                 case EVENT_QNS_TELEPHONY_INFO_CHANGED:
-                    onQnsTelephonyInfoChanged((QnsTelephonyListener.QnsTelephonyInfo) ar.mResult);
+                    QnsTelephonyListener.QnsTelephonyInfo info =
+                            (QnsTelephonyListener.QnsTelephonyInfo) ar.mResult;
+                    onQnsTelephonyInfoChanged(info);
+                    recordCallbackLatency(
+                            CallbackLatencyTracker.SOURCE_SERVICE_STATE,
+                            info.getCallbackTimeNanos(),
+                            evaluationCount);
                     break;
                 case EVENT_RESTRICT_INFO_CHANGED:
                     onRestrictInfoChanged();
@@ -1994,8 +2055,13 @@ class AccessNetworkEvaluator {
                             (DataConnectionStatusTracker.DataConnectionChangedInfo) ar.mResult);
                     break;
                 case EVENT_PROVISIONING_INFO_CHANGED:
-                    onProvisioningInfoChanged(
-                            (QnsProvisioningListener.QnsProvisioningInfo) ar.mResult);
+                    QnsProvisioningListener.QnsProvisioningInfo provisioningInfo =
+                            (QnsProvisioningListener.QnsProvisioningInfo) ar.mResult;
+                    onProvisioningInfoChanged(provisioningInfo);
+                    recordCallbackLatency(
+                            CallbackLatencyTracker.SOURCE_PROVISIONING,
+                            provisioningInfo.getUpdateTimeNanos(),
+                            evaluationCount);
                     break;
                 case EVENT_IMS_REGISTRATION_STATE_CHANGED:
                     onImsRegStateChanged((QnsImsManager.ImsRegistrationState) ar.mResult);
@@ -2075,7 +2141,12 @@ class AccessNetworkEvaluator {
 
         @Override
         public void onCellularThresholdChanged(Threshold[] thresholds) {
+            long evaluationCount = mEvaluationCount;
             onCellularQualityChanged(thresholds);
+            recordCallbackLatency(
+                    CallbackLatencyTracker.SOURCE_SIGNAL_STRENGTH,
+                    mCellularQualityMonitor.getLastCallbackTimeNanos(),
+                    evaluationCount);
         }
     }
 
@@ -2144,6 +2215,7 @@ class AccessNetworkEvaluator {
         pw.println(prefix + "mAnspPolicyMap=" + mAnspPolicyMap);
         pw.println(prefix + "mCachedTransportTypeForEmergencyInitialConnect"
                 + mCachedTransportTypeForEmergencyInitialConnect);
+        mCallbackLatencyTracker.dump(pw, prefix);
         mRestrictManager.dump(pw, prefix + "  ");
     }
 
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+
+/**
+ * Tracks the latency from a framework callback to the evaluation of the access network evaluator
+ * it triggered, per source of callback. The latencies are kept as count, mean, maximum and a
+ * histogram of fixed buckets, so that recording never allocates.
+ */
+class CallbackLatencyTracker {
+    /** Service state and barring info callbacks of the telephony listener. */
+    static final int SOURCE_SERVICE_STATE = 0;
+    /** Signal strength callbacks of the cellular quality monitor. */
+    static final int SOURCE_SIGNAL_STRENGTH = 1;
+    /** Provisioning changed callbacks of the provisioning listener. */
+    static final int SOURCE_PROVISIONING = 2;
+
+    private static final int SOURCE_COUNT = 3;
+    private static final String[] SOURCE_NAMES = {"serviceState", "signalStrength", "provisioning"};
+    /** Upper bounds of the histogram buckets, the last bucket is unbounded. */
+    @VisibleForTesting static final long[] BUCKET_BOUNDS_MILLIS = {1, 5, 20, 100, 500};
+
+    private final long[] mCounts = new long[SOURCE_COUNT];
+    private final long[] mTotalNanos = new long[SOURCE_COUNT];
+    private final long[] mMaxNanos = new long[SOURCE_COUNT];
+    private final long[][] mBuckets = new long[SOURCE_COUNT][BUCKET_BOUNDS_MILLIS.length + 1];
+
+    /**
+     * Records the latency of a callback.
+     *
+     * @param source SOURCE_* of the callback.
+     * @param latencyNanos time from the callback to the end of the evaluation.
+     */
+    synchronized void record(int source, long latencyNanos) {
+        if (source < 0 || source >= SOURCE_COUNT || latencyNanos < 0) {
+            return;
+        }
+        mCounts[source]++;
+        mTotalNanos[source] += latencyNanos;
+        mMaxNanos[source] = Math.max(mMaxNanos[source], latencyNanos);
+        mBuckets[source][getBucket(latencyNanos / 1000000)]++;
+    }
+
+    private static int getBucket(long latencyMillis) {
+        for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+            if (latencyMillis < BUCKET_BOUNDS_MILLIS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_MILLIS.length;
+    }
+
+    @VisibleForTesting
+    synchronized long getCount(int source) {
+        return mCounts[source];
+    }
+
+    @VisibleForTesting
+    synchronized long getMaxNanos(int source) {
+        return mMaxNanos[source];
+    }
+
+    @VisibleForTesting
+    synchronized long getBucketCount(int source, int bucket) {
+        return mBuckets[source][bucket];
+    }
+
+    /**
+     * Dumps the state of {@link CallbackLatencyTracker}
+     *
+     * @param pw {@link PrintWriter} to write the state of the object.
+     * @param prefix String to append at start of dumped log.
+     */
+    synchronized void dump(PrintWriter pw, String prefix) {
+        StringBuilder sb = new StringBuilder(prefix).append("CallbackLatency:");
+        for (int source = 0; source < SOURCE_COUNT; source++) {
+            if (mCounts[source] == 0) {
+                continue;
+            }
+            sb.append(' ')
+                    .append(SOURCE_NAMES[source])
+                    .append("[count=")
+                    .append(mCounts[source])
+                    .append(", meanUs=")
+                    .append(mTotalNanos[source] / mCounts[source] / 1000)
+                    .append(", maxUs=")
+                    .append(mMaxNanos[source] / 1000)
+                    .append(", ms<");
+            for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+                sb.append(BUCKET_BOUNDS_MILLIS[i]).append(':').append(mBuckets[source][i]);
+                sb.append(i < BUCKET_BOUNDS_MILLIS.length - 1 ? '|' : ',');
+            }
+            sb.append(" more:").append(mBuckets[source][BUCKET_BOUNDS_MILLIS.length]).append(']');
+        }
+        pw.println(sb);
+    }
+}
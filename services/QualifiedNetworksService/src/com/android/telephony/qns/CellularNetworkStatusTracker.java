@@ -61,6 +61,19 @@ class CellularNetworkStatusTracker {
         mQnsTelephonyListener.registerQnsTelephonyInfoChanged(netCapability, h, what, null, true);
     }
 
+    /**
+     * Register for QnsTelephonyInfoChanged, notified only when one of the given fields changed.
+     *
+     * @param netCapability Network Capability
+     * @param h Handler
+     * @param what Event
+     * @param fieldMask bit mask of the QnsTelephonyListener.INFO_FIELD_* fields
+     */
+    void registerQnsTelephonyInfoChanged(int netCapability, Handler h, int what, int fieldMask) {
+        mQnsTelephonyListener.registerQnsTelephonyInfoChanged(
+                netCapability, h, what, null, true, fieldMask);
+    }
+
     /**
      * Unregister for QnsTelephonyInfoChanged
      *
@@ -25,6 +25,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.telephony.AccessNetworkConstants.AccessNetworkType;
 import android.telephony.CellSignalStrength;
 import android.telephony.CellSignalStrengthGsm;
@@ -44,12 +45,9 @@ import com.android.internal.annotations.VisibleForTesting;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 
 /**
@@ -66,20 +64,31 @@ class CellularQualityMonitor extends QualityMonitor {
     private int mSubId;
     private final int mSlotIndex;
     private boolean mIsQnsListenerRegistered;
-    private final List<SignalThresholdInfo> mSignalThresholdInfoList;
+    /** Threshold updates within this window are sent to the modem in one request. */
+    private static final long SIGNAL_STRENGTH_REQUEST_BATCH_WINDOW_MS = 200;
     private final HandlerThread mHandlerThread;
 
     /**
-     * thresholdMatrix stores the thresholds according to measurement type and netCapability. For
-     * ex: LTE_RSRP: {TYPE_IMS: [-112, -110, -90], TYPE_XCAP: [-100, -99]} LTE_RSSNR:{TYPE_IMS:
-     * [-10, -15], TYPE_EMERGENCY: [-15]}
+     * Thresholds requested by all listeners, ref-counted per access network, measurement type
+     * and value. Only a change of the union of the thresholds updates the modem request.
      */
-    private final ConcurrentHashMap<String, SparseArray<List<Integer>>> mThresholdMatrix =
-            new ConcurrentHashMap<>();
+    private final SignalThresholdRegistry mThresholdRegistry =
+            new SignalThresholdRegistry(MAX_THRESHOLD_COUNT);
+
+    /** SignalThresholdInfo per group key of {@link SignalThresholdRegistry}. */
+    private final SparseArray<SignalThresholdInfo> mSignalThresholdInfos = new SparseArray<>();
 
-    private final HashMap<String, int[]> mThresholdsRegistered = new HashMap<>();
-    private HashMap<String, Integer> mThresholdWaitTimer = new HashMap<>();
     private SignalStrengthUpdateRequest mSSUpdateRequest;
+    private boolean mIsSignalStrengthListenerRegistered;
+    private long mLastRequestUpdateTime;
+    private int mRequestUpdateCount;
+    private int mBatchedRequestUpdateCount;
+    private QnsMonitoringPolicy mMonitoringPolicy;
+    private int mFidelity = QnsMonitoringPolicy.FIDELITY_FULL;
+    /** Signal strength callbacks received, per fidelity. */
+    private final int[] mSignalStrengthCallbackCounts =
+            new int[QnsMonitoringPolicy.FIDELITY_COUNT];
+    private final QnsUtils.TimestampingExecutor mSignalStrengthExecutor;
     private final CellularSignalStrengthListener mSignalStrengthListener;
     private final QnsTelephonyListener mQnsTelephonyListener;
     @VisibleForTesting final Handler mHandler;
@@ -102,10 +111,10 @@ class CellularQualityMonitor extends QualityMonitor {
         mTag = CellularQualityMonitor.class.getSimpleName() + "-" + mSlotIndex;
         mSubId = QnsUtils.getSubId(mContext, mSlotIndex);
         mIsQnsListenerRegistered = false;
-        mSignalThresholdInfoList = new ArrayList<>();
         mHandlerThread = new HandlerThread(mTag);
         mHandlerThread.start();
         mHandler = new CellularEventsHandler(mHandlerThread.getLooper());
+        initNotificationGate(mHandlerThread.getLooper());
         mTelephonyManager = mContext.getSystemService(TelephonyManager.class);
         mQnsTelephonyListener.registerSubscriptionIdListener(
                 mHandler, EVENT_SUBSCRIPTION_ID_CHANGED, null);
@@ -115,7 +124,9 @@ class CellularQualityMonitor extends QualityMonitor {
             Log.e(mTag, "Failed to get Telephony Service");
         }
         mConfigManager = configMgr;
-        mSignalStrengthListener = new CellularSignalStrengthListener(mContext.getMainExecutor());
+        // Delivered on the monitor thread, not queued behind the main looper.
+        mSignalStrengthExecutor = new QnsUtils.TimestampingExecutor(mHandler);
+        mSignalStrengthListener = new CellularSignalStrengthListener(mSignalStrengthExecutor);
         mSignalStrengthListener.setSignalStrengthListener(this::onSignalStrengthsChanged);
     }
 
@@ -157,6 +168,7 @@ class CellularQualityMonitor extends QualityMonitor {
 
         @Override
         public void onSignalStrengthsChanged(@NonNull SignalStrength signalStrength) {
+            mLastCallbackTimeNanos = mSignalStrengthExecutor.getCallbackTimeNanos();
             if (mSignalStrengthListener != null) {
                 Log.d(mTag, "Signal Strength Changed : " + signalStrength);
                 mSignalStrengthListener.onSignalStrengthsChanged(signalStrength);
@@ -164,7 +176,8 @@ class CellularQualityMonitor extends QualityMonitor {
         }
     }
 
-    private void onSignalStrengthsChanged(SignalStrength signalStrength) {
+    private synchronized void onSignalStrengthsChanged(SignalStrength signalStrength) {
+        mSignalStrengthCallbackCounts[mFidelity]++;
         List<CellSignalStrength> ss = signalStrength.getCellSignalStrengths();
         if (!ss.isEmpty()) {
             for (CellSignalStrength cs : ss) {
@@ -176,16 +189,37 @@ class CellularQualityMonitor extends QualityMonitor {
     private void checkAndNotifySignalStrength(CellSignalStrength cellSignalStrength) {
         Log.d(mTag, "CellSignalStrength Changed: " + cellSignalStrength);
 
-        int signalStrength;
-        for (Map.Entry<String, List<Threshold>> entry : mThresholdsList.entrySet()) {
+        Set<String> crossedKeys = new HashSet<>();
+        for (int i = 0; i < mCrossingIndex.getGroupCount(); i++) {
+            int accessNetwork = mCrossingIndex.getAccessNetworkAt(i);
+            int measurementType = mCrossingIndex.getMeasurementTypeAt(i);
+            if (!isSameAccessNetwork(accessNetwork, cellSignalStrength)) {
+                continue;
+            }
+            int signalStrength =
+                    getSignalStrength(accessNetwork, measurementType, cellSignalStrength);
+            if (signalStrength == UNAVAILABLE) {
+                resetCrossingState(accessNetwork, measurementType);
+            } else {
+                mCrossingIndex.onSample(
+                        accessNetwork, measurementType, signalStrength, crossedKeys);
+            }
+        }
+
+        for (String key : crossedKeys) {
             // check if key is in waiting list of backhaul
-            if (mWaitingThresholds.getOrDefault(entry.getKey(), false)) {
+            if (mWaitingThresholds.getOrDefault(key, false)) {
                 Log.d(mTag, "Backhaul timer already running for the threshold");
                 continue;
             }
+            List<Threshold> thresholdsList = mThresholdsList.get(key);
+            if (thresholdsList == null) {
+                continue;
+            }
             List<Threshold> matchedThresholds = new ArrayList<>();
             Threshold threshold;
-            for (Threshold th : entry.getValue()) {
+            int signalStrength;
+            for (Threshold th : thresholdsList) {
                 signalStrength =
                         getSignalStrength(
                                 th.getAccessNetwork(), th.getMeasurementType(), cellSignalStrength);
@@ -196,11 +230,26 @@ class CellularQualityMonitor extends QualityMonitor {
                 }
             }
             if (matchedThresholds.size() > 0) {
-                notifyThresholdChange(entry.getKey(), matchedThresholds.toArray(new Threshold[0]));
+                requestThresholdNotification(key, matchedThresholds.toArray(new Threshold[0]));
             }
         }
     }
 
+    private static boolean isSameAccessNetwork(int accessNetwork, CellSignalStrength css) {
+        switch (accessNetwork) {
+            case AccessNetworkType.GERAN:
+                return css instanceof CellSignalStrengthGsm;
+            case AccessNetworkType.UTRAN:
+                return css instanceof CellSignalStrengthWcdma;
+            case AccessNetworkType.EUTRAN:
+                return css instanceof CellSignalStrengthLte;
+            case AccessNetworkType.NGRAN:
+                return css instanceof CellSignalStrengthNr;
+            default:
+                return false;
+        }
+    }
+
     @Override
     synchronized int getCurrentQuality(int accessNetwork, int measurementType) {
         SignalStrength ss = mTelephonyManager.getSignalStrength();
@@ -232,11 +281,7 @@ class CellularQualityMonitor extends QualityMonitor {
     synchronized void unregisterThresholdChange(int netCapability, int slotIndex) {
         Log.d(mTag, "unregisterThresholdChange for netCapability= " + netCapability);
         super.unregisterThresholdChange(netCapability, slotIndex);
-        updateThresholdsMatrix(netCapability, null);
-        if (updateRegisteredThresholdsArray()) {
-            createSignalThresholdsInfoList();
-            listenRequests();
-        }
+        updateRegisteredThresholds(netCapability, slotIndex, null);
     }
 
     @Override
@@ -247,11 +292,7 @@ class CellularQualityMonitor extends QualityMonitor {
         if (ths != null && ths.length > 0 && !validateThresholdList(ths)) {
             throw new IllegalStateException("Thresholds are not in valid range.");
         }
-        updateThresholdsMatrix(netCapability, ths);
-        if (updateRegisteredThresholdsArray()) {
-            createSignalThresholdsInfoList();
-            listenRequests();
-        }
+        updateRegisteredThresholds(netCapability, slotIndex, ths);
     }
 
     @Override
@@ -263,137 +304,152 @@ class CellularQualityMonitor extends QualityMonitor {
         }
     }
 
-    private void createSignalThresholdsInfoList() {
-        mSignalThresholdInfoList.clear();
-        for (Map.Entry<String, int[]> entry : mThresholdsRegistered.entrySet()) {
-            if (entry.getValue().length == 0) continue;
-            int networkType = Integer.parseInt(entry.getKey().split("_")[0]);
-            int measurementType = Integer.parseInt(entry.getKey().split("_")[1]);
-            SignalThresholdInfo.Builder builder =
-                    new SignalThresholdInfo.Builder()
-                            .setRadioAccessNetworkType(networkType)
-                            .setSignalMeasurementType(measurementType)
-                            .setThresholds(entry.getValue());
-            int backhaulTime = mThresholdWaitTimer.getOrDefault(entry.getKey(), -1);
-            if (backhaulTime > 0) {
-                builder.setHysteresisMs(backhaulTime);
-            }
-            int hysteresisDb = mConfigManager.getWwanHysteresisDbLevel(networkType,
-                    measurementType);
-            builder.setHysteresisDb(hysteresisDb);
-            mSignalThresholdInfoList.add(builder.build());
-            Log.d(mTag, "Updated SignalThresholdInfo List: " + mSignalThresholdInfoList);
+    /**
+     * Updates the thresholds of the netCapability in the registry, and schedules a new modem
+     * request if the union of the thresholds requested by all listeners changed.
+     */
+    private void updateRegisteredThresholds(int netCapability, int slotIndex, Threshold[] ths) {
+        List<Integer> changedGroups =
+                mThresholdRegistry.update(getKey(netCapability, slotIndex), ths);
+        for (int groupKey : changedGroups) {
+            updateSignalThresholdInfo(groupKey);
+        }
+        Log.d(mTag, "Registered thresholds: " + mThresholdRegistry);
+        if (!changedGroups.isEmpty()) {
+            scheduleSignalStrengthRequestUpdate();
         }
     }
 
-    private boolean updateRegisteredThresholdsArray() {
-        boolean isUpdated = false;
-        for (Map.Entry<String, SparseArray<List<Integer>>> entry : mThresholdMatrix.entrySet()) {
-            SparseArray<List<Integer>> netCapabilityThresholds =
-                    mThresholdMatrix.getOrDefault(entry.getKey(), new SparseArray<>());
-            Set<Integer> thresholdsSet = new HashSet<>(); // to store unique thresholds
-            int count = 0;
-            for (int i = 0;
-                    (i < netCapabilityThresholds.size() && count <= MAX_THRESHOLD_COUNT);
-                    i++) {
-                List<Integer> thresholdsList =
-                        netCapabilityThresholds.get(
-                                netCapabilityThresholds.keyAt(i), new ArrayList<>());
-                for (int t : thresholdsList) {
-                    if (thresholdsSet.add(t)) {
-                        count++;
-                    }
-                    if (count >= MAX_THRESHOLD_COUNT) {
-                        break;
-                    }
-                }
-            }
-            int[] newThresholds = new int[thresholdsSet.size()];
-            count = 0;
-            for (int i : thresholdsSet) {
-                newThresholds[count++] = i;
-            }
-            Arrays.sort(newThresholds);
-            int[] oldThresholds = mThresholdsRegistered.get(entry.getKey());
-            Log.d(
-                    mTag,
-                    "For measurement type= "
-                            + entry.getKey()
-                            + " old Threshold= "
-                            + Arrays.toString(oldThresholds)
-                            + " new Threshold= "
-                            + Arrays.toString(newThresholds));
-            if (!Arrays.equals(newThresholds, oldThresholds)) {
-                mThresholdsRegistered.put(entry.getKey(), newThresholds);
-                isUpdated = true;
-            }
+    private void updateSignalThresholdInfo(int groupKey) {
+        int[] thresholds = mThresholdRegistry.getThresholds(groupKey);
+        if (thresholds == null || thresholds.length == 0) {
+            mSignalThresholdInfos.remove(groupKey);
+            return;
+        }
+        int networkType = SignalThresholdRegistry.getAccessNetwork(groupKey);
+        int measurementType = SignalThresholdRegistry.getMeasurementType(groupKey);
+        SignalThresholdInfo.Builder builder =
+                new SignalThresholdInfo.Builder()
+                        .setRadioAccessNetworkType(networkType)
+                        .setSignalMeasurementType(measurementType)
+                        .setThresholds(thresholds);
+        int backhaulTime =
+                QnsMonitoringPolicy.getHysteresisMs(
+                        mFidelity, mThresholdRegistry.getHysteresisMs(groupKey));
+        if (backhaulTime > 0) {
+            builder.setHysteresisMs(backhaulTime);
         }
-        return isUpdated;
+        int hysteresisDb = mConfigManager.getWwanHysteresisDbLevel(networkType,
+                measurementType);
+        builder.setHysteresisDb(
+                QnsMonitoringPolicy.getHysteresisDb(mFidelity, hysteresisDb, thresholds));
+        mSignalThresholdInfos.put(groupKey, builder.build());
+        Log.d(mTag, "Updated SignalThresholdInfo: " + mSignalThresholdInfos.get(groupKey));
     }
 
-    private void updateThresholdsMatrix(int netCapability, Threshold[] ths) {
+    /**
+     * Sends the modem request right away if none was sent within the batch window, otherwise
+     * sends it once the window elapses so that the updates in between result in one request.
+     */
+    private void scheduleSignalStrengthRequestUpdate() {
+        if (mHandler.hasMessages(EVENT_SIGNAL_STRENGTH_REQUEST_UPDATE)) {
+            mBatchedRequestUpdateCount++;
+            return;
+        }
+        long wait =
+                mLastRequestUpdateTime + SIGNAL_STRENGTH_REQUEST_BATCH_WINDOW_MS
+                        - SystemClock.elapsedRealtime();
+        if (mLastRequestUpdateTime == 0 || wait <= 0) {
+            listenRequests();
+        } else {
+            mHandler.sendEmptyMessageDelayed(EVENT_SIGNAL_STRENGTH_REQUEST_UPDATE, wait);
+        }
+    }
 
-        Log.d(mTag, "Current threshold matrix: " + mThresholdMatrix);
-        // clear old threshold for the netCapability in given netCapability from threshold matrix.
-        for (Map.Entry<String, SparseArray<List<Integer>>> entry : mThresholdMatrix.entrySet()) {
-            SparseArray<List<Integer>> netCapabilityThresholds =
-                    mThresholdMatrix.get(entry.getKey());
-            if (netCapabilityThresholds != null) {
-                netCapabilityThresholds.remove(netCapability);
-            }
+    @Override
+    void setMonitoringPolicy(QnsMonitoringPolicy policy) {
+        mMonitoringPolicy = policy;
+        mMonitoringPolicy.registerFidelityChanged(mHandler, EVENT_MONITORING_FIDELITY_CHANGED);
+    }
+
+    /**
+     * Rebuilds the thresholds info with the hysteresis of the new fidelity. Going back to full
+     * fidelity updates the modem request right away, bypassing the batch window.
+     */
+    private synchronized void onFidelityChanged(int fidelity) {
+        if (fidelity == mFidelity) {
+            return;
+        }
+        Log.d(mTag, "Monitoring fidelity changed from " + mFidelity + " to " + fidelity);
+        mFidelity = fidelity;
+        for (int i = 0; i < mSignalThresholdInfos.size(); i++) {
+            updateSignalThresholdInfo(mSignalThresholdInfos.keyAt(i));
         }
-        if (ths == null || ths.length == 0) {
+        if (mSSUpdateRequest == null) {
+            // nothing is requested from the modem, the next request uses the new fidelity.
             return;
         }
-
-        // store new thresholds in threshold matrix
-        for (Threshold th : ths) {
-            String key = th.getAccessNetwork() + "_" + th.getMeasurementType();
-            SparseArray<List<Integer>> netCapabilityThresholds =
-                    mThresholdMatrix.getOrDefault(key, new SparseArray<>());
-            List<Integer> thresholdsList =
-                    netCapabilityThresholds.get(netCapability, new ArrayList<>());
-            thresholdsList.add(th.getThreshold());
-            netCapabilityThresholds.put(netCapability, thresholdsList);
-            mThresholdMatrix.put(key, netCapabilityThresholds);
-            mThresholdWaitTimer.put(key, th.getWaitTime());
+        if (fidelity == QnsMonitoringPolicy.FIDELITY_FULL) {
+            mHandler.removeMessages(EVENT_SIGNAL_STRENGTH_REQUEST_UPDATE);
+            listenRequests();
+        } else {
+            scheduleSignalStrengthRequestUpdate();
         }
-        Log.d(mTag, "updated thresholds matrix: " + mThresholdMatrix);
     }
 
     /** This methods stops listening for the thresholds. */
     private synchronized void clearOldRequests() {
+        mHandler.removeMessages(EVENT_SIGNAL_STRENGTH_REQUEST_UPDATE);
         if (mSSUpdateRequest != null) {
             Log.d(mTag, "Clearing request: " + mSSUpdateRequest);
             mTelephonyManager.clearSignalStrengthUpdateRequest(mSSUpdateRequest);
             mSSUpdateRequest = null;
         }
-        mSignalStrengthListener.unregister();
+        if (mIsSignalStrengthListenerRegistered) {
+            mSignalStrengthListener.unregister();
+            mIsSignalStrengthListenerRegistered = false;
+        }
     }
 
-    /** This methods starts listening for the thresholds. */
-    private void listenRequests() {
-        clearOldRequests();
-        if (mSignalThresholdInfoList.size() > 0) {
+    /**
+     * This methods starts listening for the thresholds. The new request is set before the old one
+     * is cleared, so that the modem does not stop reporting in between.
+     */
+    private synchronized void listenRequests() {
+        mLastRequestUpdateTime = SystemClock.elapsedRealtime();
+        List<SignalThresholdInfo> signalThresholdInfos = getSignalThresholdInfo();
+        if (signalThresholdInfos.size() > 0) {
+            SignalStrengthUpdateRequest oldRequest = mSSUpdateRequest;
             mSSUpdateRequest =
                     new SignalStrengthUpdateRequest.Builder()
-                            .setSignalThresholdInfos(mSignalThresholdInfoList)
+                            .setSignalThresholdInfos(signalThresholdInfos)
                             .setReportingRequestedWhileIdle(true)
                             .build();
             mTelephonyManager.setSignalStrengthUpdateRequest(mSSUpdateRequest);
+            mRequestUpdateCount++;
             Log.d(mTag, "Listening to request: " + mSSUpdateRequest);
-            mSignalStrengthListener.register();
+            if (oldRequest != null) {
+                mTelephonyManager.clearSignalStrengthUpdateRequest(oldRequest);
+            }
+            if (!mIsSignalStrengthListenerRegistered) {
+                mSignalStrengthListener.register();
+                mIsSignalStrengthListenerRegistered = true;
+            }
             if (!mIsQnsListenerRegistered) {
                 mQnsTelephonyListener.registerQnsTelephonyInfoChanged(
                         NetworkCapabilities.NET_CAPABILITY_IMS,
                         mHandler,
                         EVENT_CELLULAR_QNS_TELEPHONY_INFO_CHANGED,
                         null,
-                        false);
+                        false,
+                        QnsTelephonyListener.INFO_FIELD_DATA_NETWORK_TYPE
+                                | QnsTelephonyListener.INFO_FIELD_DATA_REG_STATE
+                                | QnsTelephonyListener.INFO_FIELD_CELLULAR_AVAILABLE);
                 mIsQnsListenerRegistered = true;
             }
         } else {
             Log.d(mTag, "No requests are pending to listen");
+            clearOldRequests();
             mQnsTelephonyListener.unregisterQnsTelephonyInfoChanged(
                     NetworkCapabilities.NET_CAPABILITY_IMS, mHandler);
             mIsQnsListenerRegistered = false;
@@ -510,8 +566,12 @@ class CellularQualityMonitor extends QualityMonitor {
     }
 
     @VisibleForTesting
-    List<SignalThresholdInfo> getSignalThresholdInfo() {
-        return mSignalThresholdInfoList;
+    synchronized List<SignalThresholdInfo> getSignalThresholdInfo() {
+        List<SignalThresholdInfo> signalThresholdInfos = new ArrayList<>();
+        for (int i = 0; i < mSignalThresholdInfos.size(); i++) {
+            signalThresholdInfos.add(mSignalThresholdInfos.valueAt(i));
+        }
+        return signalThresholdInfos;
     }
 
     private class CellularEventsHandler extends Handler {
@@ -533,6 +593,13 @@ class CellularQualityMonitor extends QualityMonitor {
                         onQnsTelephonyInfoChanged(info);
                     }
                     break;
+                case EVENT_SIGNAL_STRENGTH_REQUEST_UPDATE:
+                    listenRequests();
+                    break;
+                case EVENT_MONITORING_FIDELITY_CHANGED:
+                    ar = (QnsAsyncResult) msg.obj;
+                    onFidelityChanged((int) ar.mResult);
+                    break;
                 case EVENT_SUBSCRIPTION_ID_CHANGED:
                     ar = (QnsAsyncResult) msg.obj;
                     int newSubId = (int) ar.mResult;
@@ -566,8 +633,12 @@ class CellularQualityMonitor extends QualityMonitor {
     @Override
     public void close() {
         mQnsTelephonyListener.unregisterSubscriptionIdChanged(mHandler);
+        if (mMonitoringPolicy != null) {
+            mMonitoringPolicy.unregisterFidelityChanged(mHandler);
+        }
         clearOldRequests();
-        mSignalThresholdInfoList.clear();
+        mThresholdRegistry.clear();
+        mSignalThresholdInfos.clear();
         mIsQnsListenerRegistered = false;
         if (mHandlerThread != null) {
             mHandlerThread.quit();
@@ -581,10 +652,25 @@ class CellularQualityMonitor extends QualityMonitor {
         pw.println(prefix + "mSubId=" + mSubId);
         super.dump(pw, prefix);
         pw.println(prefix + "mIsQnsListenerRegistered=" + mIsQnsListenerRegistered);
-        pw.println(prefix + "mSignalThresholdInfoList=" + mSignalThresholdInfoList);
+        pw.println(prefix + "mSignalThresholdInfos=" + mSignalThresholdInfos);
         pw.println(prefix + "mSSUpdateRequest=" + mSSUpdateRequest);
-        pw.println(prefix + "mThresholdMatrix=" + mThresholdMatrix);
-        pw.println(prefix + "mThresholdsRegistered=" + mThresholdsRegistered);
-        pw.println(prefix + "mThresholdWaitTimer=" + mThresholdWaitTimer);
+        pw.println(prefix + "mThresholdRegistry=" + mThresholdRegistry);
+        pw.println(
+                prefix
+                        + "mRequestUpdateCount="
+                        + mRequestUpdateCount
+                        + ", mBatchedRequestUpdateCount="
+                        + mBatchedRequestUpdateCount);
+        pw.println(
+                prefix
+                        + "mFidelity="
+                        + mFidelity
+                        + ", signal strength callbacks per fidelity="
+                        + Arrays.toString(mSignalStrengthCallbackCounts)
+                        + ", estimated wakeups saved="
+                        + (mMonitoringPolicy != null
+                                ? mMonitoringPolicy.estimateSavedCallbacks(
+                                        mSignalStrengthCallbackCounts)
+                                : 0));
     }
 }
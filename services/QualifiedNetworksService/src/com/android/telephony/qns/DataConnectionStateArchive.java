@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+/**
+ * Archive of the last data connection state per subscription, transport type and network
+ * capability, shared by the telephony listeners of all the slots.
+ *
+ * <p>The three values are packed into a long key of an open addressing table, so that a lookup
+ * neither builds a key string nor boxes. The table holds at most {@link #MAX_ENTRY_COUNT}
+ * entries: the entries of a subscription no longer used by its slot are removed with {@link
+ * #removeSubId}, and the least recently stored entry makes room for a new one when full.
+ *
+ * @param <V> type of the archived state
+ */
+class DataConnectionStateArchive<V> {
+    /** Maximum count of archived states. */
+    @VisibleForTesting static final int MAX_ENTRY_COUNT = 64;
+    /** Size of the table, a power of two keeping the probe sequences short when full. */
+    private static final int TABLE_SIZE = 128;
+    private static final int TABLE_MASK = TABLE_SIZE - 1;
+
+    private final long[] mKeys = new long[TABLE_SIZE];
+    /** Archived states, null for a free slot of the table. */
+    private final Object[] mValues = new Object[TABLE_SIZE];
+    /** Order in which the states were stored, to find the least recently stored one. */
+    private final long[] mStamps = new long[TABLE_SIZE];
+    private long mNextStamp;
+    private int mSize;
+    private int mEvictionCount;
+
+    /** Packs the subscription id, transport type and network capability in a key. */
+    @VisibleForTesting
+    static long getKey(int subId, int transportType, int netCapability) {
+        return ((long) subId << 32)
+                | ((transportType & 0xFFFFL) << 16)
+                | (netCapability & 0xFFFFL);
+    }
+
+    private static int getSubId(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int getHomeIndex(long key) {
+        int hash = Long.hashCode(key * 0x9E3779B97F4A7C15L);
+        return (hash ^ (hash >>> 16)) & TABLE_MASK;
+    }
+
+    /** Returns the index of the key in the table, -1 if not archived. */
+    private int indexOf(long key) {
+        for (int i = getHomeIndex(key); mValues[i] != null; i = (i + 1) & TABLE_MASK) {
+            if (mKeys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Archives a state, replacing the previous one of the same key.
+     *
+     * @param subId subscription id
+     * @param transportType transport type of the data connection
+     * @param netCapability network capability of the data connection
+     * @param state the state to archive, null to remove the archived one.
+     */
+    synchronized void put(int subId, int transportType, int netCapability, V state) {
+        long key = getKey(subId, transportType, netCapability);
+        int index = indexOf(key);
+        if (state == null) {
+            if (index >= 0) {
+                removeAt(index);
+            }
+            return;
+        }
+        if (index < 0) {
+            if (mSize >= MAX_ENTRY_COUNT) {
+                removeAt(getLeastRecentlyStoredIndex());
+                mEvictionCount++;
+            }
+            index = getHomeIndex(key);
+            while (mValues[index] != null) {
+                index = (index + 1) & TABLE_MASK;
+            }
+            mKeys[index] = key;
+            mSize++;
+        }
+        mValues[index] = state;
+        mStamps[index] = mNextStamp++;
+    }
+
+    /**
+     * Returns the archived state, without allocating.
+     *
+     * @param subId subscription id
+     * @param transportType transport type of the data connection
+     * @param netCapability network capability of the data connection
+     * @return the archived state, null if none.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized V get(int subId, int transportType, int netCapability) {
+        int index = indexOf(getKey(subId, transportType, netCapability));
+        return index >= 0 ? (V) mValues[index] : null;
+    }
+
+    /**
+     * Removes the states archived for a subscription.
+     *
+     * @param subId subscription id
+     */
+    synchronized void removeSubId(int subId) {
+        int i = 0;
+        while (i < TABLE_SIZE) {
+            if (mValues[i] != null && getSubId(mKeys[i]) == subId) {
+                // a following entry may be shifted in, check the index again.
+                removeAt(i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private int getLeastRecentlyStoredIndex() {
+        int oldest = -1;
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            if (mValues[i] != null && (oldest < 0 || mStamps[i] < mStamps[oldest])) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+
+    /** Frees a slot of the table, shifting back the entries probed past it. */
+    private void removeAt(int index) {
+        mValues[index] = null;
+        mSize--;
+        int free = index;
+        for (int i = (index + 1) & TABLE_MASK; mValues[i] != null; i = (i + 1) & TABLE_MASK) {
+            int home = getHomeIndex(mKeys[i]);
+            if (((i - home) & TABLE_MASK) >= ((i - free) & TABLE_MASK)) {
+                mKeys[free] = mKeys[i];
+                mValues[free] = mValues[i];
+                mStamps[free] = mStamps[i];
+                mValues[i] = null;
+                free = i;
+            }
+        }
+    }
+
+    synchronized int size() {
+        return mSize;
+    }
+
+    @VisibleForTesting
+    synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DataConnectionStateArchive{size=" + mSize + ", evicted=" + mEvictionCount + "}";
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Exponential backoff of the restrictions applied when a data connection keeps failing on a
+ * network.
+ *
+ * <p>The failure history is kept per key, identifying the transport type, the network capability
+ * and the Wi-Fi network or the cellular network. Each fallback on a key doubles the restriction
+ * duration from the configured one, up to {@link #MAX_BACKOFF_LEVEL} times and a maximum
+ * duration, with a random jitter so that the retries of several keys don't line up. Each
+ * successful connection on a key steps its history back by one level.
+ *
+ * <p>A restriction longer than the configured one spares the setup attempts the configured
+ * restriction would have let through meanwhile, one per configured duration. Those are counted as
+ * avoided attempts.
+ *
+ * <p>This class is not thread safe, it is used on the handler of the restrict manager.
+ */
+class FallbackBackoff {
+    /** Maximum count of doublings of the configured restriction duration. */
+    static final int MAX_BACKOFF_LEVEL = 5;
+    /** Maximum jitter in percent of the backoff duration, either way. */
+    static final int JITTER_PERCENT = 20;
+    /** Maximum count of keys with a failure history. */
+    static final int MAX_KEY_COUNT = 16;
+
+    private final Random mRandom;
+    private final Map<String, Integer> mLevels =
+            new LinkedHashMap<String, Integer>(MAX_KEY_COUNT, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                    return size() > MAX_KEY_COUNT;
+                }
+            };
+    private long mAvoidedAttemptCount;
+    private int mBackoffCount;
+
+    FallbackBackoff() {
+        this(new Random());
+    }
+
+    FallbackBackoff(Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * Builds the key of a failure history.
+     *
+     * @param transportType transport type of the failed data connection
+     * @param netCapability network capability of the data connection
+     * @param networkId identity of the Wi-Fi network or the cellular network, null if unknown
+     */
+    static String getKey(int transportType, int netCapability, String networkId) {
+        return QnsConstants.transportTypeToString(transportType)
+                + "/"
+                + QnsUtils.getNameOfNetCapability(netCapability)
+                + "/"
+                + networkId;
+    }
+
+    /**
+     * Records a fallback on the key and returns the duration of its restriction.
+     *
+     * @param key key of the failure history
+     * @param restrictTimeMillis configured restriction duration, 0 for a restriction without timer
+     * @param maxRestrictTimeMillis maximum restriction duration
+     * @return the restriction duration, the configured one on the first fallback.
+     */
+    long onFallback(String key, long restrictTimeMillis, long maxRestrictTimeMillis) {
+        Integer previous = mLevels.get(key);
+        int level = previous != null ? previous : 0;
+        mLevels.put(key, Math.min(level + 1, MAX_BACKOFF_LEVEL));
+        if (restrictTimeMillis <= 0 || level == 0) {
+            return restrictTimeMillis;
+        }
+        long backoffMillis = restrictTimeMillis << level;
+        int jitterPercent = mRandom.nextInt(2 * JITTER_PERCENT + 1) - JITTER_PERCENT;
+        backoffMillis += backoffMillis * jitterPercent / 100;
+        backoffMillis =
+                Math.max(Math.min(backoffMillis, maxRestrictTimeMillis), restrictTimeMillis);
+        if (backoffMillis > restrictTimeMillis) {
+            mBackoffCount++;
+        }
+        mAvoidedAttemptCount += backoffMillis / restrictTimeMillis - 1;
+        return backoffMillis;
+    }
+
+    /** Steps the failure history of the key back after a successful data connection. */
+    void onSuccess(String key) {
+        Integer level = mLevels.get(key);
+        if (level == null) {
+            return;
+        }
+        if (level <= 1) {
+            mLevels.remove(key);
+        } else {
+            mLevels.put(key, level - 1);
+        }
+    }
+
+    /** Returns the backoff level of the key, 0 without failure history. */
+    int getLevel(String key) {
+        Integer level = mLevels.get(key);
+        return level != null ? level : 0;
+    }
+
+    /** Returns the count of setup attempts avoided by the longer restrictions. */
+    long getAvoidedAttemptCount() {
+        return mAvoidedAttemptCount;
+    }
+
+    /** Returns the count of restrictions made longer than the configured duration. */
+    int getBackoffCount() {
+        return mBackoffCount;
+    }
+
+    /** Forgets the failure history of all keys. */
+    void clear() {
+        mLevels.clear();
+    }
+
+    /**
+     * Dumps the state of {@link FallbackBackoff}
+     *
+     * @param pw {@link PrintWriter} to write the state of the object.
+     * @param prefix String to append at start of dumped log.
+     */
+    void dump(PrintWriter pw, String prefix) {
+        pw.println(
+                prefix
+                        + "FallbackBackoff: backoffs="
+                        + mBackoffCount
+                        + ", avoidedAttempts="
+                        + mAvoidedAttemptCount
+                        + ", levels="
+                        + mLevels);
+    }
+}
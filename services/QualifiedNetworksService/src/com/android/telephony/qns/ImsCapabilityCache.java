@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Cache of the IMS provisioning and capability values of a slot, each of which otherwise costs an
+ * IPC to the IMS service, the provisioning manager or the carrier config manager.
+ *
+ * <p>The values are loaded when the IMS state and registration callbacks report a change, and
+ * kept until invalidated by the owner of the change: provisioning, carrier config, subscription or
+ * user setting. A value loaded while it was invalidated is not kept, as in {@link
+ * WfcSettingsCache}.
+ */
+class ImsCapabilityCache {
+    static final int CAPABILITY_VOLTE_PROVISIONING_REQUIRED = 0;
+    static final int CAPABILITY_WFC_PROVISIONING_REQUIRED = 1;
+    static final int CAPABILITY_VOLTE_PROVISIONED = 2;
+    static final int CAPABILITY_WFC_PROVISIONED = 3;
+    static final int CAPABILITY_GBA_VALID = 4;
+    static final int CAPABILITY_CROSS_SIM_ENABLED_BY_USER = 5;
+
+    private static final int CAPABILITY_COUNT = 6;
+    private static final String[] CAPABILITY_NAMES = {
+        "volteProvisioningRequired",
+        "wfcProvisioningRequired",
+        "volteProvisioned",
+        "wfcProvisioned",
+        "gbaValid",
+        "crossSimEnabledByUser"
+    };
+
+    /** The capabilities changed by a provisioning change. */
+    static final int MASK_PROVISIONING =
+            1 << CAPABILITY_VOLTE_PROVISIONING_REQUIRED
+                    | 1 << CAPABILITY_WFC_PROVISIONING_REQUIRED
+                    | 1 << CAPABILITY_VOLTE_PROVISIONED
+                    | 1 << CAPABILITY_WFC_PROVISIONED;
+    static final int MASK_CROSS_SIM_ENABLED_BY_USER = 1 << CAPABILITY_CROSS_SIM_ENABLED_BY_USER;
+    static final int MASK_ALL = (1 << CAPABILITY_COUNT) - 1;
+
+    private final boolean[] mValues = new boolean[CAPABILITY_COUNT];
+    private final long[] mGenerations = new long[CAPABILITY_COUNT];
+    /** Generation at which the value was loaded, -1 if never loaded. */
+    private final long[] mLoadedGenerations = new long[CAPABILITY_COUNT];
+    private final long[] mHitCounts = new long[CAPABILITY_COUNT];
+    private final long[] mIpcCounts = new long[CAPABILITY_COUNT];
+
+    ImsCapabilityCache() {
+        Arrays.fill(mLoadedGenerations, -1);
+    }
+
+    /**
+     * Returns the value of a capability, querying it only if invalidated since last loaded.
+     *
+     * @param capability CAPABILITY_* to read.
+     * @param query queries the current value of the capability.
+     * @return the value of the capability.
+     */
+    boolean get(int capability, BooleanSupplier query) {
+        long generation;
+        synchronized (this) {
+            generation = mGenerations[capability];
+            if (mLoadedGenerations[capability] == generation) {
+                mHitCounts[capability]++;
+                return mValues[capability];
+            }
+            mIpcCounts[capability]++;
+        }
+        // queried without the lock, so that a slow IPC does not block the cached reads.
+        boolean value = query.getAsBoolean();
+        synchronized (this) {
+            if (mGenerations[capability] == generation) {
+                mValues[capability] = value;
+                mLoadedGenerations[capability] = generation;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Invalidates capabilities, so that the next read queries them.
+     *
+     * @param mask MASK_* or bits of the CAPABILITY_* changed.
+     */
+    synchronized void invalidate(int mask) {
+        for (int capability = 0; capability < CAPABILITY_COUNT; capability++) {
+            if ((mask & (1 << capability)) != 0) {
+                mGenerations[capability]++;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    synchronized long getHitCount(int capability) {
+        return mHitCounts[capability];
+    }
+
+    @VisibleForTesting
+    synchronized long getIpcCount(int capability) {
+        return mIpcCounts[capability];
+    }
+
+    /**
+     * Dumps the state of {@link ImsCapabilityCache}
+     *
+     * @param pw {@link PrintWriter} to write the state of the object.
+     * @param prefix String to append at start of dumped log.
+     */
+    synchronized void dump(PrintWriter pw, String prefix) {
+        long hits = 0;
+        long ipcs = 0;
+        for (int capability = 0; capability < CAPABILITY_COUNT; capability++) {
+            hits += mHitCounts[capability];
+            ipcs += mIpcCounts[capability];
+        }
+        pw.println(prefix + "ImsCapabilityCache: hits=" + hits + ", ipcs=" + ipcs);
+        for (int capability = 0; capability < CAPABILITY_COUNT; capability++) {
+            boolean loaded = mLoadedGenerations[capability] == mGenerations[capability];
+            pw.println(
+                    prefix
+                            + "  "
+                            + CAPABILITY_NAMES[capability]
+                            + "["
+                            + (loaded ? mValues[capability] : "invalid")
+                            + ", hits="
+                            + mHitCounts[capability]
+                            + ", ipcs="
+                            + mIpcCounts[capability]
+                            + "]");
+        }
+    }
+}
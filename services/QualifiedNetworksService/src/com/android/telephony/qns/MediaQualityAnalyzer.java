@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import android.telephony.AccessNetworkConstants;
+
+import java.io.PrintWriter;
+
+/**
+ * Streaming analytics of the media quality samples of a call, per transport type.
+ *
+ * <p>For each transport type, the last {@link #WINDOW_SIZE} samples are kept in fixed size ring
+ * buffers of primitives, with running sums for the windowed packet loss rate and inactivity, and
+ * a histogram for the jitter percentiles. Adding a sample is O(1) and doesn't allocate.
+ *
+ * <p>A short term and a long term moving average of each metric are kept to detect a degradation
+ * trend: the metric is degrading when its short term average rises above the long term one and
+ * reaches {@link #TREND_THRESHOLD_PERCENT} of the threshold, before the threshold is breached.
+ *
+ * <p>This class is not thread safe, it is used on the handler of the call tracker.
+ */
+class MediaQualityAnalyzer {
+    /** Count of the latest samples kept per transport type. */
+    static final int WINDOW_SIZE = 32;
+    /** Resolution of the jitter percentiles. */
+    static final int JITTER_BUCKET_WIDTH_MILLIS = 10;
+    /** Count of the jitter buckets, the last one holding all the larger jitters. */
+    static final int JITTER_BUCKET_COUNT = 64;
+    /** Percentage of a threshold the short term average reaches for a degradation trend. */
+    static final int TREND_THRESHOLD_PERCENT = 70;
+    /** Count of samples needed before a trend is reported. */
+    static final int MIN_SAMPLES_FOR_TREND = 4;
+
+    /** Fixed point scale of the moving averages. */
+    private static final int EWMA_SCALE = 256;
+    /** Weight in percent of a new sample in the short term average. */
+    private static final int SHORT_EWMA_WEIGHT = 50;
+    /** Weight in percent of a new sample in the long term average. */
+    private static final int LONG_EWMA_WEIGHT = 10;
+
+    private static final int METRIC_LOSS = 0;
+    private static final int METRIC_JITTER = 1;
+    private static final int METRIC_INACTIVITY = 2;
+    private static final int METRIC_COUNT = 3;
+
+    /** Samples of a transport type. */
+    private static class Window {
+        final int[] mLossRates = new int[WINDOW_SIZE];
+        final int[] mJitters = new int[WINDOW_SIZE];
+        final int[] mInactivities = new int[WINDOW_SIZE];
+        final int[] mJitterHistogram = new int[JITTER_BUCKET_COUNT];
+        final long[] mShortEwma = new long[METRIC_COUNT];
+        final long[] mLongEwma = new long[METRIC_COUNT];
+        int mNextIndex;
+        int mCount;
+        long mLossRateSum;
+        long mInactivitySum;
+        long mTotalSampleCount;
+        int mDegradingReason;
+
+        void reset() {
+            mNextIndex = 0;
+            mCount = 0;
+            mLossRateSum = 0;
+            mInactivitySum = 0;
+            mTotalSampleCount = 0;
+            mDegradingReason = 0;
+            for (int i = 0; i < JITTER_BUCKET_COUNT; i++) {
+                mJitterHistogram[i] = 0;
+            }
+        }
+
+        void add(int lossRate, int jitter, int inactivity) {
+            if (mCount == WINDOW_SIZE) {
+                // the oldest sample leaves the window.
+                mLossRateSum -= mLossRates[mNextIndex];
+                mInactivitySum -= mInactivities[mNextIndex];
+                mJitterHistogram[bucketOf(mJitters[mNextIndex])]--;
+            } else {
+                mCount++;
+            }
+            mLossRates[mNextIndex] = lossRate;
+            mJitters[mNextIndex] = jitter;
+            mInactivities[mNextIndex] = inactivity;
+            mLossRateSum += lossRate;
+            mInactivitySum += inactivity;
+            mJitterHistogram[bucketOf(jitter)]++;
+            mNextIndex = (mNextIndex + 1) % WINDOW_SIZE;
+
+            updateEwma(METRIC_LOSS, lossRate);
+            updateEwma(METRIC_JITTER, jitter);
+            updateEwma(METRIC_INACTIVITY, inactivity);
+            mTotalSampleCount++;
+        }
+
+        private void updateEwma(int metric, int sample) {
+            long scaled = (long) sample * EWMA_SCALE;
+            if (mTotalSampleCount == 0) {
+                mShortEwma[metric] = scaled;
+                mLongEwma[metric] = scaled;
+            } else {
+                mShortEwma[metric] += (scaled - mShortEwma[metric]) * SHORT_EWMA_WEIGHT / 100;
+                mLongEwma[metric] += (scaled - mLongEwma[metric]) * LONG_EWMA_WEIGHT / 100;
+            }
+        }
+
+        /** Whether the metric is rising toward the threshold without having breached it. */
+        boolean isDegrading(int metric, int latest, int threshold) {
+            if (threshold <= 0 || mTotalSampleCount < MIN_SAMPLES_FOR_TREND) {
+                return false;
+            }
+            if (latest >= threshold) {
+                // breached, the low quality handler takes care of it.
+                return false;
+            }
+            long shortEwma = mShortEwma[metric];
+            return shortEwma > mLongEwma[metric]
+                    && shortEwma * 100 >= (long) threshold * EWMA_SCALE * TREND_THRESHOLD_PERCENT;
+        }
+
+        int getLatestIndex() {
+            return (mNextIndex - 1 + WINDOW_SIZE) % WINDOW_SIZE;
+        }
+    }
+
+    private final Window[] mWindows = {new Window(), new Window()};
+    private int mTrendDetectedCount;
+
+    private static int bucketOf(int jitterMillis) {
+        return Math.min(jitterMillis / JITTER_BUCKET_WIDTH_MILLIS, JITTER_BUCKET_COUNT - 1);
+    }
+
+    private Window getWindow(int transportType) {
+        switch (transportType) {
+            case AccessNetworkConstants.TRANSPORT_TYPE_WWAN:
+                return mWindows[0];
+            case AccessNetworkConstants.TRANSPORT_TYPE_WLAN:
+                return mWindows[1];
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Adds a media quality sample.
+     *
+     * @param transportType transport type of the sample
+     * @param lossRate RTP packet loss rate in percent
+     * @param jitterMillis RTP jitter in milliseconds
+     * @param inactivityMillis RTP inactivity in milliseconds
+     * @param rtpConfig thresholds of the RTP metrics
+     * @return the degradation trend as a bit mask of {@link QnsConstants.RtpLowQualityReason}
+     *     shifted as for a breached threshold, 0 if no metric is degrading.
+     */
+    int addSample(int transportType, int lossRate, int jitterMillis, int inactivityMillis,
+            QnsCarrierConfigManager.RtpMetricsConfig rtpConfig) {
+        Window window = getWindow(transportType);
+        if (window == null || rtpConfig == null) {
+            return 0;
+        }
+        lossRate = Math.max(0, lossRate);
+        jitterMillis = Math.max(0, jitterMillis);
+        inactivityMillis = Math.max(0, inactivityMillis);
+        window.add(lossRate, jitterMillis, inactivityMillis);
+
+        int reason = 0;
+        if (window.isDegrading(METRIC_LOSS, lossRate, rtpConfig.mPktLossRate)) {
+            reason |= 1 << QnsConstants.RTP_LOW_QUALITY_REASON_PACKET_LOSS;
+        }
+        if (window.isDegrading(METRIC_JITTER, jitterMillis, rtpConfig.mJitter)) {
+            reason |= 1 << QnsConstants.RTP_LOW_QUALITY_REASON_JITTER;
+        }
+        if (window.isDegrading(METRIC_INACTIVITY, inactivityMillis, rtpConfig.mNoRtpInterval)) {
+            reason |= 1 << QnsConstants.RTP_LOW_QUALITY_REASON_NO_RTP;
+        }
+        if (reason != 0 && (reason & ~window.mDegradingReason) != 0) {
+            mTrendDetectedCount++;
+        }
+        window.mDegradingReason = reason;
+        return reason;
+    }
+
+    /** Forgets the samples of all transport types, when the call ends. */
+    void reset() {
+        for (Window window : mWindows) {
+            window.reset();
+        }
+    }
+
+    /** Returns the count of samples in the window of the transport type. */
+    int getSampleCount(int transportType) {
+        Window window = getWindow(transportType);
+        return window != null ? window.mCount : 0;
+    }
+
+    /** Returns the average packet loss rate in percent over the window, or 0 without samples. */
+    int getLossRate(int transportType) {
+        Window window = getWindow(transportType);
+        if (window == null || window.mCount == 0) {
+            return 0;
+        }
+        return (int) (window.mLossRateSum / window.mCount);
+    }
+
+    /** Returns the average inactivity in milliseconds over the window, or 0 without samples. */
+    int getAverageInactivityMillis(int transportType) {
+        Window window = getWindow(transportType);
+        if (window == null || window.mCount == 0) {
+            return 0;
+        }
+        return (int) (window.mInactivitySum / window.mCount);
+    }
+
+    /** Returns the latest inactivity in milliseconds, or 0 without samples. */
+    int getLatestInactivityMillis(int transportType) {
+        Window window = getWindow(transportType);
+        if (window == null || window.mCount == 0) {
+            return 0;
+        }
+        return window.mInactivities[window.getLatestIndex()];
+    }
+
+    /**
+     * Returns a percentile of the jitter over the window, as the upper bound of its histogram
+     * bucket, so with a resolution of {@link #JITTER_BUCKET_WIDTH_MILLIS}.
+     *
+     * @param transportType transport type
+     * @param percentile percentile, 1 ~ 100
+     * @return the jitter in milliseconds, or 0 without samples.
+     */
+    int getJitterPercentileMillis(int transportType, int percentile) {
+        Window window = getWindow(transportType);
+        if (window == null || window.mCount == 0) {
+            return 0;
+        }
+        // nearest rank.
+        int rank = Math.max(1, (window.mCount * percentile + 99) / 100);
+        int cumulative = 0;
+        for (int bucket = 0; bucket < JITTER_BUCKET_COUNT; bucket++) {
+            cumulative += window.mJitterHistogram[bucket];
+            if (cumulative >= rank) {
+                return (bucket + 1) * JITTER_BUCKET_WIDTH_MILLIS;
+            }
+        }
+        return JITTER_BUCKET_COUNT * JITTER_BUCKET_WIDTH_MILLIS;
+    }
+
+    /** Returns the degradation trend of the latest sample of the transport type. */
+    int getDegradingReason(int transportType) {
+        Window window = getWindow(transportType);
+        return window != null ? window.mDegradingReason : 0;
+    }
+
+    /** Returns the count of times a metric started degrading. */
+    int getTrendDetectedCount() {
+        return mTrendDetectedCount;
+    }
+
+    /**
+     * Dumps the state of {@link MediaQualityAnalyzer}
+     *
+     * @param pw {@link PrintWriter} to write the state of the object.
+     * @param prefix String to append at start of dumped log.
+     */
+    void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "MediaQualityAnalyzer: trends detected=" + mTrendDetectedCount);
+        int[] transportTypes = {
+            AccessNetworkConstants.TRANSPORT_TYPE_WWAN, AccessNetworkConstants.TRANSPORT_TYPE_WLAN
+        };
+        for (int transportType : transportTypes) {
+            pw.println(
+                    prefix
+                            + "  "
+                            + QnsConstants.transportTypeToString(transportType)
+                            + ": samples="
+                            + getSampleCount(transportType)
+                            + ", lossRate="
+                            + getLossRate(transportType)
+                            + ", jitterP50="
+                            + getJitterPercentileMillis(transportType, 50)
+                            + ", jitterP90="
+                            + getJitterPercentileMillis(transportType, 90)
+                            + ", inactivity="
+                            + getAverageInactivityMillis(transportType)
+                            + ", degrading="
+                            + getDegradingReason(transportType));
+        }
+    }
+}
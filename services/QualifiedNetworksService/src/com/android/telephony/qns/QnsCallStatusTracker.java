@@ -38,6 +38,7 @@ import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
@@ -63,36 +64,6 @@ public class QnsCallStatusTracker {
     private Consumer<MediaQualityStatus> mMediaQualityStatusConsumer =
             status -> mActiveCallTracker.onMediaQualityStatusChanged(status);
 
-    static class CallQualityBlock {
-        int mUpLinkLevel;
-        int mDownLinkLevel;
-        long mCreatedElapsedTime;
-        long mDurationMillis;
-        CallQualityBlock(int uplinkLevel, int downLinkLevel, long createdElapsedTime) {
-            mUpLinkLevel = uplinkLevel;
-            mDownLinkLevel = downLinkLevel;
-            mCreatedElapsedTime = createdElapsedTime;
-        }
-
-        long getUpLinkQualityVolume() {
-            if (mDurationMillis > 0) {
-                return mUpLinkLevel * mDurationMillis;
-            } else {
-                long now = QnsUtils.getSystemElapsedRealTime();
-                return (now - mCreatedElapsedTime) * mUpLinkLevel;
-            }
-        }
-
-        long getDownLinkQualityVolume() {
-            if (mDurationMillis > 0) {
-                return mDownLinkLevel * mDurationMillis;
-            } else {
-                long now = QnsUtils.getSystemElapsedRealTime();
-                return (now - mCreatedElapsedTime) * mDownLinkLevel;
-            }
-        }
-    }
-
     class ActiveCallTracker {
         private static final int EVENT_DATA_CONNECTION_STATUS_CHANGED = 3300;
 
@@ -105,8 +76,8 @@ public class QnsCallStatusTracker {
         private int mTransportType = AccessNetworkConstants.TRANSPORT_TYPE_INVALID;
         private SparseArray<CallQuality> mCallQualities = new SparseArray();
         private TransportQuality mCurrentQuality;
-        /** A list of TransportQuality for each Transport type */
-        private SparseArray<List<TransportQuality>> mTransportQualityArray = new SparseArray<>();
+        /** TransportQuality for each Transport type, reused across the handovers of the call */
+        private SparseArray<TransportQuality> mTransportQualityArray = new SparseArray<>();
         private boolean mWwanAvailable = false;
         private boolean mWlanAvailable = false;
 
@@ -114,6 +85,7 @@ public class QnsCallStatusTracker {
         private HandlerThread mHandlerThread;
         private ActiveCallTrackerHandler mActiveCallHandler;
         private MediaLowQualityHandler mLowQualityHandler;
+        private final MediaQualityAnalyzer mMediaQualityAnalyzer = new MediaQualityAnalyzer();
         private String mLogTag;
 
         private class ActiveCallTrackerHandler extends Handler {
@@ -141,12 +113,18 @@ public class QnsCallStatusTracker {
             }
         }
 
-        /** Tracking low quality status */
+        /**
+         * Tracking low quality status.
+         *
+         * <p>The packet loss, hysteresis and polling check timers are kept as deadlines, and a
+         * single {@link QnsTimer} timer wakes the handler up for the earliest of them. The timer is
+         * only re-armed when the earliest deadline moves earlier, a deadline moved later or
+         * cancelled leaves the timer as is, and the handler re-arms for the next deadline when it
+         * wakes up, so that media quality samples don't churn the timers of {@link QnsTimer}.
+         */
         private class MediaLowQualityHandler extends Handler {
             private static final int EVENT_MEDIA_QUALITY_CHANGED = 3401;
-            private static final int EVENT_PACKET_LOSS_TIMER_EXPIRED = 3402;
-            private static final int EVENT_HYSTERESIS_FOR_NORMAL_QUALITY = 3403;
-            private static final int EVENT_POLLING_CHECK_LOW_QUALITY = 3404;
+            private static final int EVENT_DEADLINE_EXPIRED = 3402;
 
             private static final int STATE_NORMAL_QUALITY = 0;
             private static final int STATE_SUSPECT_LOW_QUALITY = 1;
@@ -156,11 +134,24 @@ public class QnsCallStatusTracker {
             private static final int LOW_QUALITY_CHECK_INTERVAL_MILLIS = 15000;
             private static final int LOW_QUALITY_CHECK_AFTER_HO_MILLIS = 3000;
             private static final int LOW_QUALITY_REPORTED_TIME_INITIAL_VALUE = -1;
+            private static final long NO_DEADLINE = Long.MAX_VALUE;
+            private static final long NOT_DEGRADING = -1;
+            /** Percentage of the packet loss time a degradation trend can shorten it by at most. */
+            private static final int PACKET_LOSS_TREND_CREDIT_PERCENT = 50;
 
             private int mState = STATE_NORMAL_QUALITY;
-            private int mPacketLossTimerId = INVALID_ID;
-            private int mHysteresisTimerId = INVALID_ID;
-            private int mPollingCheckTimerId = INVALID_ID;
+            private long mPacketLossDeadline = NO_DEADLINE;
+            private int mPacketLossTransportType = AccessNetworkConstants.TRANSPORT_TYPE_INVALID;
+            private long mHysteresisDeadline = NO_DEADLINE;
+            private long mPollingCheckDeadline = NO_DEADLINE;
+            /** Time the packet loss started degrading toward its threshold. */
+            private long mPacketLossDegradingSince = NOT_DEGRADING;
+            private int mWakeupTimerId = INVALID_ID;
+            private long mWakeupTime = NO_DEADLINE;
+            /** Count of timer operations a timer per deadline would have made. */
+            private int mRequestedTimerOpCount;
+            /** Count of timer operations made on {@link QnsTimer}. */
+            private int mTimerOpCount;
             private MediaQualityStatus mMediaQualityStatus;
             private String mTag;
 
@@ -178,16 +169,8 @@ public class QnsCallStatusTracker {
                         onMediaQualityChanged(status);
                         break;
 
-                    case EVENT_PACKET_LOSS_TIMER_EXPIRED:
-                        onPacketLossTimerExpired(message.arg1);
-                        break;
-
-                    case EVENT_HYSTERESIS_FOR_NORMAL_QUALITY:
-                        exitLowQualityState();
-                        break;
-
-                    case EVENT_POLLING_CHECK_LOW_QUALITY:
-                        checkLowQuality();
+                    case EVENT_DEADLINE_EXPIRED:
+                        onDeadlineExpired();
                         break;
 
                     default:
@@ -198,7 +181,14 @@ public class QnsCallStatusTracker {
 
             private void onMediaQualityChanged(MediaQualityStatus status) {
                 Log.d(mTag, "onMediaQualityChanged " + status);
+                int degradingReason = mMediaQualityAnalyzer.addSample(status.getTransportType(),
+                        status.getRtpPacketLossRate(), status.getRtpJitterMillis(),
+                        status.getRtpInactivityMillis(), mConfigManager.getRTPMetricsData());
+                if (degradingReason != 0) {
+                    Log.d(mTag, "media quality degrading, reason:" + degradingReason);
+                }
                 int reason = thresholdBreached(status);
+                updatePacketLossTrend(degradingReason, reason);
                 boolean needNotify = false;
                 if (reason == 0) {
                     // Threshold not breached.
@@ -208,15 +198,18 @@ public class QnsCallStatusTracker {
                         mMediaQualityStatus = status;
                         return;
                     } else {
-                        // check normal quality is stable or not.
-                        mHysteresisTimerId = mQnsTimer.registerTimer(
-                                Message.obtain(this, EVENT_HYSTERESIS_FOR_NORMAL_QUALITY),
-                                HYSTERESIS_TIME_NORMAL_QUALITY_MILLIS);
+                        // check normal quality is stable or not. the running hysteresis time is
+                        // kept, as it expires first.
+                        mRequestedTimerOpCount++;
+                        if (mHysteresisDeadline == NO_DEADLINE) {
+                            mHysteresisDeadline = getDeadline(
+                                    HYSTERESIS_TIME_NORMAL_QUALITY_MILLIS);
+                            rescheduleWakeup();
+                        }
                     }
                 } else {
                     // Threshold breached.
-                    mQnsTimer.unregisterTimer(mHysteresisTimerId);
-                    mHysteresisTimerId = INVALID_ID;
+                    mHysteresisDeadline = cancelDeadline(mHysteresisDeadline);
                     switch (mState) {
                         case STATE_NORMAL_QUALITY:
                         case STATE_SUSPECT_LOW_QUALITY:
@@ -224,14 +217,14 @@ public class QnsCallStatusTracker {
                                 int delayMillis = (mConfigManager.getRTPMetricsData()).mPktLossTime;
                                 if (delayMillis > 0) {
                                     if (mState == STATE_NORMAL_QUALITY) {
-                                        enterSuspectLowQualityState(delayMillis);
+                                        enterSuspectLowQualityState(delayMillis
+                                                - getPacketLossTrendCreditMillis(delayMillis));
                                     }
                                 } else if (delayMillis == 0) {
                                     needNotify = true;
                                 }
                             } else {
-                                mQnsTimer.unregisterTimer(mPacketLossTimerId);
-                                mPacketLossTimerId = INVALID_ID;
+                                mPacketLossDeadline = cancelDeadline(mPacketLossDeadline);
                                 enterLowQualityState(status);
                                 needNotify = true;
                             }
@@ -254,34 +247,61 @@ public class QnsCallStatusTracker {
 
             }
 
+            /** Keeps the time the packet loss started degrading, until it recovers. */
+            private void updatePacketLossTrend(int degradingReason, int breachedReason) {
+                int packetLoss = 1 << QnsConstants.RTP_LOW_QUALITY_REASON_PACKET_LOSS;
+                if ((degradingReason & packetLoss) != 0) {
+                    if (mPacketLossDegradingSince == NOT_DEGRADING) {
+                        mPacketLossDegradingSince = QnsUtils.getSystemElapsedRealTime();
+                    }
+                } else if ((breachedReason & packetLoss) == 0) {
+                    mPacketLossDegradingSince = NOT_DEGRADING;
+                }
+            }
+
+            /**
+             * Returns the part of the packet loss time already spent degrading toward the
+             * threshold, so that the low quality is reported earlier when the trend predicted the
+             * breach. At most {@link #PACKET_LOSS_TREND_CREDIT_PERCENT} of the time is credited.
+             */
+            private int getPacketLossTrendCreditMillis(int delayMillis) {
+                if (mPacketLossDegradingSince == NOT_DEGRADING) {
+                    return 0;
+                }
+                long degradingMillis =
+                        QnsUtils.getSystemElapsedRealTime() - mPacketLossDegradingSince;
+                int creditMillis = (int) Math.min(degradingMillis,
+                        (long) delayMillis * PACKET_LOSS_TREND_CREDIT_PERCENT / 100);
+                Log.d(mTag, "packet loss degrading for " + degradingMillis + "ms, credit:"
+                        + creditMillis);
+                return creditMillis;
+            }
+
             @VisibleForTesting
             void enterLowQualityState(MediaQualityStatus status) {
                 Log.d(mTag, "enterLowQualityState " + status);
                 mState = STATE_LOW_QUALITY;
-                mPollingCheckTimerId = mQnsTimer.registerTimer(
-                        Message.obtain(this, EVENT_POLLING_CHECK_LOW_QUALITY),
-                        LOW_QUALITY_CHECK_INTERVAL_MILLIS);
+                mPollingCheckDeadline = restartDeadline(
+                        mPollingCheckDeadline, LOW_QUALITY_CHECK_INTERVAL_MILLIS);
+                rescheduleWakeup();
             }
 
             void enterSuspectLowQualityState(int delayMillis) {
                 Log.d(mTag, "enterSuspectLowQualityState.");
-                mQnsTimer.unregisterTimer(mPacketLossTimerId);
                 Log.d(mTag, "Packet loss timer start. " + delayMillis);
-                Message msg = this.obtainMessage(
-                        EVENT_PACKET_LOSS_TIMER_EXPIRED, mTransportType, 0);
-                mPacketLossTimerId = mQnsTimer.registerTimer(msg, delayMillis);
+                mPacketLossDeadline = restartDeadline(mPacketLossDeadline, delayMillis);
+                mPacketLossTransportType = mTransportType;
                 mState = STATE_SUSPECT_LOW_QUALITY;
+                rescheduleWakeup();
             }
 
             void exitLowQualityState() {
                 mState = STATE_NORMAL_QUALITY;
                 this.removeCallbacksAndMessages(null);
-                mQnsTimer.unregisterTimer(mPacketLossTimerId);
-                mQnsTimer.unregisterTimer(mHysteresisTimerId);
-                mQnsTimer.unregisterTimer(mPollingCheckTimerId);
-                mPacketLossTimerId = INVALID_ID;
-                mHysteresisTimerId = INVALID_ID;
-                mPollingCheckTimerId = INVALID_ID;
+                mPacketLossDeadline = cancelDeadline(mPacketLossDeadline);
+                mHysteresisDeadline = cancelDeadline(mHysteresisDeadline);
+                mPollingCheckDeadline = cancelDeadline(mPollingCheckDeadline);
+                cancelWakeup();
                 notifyLowMediaQuality(0);
             }
 
@@ -293,11 +313,11 @@ public class QnsCallStatusTracker {
                     int reason = thresholdBreached(mMediaQualityStatus);
                     if (reason > 0) {
                         notifyLowMediaQuality(thresholdBreached(mMediaQualityStatus));
-                    } else if (mHysteresisTimerId != INVALID_ID) {
+                    } else if (mHysteresisDeadline != NO_DEADLINE) {
                         // hysteresis time to be normal state is running. let's check after that.
-                        mPollingCheckTimerId = mQnsTimer.registerTimer(
-                                Message.obtain(this, EVENT_POLLING_CHECK_LOW_QUALITY),
-                                HYSTERESIS_TIME_NORMAL_QUALITY_MILLIS);
+                        mPollingCheckDeadline = restartDeadline(
+                                mPollingCheckDeadline, HYSTERESIS_TIME_NORMAL_QUALITY_MILLIS);
+                        rescheduleWakeup();
                     } else {
                         Log.w(mTag, "Unexpected case.");
                     }
@@ -305,26 +325,91 @@ public class QnsCallStatusTracker {
             }
 
             void updateForHandover(int transportType) {
+                // the trend was measured on the previous transport type.
+                mPacketLossDegradingSince = NOT_DEGRADING;
                 // restart timers that they need to be restarted on new transport type.
                 if (mState == STATE_SUSPECT_LOW_QUALITY) {
-                    mQnsTimer.unregisterTimer(mPacketLossTimerId);
-                    Message msg = this.obtainMessage(
-                            EVENT_PACKET_LOSS_TIMER_EXPIRED, transportType, 0);
-                    mPacketLossTimerId = mQnsTimer.registerTimer(msg,
+                    mPacketLossDeadline = restartDeadline(mPacketLossDeadline,
                             (mConfigManager.getRTPMetricsData()).mPktLossTime);
+                    mPacketLossTransportType = transportType;
                 }
-                if (mHysteresisTimerId != INVALID_ID) {
-                    mQnsTimer.unregisterTimer(mHysteresisTimerId);
-                    mHysteresisTimerId = mQnsTimer.registerTimer(
-                            Message.obtain(this, EVENT_HYSTERESIS_FOR_NORMAL_QUALITY),
-                            HYSTERESIS_TIME_NORMAL_QUALITY_MILLIS);
+                if (mHysteresisDeadline != NO_DEADLINE) {
+                    mHysteresisDeadline = restartDeadline(
+                            mHysteresisDeadline, HYSTERESIS_TIME_NORMAL_QUALITY_MILLIS);
                 }
                 if (mState == STATE_LOW_QUALITY) {
-                    mQnsTimer.unregisterTimer(mPollingCheckTimerId);
-                    mPollingCheckTimerId = mQnsTimer.registerTimer(
-                            Message.obtain(this, EVENT_POLLING_CHECK_LOW_QUALITY),
-                            LOW_QUALITY_CHECK_AFTER_HO_MILLIS);
+                    mPollingCheckDeadline = restartDeadline(
+                            mPollingCheckDeadline, LOW_QUALITY_CHECK_AFTER_HO_MILLIS);
+                }
+                rescheduleWakeup();
+            }
+
+            private long getDeadline(long delayMillis) {
+                return QnsUtils.getSystemElapsedRealTime() + delayMillis;
+            }
+
+            /** Returns a new deadline, counting the operations a timer would have made. */
+            private long restartDeadline(long deadline, long delayMillis) {
+                // unregister and register.
+                mRequestedTimerOpCount += deadline != NO_DEADLINE ? 2 : 1;
+                return getDeadline(delayMillis);
+            }
+
+            /** Returns no deadline, counting the operation a timer would have made. */
+            private long cancelDeadline(long deadline) {
+                if (deadline != NO_DEADLINE) {
+                    mRequestedTimerOpCount++;
+                }
+                return NO_DEADLINE;
+            }
+
+            /** Arms the wakeup timer if the earliest deadline is before the armed one. */
+            private void rescheduleWakeup() {
+                long earliest = Math.min(mPacketLossDeadline,
+                        Math.min(mHysteresisDeadline, mPollingCheckDeadline));
+                if (earliest == NO_DEADLINE || earliest >= mWakeupTime) {
+                    // the armed timer wakes up in time, and re-arms for the deadline then.
+                    return;
+                }
+                cancelWakeup();
+                mWakeupTime = earliest;
+                long delayMillis = Math.max(0, earliest - QnsUtils.getSystemElapsedRealTime());
+                mWakeupTimerId = mQnsTimer.registerTimer(
+                        Message.obtain(this, EVENT_DEADLINE_EXPIRED), delayMillis);
+                mTimerOpCount++;
+            }
+
+            private void cancelWakeup() {
+                if (mWakeupTimerId != INVALID_ID) {
+                    mQnsTimer.unregisterTimer(mWakeupTimerId);
+                    mTimerOpCount++;
+                    mWakeupTimerId = INVALID_ID;
+                }
+                mWakeupTime = NO_DEADLINE;
+            }
+
+            private void onDeadlineExpired() {
+                mWakeupTimerId = INVALID_ID;
+                mWakeupTime = NO_DEADLINE;
+                long now = QnsUtils.getSystemElapsedRealTime();
+                while (true) {
+                    long earliest = Math.min(mPacketLossDeadline,
+                            Math.min(mHysteresisDeadline, mPollingCheckDeadline));
+                    if (earliest == NO_DEADLINE || earliest > now) {
+                        break;
+                    }
+                    if (earliest == mHysteresisDeadline) {
+                        mHysteresisDeadline = NO_DEADLINE;
+                        exitLowQualityState();
+                    } else if (earliest == mPacketLossDeadline) {
+                        mPacketLossDeadline = NO_DEADLINE;
+                        onPacketLossTimerExpired(mPacketLossTransportType);
+                    } else {
+                        mPollingCheckDeadline = NO_DEADLINE;
+                        checkLowQuality();
+                    }
                 }
+                rescheduleWakeup();
             }
 
             private void onPacketLossTimerExpired(int transportType) {
@@ -342,6 +427,19 @@ public class QnsCallStatusTracker {
                 }
             }
 
+            /** Returns the count of {@link QnsTimer} operations avoided by the deadlines. */
+            int getAvoidedTimerOpCount() {
+                return Math.max(0, mRequestedTimerOpCount - mTimerOpCount);
+            }
+
+            int getTimerOpCount() {
+                return mTimerOpCount;
+            }
+
+            int getState() {
+                return mState;
+            }
+
             private void notifyLowMediaQuality(int reason) {
                 long now = QnsUtils.getSystemElapsedRealTime();
                 TransportQuality tq = getLastTransportQuality(mTransportType);
@@ -358,15 +456,41 @@ public class QnsCallStatusTracker {
             }
         }
 
+        /**
+         * Call quality of a transport type during a call.
+         *
+         * <p>The latest call quality blocks are kept in fixed size ring buffers of primitives, and
+         * the quality volumes (level x duration) of the completed blocks are summed as they
+         * complete, so that the memory and the time to get the quality level during the call do
+         * not grow with the length of the call nor the count of handovers.
+         */
         class TransportQuality {
+            /** Count of the latest call quality blocks kept for inspection. */
+            static final int MAX_CALL_QUALITY_BLOCKS = 16;
+
             int mTransportType = AccessNetworkConstants.TRANSPORT_TYPE_INVALID;
             long mLowRtpQualityReportedTime =
                     MediaLowQualityHandler.LOW_QUALITY_REPORTED_TIME_INITIAL_VALUE;
-            List<CallQualityBlock> mCallQualityBlockList;
+            private final int[] mUpLinkLevels = new int[MAX_CALL_QUALITY_BLOCKS];
+            private final int[] mDownLinkLevels = new int[MAX_CALL_QUALITY_BLOCKS];
+            private final long[] mCreatedElapsedTimes = new long[MAX_CALL_QUALITY_BLOCKS];
+            /** Duration of each block, 0 while the block is the open (latest) one. */
+            private final long[] mDurationsMillis = new long[MAX_CALL_QUALITY_BLOCKS];
+            /** Index to write the next block. */
+            private int mNextIndex;
+            /** Count of blocks in the ring buffers. */
+            private int mRetainedBlockCount;
+            /** Count of blocks added since the call moved to this transport type. */
+            private int mBlockCount;
+            /** Count of times the call moved to this transport type. */
+            private int mSegmentCount;
+            private boolean mLastBlockOpen;
+            private long mUpLinkQualityVolume;
+            private long mDownLinkQualityVolume;
+            private long mCompletedDurationMillis;
 
             TransportQuality(int transportType) {
                 mTransportType = transportType;
-                mCallQualityBlockList = new ArrayList<>();
             }
 
             boolean isLowRtpQualityReported() {
@@ -374,13 +498,139 @@ public class QnsCallStatusTracker {
                         != MediaLowQualityHandler.LOW_QUALITY_REPORTED_TIME_INITIAL_VALUE;
             }
 
-            CallQualityBlock getLastCallQualityBlock() {
-                int length = mCallQualityBlockList.size();
-                if (length > 0) {
-                    return mCallQualityBlockList.get(length - 1);
-                } else {
-                    return null;
+            /** Clears the call quality of the previous call. */
+            void reset() {
+                mNextIndex = 0;
+                mRetainedBlockCount = 0;
+                mBlockCount = 0;
+                mSegmentCount = 0;
+                mLastBlockOpen = false;
+                mUpLinkQualityVolume = 0;
+                mDownLinkQualityVolume = 0;
+                mCompletedDurationMillis = 0;
+                mLowRtpQualityReportedTime =
+                        MediaLowQualityHandler.LOW_QUALITY_REPORTED_TIME_INITIAL_VALUE;
+            }
+
+            /** Starts tracking the call quality after the call moved to this transport type. */
+            void startSegment() {
+                mSegmentCount++;
+                mBlockCount = 0;
+                mLowRtpQualityReportedTime =
+                        MediaLowQualityHandler.LOW_QUALITY_REPORTED_TIME_INITIAL_VALUE;
+            }
+
+            /** Whether the call has been on this transport type since the call started. */
+            boolean isUsedDuringCall() {
+                return mSegmentCount > 0;
+            }
+
+            int getSegmentCount() {
+                return mSegmentCount;
+            }
+
+            /** Returns the count of blocks added since the call moved to this transport type. */
+            int getCallQualityBlockCount() {
+                return mBlockCount;
+            }
+
+            boolean hasCallQualityBlock() {
+                return mBlockCount > 0;
+            }
+
+            /**
+             * Completes the latest block and adds a new open block.
+             *
+             * @param upLinkLevel uplink call quality level
+             * @param downLinkLevel downlink call quality level
+             * @param now elapsed realtime the block starts
+             */
+            void addCallQualityBlock(int upLinkLevel, int downLinkLevel, long now) {
+                completeLastCallQualityBlock(now);
+                mUpLinkLevels[mNextIndex] = upLinkLevel;
+                mDownLinkLevels[mNextIndex] = downLinkLevel;
+                mCreatedElapsedTimes[mNextIndex] = now;
+                mDurationsMillis[mNextIndex] = 0;
+                mNextIndex = (mNextIndex + 1) % MAX_CALL_QUALITY_BLOCKS;
+                if (mRetainedBlockCount < MAX_CALL_QUALITY_BLOCKS) {
+                    mRetainedBlockCount++;
+                }
+                mBlockCount++;
+                mLastBlockOpen = true;
+            }
+
+            /**
+             * Completes the latest block, adding its quality volumes to the sums.
+             *
+             * @param now elapsed realtime the block ends
+             */
+            void completeLastCallQualityBlock(long now) {
+                if (!mLastBlockOpen) {
+                    return;
+                }
+                int index = indexOf(0);
+                long durationMillis = now - mCreatedElapsedTimes[index];
+                mDurationsMillis[index] = durationMillis;
+                mUpLinkQualityVolume += mUpLinkLevels[index] * durationMillis;
+                mDownLinkQualityVolume += mDownLinkLevels[index] * durationMillis;
+                mCompletedDurationMillis += durationMillis;
+                mLastBlockOpen = false;
+            }
+
+            /** Returns the uplink level of a block, 0 being the latest block. */
+            int getUpLinkLevel(int age) {
+                return mUpLinkLevels[indexOf(age)];
+            }
+
+            /** Returns the downlink level of a block, 0 being the latest block. */
+            int getDownLinkLevel(int age) {
+                return mDownLinkLevels[indexOf(age)];
+            }
+
+            /** Returns the elapsed realtime a block started, 0 being the latest block. */
+            long getCreatedElapsedTime(int age) {
+                return mCreatedElapsedTimes[indexOf(age)];
+            }
+
+            /** Returns the duration of a completed block or 0, 0 being the latest block. */
+            long getDurationMillis(int age) {
+                return mDurationsMillis[indexOf(age)];
+            }
+
+            /** Returns the sum of uplink level x duration during the call. */
+            long getUpLinkQualityVolume(long now) {
+                if (!mLastBlockOpen) {
+                    return mUpLinkQualityVolume;
+                }
+                int index = indexOf(0);
+                return mUpLinkQualityVolume
+                        + mUpLinkLevels[index] * (now - mCreatedElapsedTimes[index]);
+            }
+
+            /** Returns the sum of downlink level x duration during the call. */
+            long getDownLinkQualityVolume(long now) {
+                if (!mLastBlockOpen) {
+                    return mDownLinkQualityVolume;
+                }
+                int index = indexOf(0);
+                return mDownLinkQualityVolume
+                        + mDownLinkLevels[index] * (now - mCreatedElapsedTimes[index]);
+            }
+
+            /** Returns the duration the call quality is known on this transport type. */
+            long getTotalDurationMillis(long now) {
+                if (!mLastBlockOpen) {
+                    return mCompletedDurationMillis;
+                }
+                return mCompletedDurationMillis + now - mCreatedElapsedTimes[indexOf(0)];
+            }
+
+            private int indexOf(int age) {
+                if (age < 0 || age >= mRetainedBlockCount) {
+                    throw new IndexOutOfBoundsException("age " + age + " of "
+                            + mRetainedBlockCount + " blocks");
                 }
+                return (mNextIndex - 1 - age + MAX_CALL_QUALITY_BLOCKS) % MAX_CALL_QUALITY_BLOCKS;
             }
         }
 
@@ -396,10 +646,10 @@ public class QnsCallStatusTracker {
                 mLowQualityHandler = new MediaLowQualityHandler(looper);
             }
             mTelephonyListener.addMediaQualityStatusCallback(mMediaQualityStatusConsumer);
-            mTransportQualityArray.put(
-                    AccessNetworkConstants.TRANSPORT_TYPE_WLAN, new ArrayList<>());
-            mTransportQualityArray.put(
-                    AccessNetworkConstants.TRANSPORT_TYPE_WWAN, new ArrayList<>());
+            mTransportQualityArray.put(AccessNetworkConstants.TRANSPORT_TYPE_WLAN,
+                    new TransportQuality(AccessNetworkConstants.TRANSPORT_TYPE_WLAN));
+            mTransportQualityArray.put(AccessNetworkConstants.TRANSPORT_TYPE_WWAN,
+                    new TransportQuality(AccessNetworkConstants.TRANSPORT_TYPE_WWAN));
         }
 
         void close() {
@@ -444,29 +694,23 @@ public class QnsCallStatusTracker {
                 @AccessNetworkConstants.TransportType int dstTransportType) {
             long now = QnsUtils.getSystemElapsedRealTime();
             // complete to update TransportQuality for prev transport type
-            CallQualityBlock last = null;
             int prevTransportType = QnsUtils.getOtherTransportType(dstTransportType);
             TransportQuality prev = getLastTransportQuality(prevTransportType);
-            if (prev != null) {
-                last = prev.getLastCallQualityBlock();
-            }
-            // add a new TransportQuality for new transport type
-            mTransportQualityArray.get(dstTransportType)
-                    .add(new TransportQuality(dstTransportType));
-            TransportQuality current = getLastTransportQuality(dstTransportType);
-            if (last != null) {
-                last.mDurationMillis = now - last.mCreatedElapsedTime;
-                current.mCallQualityBlockList
-                        .add(new CallQualityBlock(last.mUpLinkLevel, last.mDownLinkLevel, now));
+            // start a new segment of TransportQuality for new transport type
+            TransportQuality current = mTransportQualityArray.get(dstTransportType);
+            current.startSegment();
+            if (prev != null && prev.hasCallQualityBlock()) {
+                prev.completeLastCallQualityBlock(now);
+                current.addCallQualityBlock(prev.getUpLinkLevel(0), prev.getDownLinkLevel(0), now);
             }
             mLowQualityHandler.updateForHandover(dstTransportType);
         }
 
         private void startTrackingTransportQuality(int transportType) {
-            mTransportQualityArray.get(AccessNetworkConstants.TRANSPORT_TYPE_WLAN).clear();
-            mTransportQualityArray.get(AccessNetworkConstants.TRANSPORT_TYPE_WWAN).clear();
-            mTransportQualityArray.get(transportType)
-                    .add(new TransportQuality(transportType));
+            mTransportQualityArray.get(AccessNetworkConstants.TRANSPORT_TYPE_WLAN).reset();
+            mTransportQualityArray.get(AccessNetworkConstants.TRANSPORT_TYPE_WWAN).reset();
+            mTransportQualityArray.get(transportType).startSegment();
+            mMediaQualityAnalyzer.reset();
         }
 
         void callStarted(@QnsConstants.QnsCallType int callType, int netCapability) {
@@ -502,13 +746,9 @@ public class QnsCallStatusTracker {
             mLowQualityHandler.exitLowQualityState();
             long now = QnsUtils.getSystemElapsedRealTime();
             // complete to update TransportQuality for prev transport type
-            CallQualityBlock last = null;
             TransportQuality prev = getLastTransportQuality(mTransportType);
             if (prev != null) {
-                last = prev.getLastCallQualityBlock();
-            }
-            if (last != null) {
-                last.mDurationMillis = now - last.mCreatedElapsedTime;
+                prev.completeLastCallQualityBlock(now);
             }
             long upLinkQualityOverWwan = mActiveCallTracker
                     .getUpLinkQualityLevelDuringCall(AccessNetworkConstants.TRANSPORT_TYPE_WWAN);
@@ -561,6 +801,25 @@ public class QnsCallStatusTracker {
             return this.mTransportType;
         }
 
+        @VisibleForTesting
+        MediaQualityAnalyzer getMediaQualityAnalyzer() {
+            return mMediaQualityAnalyzer;
+        }
+
+        /** Returns the count of {@link QnsTimer} operations avoided by the low quality handler. */
+        int getAvoidedTimerOpCount() {
+            return mLowQualityHandler.getAvoidedTimerOpCount();
+        }
+
+        void dump(PrintWriter pw, String prefix) {
+            pw.println(prefix + "ActiveCallTracker: callType=" + mCallType
+                    + ", transportType=" + QnsConstants.transportTypeToString(mTransportType)
+                    + ", lowQualityState=" + mLowQualityHandler.getState()
+                    + ", timerOps=" + mLowQualityHandler.getTimerOpCount()
+                    + ", avoidedTimerOps=" + getAvoidedTimerOpCount());
+            mMediaQualityAnalyzer.dump(pw, prefix + "  ");
+        }
+
         int getCallType() {
             return this.mCallType;
         }
@@ -575,45 +834,25 @@ public class QnsCallStatusTracker {
                 Log.w(mLogTag, "getLastTransportQuality with invalid transport type.");
                 return null;
             }
-            int size = mTransportQualityArray.get(transportType).size();
-            if (size > 0) {
-                return mTransportQualityArray.get(transportType).get(size - 1);
+            TransportQuality tq = mTransportQualityArray.get(transportType);
+            if (tq != null && tq.isUsedDuringCall()) {
+                return tq;
             } else {
                 return null;
             }
         }
 
-        @VisibleForTesting
-        List<TransportQuality> getTransportQualityList(int transportType) {
-            return mTransportQualityArray.get(transportType);
-        }
-
         long getUpLinkQualityLevelDuringCall(int transportType) {
-            List<TransportQuality> tqList = getTransportQualityList(transportType);
-            long sumUplinkQualityLevelVolume = 0;
-            long totalDuration = 0;
-            for (int i = 0; i < tqList.size(); i++) {
-                List<CallQualityBlock> callQualityBlockList = tqList.get(i).mCallQualityBlockList;
-                for (int j = 0; j < callQualityBlockList.size(); j++) {
-                    CallQualityBlock cq = callQualityBlockList.get(j);
-                    sumUplinkQualityLevelVolume += cq.getUpLinkQualityVolume();
-                    long durationMillis = cq.mDurationMillis;
-                    if (i == tqList.size() - 1 && j == callQualityBlockList.size() - 1) {
-                        if (durationMillis == 0) {
-                            durationMillis = QnsUtils.getSystemElapsedRealTime()
-                                    - cq.mCreatedElapsedTime;
-                        }
-                    }
-                    if (durationMillis > 0) {
-                        totalDuration += durationMillis;
-                    } else {
-                        return -1;
-                    }
-                }
+            TransportQuality tq = mTransportQualityArray.get(transportType);
+            if (tq == null) {
+                return QnsConstants.INVALID_VALUE;
             }
+            long now = QnsUtils.getSystemElapsedRealTime();
+            long totalDuration = tq.getTotalDurationMillis(now);
             if (totalDuration <= 0) {
                 return QnsConstants.INVALID_VALUE;
             }
+            long sumUplinkQualityLevelVolume = tq.getUpLinkQualityVolume(now);
             long qualityLevel = sumUplinkQualityLevelVolume / totalDuration;
             Log.d(mLogTag, "getUplinkQualityLevel for [" + QnsConstants
                     .transportTypeToString(transportType) + "] totalQualityVolume: "
@@ -623,31 +862,16 @@ public class QnsCallStatusTracker {
         }
 
         long getDownLinkQualityLevelDuringCall(int transportType) {
-            List<TransportQuality> tqList = getTransportQualityList(transportType);
-            long sumDownLinkQualityLevelVolume = 0;
-            long totalDuration = 0;
-            for (int i = 0; i < tqList.size(); i++) {
-                List<CallQualityBlock> callQualityBlockList = tqList.get(i).mCallQualityBlockList;
-                for (int j = 0; j < callQualityBlockList.size(); j++) {
-                    CallQualityBlock cq = callQualityBlockList.get(j);
-                    sumDownLinkQualityLevelVolume += cq.getDownLinkQualityVolume();
-                    long durationMillis = cq.mDurationMillis;
-                    if (i == tqList.size() - 1 && j == callQualityBlockList.size() - 1) {
-                        if (durationMillis == 0) {
-                            durationMillis = QnsUtils.getSystemElapsedRealTime()
-                                    - cq.mCreatedElapsedTime;
-                        }
-                    }
-                    if (durationMillis > 0) {
-                        totalDuration += durationMillis;
-                    } else {
-                        return QnsConstants.INVALID_VALUE;
-                    }
-                }
+            TransportQuality tq = mTransportQualityArray.get(transportType);
+            if (tq == null) {
+                return QnsConstants.INVALID_VALUE;
             }
+            long now = QnsUtils.getSystemElapsedRealTime();
+            long totalDuration = tq.getTotalDurationMillis(now);
             if (totalDuration <= 0) {
                 return QnsConstants.INVALID_VALUE;
             }
+            long sumDownLinkQualityLevelVolume = tq.getDownLinkQualityVolume(now);
             long qualityLevel = sumDownLinkQualityLevelVolume / totalDuration;
             Log.d(mLogTag, "getDownLinkQualityLevel for [" + AccessNetworkConstants
                     .transportTypeToString(transportType) + "] totalQualityVolume: "
@@ -672,14 +896,8 @@ public class QnsCallStatusTracker {
             TransportQuality transportQuality = getLastTransportQuality(mTransportType);
             if (transportQuality != null) {
                 long now = QnsUtils.getSystemElapsedRealTime();
-                CallQualityBlock prev = transportQuality.getLastCallQualityBlock();
-                if (prev != null) {
-                    prev.mDurationMillis = now - prev.mCreatedElapsedTime;
-                }
-                transportQuality.mCallQualityBlockList.add(
-                        new CallQualityBlock(
-                                cq.getUplinkCallQualityLevel(), cq.getDownlinkCallQualityLevel(),
-                                now));
+                transportQuality.addCallQualityBlock(
+                        cq.getUplinkCallQualityLevel(), cq.getDownlinkCallQualityLevel(), now);
             }
         }
 
@@ -1007,6 +1225,21 @@ public class QnsCallStatusTracker {
     }
 
 
+    /**
+     * Dumps the state of {@link QnsCallStatusTracker}
+     *
+     * @param pw {@link PrintWriter} to write the state of the object.
+     * @param prefix String to append at start of dumped log.
+     */
+    void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "------------------------------");
+        pw.println(prefix + "QnsCallStatusTracker[" + mLogTag + "]:");
+        pw.println(prefix + "mLastNormalCallType=" + mLastNormalCallType
+                + ", mLastEmergencyCallType=" + mLastEmergencyCallType
+                + ", mEmergencyOverIms=" + mEmergencyOverIms);
+        mActiveCallTracker.dump(pw, prefix + "  ");
+    }
+
     private boolean isDataNetworkConnected(int netCapability) {
         PreciseDataConnectionState preciseDataStatus =
                 mTelephonyListener.getLastPreciseDataConnectionState(netCapability);
@@ -322,6 +322,41 @@ class QnsCarrierConfigManager {
     static final String KEY_QNS_CELLULAR_SS_THRESHOLDBACKHAUL_TIMER_MS_INT =
             "qns.cellular_ss_thresholdbackhaul_timer_int";
 
+    /**
+     * Specifies the minimum interval in milli seconds between two threshold notifications from the
+     * quality monitors to an access network evaluator. A notification arriving within the interval
+     * is held and only the latest one is delivered when the interval elapses, so that a signal
+     * strength fluctuating around a threshold does not trigger an evaluation on every sample.
+     *
+     * <ul>
+     *   <li>0: the interval is not applied.
+     * </ul>
+     *
+     * <p>The default value for this key is {@link
+     * QnsConstants#DEFAULT_THRESHOLD_NOTIFICATION_MIN_INTERVAL}
+     */
+    static final String KEY_QNS_THRESHOLD_NOTIFICATION_MIN_INTERVAL_MS_INT =
+            "qns.threshold_notification_min_interval_ms_int";
+
+    /**
+     * Specifies the filter applied to the Wi-Fi RSSI samples before they are matched against the
+     * registered thresholds, to avoid ping-pong when the RSSI fluctuates around a threshold.
+     *
+     * <p>format:"<filter_type>,<parameter>" with filter_type one of:
+     *
+     * <ul>
+     *   <li>"ewma": exponentially weighted moving average, parameter is the weight of a new sample
+     *       in percent (1 ~ 100).
+     *   <li>"median": median of the last N samples, parameter is N (1 ~ 16).
+     *   <li>"min": minimum of the last N samples, parameter is N (1 ~ 16).
+     * </ul>
+     *
+     * For Ex: "median,5"
+     *
+     * <p>The default value for this key is "" indicating that samples are not filtered.
+     */
+    static final String KEY_QNS_WIFI_RSSI_FILTER_STRING = "qns.wifi_rssi_filter_string";
+
     /**
      * Specifies the Transport type UE supports with QNS services for IMS network capability. {@link
      * QnsConstants}. The values are set as below:
@@ -584,20 +619,44 @@ class QnsCarrierConfigManager {
      * <rtt_check_Interval>,<hyst_fallback_timer>” For Ex:
      * "epdg.epc.mnc001.mcc001.pub.3gppnetwork.org,5,100,32,100,1800000,600000"
      *
+     * <p>Optionally followed by “,<rtt_percentile>,<rtt_percentile_criteria>,<jitter_criteria>,
+     * <loss_rate_criteria>” to also fail the check when the given percentile (1 ~ 100) of the
+     * round trip times exceeds rtt_percentile_criteria in milli seconds, when the jitter exceeds
+     * jitter_criteria in milli seconds, or when the percentage of lost pings exceeds
+     * loss_rate_criteria. A criteria set to 0 is not applied. For Ex:
+     * "epdg.epc.mnc001.mcc001.pub.3gppnetwork.org,10,100,32,100,1800000,600000,90,200,30,20"
+     *
      * <p>The default value for this key is null indicating not enabled by default for round trip
      * time check.
      */
     static final String KEY_QNS_WLAN_RTT_BACKHAUL_CHECK_ON_ICMP_PING_STRING =
             "qns.wlan_rtt_backhaul_check_on_icmp_ping_string";
 
+    /**
+     * Specifies the time in milli seconds for which the result of an RTT check is reused for the
+     * same Wi-Fi network (access point), instead of checking the RTT again.
+     *
+     * <ul>
+     *   <li>0: results are not reused.
+     * </ul>
+     *
+     * <p>The default value for this key is {@link QnsConstants#DEFAULT_WLAN_RTT_RESULT_CACHE_TTL}
+     */
+    static final String KEY_QNS_WLAN_RTT_RESULT_CACHE_TTL_MS_INT =
+            "qns.wlan_rtt_result_cache_ttl_ms_int";
+
     /**
      * List of Array items indicating network capabilities with fallback support based on retry
      * count or retry timer or either of them with fallback guard timer to be set
      *
      * <p><string-array name="qns.fallback_on_initial_connection_failure_string_array" num="2" <item
      * value="<network_capability>:<retry_count>:<retry_timer>:<fallback_guard_timer>
-     * :<max_fallback_count>"/> Note: All Timer Values to be in millis Example: <item
-     * value="ims:3:60000:10000:2"/> <item value="mms:1:10000:60000:2"/>
+     * :<max_fallback_count>:<max_fallback_backoff_timer>"/> Note: All Timer Values to be in millis
+     * Example: <item value="ims:3:60000:10000:2"/> <item value="mms:1:10000:60000:2"/>
+     *
+     * <p>When the optional max_fallback_backoff_timer is set above the fallback_guard_timer, each
+     * further fallback on the same network doubles the fallback guard timer with a random jitter,
+     * up to max_fallback_backoff_timer. Example: <item value="ims:3:60000:10000:0:300000"/>
      *
      * <p>The default value for this key is null indicating not enabled by default for fallback in
      * case of initial connection failure
@@ -741,6 +800,8 @@ class QnsCarrierConfigManager {
 
     private int mWifiThresBackHaulTimer;
     private int mCellularThresBackHaulTimer;
+    private int mThresholdNotificationMinInterval;
+    private String mWifiRssiFilterConfig;
     private int mQnsImsTransportType;
     private int mQnsSosTransportType;
     private int mQnsMmsTransportType;
@@ -760,6 +821,8 @@ class QnsCarrierConfigManager {
     private int[] mNonImsWwanHysteresisTimer;
     private int[] mNonImsWlanHysteresisTimer;
     private int[] mRTPMetricsData = new int[4];
+    /** Config of RTP metrics, rebuilt when the carrier config is loaded. */
+    private volatile RtpMetricsConfig mRtpMetricsConfig = new RtpMetricsConfig(0, 0, 0, 0);
     private int[] mWaitingTimerForPreferredTransport;
     private int[] mAllowMaxIwlanHoCountOnReason;
     private int[] mHoRestrictTimeOnRtpQuality;
@@ -767,6 +830,7 @@ class QnsCarrierConfigManager {
     private int[] mIsWfcPreferredTransportRequired;
 
     private String mWlanRttBackhaulCheckConfigsOnPing;
+    private int mWlanRttResultCacheTtl;
     private String[] mImsAllowedRats;
     private String[] mRoveInGuardTimerConditionThresholdGaps;
     private String[] mFallbackOnInitialConnectionFailure;
@@ -1326,6 +1390,13 @@ class QnsCarrierConfigManager {
                         bundleCarrier,
                         bundleAsset,
                         KEY_QNS_CELLULAR_SS_THRESHOLDBACKHAUL_TIMER_MS_INT);
+        mThresholdNotificationMinInterval =
+                getConfig(
+                        bundleCarrier,
+                        bundleAsset,
+                        KEY_QNS_THRESHOLD_NOTIFICATION_MIN_INTERVAL_MS_INT);
+        mWifiRssiFilterConfig =
+                getConfig(bundleCarrier, bundleAsset, KEY_QNS_WIFI_RSSI_FILTER_STRING);
         mQnsImsTransportType =
                 getConfig(bundleCarrier, bundleAsset, KEY_QNS_IMS_TRANSPORT_TYPE_INT);
         mQnsSosTransportType =
@@ -1383,6 +1454,8 @@ class QnsCarrierConfigManager {
                         bundleCarrier,
                         bundleAsset,
                         KEY_QNS_WLAN_RTT_BACKHAUL_CHECK_ON_ICMP_PING_STRING);
+        mWlanRttResultCacheTtl =
+                getConfig(bundleCarrier, bundleAsset, KEY_QNS_WLAN_RTT_RESULT_CACHE_TTL_MS_INT);
 
         mFallbackOnInitialConnectionFailure =
                 getConfig(
@@ -1564,6 +1637,12 @@ class QnsCarrierConfigManager {
         mRTPMetricsData[2] = getConfig(
                 bundleCarrier, assetConfigBundle,
                 KEY_QNS_MEDIA_THRESHOLD_RTP_PACKET_LOSS_TIME_MILLIS_INT);
+        mRtpMetricsConfig =
+                new RtpMetricsConfig(
+                        mRTPMetricsData[0],
+                        mRTPMetricsData[1],
+                        mRTPMetricsData[2],
+                        mRTPMetricsData[3]);
     }
 
     /** Updated handover rules from carrier config. */
@@ -1937,6 +2016,25 @@ class QnsCarrierConfigManager {
         return mCellularThresBackHaulTimer;
     }
 
+    /**
+     * This method returns the minimum interval between two threshold notifications.
+     *
+     * @return : Based on Carrier Config Settings, interval in milli seconds. 0 if not applied.
+     */
+    int getThresholdNotificationMinInterval() {
+        return mThresholdNotificationMinInterval;
+    }
+
+    /**
+     * This method returns the filter applied to the Wi-Fi RSSI samples.
+     *
+     * @return : Based on Carrier Config Settings, "<filter_type>,<parameter>" or empty if samples
+     *     are not filtered.
+     */
+    String getWifiRssiFilterConfig() {
+        return mWifiRssiFilterConfig;
+    }
+
     /**
      * This method returns IWLAN HO Avoid time due to Low RTP Quality Backhaul Timer.
      *
@@ -2319,15 +2417,15 @@ class QnsCarrierConfigManager {
     }
 
     /**
-     * This method returns RTP Metrics data of Carrier for HO decision making
+     * This method returns RTP Metrics data of Carrier for HO decision making. The same instance is
+     * returned until the carrier config is loaded again, as it is read on every media quality
+     * report.
      *
      * @return config of RTP metrics. refer {@link RtpMetricsConfig}
      */
     @VisibleForTesting
     RtpMetricsConfig getRTPMetricsData() {
-
-        return new RtpMetricsConfig(
-                mRTPMetricsData[0], mRTPMetricsData[1], mRTPMetricsData[2], mRTPMetricsData[3]);
+        return mRtpMetricsConfig;
     }
 
     /**
@@ -2583,12 +2681,14 @@ class QnsCarrierConfigManager {
 
     /**
      * This method returns No of Pings, Intra Ping Interval, Size of the packet, RTT criteria RTT
-     * retry timer
+     * retry timer, followed by the RTT percentile, the RTT percentile criteria, the jitter criteria
+     * and the loss rate criteria.
      *
-     * @return : Based on carrier config settings as per operator requirement
+     * @return : Based on carrier config settings as per operator requirement. The optional
+     *     criteria not set are 0.
      */
     int[] getWlanRttOtherConfigs() {
-        int[] pingConfigs = new int[5];
+        int[] pingConfigs = new int[9];
         String[] rtt_ping_config = getWlanRttPingConfigs();
 
         if (rtt_ping_config != null && !rtt_ping_config[0].isEmpty()) {
@@ -2597,6 +2697,10 @@ class QnsCarrierConfigManager {
                     pingConfigs[i - 1] = Integer.parseInt(rtt_ping_config[i]);
                 }
             }
+            // index 6 is the hysteresis fallback timer.
+            for (int i = 7; i < Math.min(11, rtt_ping_config.length); i++) {
+                pingConfigs[i - 2] = Integer.parseInt(rtt_ping_config[i].trim());
+            }
         }
         return pingConfigs;
     }
@@ -2618,6 +2722,16 @@ class QnsCarrierConfigManager {
         }
     }
 
+    /**
+     * This method returns the time for which the result of an RTT check is reused for the same
+     * Wi-Fi network.
+     *
+     * @return : Based on carrier config settings, 0 if results are not reused.
+     */
+    int getWlanRttResultCacheTtl() {
+        return mWlanRttResultCacheTtl;
+    }
+
     private String[] getWlanRttPingConfigs() {
         if (mWlanRttBackhaulCheckConfigsOnPing == null) return null;
 
@@ -2696,6 +2810,27 @@ class QnsCarrierConfigManager {
         }
     }
 
+    /**
+     * This method returns the maximum fall back timer the fallback guard timer backs off to on
+     * repeated fallbacks on the same network.
+     *
+     * @param netCapability : (ims,sos,mms,xcap,cbs)
+     * @return : maximum backoff timer, 0 if the fallback guard timer doesn't back off.
+     */
+    int getFallbackMaxBackoffTimerOnInitialConnectionFail(int netCapability) {
+        String[] fallbackConfig = getFallbackConfigForNetCapability(netCapability);
+        if (fallbackConfig == null
+                || fallbackConfig.length <= 5
+                || fallbackConfig[5] == null
+                || fallbackConfig[5].isEmpty()) {
+            return 0;
+        }
+        int maxBackoffTimer = Integer.parseInt(fallbackConfig[5]);
+        return maxBackoffTimer > getFallbackGuardTimerOnInitialConnectionFail(netCapability)
+                ? maxBackoffTimer
+                : 0;
+    }
+
     /**
      * To support find the right Initial Pdn connection failure fallback config based on network
      * capability
@@ -46,8 +46,10 @@ class QnsComponents {
     private final List<Integer> mSlotIds;
     private IwlanNetworkStatusTracker mIwlanNetworkStatusTracker;
     private QnsTimer mQnsTimer;
+    private QnsMonitoringPolicy mQnsMonitoringPolicy;
     private WifiQualityMonitor mWifiQualityMonitor;
     private QnsMetrics mQnsMetrics;
+    private RestrictionStore mRestrictionStore;
 
     /** Constructor to instantiate QnsComponents class. */
     QnsComponents(Context context) {
@@ -93,6 +95,11 @@ class QnsComponents {
         if (mQnsTimer == null) {
             mQnsTimer = new QnsTimer(mContext);
         }
+        if (mQnsMonitoringPolicy == null) {
+            mQnsMonitoringPolicy = new QnsMonitoringPolicy(mQnsTimer);
+        }
+        mQnsMonitoringPolicy.addImsManager(slotId, mQnsImsManagers.get(slotId));
+        mCellularQualityMonitors.get(slotId).setMonitoringPolicy(mQnsMonitoringPolicy);
         mQnsCallStatusTracker.put(
                 slotId,
                 new QnsCallStatusTracker(
@@ -110,6 +117,7 @@ class QnsComponents {
                         slotId));
         if (mWifiQualityMonitor == null) {
             mWifiQualityMonitor = new WifiQualityMonitor(mContext, mQnsTimer);
+            mWifiQualityMonitor.setMonitoringPolicy(mQnsMonitoringPolicy);
         }
         if (mIwlanNetworkStatusTracker == null) {
             mIwlanNetworkStatusTracker = new IwlanNetworkStatusTracker(mContext);
@@ -123,6 +131,9 @@ class QnsComponents {
         if (mQnsMetrics == null) {
             mQnsMetrics = new QnsMetrics(mContext);
         }
+        if (mRestrictionStore == null) {
+            mRestrictionStore = new RestrictionStore(mContext);
+        }
 
         Log.d(mLogTag, "QnsComponents created for slot " + slotId);
     }
@@ -234,6 +245,11 @@ class QnsComponents {
         return mQnsMetrics;
     }
 
+    /** Returns instance of RestrictionStore, null if restrictions are not persisted. */
+    RestrictionStore getRestrictionStore() {
+        return mRestrictionStore;
+    }
+
     /** Returns context. */
     Context getContext() {
         return mContext;
@@ -262,9 +278,20 @@ class QnsComponents {
             mQnsCallStatusTracker.remove(slotId);
             qnsCallStatusTracker.close();
         }
+        if (mQnsMonitoringPolicy != null) {
+            mQnsMonitoringPolicy.removeImsManager(slotId);
+        }
         if (mSlotIds.size() == 1) {
+            if (mQnsMonitoringPolicy != null) {
+                mQnsMonitoringPolicy.close();
+                mQnsMonitoringPolicy = null;
+            }
             mQnsTimer.close();
             mQnsTimer = null;
+            if (mRestrictionStore != null) {
+                mRestrictionStore.close();
+                mRestrictionStore = null;
+            }
         }
         CellularQualityMonitor cellularQualityMonitor = mCellularQualityMonitors.get(slotId);
         if (cellularQualityMonitor != null) {
@@ -316,5 +343,24 @@ class QnsComponents {
         if (mIwlanNetworkStatusTracker != null) {
             mQnsTimer.dump(pw, " ");
         }
+        if (mQnsMonitoringPolicy != null) {
+            mQnsMonitoringPolicy.dump(pw, " ");
+        }
+        if (mRestrictionStore != null) {
+            mRestrictionStore.dump(pw, "  ");
+        }
+        for (int i = 0; i < mWifiBackhaulMonitors.size(); i++) {
+            mWifiBackhaulMonitors.valueAt(i).dump(pw, "  ");
+        }
+        for (int i = 0; i < mQnsCallStatusTracker.size(); i++) {
+            mQnsCallStatusTracker.valueAt(i).dump(pw, "  ");
+        }
+        for (int i = 0; i < mQnsEventDispatchers.size(); i++) {
+            mQnsEventDispatchers.valueAt(i).dump(pw, "  ");
+        }
+        for (int i = 0; i < mQnsImsManagers.size(); i++) {
+            mQnsImsManagers.valueAt(i).dump(pw, "  ");
+        }
+        QnsImsCallbackDispatcher.getInstance().dump(pw, "  ");
     }
 }
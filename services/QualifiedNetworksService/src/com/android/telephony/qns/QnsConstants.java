@@ -182,6 +182,8 @@ class QnsConstants {
     static final int SIGNAL_AVAILABLE = 1;
 
     static final int DEFAULT_WIFI_BACKHAUL_TIMER = 3000;
+    static final int DEFAULT_THRESHOLD_NOTIFICATION_MIN_INTERVAL = 1000;
+    static final int DEFAULT_WLAN_RTT_RESULT_CACHE_TTL = 60000;
 
     static final int TRANSPORT_TYPE_ALLOWED_WWAN = 0;
     static final int TRANSPORT_TYPE_ALLOWED_IWLAN = 1;
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Event bus of typed topics, delivering the values published on a topic to its subscribers.
+ *
+ * <p>The subscribers of a topic are kept in a copy-on-write array, so that publishing takes no
+ * lock of the bus: only subscribing and unsubscribing do. A sticky topic keeps its last value,
+ * which is delivered to a subscriber when it subscribes. Every value is numbered when published,
+ * and a subscriber drops a value older than the last one it received, so that the sticky value
+ * delivered on subscription and a value published concurrently reach it once and in order.
+ */
+class QnsEventBus {
+    /**
+     * A topic of the bus.
+     *
+     * @param <T> type of the values published on the topic.
+     */
+    static final class Topic<T> {
+        private final int mId;
+        private final String mName;
+        private final boolean mSticky;
+
+        /**
+         * @param id index of the topic, from 0 to the count of topics of the bus.
+         * @param name name of the topic, for the logs.
+         * @param sticky whether the last value is kept and delivered on subscription.
+         */
+        Topic(int id, String name, boolean sticky) {
+            mId = id;
+            mName = name;
+            mSticky = sticky;
+        }
+
+        int getId() {
+            return mId;
+        }
+
+        boolean isSticky() {
+            return mSticky;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+
+    /**
+     * Subscriber of a topic. It is called on the thread publishing the value, or subscribing for
+     * the sticky value, so it is expected to hand the value over to its own thread.
+     *
+     * @param <T> type of the values published on the topic.
+     */
+    interface Subscriber<T> {
+        void onEvent(Topic<T> topic, T value);
+    }
+
+    /** A value published on a topic, with its order among the values of the topic. */
+    private static final class Published {
+        final long mSequence;
+        final Object mValue;
+
+        Published(long sequence, Object value) {
+            mSequence = sequence;
+            mValue = value;
+        }
+    }
+
+    private static final class Subscription {
+        final Object mOwner;
+        final Subscriber<Object> mSubscriber;
+        private long mLastSequence;
+
+        @SuppressWarnings("unchecked")
+        Subscription(Object owner, Subscriber<?> subscriber) {
+            mOwner = owner;
+            mSubscriber = (Subscriber<Object>) subscriber;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized void deliver(Topic<?> topic, Published published) {
+            if (published.mSequence <= mLastSequence) {
+                return;
+            }
+            mLastSequence = published.mSequence;
+            mSubscriber.onEvent((Topic<Object>) topic, published.mValue);
+        }
+    }
+
+    private static final class TopicState {
+        volatile Subscription[] mSubscriptions = new Subscription[0];
+        final AtomicReference<Published> mSticky = new AtomicReference<>();
+        final AtomicLong mSequence = new AtomicLong();
+    }
+
+    private final TopicState[] mStates;
+    private final Object mLock = new Object();
+
+    /** @param topicCount count of topics, whose ids are from 0 to topicCount - 1. */
+    QnsEventBus(int topicCount) {
+        mStates = new TopicState[topicCount];
+        for (int i = 0; i < topicCount; i++) {
+            mStates[i] = new TopicState();
+        }
+    }
+
+    /**
+     * Publishes a value on a topic, delivering it to the current subscribers.
+     *
+     * @param topic the topic
+     * @param value the value, kept as the last value of a sticky topic.
+     */
+    <T> void publish(Topic<T> topic, T value) {
+        TopicState state = mStates[topic.getId()];
+        Published published = new Published(state.mSequence.incrementAndGet(), value);
+        if (topic.isSticky()) {
+            setSticky(state, published);
+        }
+        for (Subscription subscription : state.mSubscriptions) {
+            subscription.deliver(topic, published);
+        }
+    }
+
+    /**
+     * Sets the last value of a sticky topic without delivering it, e.g. its initial value.
+     *
+     * @param topic the topic
+     * @param value the value to deliver on subscription.
+     */
+    <T> void setStickyValue(Topic<T> topic, T value) {
+        TopicState state = mStates[topic.getId()];
+        setSticky(state, new Published(state.mSequence.incrementAndGet(), value));
+    }
+
+    private static void setSticky(TopicState state, Published published) {
+        Published last;
+        do {
+            last = state.mSticky.get();
+            if (last != null && last.mSequence > published.mSequence) {
+                // a more recent value was published meanwhile.
+                return;
+            }
+        } while (!state.mSticky.compareAndSet(last, published));
+    }
+
+    /**
+     * Returns the last value of a sticky topic.
+     *
+     * @param topic the topic
+     * @return the last value, null if none.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T getStickyValue(Topic<T> topic) {
+        Published last = mStates[topic.getId()].mSticky.get();
+        return last != null ? (T) last.mValue : null;
+    }
+
+    /**
+     * Subscribes to a topic, replacing the subscriber of the same owner if any. The last value of
+     * a sticky topic is delivered to the subscriber before this returns.
+     *
+     * @param topic the topic
+     * @param owner owner of the subscriber, to unsubscribe it.
+     * @param subscriber the subscriber
+     */
+    <T> void subscribe(Topic<T> topic, Object owner, Subscriber<T> subscriber) {
+        TopicState state = mStates[topic.getId()];
+        Subscription subscription = new Subscription(owner, subscriber);
+        synchronized (mLock) {
+            Subscription[] subscriptions = state.mSubscriptions;
+            int index = indexOf(subscriptions, owner);
+            Subscription[] updated;
+            if (index >= 0) {
+                updated = subscriptions.clone();
+                updated[index] = subscription;
+            } else {
+                updated = new Subscription[subscriptions.length + 1];
+                System.arraycopy(subscriptions, 0, updated, 0, subscriptions.length);
+                updated[subscriptions.length] = subscription;
+            }
+            state.mSubscriptions = updated;
+        }
+        if (topic.isSticky()) {
+            Published last = state.mSticky.get();
+            if (last != null) {
+                subscription.deliver(topic, last);
+            }
+        }
+    }
+
+    /**
+     * Returns the subscriber of an owner to a topic.
+     *
+     * @param topic the topic
+     * @param owner owner of the subscriber
+     * @return the subscriber, null if the owner did not subscribe to the topic.
+     */
+    @SuppressWarnings("unchecked")
+    <T> Subscriber<T> getSubscriber(Topic<T> topic, Object owner) {
+        Subscription[] subscriptions = mStates[topic.getId()].mSubscriptions;
+        int index = indexOf(subscriptions, owner);
+        return index >= 0 ? (Subscriber<T>) subscriptions[index].mSubscriber : null;
+    }
+
+    /**
+     * Unsubscribes the subscribers of an owner from all the topics.
+     *
+     * @param owner owner of the subscribers
+     */
+    void unsubscribe(Object owner) {
+        synchronized (mLock) {
+            for (TopicState state : mStates) {
+                Subscription[] subscriptions = state.mSubscriptions;
+                int index = indexOf(subscriptions, owner);
+                if (index < 0) {
+                    continue;
+                }
+                Subscription[] updated = new Subscription[subscriptions.length - 1];
+                System.arraycopy(subscriptions, 0, updated, 0, index);
+                System.arraycopy(
+                        subscriptions, index + 1, updated, index, updated.length - index);
+                state.mSubscriptions = updated;
+            }
+        }
+    }
+
+    /** Returns whether a topic has any subscriber. */
+    boolean hasSubscribers() {
+        for (TopicState state : mStates) {
+            if (state.mSubscriptions.length > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int indexOf(Subscription[] subscriptions, Object owner) {
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i].mOwner == owner) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -45,16 +45,24 @@ import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
 import android.telephony.ims.ProvisioningManager;
 import android.util.Log;
-import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.TelephonyIntents;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-/** QnsEventDispatcher Delivers Broadcasted Intent & change on setting to registered Handlers. */
+/**
+ * QnsEventDispatcher Delivers Broadcasted Intent & change on setting to registered Handlers.
+ *
+ * <p>The events are published on the topics of a {@link QnsEventBus}. The WFC settings are
+ * sticky topics, whose last value is delivered on subscription, and are also published together
+ * as one {@link WfcSettings} once per batch of changes. {@link #registerEvent} and {@link
+ * #unregisterEvent} subscribe a Handler to the topics of the events, as messages of the events.
+ */
 class QnsEventDispatcher {
 
     @IntDef(
@@ -118,12 +126,56 @@ class QnsEventDispatcher {
     static final int QNS_EVENT_TRY_WFC_ACTIVATION = QNS_EVENT_BASE + 100;
     static final int QNS_EVENT_CANCEL_TRY_WFC_ACTIVATION = QNS_EVENT_BASE + 101;
     private static final int EVENT_PROVISIONING_INFO_CHANGED = QNS_EVENT_BASE + 200;
+    private static final int EVENT_IMS_STATE_CHANGED = QNS_EVENT_BASE + 201;
+
+    /** Carrier config changes, as QNS_EVENT_CARRIER_CONFIG_* events. */
+    static final QnsEventBus.Topic<Integer> TOPIC_CARRIER_CONFIG =
+            new QnsEventBus.Topic<>(0, "carrierConfig", false);
+    /** Wi-Fi state changes, as QNS_EVENT_WIFI_* events. */
+    static final QnsEventBus.Topic<Integer> TOPIC_WIFI_STATE =
+            new QnsEventBus.Topic<>(1, "wifiState", false);
+    /** Airplane mode changes, as QNS_EVENT_APM_* events. */
+    static final QnsEventBus.Topic<Integer> TOPIC_AIRPLANE_MODE =
+            new QnsEventBus.Topic<>(2, "airplaneMode", false);
+    /** Emergency callback mode changes, as QNS_EVENT_EMERGENCY_CALLBACK_MODE_* events. */
+    static final QnsEventBus.Topic<Integer> TOPIC_EMERGENCY_CALLBACK_MODE =
+            new QnsEventBus.Topic<>(3, "emergencyCallbackMode", false);
+    /** SIM state changes, as QNS_EVENT_SIM_* events. */
+    static final QnsEventBus.Topic<Integer> TOPIC_SIM_STATE =
+            new QnsEventBus.Topic<>(4, "simState", false);
+    /** WFC activation requests, as QNS_EVENT_*TRY_WFC_ACTIVATION events. */
+    static final QnsEventBus.Topic<Integer> TOPIC_WFC_ACTIVATION =
+            new QnsEventBus.Topic<>(5, "wfcActivation", false);
+    static final QnsEventBus.Topic<Boolean> TOPIC_WFC_PLATFORM_ENABLED =
+            new QnsEventBus.Topic<>(6, "wfcPlatformEnabled", true);
+    static final QnsEventBus.Topic<Boolean> TOPIC_CROSS_SIM_CALLING_ENABLED =
+            new QnsEventBus.Topic<>(7, "crossSimCallingEnabled", true);
+    static final QnsEventBus.Topic<Boolean> TOPIC_WFC_ENABLED =
+            new QnsEventBus.Topic<>(8, "wfcEnabled", true);
+    /** WFC mode, as ImsMmTelManager.WIFI_MODE_*. */
+    static final QnsEventBus.Topic<Integer> TOPIC_WFC_MODE =
+            new QnsEventBus.Topic<>(9, "wfcMode", true);
+    static final QnsEventBus.Topic<Boolean> TOPIC_WFC_ROAMING_ENABLED =
+            new QnsEventBus.Topic<>(10, "wfcRoamingEnabled", true);
+    /** WFC mode when roaming, as ImsMmTelManager.WIFI_MODE_*. */
+    static final QnsEventBus.Topic<Integer> TOPIC_WFC_ROAMING_MODE =
+            new QnsEventBus.Topic<>(11, "wfcRoamingMode", true);
+    /** All the WFC settings, published once per batch of changes. */
+    static final QnsEventBus.Topic<WfcSettings> TOPIC_WFC_SETTINGS =
+            new QnsEventBus.Topic<>(12, "wfcSettings", true);
+    private static final int TOPIC_COUNT = 13;
+
     private static Boolean sIsAirplaneModeOn;
     private static int sWiFiState = WifiManager.WIFI_STATE_UNKNOWN;
     private final String mLogTag;
     private final Context mContext;
     private final int mSlotIndex;
-    SparseArray<Set<Handler>> mEventHandlers = new SparseArray<>();
+    private final QnsEventBus mEventBus = new QnsEventBus(TOPIC_COUNT);
+    private final WfcSettingsCache mWfcSettingsCache = new WfcSettingsCache();
+    private final Object mWfcSettingsBatchLock = new Object();
+    /** Depth of the nested batches of WFC setting changes. */
+    private int mWfcSettingsBatchDepth;
+    private boolean mWfcSettingsChangedInBatch;
     private int mSubId;
     private Uri mCrossSimCallingUri;
     private Uri mWfcEnabledUri;
@@ -286,11 +338,14 @@ class QnsEventDispatcher {
         HandlerThread handlerThread = new HandlerThread(mLogTag);
         handlerThread.start();
         mQnsEventDispatcherHandler = new QnsEventDispatcherHandler(handlerThread.getLooper());
+        setWfcSettingsStickyValues();
         mQnsEventDispatcherHandler.post(() -> loadAndNotifyWfcSettings(mContext, mSlotIndex));
 
         mLastProvisioningInfo = new QnsProvisioningListener.QnsProvisioningInfo();
         mQnsProvisioningListener.registerProvisioningItemInfoChanged(
                 mQnsEventDispatcherHandler, EVENT_PROVISIONING_INFO_CHANGED, null, true);
+        mQnsImsManager.registerImsStateChanged(
+                mQnsEventDispatcherHandler, EVENT_IMS_STATE_CHANGED);
     }
 
     private synchronized void loadAndNotifyWfcSettings(Context context, int slotIndex) {
@@ -301,12 +356,20 @@ class QnsEventDispatcher {
             mSubId = subId;
             registerContentObserver();
         }
-        notifyWfcEnabledByPlatform();
-        notifyCurrentSetting(mCrossSimCallingUri, true);
-        notifyCurrentSetting(mWfcEnabledUri, true);
-        notifyCurrentSetting(mWfcModeUri, true);
-        notifyCurrentSetting(mWfcRoamingEnabledUri, true);
-        notifyCurrentSetting(mWfcRoamingModeUri, true);
+        mWfcSettingsCache.recordEvent();
+        mWfcSettingsCache.invalidateAll();
+        mQnsImsManager.invalidateImsCapabilities(ImsCapabilityCache.MASK_ALL);
+        beginWfcSettingsBatch();
+        try {
+            notifyWfcEnabledByPlatform();
+            notifyCurrentSetting(mCrossSimCallingUri, true);
+            notifyCurrentSetting(mWfcEnabledUri, true);
+            notifyCurrentSetting(mWfcModeUri, true);
+            notifyCurrentSetting(mWfcRoamingEnabledUri, true);
+            notifyCurrentSetting(mWfcRoamingModeUri, true);
+        } finally {
+            endWfcSettingsBatch();
+        }
     }
 
     private synchronized void onCarrierConfigChanged(Context context, int slotId, int carrierId) {
@@ -327,150 +390,219 @@ class QnsEventDispatcher {
         updateHandlers(event);
     }
 
+    /**
+     * Registers a Handler for events, sent as messages of the event. The current value of the
+     * registered WFC settings is sent right away.
+     *
+     * @param events the QNS_EVENT_* events
+     * @param handler the handler to send the events to.
+     */
     synchronized void registerEvent(List<Integer> events, Handler handler) {
+        List<QnsEventBus.Topic<?>> topics = new ArrayList<>();
         for (@QnsEventType int event : events) {
-            if (mEventHandlers.contains(event)) {
-                mEventHandlers.get(event).add(handler);
-            } else {
-                Set<Handler> handlers = new HashSet<>();
-                handlers.add(handler);
-                mEventHandlers.append(event, handlers);
+            QnsEventBus.Topic<?> topic = getTopic(event);
+            if (topic == null) {
+                Log.e(mLogTag, "registerEvent unknown event: " + event);
+                continue;
+            }
+            if (!topics.contains(topic)) {
+                topics.add(topic);
             }
         }
-        notifyImmediately(events, handler);
+        // Ascending topic ids, for the WFC settings to be sent in the same order every time.
+        topics.sort((topic1, topic2) -> topic1.getId() - topic2.getId());
+        boolean recordedEvent = false;
+        for (QnsEventBus.Topic<?> topic : topics) {
+            subscribeHandler(topic, handler, events);
+            if (topic.isSticky() && !recordedEvent) {
+                mWfcSettingsCache.recordEvent();
+                recordedEvent = true;
+            }
+            // checks again whether setting is changed.
+            recheckSetting(topic);
+        }
     }
 
-    private void onSimStateChanged(int slotId, int simState) {
-        if (slotId != mSlotIndex) {
-            return;
+    @SuppressWarnings("unchecked")
+    private <T> void subscribeHandler(
+            QnsEventBus.Topic<T> topic, Handler handler, List<Integer> events) {
+        HandlerSubscriber<T> subscriber = new HandlerSubscriber<>(handler);
+        QnsEventBus.Subscriber<T> previous = mEventBus.getSubscriber(topic, handler);
+        if (previous instanceof HandlerSubscriber) {
+            subscriber.mEvents.addAll(((HandlerSubscriber<T>) previous).mEvents);
         }
-        if (simState == TelephonyManager.SIM_STATE_ABSENT) {
-            updateHandlers(QNS_EVENT_SIM_ABSENT);
-        } else if (simState == TelephonyManager.SIM_STATE_LOADED) {
-            updateHandlers(QNS_EVENT_SIM_LOADED);
+        for (int event : events) {
+            if (getTopic(event) == topic) {
+                subscriber.mEvents.add(event);
+            }
         }
+        mEventBus.subscribe(topic, handler, subscriber);
     }
 
-    private synchronized void notifyImmediately(List<Integer> events, Handler handler) {
-        boolean bWfcPlatformSetting = false;
-        boolean bWfcSetting = false;
-        boolean bWfcModeSetting = false;
-        boolean bWfcRoamingSetting = false;
-        boolean bWfcRoamingModeSetting = false;
-        boolean bCrossSimSetting = false;
-        for (@QnsEventType int event : events) {
-            switch (event) {
-                case QNS_EVENT_WFC_PLATFORM_ENABLED:
-                case QNS_EVENT_WFC_PLATFORM_DISABLED:
-                    bWfcPlatformSetting = true;
-                    break;
-                case QNS_EVENT_WFC_ENABLED:
-                case QNS_EVENT_WFC_DISABLED:
-                    bWfcSetting = true;
-                    break;
-                case QNS_EVENT_WFC_ROAMING_ENABLED:
-                case QNS_EVENT_WFC_ROAMING_DISABLED:
-                    bWfcRoamingSetting = true;
-                    break;
-                case QNS_EVENT_WFC_MODE_TO_WIFI_ONLY:
-                case QNS_EVENT_WFC_MODE_TO_CELLULAR_PREFERRED:
-                case QNS_EVENT_WFC_MODE_TO_WIFI_PREFERRED:
-                    bWfcModeSetting = true;
-                    break;
-                case QNS_EVENT_WFC_ROAMING_MODE_TO_WIFI_ONLY:
-                case QNS_EVENT_WFC_ROAMING_MODE_TO_CELLULAR_PREFERRED:
-                case QNS_EVENT_WFC_ROAMING_MODE_TO_WIFI_PREFERRED:
-                    bWfcRoamingModeSetting = true;
-                    break;
-                case QnsEventDispatcher.QNS_EVENT_CROSS_SIM_CALLING_ENABLED:
-                case QnsEventDispatcher.QNS_EVENT_CROSS_SIM_CALLING_DISABLED:
-                    bCrossSimSetting = true;
-                    break;
-            }
+    private void recheckSetting(QnsEventBus.Topic<?> topic) {
+        if (topic == TOPIC_WFC_PLATFORM_ENABLED) {
+            notifyWfcEnabledByPlatform();
+        } else if (topic == TOPIC_CROSS_SIM_CALLING_ENABLED) {
+            notifyCurrentSetting(mCrossSimCallingUri, false);
+        } else if (topic == TOPIC_WFC_ENABLED) {
+            notifyCurrentSetting(mWfcEnabledUri, false);
+        } else if (topic == TOPIC_WFC_MODE) {
+            notifyCurrentSetting(mWfcModeUri, false);
+        } else if (topic == TOPIC_WFC_ROAMING_ENABLED) {
+            notifyCurrentSetting(mWfcRoamingEnabledUri, false);
+        } else if (topic == TOPIC_WFC_ROAMING_MODE) {
+            notifyCurrentSetting(mWfcRoamingModeUri, false);
         }
+    }
 
-        if (bWfcPlatformSetting) {
-            if (mLastWfcEnabledByPlatform) {
-                updateHandler(handler, QNS_EVENT_WFC_PLATFORM_ENABLED);
-            } else {
-                updateHandler(handler, QNS_EVENT_WFC_PLATFORM_DISABLED);
-            }
-            // checks again whether setting is changed.
-            notifyWfcEnabledByPlatform();
+    /**
+     * Subscribes to a topic of the events. The last value of a sticky topic is delivered before
+     * this returns, without reading the settings again.
+     *
+     * @param topic one of the TOPIC_*
+     * @param owner owner of the subscriber, to unsubscribe it.
+     * @param subscriber the subscriber, called on the thread publishing the event.
+     */
+    <T> void subscribe(
+            QnsEventBus.Topic<T> topic, Object owner, QnsEventBus.Subscriber<T> subscriber) {
+        mEventBus.subscribe(topic, owner, subscriber);
+    }
+
+    /**
+     * Unsubscribes the subscribers of an owner, as {@link #unregisterEvent} does for a Handler.
+     *
+     * @param owner owner of the subscribers
+     */
+    synchronized void unsubscribe(Object owner) {
+        mEventBus.unsubscribe(owner);
+        if (!mEventBus.hasSubscribers()) {
+            close();
         }
-        if (bWfcSetting) {
-            if (mLastWfcEnabled) {
-                updateHandler(handler, QNS_EVENT_WFC_ENABLED);
-            } else {
-                updateHandler(handler, QNS_EVENT_WFC_DISABLED);
-            }
-            // checks again whether setting is changed.
-            notifyCurrentSetting(mWfcEnabledUri, false);
+    }
+
+    /** Returns the topic an event is published on, null for an unknown event. */
+    private static QnsEventBus.Topic<?> getTopic(int event) {
+        switch (event) {
+            case QNS_EVENT_CARRIER_CONFIG_CHANGED:
+            case QNS_EVENT_CARRIER_CONFIG_UNKNOWN_CARRIER:
+                return TOPIC_CARRIER_CONFIG;
+            case QNS_EVENT_WIFI_DISABLING:
+            case QNS_EVENT_WIFI_AP_CHANGED:
+            case QNS_EVENT_WIFI_ENABLED:
+                return TOPIC_WIFI_STATE;
+            case QNS_EVENT_APM_DISABLED:
+            case QNS_EVENT_APM_ENABLED:
+                return TOPIC_AIRPLANE_MODE;
+            case QNS_EVENT_EMERGENCY_CALLBACK_MODE_ON:
+            case QNS_EVENT_EMERGENCY_CALLBACK_MODE_OFF:
+                return TOPIC_EMERGENCY_CALLBACK_MODE;
+            case QNS_EVENT_SIM_ABSENT:
+            case QNS_EVENT_SIM_LOADED:
+                return TOPIC_SIM_STATE;
+            case QNS_EVENT_TRY_WFC_ACTIVATION:
+            case QNS_EVENT_CANCEL_TRY_WFC_ACTIVATION:
+                return TOPIC_WFC_ACTIVATION;
+            case QNS_EVENT_WFC_PLATFORM_ENABLED:
+            case QNS_EVENT_WFC_PLATFORM_DISABLED:
+                return TOPIC_WFC_PLATFORM_ENABLED;
+            case QNS_EVENT_CROSS_SIM_CALLING_ENABLED:
+            case QNS_EVENT_CROSS_SIM_CALLING_DISABLED:
+                return TOPIC_CROSS_SIM_CALLING_ENABLED;
+            case QNS_EVENT_WFC_ENABLED:
+            case QNS_EVENT_WFC_DISABLED:
+                return TOPIC_WFC_ENABLED;
+            case QNS_EVENT_WFC_MODE_TO_WIFI_ONLY:
+            case QNS_EVENT_WFC_MODE_TO_CELLULAR_PREFERRED:
+            case QNS_EVENT_WFC_MODE_TO_WIFI_PREFERRED:
+                return TOPIC_WFC_MODE;
+            case QNS_EVENT_WFC_ROAMING_ENABLED:
+            case QNS_EVENT_WFC_ROAMING_DISABLED:
+                return TOPIC_WFC_ROAMING_ENABLED;
+            case QNS_EVENT_WFC_ROAMING_MODE_TO_WIFI_ONLY:
+            case QNS_EVENT_WFC_ROAMING_MODE_TO_CELLULAR_PREFERRED:
+            case QNS_EVENT_WFC_ROAMING_MODE_TO_WIFI_PREFERRED:
+                return TOPIC_WFC_ROAMING_MODE;
+            default:
+                return null;
         }
-        if (bWfcModeSetting) {
-            switch (mLastWfcMode) {
+    }
+
+    /** Returns the event of a value published on a topic, QNS_EVENT_BASE if none. */
+    private static int toEvent(QnsEventBus.Topic<?> topic, Object value) {
+        if (topic == TOPIC_WFC_PLATFORM_ENABLED) {
+            return (Boolean) value
+                    ? QNS_EVENT_WFC_PLATFORM_ENABLED
+                    : QNS_EVENT_WFC_PLATFORM_DISABLED;
+        } else if (topic == TOPIC_CROSS_SIM_CALLING_ENABLED) {
+            return (Boolean) value
+                    ? QNS_EVENT_CROSS_SIM_CALLING_ENABLED
+                    : QNS_EVENT_CROSS_SIM_CALLING_DISABLED;
+        } else if (topic == TOPIC_WFC_ENABLED) {
+            return (Boolean) value ? QNS_EVENT_WFC_ENABLED : QNS_EVENT_WFC_DISABLED;
+        } else if (topic == TOPIC_WFC_ROAMING_ENABLED) {
+            return (Boolean) value ? QNS_EVENT_WFC_ROAMING_ENABLED : QNS_EVENT_WFC_ROAMING_DISABLED;
+        } else if (topic == TOPIC_WFC_MODE) {
+            switch ((Integer) value) {
                 case WIFI_MODE_WIFI_ONLY:
-                    updateHandler(handler, QNS_EVENT_WFC_MODE_TO_WIFI_ONLY);
-                    break;
+                    return QNS_EVENT_WFC_MODE_TO_WIFI_ONLY;
                 case WIFI_MODE_CELLULAR_PREFERRED:
-                    updateHandler(handler, QNS_EVENT_WFC_MODE_TO_CELLULAR_PREFERRED);
-                    break;
+                    return QNS_EVENT_WFC_MODE_TO_CELLULAR_PREFERRED;
                 case WIFI_MODE_WIFI_PREFERRED:
-                    updateHandler(handler, QNS_EVENT_WFC_MODE_TO_WIFI_PREFERRED);
-                    break;
-            }
-            // checks again whether setting is changed.
-            notifyCurrentSetting(mWfcModeUri, false);
-        }
-        if (bWfcRoamingSetting) {
-            if (mLastWfcRoamingEnabled) {
-                updateHandler(handler, QNS_EVENT_WFC_ROAMING_ENABLED);
-            } else {
-                updateHandler(handler, QNS_EVENT_WFC_ROAMING_DISABLED);
+                    return QNS_EVENT_WFC_MODE_TO_WIFI_PREFERRED;
+                default:
+                    return QNS_EVENT_BASE;
             }
-            // checks again whether setting is changed.
-            notifyCurrentSetting(mWfcRoamingEnabledUri, false);
-        }
-        if (bWfcRoamingModeSetting) {
-            switch (mLastWfcModeRoaming) {
+        } else if (topic == TOPIC_WFC_ROAMING_MODE) {
+            switch ((Integer) value) {
                 case WIFI_MODE_WIFI_ONLY:
-                    updateHandler(handler, QNS_EVENT_WFC_ROAMING_MODE_TO_WIFI_ONLY);
-                    break;
+                    return QNS_EVENT_WFC_ROAMING_MODE_TO_WIFI_ONLY;
                 case WIFI_MODE_CELLULAR_PREFERRED:
-                    updateHandler(handler, QNS_EVENT_WFC_ROAMING_MODE_TO_CELLULAR_PREFERRED);
-                    break;
+                    return QNS_EVENT_WFC_ROAMING_MODE_TO_CELLULAR_PREFERRED;
                 case WIFI_MODE_WIFI_PREFERRED:
-                    updateHandler(handler, QNS_EVENT_WFC_ROAMING_MODE_TO_WIFI_PREFERRED);
-                    break;
-            }
-            // checks again whether setting is changed.
-            notifyCurrentSetting(mWfcRoamingModeUri, false);
-        }
-        if (bCrossSimSetting) {
-            if (mLastCrossSimCallingEnabled) {
-                updateHandler(handler, QNS_EVENT_CROSS_SIM_CALLING_ENABLED);
-            } else {
-                updateHandler(handler, QNS_EVENT_CROSS_SIM_CALLING_DISABLED);
+                    return QNS_EVENT_WFC_ROAMING_MODE_TO_WIFI_PREFERRED;
+                default:
+                    return QNS_EVENT_BASE;
             }
-            // checks again whether setting is changed.
-            notifyCurrentSetting(mCrossSimCallingUri, false);
+        } else if (value instanceof Integer) {
+            // the other topics carry their event.
+            return (Integer) value;
         }
+        return QNS_EVENT_BASE;
     }
 
-    synchronized void unregisterEvent(Handler handler) {
-        for (int i = 0; i < mEventHandlers.size(); i++) {
-            Set<Handler> handlers = mEventHandlers.valueAt(i);
-            handlers.remove(handler);
-            if (handlers.isEmpty()) {
-                mEventHandlers.delete(mEventHandlers.keyAt(i));
-                i--;
-            }
+    private void onSimStateChanged(int slotId, int simState) {
+        if (slotId != mSlotIndex) {
+            return;
         }
-        if (mEventHandlers.size() == 0) {
-            close();
+        if (simState == TelephonyManager.SIM_STATE_ABSENT) {
+            updateHandlers(QNS_EVENT_SIM_ABSENT);
+        } else if (simState == TelephonyManager.SIM_STATE_LOADED) {
+            updateHandlers(QNS_EVENT_SIM_LOADED);
         }
     }
 
+    synchronized void unregisterEvent(Handler handler) {
+        unsubscribe(handler);
+    }
+
+    @VisibleForTesting
+    WfcSettingsCache getWfcSettingsCache() {
+        return mWfcSettingsCache;
+    }
+
+    /**
+     * Dumps the state of {@link QnsEventDispatcher}
+     *
+     * @param pw {@link PrintWriter} to write the state of the object.
+     * @param prefix String to append at start of dumped log.
+     */
+    void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "------------------------------");
+        pw.println(prefix + mLogTag + ":");
+        pw.println(prefix + "mSubId=" + mSubId + ", " + getWfcSettings());
+        mWfcSettingsCache.dump(pw, prefix + "  ");
+    }
+
     public void close() {
         try {
             mContext.unregisterReceiver(mIntentReceiver);
@@ -486,6 +618,9 @@ class QnsEventDispatcher {
             mQnsProvisioningListener.unregisterProvisioningItemInfoChanged(
                     mQnsEventDispatcherHandler);
         }
+        if (mQnsImsManager != null) {
+            mQnsImsManager.unregisterImsStateChanged(mQnsEventDispatcherHandler);
+        }
     }
 
     private synchronized void unregisterContentObserver() {
@@ -510,14 +645,13 @@ class QnsEventDispatcher {
             mUserSettingObserver = new UserSettingObserver(handler);
 
             // init
-            mLastWfcEnabledByPlatform = QnsUtils.isWfcEnabledByPlatform(mQnsImsManager);
-            mLastCrossSimCallingEnabled = QnsUtils.isCrossSimCallingEnabled(mQnsImsManager);
-            mLastWfcEnabled =
-                    QnsUtils.isWfcEnabled(mQnsImsManager, mQnsProvisioningListener, false);
-            mLastWfcMode = QnsUtils.getWfcMode(mQnsImsManager, false);
-            mLastWfcRoamingEnabled =
-                    QnsUtils.isWfcEnabled(mQnsImsManager, mQnsProvisioningListener, true);
-            mLastWfcModeRoaming = QnsUtils.getWfcMode(mQnsImsManager, true);
+            mLastWfcEnabledByPlatform = readWfcEnabledByPlatform();
+            mLastCrossSimCallingEnabled = readCrossSimCallingEnabled();
+            mLastWfcEnabled = readWfcEnabled(false);
+            mLastWfcMode = readWfcMode(false);
+            mLastWfcRoamingEnabled = readWfcEnabled(true);
+            mLastWfcModeRoaming = readWfcMode(true);
+            setWfcSettingsStickyValues();
         }
 
         if (mSubId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
@@ -583,7 +717,6 @@ class QnsEventDispatcher {
             String uriString = uri.getPath();
             int subIndex = Integer.parseInt(uriString.substring(uriString.lastIndexOf('/') + 1));
             int slotIndex = SubscriptionManager.getSlotIndex(subIndex);
-            int event = QNS_EVENT_BASE;
 
             if (slotIndex == SubscriptionManager.INVALID_SIM_SLOT_INDEX) {
                 Log.e(mLogTag, "Invalid slot index: " + slotIndex);
@@ -600,84 +733,44 @@ class QnsEventDispatcher {
             Log.d(mLogTag, "mWfcRoamingModeUri:" + mWfcRoamingModeUri);
 
             if (uri.equals(mCrossSimCallingUri)) {
-                boolean isCrossSimCallingEnabled =
-                        QnsUtils.isCrossSimCallingEnabled(mQnsImsManager);
+                boolean isCrossSimCallingEnabled = readCrossSimCallingEnabled();
                 if (mLastCrossSimCallingEnabled != isCrossSimCallingEnabled || bForceUpdate) {
-                    if (isCrossSimCallingEnabled) {
-                        event = QNS_EVENT_CROSS_SIM_CALLING_ENABLED;
-                    } else {
-                        event = QNS_EVENT_CROSS_SIM_CALLING_DISABLED;
-                    }
                     mLastCrossSimCallingEnabled = isCrossSimCallingEnabled;
                     sb.append(", isCrossSimCallingEnabled:").append(isCrossSimCallingEnabled);
                     Log.d(mLogTag, sb.toString());
-                    updateHandlers(event);
+                    publishWfcSetting(TOPIC_CROSS_SIM_CALLING_ENABLED, isCrossSimCallingEnabled);
                 }
             } else if (uri.equals(mWfcEnabledUri)) {
-                boolean isWfcEnabled =
-                        QnsUtils.isWfcEnabled(mQnsImsManager, mQnsProvisioningListener, false);
+                boolean isWfcEnabled = readWfcEnabled(false);
                 if (mLastWfcEnabled != isWfcEnabled || bForceUpdate) {
-                    if (isWfcEnabled) {
-                        event = QNS_EVENT_WFC_ENABLED;
-                    } else {
-                        event = QNS_EVENT_WFC_DISABLED;
-                    }
                     mLastWfcEnabled = isWfcEnabled;
                     sb.append(", isWfcEnabled:").append(isWfcEnabled);
                     Log.d(mLogTag, sb.toString());
-                    updateHandlers(event);
+                    publishWfcSetting(TOPIC_WFC_ENABLED, isWfcEnabled);
                 }
             } else if (uri.equals(mWfcModeUri)) {
-                int wfcMode = QnsUtils.getWfcMode(mQnsImsManager, false);
+                int wfcMode = readWfcMode(false);
                 if (mLastWfcMode != wfcMode || bForceUpdate) {
-                    switch (wfcMode) {
-                        case WIFI_MODE_WIFI_ONLY:
-                            event = QNS_EVENT_WFC_MODE_TO_WIFI_ONLY;
-                            break;
-                        case WIFI_MODE_CELLULAR_PREFERRED:
-                            event = QNS_EVENT_WFC_MODE_TO_CELLULAR_PREFERRED;
-                            break;
-                        case WIFI_MODE_WIFI_PREFERRED:
-                            event = QNS_EVENT_WFC_MODE_TO_WIFI_PREFERRED;
-                            break;
-                    }
                     mLastWfcMode = wfcMode;
                     sb.append(", wfcMode:").append(wfcMode);
                     Log.d(mLogTag, sb.toString());
-                    updateHandlers(event);
+                    publishWfcSetting(TOPIC_WFC_MODE, wfcMode);
                 }
             } else if (uri.equals(mWfcRoamingEnabledUri)) {
-                boolean isWfcRoamingEnabled =
-                        QnsUtils.isWfcEnabled(mQnsImsManager, mQnsProvisioningListener, true);
+                boolean isWfcRoamingEnabled = readWfcEnabled(true);
                 if (mLastWfcRoamingEnabled != isWfcRoamingEnabled || bForceUpdate) {
-                    if (isWfcRoamingEnabled) {
-                        event = QNS_EVENT_WFC_ROAMING_ENABLED;
-                    } else {
-                        event = QNS_EVENT_WFC_ROAMING_DISABLED;
-                    }
                     mLastWfcRoamingEnabled = isWfcRoamingEnabled;
                     sb.append(", isWfcRoamingEnabled:").append(isWfcRoamingEnabled);
                     Log.d(mLogTag, sb.toString());
-                    updateHandlers(event);
+                    publishWfcSetting(TOPIC_WFC_ROAMING_ENABLED, isWfcRoamingEnabled);
                 }
             } else if (uri.equals(mWfcRoamingModeUri)) {
-                int wfcModeRoaming = QnsUtils.getWfcMode(mQnsImsManager, true);
+                int wfcModeRoaming = readWfcMode(true);
                 if (mLastWfcModeRoaming != wfcModeRoaming || bForceUpdate) {
-                    switch (wfcModeRoaming) {
-                        case WIFI_MODE_WIFI_ONLY:
-                            event = QNS_EVENT_WFC_ROAMING_MODE_TO_WIFI_ONLY;
-                            break;
-                        case WIFI_MODE_CELLULAR_PREFERRED:
-                            event = QNS_EVENT_WFC_ROAMING_MODE_TO_CELLULAR_PREFERRED;
-                            break;
-                        case WIFI_MODE_WIFI_PREFERRED:
-                            event = QNS_EVENT_WFC_ROAMING_MODE_TO_WIFI_PREFERRED;
-                            break;
-                    }
                     mLastWfcModeRoaming = wfcModeRoaming;
                     sb.append(", wfcModeRoaming:").append(wfcModeRoaming);
                     Log.d(mLogTag, sb.toString());
-                    updateHandlers(event);
+                    publishWfcSetting(TOPIC_WFC_ROAMING_MODE, wfcModeRoaming);
                 }
             } else {
                 Log.e(mLogTag, "Unknown Uri : " + uri);
@@ -689,35 +782,165 @@ class QnsEventDispatcher {
     }
 
     void notifyWfcEnabledByPlatform() {
-        boolean isWfcEnabledByPlatform = QnsUtils.isWfcEnabledByPlatform(mQnsImsManager);
+        boolean isWfcEnabledByPlatform = readWfcEnabledByPlatform();
         if (mLastWfcEnabledByPlatform != isWfcEnabledByPlatform) {
             mLastWfcEnabledByPlatform = isWfcEnabledByPlatform;
             Log.d(mLogTag, "notifyWfcEnabledByPlatform:" + isWfcEnabledByPlatform);
-            if (isWfcEnabledByPlatform) {
-                updateHandlers(QNS_EVENT_WFC_PLATFORM_ENABLED);
-            } else {
-                updateHandlers(QNS_EVENT_WFC_PLATFORM_DISABLED);
+            publishWfcSetting(TOPIC_WFC_PLATFORM_ENABLED, isWfcEnabledByPlatform);
+        }
+    }
+
+    private boolean readWfcEnabledByPlatform() {
+        return mWfcSettingsCache.getBoolean(
+                WfcSettingsCache.SETTING_WFC_PLATFORM_ENABLED,
+                () -> QnsUtils.isWfcEnabledByPlatform(mQnsImsManager));
+    }
+
+    private boolean readCrossSimCallingEnabled() {
+        return mWfcSettingsCache.getBoolean(
+                WfcSettingsCache.SETTING_CROSS_SIM_CALLING_ENABLED,
+                () -> QnsUtils.isCrossSimCallingEnabled(mQnsImsManager));
+    }
+
+    private boolean readWfcEnabled(boolean roaming) {
+        return mWfcSettingsCache.getBoolean(
+                roaming
+                        ? WfcSettingsCache.SETTING_WFC_ROAMING_ENABLED
+                        : WfcSettingsCache.SETTING_WFC_ENABLED,
+                () -> QnsUtils.isWfcEnabled(mQnsImsManager, mQnsProvisioningListener, roaming));
+    }
+
+    private int readWfcMode(boolean roaming) {
+        return mWfcSettingsCache.get(
+                roaming
+                        ? WfcSettingsCache.SETTING_WFC_ROAMING_MODE
+                        : WfcSettingsCache.SETTING_WFC_MODE,
+                () -> QnsUtils.getWfcMode(mQnsImsManager, roaming));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void updateHandlers(int event) {
+        QnsEventBus.Topic<?> topic = getTopic(event);
+        if (topic != null && !topic.isSticky()) {
+            Log.d(mLogTag, "Updating handlers for the event: " + event);
+            mEventBus.publish((QnsEventBus.Topic<Integer>) topic, event);
+        }
+    }
+
+    private <T> void publishWfcSetting(QnsEventBus.Topic<T> topic, T value) {
+        mEventBus.publish(topic, value);
+        synchronized (mWfcSettingsBatchLock) {
+            if (mWfcSettingsBatchDepth > 0) {
+                mWfcSettingsChangedInBatch = true;
+                return;
             }
         }
+        mEventBus.publish(TOPIC_WFC_SETTINGS, getWfcSettings());
     }
 
-    private synchronized void updateHandler(Handler handler, int event) {
-        try {
-            if (mEventHandlers.get(event).contains(handler)) {
-                Log.d(mLogTag, "Updating handler for the event: " + event);
-                handler.obtainMessage(event).sendToTarget();
+    /** Holds the composite WFC settings update until {@link #endWfcSettingsBatch}. */
+    private void beginWfcSettingsBatch() {
+        synchronized (mWfcSettingsBatchLock) {
+            mWfcSettingsBatchDepth++;
+        }
+    }
+
+    /** Publishes the composite WFC settings update once for the changes of the batch. */
+    private void endWfcSettingsBatch() {
+        synchronized (mWfcSettingsBatchLock) {
+            if (--mWfcSettingsBatchDepth > 0 || !mWfcSettingsChangedInBatch) {
+                return;
             }
-        } catch (Exception e) {
-            Log.e(mLogTag, "updateHandler got exception e:" + e);
+            mWfcSettingsChangedInBatch = false;
         }
+        mEventBus.publish(TOPIC_WFC_SETTINGS, getWfcSettings());
     }
 
-    private synchronized void updateHandlers(int event) {
-        if (mEventHandlers.contains(event)) {
-            Log.d(mLogTag, "Updating handlers for the event: " + event);
-            for (Handler handler : mEventHandlers.get(event)) {
-                handler.obtainMessage(event).sendToTarget();
+    private WfcSettings getWfcSettings() {
+        return new WfcSettings(
+                mLastWfcEnabledByPlatform,
+                mLastCrossSimCallingEnabled,
+                mLastWfcEnabled,
+                mLastWfcMode,
+                mLastWfcRoamingEnabled,
+                mLastWfcModeRoaming);
+    }
+
+    /** Sets the last values of the WFC setting topics, without delivering them. */
+    private void setWfcSettingsStickyValues() {
+        mEventBus.setStickyValue(TOPIC_WFC_PLATFORM_ENABLED, mLastWfcEnabledByPlatform);
+        mEventBus.setStickyValue(TOPIC_CROSS_SIM_CALLING_ENABLED, mLastCrossSimCallingEnabled);
+        mEventBus.setStickyValue(TOPIC_WFC_ENABLED, mLastWfcEnabled);
+        mEventBus.setStickyValue(TOPIC_WFC_MODE, mLastWfcMode);
+        mEventBus.setStickyValue(TOPIC_WFC_ROAMING_ENABLED, mLastWfcRoamingEnabled);
+        mEventBus.setStickyValue(TOPIC_WFC_ROAMING_MODE, mLastWfcModeRoaming);
+        mEventBus.setStickyValue(TOPIC_WFC_SETTINGS, getWfcSettings());
+    }
+
+    /** Subscriber sending the events registered by a Handler as messages. */
+    private class HandlerSubscriber<T> implements QnsEventBus.Subscriber<T> {
+        private final Handler mHandler;
+        private final Set<Integer> mEvents = new HashSet<>();
+
+        HandlerSubscriber(Handler handler) {
+            mHandler = handler;
+        }
+
+        @Override
+        public void onEvent(QnsEventBus.Topic<T> topic, T value) {
+            int event = toEvent(topic, value);
+            if (!mEvents.contains(event)) {
+                return;
             }
+            try {
+                Log.d(mLogTag, "Updating handler for the event: " + event);
+                mHandler.obtainMessage(event).sendToTarget();
+            } catch (Exception e) {
+                Log.e(mLogTag, "updateHandler got exception e:" + e);
+            }
+        }
+    }
+
+    /** Snapshot of the WFC settings, published on {@link #TOPIC_WFC_SETTINGS}. */
+    static final class WfcSettings {
+        final boolean mWfcEnabledByPlatform;
+        final boolean mCrossSimCallingEnabled;
+        final boolean mWfcEnabled;
+        final int mWfcMode;
+        final boolean mWfcRoamingEnabled;
+        final int mWfcModeRoaming;
+
+        WfcSettings(
+                boolean wfcEnabledByPlatform,
+                boolean crossSimCallingEnabled,
+                boolean wfcEnabled,
+                int wfcMode,
+                boolean wfcRoamingEnabled,
+                int wfcModeRoaming) {
+            mWfcEnabledByPlatform = wfcEnabledByPlatform;
+            mCrossSimCallingEnabled = crossSimCallingEnabled;
+            mWfcEnabled = wfcEnabled;
+            mWfcMode = wfcMode;
+            mWfcRoamingEnabled = wfcRoamingEnabled;
+            mWfcModeRoaming = wfcModeRoaming;
+        }
+
+        @Override
+        public String toString() {
+            return "WfcSettings{"
+                    + "platform="
+                    + mWfcEnabledByPlatform
+                    + ", crossSim="
+                    + mCrossSimCallingEnabled
+                    + ", enabled="
+                    + mWfcEnabled
+                    + ", mode="
+                    + mWfcMode
+                    + ", roamingEnabled="
+                    + mWfcRoamingEnabled
+                    + ", roamingMode="
+                    + mWfcModeRoaming
+                    + '}';
         }
     }
 
@@ -735,21 +958,30 @@ class QnsEventDispatcher {
     }
 
     private synchronized void onUserSettingChanged(Uri uri) {
+        mWfcSettingsCache.recordEvent();
+        // only the setting of the uri is read again, the others are served from the cache.
         if (mCrossSimCallingUri.equals(uri)) {
+            mWfcSettingsCache.invalidate(WfcSettingsCache.SETTING_CROSS_SIM_CALLING_ENABLED);
+            mQnsImsManager.invalidateImsCapabilities(
+                    ImsCapabilityCache.MASK_CROSS_SIM_ENABLED_BY_USER);
             notifyCurrentSetting(uri, false);
         } else if (mWfcEnabledUri.equals(uri)) {
+            mWfcSettingsCache.invalidate(WfcSettingsCache.SETTING_WFC_ENABLED);
             // checks platform changes first.
             notifyWfcEnabledByPlatform();
 
             notifyCurrentSetting(uri, false);
         } else if (mWfcModeUri.equals(uri)) {
+            mWfcSettingsCache.invalidate(WfcSettingsCache.SETTING_WFC_MODE);
             notifyCurrentSetting(uri, false);
         } else if (mWfcRoamingEnabledUri.equals(uri)) {
+            mWfcSettingsCache.invalidate(WfcSettingsCache.SETTING_WFC_ROAMING_ENABLED);
             // checks platform changes first.
             notifyWfcEnabledByPlatform();
 
             notifyCurrentSetting(uri, false);
         } else if (mWfcRoamingModeUri.equals(uri)) {
+            mWfcSettingsCache.invalidate(WfcSettingsCache.SETTING_WFC_ROAMING_MODE);
             notifyCurrentSetting(uri, false);
         }
     }
@@ -773,55 +1005,89 @@ class QnsEventDispatcher {
                     onProvisioningInfoChanged(
                             (QnsProvisioningListener.QnsProvisioningInfo) ar.mResult);
                     break;
+                case EVENT_IMS_STATE_CHANGED:
+                    onImsStateChanged((QnsImsManager.ImsState) ar.mResult);
+                    break;
                 default:
                     break;
             }
         }
     }
 
-    private synchronized void onProvisioningInfoChanged(
-            QnsProvisioningListener.QnsProvisioningInfo info) {
-
-        Log.d(mLogTag, "onProvisioningInfoChanged info:" + info);
-
-        if (!info.equalsIntegerItem(
-                mLastProvisioningInfo,
-                ProvisioningManager.KEY_VOICE_OVER_WIFI_ROAMING_ENABLED_OVERRIDE)) {
-            Log.d(
-                    mLogTag,
-                    "onProvisioningInfoChanged, KEY_VOICE_OVER_WIFI_ROAMING_ENABLED_OVERRIDE("
-                            + ProvisioningManager.KEY_VOICE_OVER_WIFI_ROAMING_ENABLED_OVERRIDE
-                            + ") is provisioned to "
-                            + info.getIntegerItem(
-                                    ProvisioningManager
-                                            .KEY_VOICE_OVER_WIFI_ROAMING_ENABLED_OVERRIDE));
+    private synchronized void onImsStateChanged(QnsImsManager.ImsState imsState) {
+        Log.d(mLogTag, "onImsStateChanged available:" + imsState.isImsAvailable());
+        // the values read while IMS was not ready fall back to the carrier config defaults.
+        mWfcSettingsCache.recordEvent();
+        mWfcSettingsCache.invalidateAll();
+        beginWfcSettingsBatch();
+        try {
             // checks platform changes first.
             notifyWfcEnabledByPlatform();
-            notifyCurrentSetting(mWfcRoamingEnabledUri, false);
-        }
-        if (!info.equalsIntegerItem(
-                mLastProvisioningInfo, ProvisioningManager.KEY_VOICE_OVER_WIFI_MODE_OVERRIDE)) {
-            Log.d(
-                    mLogTag,
-                    "onProvisioningInfoChanged, KEY_VOICE_OVER_WIFI_MODE_OVERRIDE("
-                            + ProvisioningManager.KEY_VOICE_OVER_WIFI_MODE_OVERRIDE
-                            + ") is provisioned to "
-                            + info.getIntegerItem(
-                                    ProvisioningManager.KEY_VOICE_OVER_WIFI_MODE_OVERRIDE));
+            notifyCurrentSetting(mCrossSimCallingUri, false);
+            notifyCurrentSetting(mWfcEnabledUri, false);
             notifyCurrentSetting(mWfcModeUri, false);
+            notifyCurrentSetting(mWfcRoamingEnabledUri, false);
+            notifyCurrentSetting(mWfcRoamingModeUri, false);
+        } finally {
+            endWfcSettingsBatch();
         }
-        if (!info.equalsIntegerItem(
-                mLastProvisioningInfo, ProvisioningManager.KEY_VOICE_OVER_WIFI_ENABLED_OVERRIDE)) {
-            Log.d(
-                    mLogTag,
-                    "onProvisioningInfoChanged, KEY_VOICE_OVER_WIFI_ENABLED_OVERRIDE("
-                            + ProvisioningManager.KEY_VOICE_OVER_WIFI_ENABLED_OVERRIDE
-                            + ") is provisioned to "
-                            + info.getIntegerItem(
-                                    ProvisioningManager.KEY_VOICE_OVER_WIFI_ENABLED_OVERRIDE));
-            // checks platform changes first.
-            notifyWfcEnabledByPlatform();
-            notifyCurrentSetting(mWfcEnabledUri, false);
+    }
+
+    private synchronized void onProvisioningInfoChanged(
+            QnsProvisioningListener.QnsProvisioningInfo info) {
+
+        Log.d(mLogTag, "onProvisioningInfoChanged info:" + info);
+        mWfcSettingsCache.recordEvent();
+        mQnsImsManager.invalidateImsCapabilities(ImsCapabilityCache.MASK_PROVISIONING);
+        beginWfcSettingsBatch();
+        try {
+            if (!info.equalsIntegerItem(
+                    mLastProvisioningInfo,
+                    ProvisioningManager.KEY_VOICE_OVER_WIFI_ROAMING_ENABLED_OVERRIDE)) {
+                Log.d(
+                        mLogTag,
+                        "onProvisioningInfoChanged, KEY_VOICE_OVER_WIFI_ROAMING_ENABLED_OVERRIDE("
+                                + ProvisioningManager.KEY_VOICE_OVER_WIFI_ROAMING_ENABLED_OVERRIDE
+                                + ") is provisioned to "
+                                + info.getIntegerItem(
+                                        ProvisioningManager
+                                                .KEY_VOICE_OVER_WIFI_ROAMING_ENABLED_OVERRIDE));
+                mWfcSettingsCache.invalidate(WfcSettingsCache.SETTING_WFC_PLATFORM_ENABLED);
+                mWfcSettingsCache.invalidate(WfcSettingsCache.SETTING_WFC_ROAMING_ENABLED);
+                // checks platform changes first.
+                notifyWfcEnabledByPlatform();
+                notifyCurrentSetting(mWfcRoamingEnabledUri, false);
+            }
+            if (!info.equalsIntegerItem(
+                    mLastProvisioningInfo, ProvisioningManager.KEY_VOICE_OVER_WIFI_MODE_OVERRIDE)) {
+                Log.d(
+                        mLogTag,
+                        "onProvisioningInfoChanged, KEY_VOICE_OVER_WIFI_MODE_OVERRIDE("
+                                + ProvisioningManager.KEY_VOICE_OVER_WIFI_MODE_OVERRIDE
+                                + ") is provisioned to "
+                                + info.getIntegerItem(
+                                        ProvisioningManager.KEY_VOICE_OVER_WIFI_MODE_OVERRIDE));
+                mWfcSettingsCache.invalidate(WfcSettingsCache.SETTING_WFC_MODE);
+                notifyCurrentSetting(mWfcModeUri, false);
+            }
+            if (!info.equalsIntegerItem(
+                    mLastProvisioningInfo,
+                    ProvisioningManager.KEY_VOICE_OVER_WIFI_ENABLED_OVERRIDE)) {
+                Log.d(
+                        mLogTag,
+                        "onProvisioningInfoChanged, KEY_VOICE_OVER_WIFI_ENABLED_OVERRIDE("
+                                + ProvisioningManager.KEY_VOICE_OVER_WIFI_ENABLED_OVERRIDE
+                                + ") is provisioned to "
+                                + info.getIntegerItem(
+                                        ProvisioningManager.KEY_VOICE_OVER_WIFI_ENABLED_OVERRIDE));
+                mWfcSettingsCache.invalidate(WfcSettingsCache.SETTING_WFC_PLATFORM_ENABLED);
+                mWfcSettingsCache.invalidate(WfcSettingsCache.SETTING_WFC_ENABLED);
+                // checks platform changes first.
+                notifyWfcEnabledByPlatform();
+                notifyCurrentSetting(mWfcEnabledUri, false);
+            }
+        } finally {
+            endWfcSettingsBatch();
         }
 
         mLastProvisioningInfo = info;
@@ -830,4 +1096,25 @@ class QnsEventDispatcher {
     boolean isAirplaneModeToggleOn() {
         return sIsAirplaneModeOn;
     }
+
+    /**
+     * Returns whether WFC is enabled by the platform. The value is served from the cache, which
+     * is invalidated on carrier config, subscription, provisioning and IMS state changes.
+     */
+    boolean isWfcEnabledByPlatform() {
+        return readWfcEnabledByPlatform();
+    }
+
+    /**
+     * Returns whether WFC is enabled for the home or roaming network. The value is served from
+     * the cache, which is also invalidated when the user setting changes.
+     */
+    boolean isWfcEnabled(boolean roaming) {
+        return readWfcEnabled(roaming);
+    }
+
+    /** Returns the WFC mode for the home or roaming network, served from the cache. */
+    int getWfcMode(boolean roaming) {
+        return readWfcMode(roaming);
+    }
 }
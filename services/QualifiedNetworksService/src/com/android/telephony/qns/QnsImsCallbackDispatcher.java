@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Dispatcher of the IMS callbacks of all the slots, shared by the {@link QnsImsManager}s.
+ *
+ * <p>A callback is posted from the binder thread straight onto the handler of its slot, without a
+ * thread of its own in between, and the latency from the binder thread to the handler is counted
+ * per type of callback. No callback is dropped while the slot is alive, since the newest one of
+ * any type carries the state that matters: a SipDialogState callback replaces the one still
+ * pending on the slot, if any, and the others are all run. A backlog of pending callbacks is only
+ * counted as overflowed, to show up in the dump.
+ */
+class QnsImsCallbackDispatcher {
+    private static final String TAG = QnsImsCallbackDispatcher.class.getSimpleName();
+
+    /** ImsStateCallback of MMTEL and RCS. */
+    static final int CALLBACK_IMS_STATE = 0;
+    /** RegistrationCallback of MMTEL and RCS. */
+    static final int CALLBACK_REGISTRATION = 1;
+    /** SipDialogStateCallback of RCS. */
+    static final int CALLBACK_SIP_DIALOG_STATE = 2;
+
+    private static final int CALLBACK_TYPE_COUNT = 3;
+    private static final String[] CALLBACK_NAMES = {"imsState", "registration", "sipDialogState"};
+    /** Count of callbacks pending on the handler of a slot, over which they are overflowed. */
+    @VisibleForTesting static final int MAX_PENDING_CALLBACKS = 64;
+
+    private static final QnsImsCallbackDispatcher sInstance = new QnsImsCallbackDispatcher();
+
+    private final long[] mCounts = new long[CALLBACK_TYPE_COUNT];
+    private final long[] mTotalNanos = new long[CALLBACK_TYPE_COUNT];
+    private final long[] mMaxNanos = new long[CALLBACK_TYPE_COUNT];
+    private final long[] mDropCounts = new long[CALLBACK_TYPE_COUNT];
+    private final long[] mOverflowCounts = new long[CALLBACK_TYPE_COUNT];
+    private final long[] mSupersededCounts = new long[CALLBACK_TYPE_COUNT];
+
+    /** Returns the dispatcher shared by the slots. */
+    static QnsImsCallbackDispatcher getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    QnsImsCallbackDispatcher() {}
+
+    /**
+     * Queue of the IMS callbacks of a slot, onto the handler of the slot.
+     *
+     * <p>The executors of the queue share its pending count, so that a backlog of a type of
+     * callback is counted with the others.
+     */
+    class SlotQueue {
+        private final Handler mHandler;
+        private final AtomicInteger mPendingCount = new AtomicInteger();
+        /** Latest SipDialogState callback not run yet, null if none is pending. */
+        private final AtomicReference<Runnable> mPendingSipDialogState = new AtomicReference<>();
+
+        private SlotQueue(Handler handler) {
+            mHandler = handler;
+        }
+
+        /**
+         * Returns an executor of a type of callback, to register the callback with.
+         *
+         * @param callbackType CALLBACK_* of the callbacks run by the executor.
+         */
+        Executor getExecutor(int callbackType) {
+            return runnable -> post(callbackType, runnable);
+        }
+
+        private void post(int callbackType, Runnable runnable) {
+            if (callbackType == CALLBACK_SIP_DIALOG_STATE) {
+                if (mPendingSipDialogState.getAndSet(runnable) != null) {
+                    // the pending callback runs this one instead, with the latest dialogs.
+                    recordSuperseded(callbackType);
+                    return;
+                }
+            }
+            Runnable task =
+                    callbackType == CALLBACK_SIP_DIALOG_STATE
+                            ? this::runPendingSipDialogState
+                            : runnable;
+            if (mPendingCount.incrementAndGet() > MAX_PENDING_CALLBACKS) {
+                recordOverflow(callbackType);
+            }
+            long postTimeNanos = SystemClock.elapsedRealtimeNanos();
+            boolean posted =
+                    mHandler.post(
+                            () -> {
+                                mPendingCount.decrementAndGet();
+                                record(
+                                        callbackType,
+                                        SystemClock.elapsedRealtimeNanos() - postTimeNanos);
+                                task.run();
+                            });
+            if (!posted) {
+                // the looper of the slot has quit.
+                mPendingCount.decrementAndGet();
+                if (callbackType == CALLBACK_SIP_DIALOG_STATE) {
+                    mPendingSipDialogState.set(null);
+                }
+                recordDrop(callbackType);
+            }
+        }
+
+        private void runPendingSipDialogState() {
+            Runnable runnable = mPendingSipDialogState.getAndSet(null);
+            if (runnable != null) {
+                runnable.run();
+            }
+        }
+
+        @VisibleForTesting
+        int getPendingCount() {
+            return mPendingCount.get();
+        }
+    }
+
+    /**
+     * Creates the queue of the callbacks of a slot.
+     *
+     * @param handler handler of the slot, running the callbacks.
+     * @return the queue of the slot.
+     */
+    SlotQueue createSlotQueue(Handler handler) {
+        return new SlotQueue(handler);
+    }
+
+    private synchronized void record(int callbackType, long latencyNanos) {
+        mCounts[callbackType]++;
+        mTotalNanos[callbackType] += latencyNanos;
+        mMaxNanos[callbackType] = Math.max(mMaxNanos[callbackType], latencyNanos);
+    }
+
+    private void recordDrop(int callbackType) {
+        synchronized (this) {
+            mDropCounts[callbackType]++;
+        }
+        Log.e(TAG, "dropped " + CALLBACK_NAMES[callbackType] + " callback, slot closed");
+    }
+
+    private void recordOverflow(int callbackType) {
+        synchronized (this) {
+            mOverflowCounts[callbackType]++;
+        }
+        Log.w(TAG, "too many callbacks pending, posting " + CALLBACK_NAMES[callbackType]);
+    }
+
+    private synchronized void recordSuperseded(int callbackType) {
+        mSupersededCounts[callbackType]++;
+    }
+
+    @VisibleForTesting
+    synchronized long getCount(int callbackType) {
+        return mCounts[callbackType];
+    }
+
+    @VisibleForTesting
+    synchronized long getDropCount(int callbackType) {
+        return mDropCounts[callbackType];
+    }
+
+    @VisibleForTesting
+    synchronized long getOverflowCount(int callbackType) {
+        return mOverflowCounts[callbackType];
+    }
+
+    @VisibleForTesting
+    synchronized long getSupersededCount(int callbackType) {
+        return mSupersededCounts[callbackType];
+    }
+
+    /**
+     * Dumps the state of {@link QnsImsCallbackDispatcher}
+     *
+     * @param pw {@link PrintWriter} to write the state of the object.
+     * @param prefix String to append at start of dumped log.
+     */
+    synchronized void dump(PrintWriter pw, String prefix) {
+        StringBuilder sb = new StringBuilder(prefix).append("QnsImsCallbackDispatcher:");
+        for (int type = 0; type < CALLBACK_TYPE_COUNT; type++) {
+            sb.append(' ')
+                    .append(CALLBACK_NAMES[type])
+                    .append("[count=")
+                    .append(mCounts[type])
+                    .append(", meanUs=")
+                    .append(mCounts[type] > 0 ? mTotalNanos[type] / mCounts[type] / 1000 : 0)
+                    .append(", maxUs=")
+                    .append(mMaxNanos[type] / 1000)
+                    .append(", dropped=")
+                    .append(mDropCounts[type])
+                    .append(", overflowed=")
+                    .append(mOverflowCounts[type])
+                    .append(", superseded=")
+                    .append(mSupersededCounts[type])
+                    .append(']');
+        }
+        pw.println(sb);
+    }
+}
@@ -48,9 +48,9 @@ import androidx.annotation.NonNull;
 
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -70,9 +70,11 @@ class QnsImsManager {
     private final String mLogTag;
     private final Context mContext;
     private final int mSlotId;
-    private final Executor mExecutor;
     private final Handler mHandler;
     private final HandlerThread mHandlerThread;
+    private final Executor mImsStateExecutor;
+    private final Executor mRegistrationExecutor;
+    private final Executor mSipDialogStateExecutor;
     private int mSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
     private final SubscriptionManager mSubscriptionManager;
     private boolean mQnsImsManagerInitialized;
@@ -86,6 +88,7 @@ class QnsImsManager {
     QnsImsRegistrationCallback mMmtelImsRegistrationCallback;
     QnsImsRegistrationCallback mRcsImsRegistrationCallback;
     QnsSipDialogStateCallback mRcsSipDialogSessionStateCallback;
+    private final ImsCapabilityCache mImsCapabilityCache = new ImsCapabilityCache();
 
     final QnsRegistrantList mMmTelImsStateListener;
     final QnsRegistrantList mRcsImsStateListener;
@@ -101,11 +104,18 @@ class QnsImsManager {
         mSlotId = slotId;
         mLogTag = QnsImsManager.class.getSimpleName() + "_" + mSlotId;
         mContext = context;
-        mExecutor = new QnsImsManagerExecutor();
 
         mHandlerThread = new HandlerThread(mLogTag);
         mHandlerThread.start();
         mHandler = new Handler(mHandlerThread.getLooper());
+        QnsImsCallbackDispatcher.SlotQueue callbackQueue =
+                QnsImsCallbackDispatcher.getInstance().createSlotQueue(mHandler);
+        mImsStateExecutor =
+                callbackQueue.getExecutor(QnsImsCallbackDispatcher.CALLBACK_IMS_STATE);
+        mRegistrationExecutor =
+                callbackQueue.getExecutor(QnsImsCallbackDispatcher.CALLBACK_REGISTRATION);
+        mSipDialogStateExecutor =
+                callbackQueue.getExecutor(QnsImsCallbackDispatcher.CALLBACK_SIP_DIALOG_STATE);
 
         mMmTelImsStateListener = new QnsRegistrantList();
         mRcsImsStateListener = new QnsRegistrantList();
@@ -211,7 +221,7 @@ class QnsImsManager {
                 && mMmTelStateCallback == null) {
             try {
                 QnsImsStateCallback imsStateCallback = new QnsImsStateCallback(feature);
-                mImsMmTelManager.registerImsStateCallback(mExecutor, imsStateCallback);
+                mImsMmTelManager.registerImsStateCallback(mImsStateExecutor, imsStateCallback);
                 log("startTrackingImsState: registered ImsFeature.MMTEL State Callback.");
                 mMmTelStateCallback = imsStateCallback;
             } catch (ImsException e) {
@@ -224,7 +234,7 @@ class QnsImsManager {
                 && mRcsStateCallback == null) {
             try {
                 QnsImsStateCallback rcsStateCallback = new QnsImsStateCallback(feature);
-                mImsRcsManager.registerImsStateCallback(mExecutor, rcsStateCallback);
+                mImsRcsManager.registerImsStateCallback(mImsStateExecutor, rcsStateCallback);
                 log("startTrackingImsState: registered ImsFeature.RCS State Callback.");
                 mRcsStateCallback = rcsStateCallback;
             } catch (ImsException e) {
@@ -242,7 +252,7 @@ class QnsImsManager {
                 QnsImsRegistrationCallback imsRegistrationCallback =
                         new QnsImsRegistrationCallback(feature);
                 mImsMmTelManager.registerImsRegistrationCallback(
-                        mExecutor, imsRegistrationCallback);
+                        mRegistrationExecutor, imsRegistrationCallback);
                 log("startTrackingImsRegistration: registered MMTEL registration callback");
                 mMmtelImsRegistrationCallback = imsRegistrationCallback;
             } catch (ImsException e) {
@@ -256,7 +266,8 @@ class QnsImsManager {
             try {
                 QnsImsRegistrationCallback rcsRegistrationCallback =
                         new QnsImsRegistrationCallback(feature);
-                mImsRcsManager.registerImsRegistrationCallback(mExecutor, rcsRegistrationCallback);
+                mImsRcsManager.registerImsRegistrationCallback(
+                        mRegistrationExecutor, rcsRegistrationCallback);
                 log("startTrackingImsRegistration: registered RCS registration callback");
                 mRcsImsRegistrationCallback = rcsRegistrationCallback;
             } catch (ImsException e) {
@@ -276,7 +287,7 @@ class QnsImsManager {
                 QnsSipDialogStateCallback rcsSipDialogStateCallback =
                         new QnsSipDialogStateCallback();
                 mSipDelegateManager.registerSipDialogStateCallback(
-                        mExecutor, rcsSipDialogStateCallback);
+                        mSipDialogStateExecutor, rcsSipDialogStateCallback);
                 log("startTrackingSipDialogSessionState: registered SipDialogState callback.");
                 mRcsSipDialogSessionStateCallback = rcsSipDialogStateCallback;
             } catch (ImsException e) {
@@ -360,6 +371,7 @@ class QnsImsManager {
         mRcsImsRegistrationCallback = null;
         mRcsSipDialogSessionStateCallback = null;
         mQnsImsManagerInitialized = false;
+        mImsCapabilityCache.invalidate(ImsCapabilityCache.MASK_ALL);
     }
 
     @VisibleForTesting
@@ -381,6 +393,41 @@ class QnsImsManager {
         return mSlotId;
     }
 
+    /**
+     * Invalidates the cached IMS capabilities, e.g. when the provisioning or the carrier config
+     * changed. They are queried again when next read.
+     *
+     * @param mask ImsCapabilityCache.MASK_* of the capabilities changed.
+     */
+    void invalidateImsCapabilities(int mask) {
+        mImsCapabilityCache.invalidate(mask);
+    }
+
+    /**
+     * Loads the IMS capabilities not cached yet, on the thread of the IMS callbacks, so that the
+     * checks done during the evaluation are served from the cache.
+     */
+    private void loadImsCapabilities() {
+        try {
+            isMmTelProvisioningRequired(REGISTRATION_TECH_LTE);
+            isMmTelProvisioningRequired(REGISTRATION_TECH_IWLAN);
+            isVolteProvisioned();
+            isWfcProvisioned();
+            mImsCapabilityCache.get(ImsCapabilityCache.CAPABILITY_GBA_VALID, this::isGbaValid);
+            mImsCapabilityCache.get(
+                    ImsCapabilityCache.CAPABILITY_CROSS_SIM_ENABLED_BY_USER,
+                    this::isCrossSimCallingEnabledByUser);
+        } catch (RuntimeException e) {
+            // not loaded values are queried when read.
+            loge("loadImsCapabilities: " + e);
+        }
+    }
+
+    @VisibleForTesting
+    ImsCapabilityCache getImsCapabilityCache() {
+        return mImsCapabilityCache;
+    }
+
     private synchronized ImsMmTelManager getImsMmTelManagerOrThrowExceptionIfNotReady()
             throws ImsException {
         initQnsImsManager();
@@ -488,6 +535,14 @@ class QnsImsManager {
     }
 
     private boolean isMmTelProvisioningRequired(int tech) {
+        return mImsCapabilityCache.get(
+                tech == REGISTRATION_TECH_LTE
+                        ? ImsCapabilityCache.CAPABILITY_VOLTE_PROVISIONING_REQUIRED
+                        : ImsCapabilityCache.CAPABILITY_WFC_PROVISIONING_REQUIRED,
+                () -> queryMmTelProvisioningRequired(tech));
+    }
+
+    private boolean queryMmTelProvisioningRequired(int tech) {
         if (!SubscriptionManager.isValidSubscriptionId(getSubId())) {
             return false;
         }
@@ -505,6 +560,14 @@ class QnsImsManager {
     }
 
     private boolean getImsProvisionedBoolNoException(int tech) {
+        return mImsCapabilityCache.get(
+                tech == REGISTRATION_TECH_LTE
+                        ? ImsCapabilityCache.CAPABILITY_VOLTE_PROVISIONED
+                        : ImsCapabilityCache.CAPABILITY_WFC_PROVISIONED,
+                () -> queryImsProvisionedBool(tech));
+    }
+
+    private boolean queryImsProvisionedBool(int tech) {
         if (!SubscriptionManager.isValidSubscriptionId(getSubId())) {
             return false;
         }
@@ -525,21 +588,6 @@ class QnsImsManager {
         return QnsUtils.getSubId(mContext, mSlotId);
     }
 
-    private static class QnsImsManagerExecutor implements Executor {
-        private Executor mExecutor;
-
-        @Override
-        public void execute(Runnable runnable) {
-            startExecutorIfNeeded();
-            mExecutor.execute(runnable);
-        }
-
-        private synchronized void startExecutorIfNeeded() {
-            if (mExecutor != null) return;
-            mExecutor = Executors.newSingleThreadExecutor();
-        }
-    }
-
     private class QnsImsStateCallback extends ImsStateCallback {
         int mImsFeature;
         boolean mImsAvailable;
@@ -600,6 +648,13 @@ class QnsImsManager {
             startTrackingImsRegistration(imsFeature);
             startTrackingSipDialogSessionState(imsFeature);
         }
+        if (imsFeature == ImsFeature.FEATURE_MMTEL) {
+            // the IMS service may have been restarted, with other capabilities.
+            mImsCapabilityCache.invalidate(ImsCapabilityCache.MASK_ALL);
+            if (imsAvailable) {
+                loadImsCapabilities();
+            }
+        }
 
         ImsState imsState = new ImsState(imsAvailable);
         notifyImsStateChanged(imsFeature, imsState);
@@ -694,6 +749,9 @@ class QnsImsManager {
             mImsRegistrationState =
                     new ImsRegistrationState(
                             QnsConstants.IMS_REGISTRATION_CHANGED_REGISTERED, transportType, null);
+            if (mImsFeature == ImsFeature.FEATURE_MMTEL) {
+                loadImsCapabilities();
+            }
             notifyImsRegistrationChangedEvent(
                     mImsFeature, new ImsRegistrationState(mImsRegistrationState));
         }
@@ -954,7 +1012,9 @@ class QnsImsManager {
         }
         ImsMmTelManager mmTelManager = getImsMmTelManagerOrThrowExceptionIfNotReady();
         final StateConsumer stateConsumer = new StateConsumer();
-        mmTelManager.getFeatureState(mExecutor, stateConsumer);
+        // the state is accepted on the binder thread, as the caller may be the handler of the slot
+        // blocked waiting for it.
+        mmTelManager.getFeatureState(Runnable::run, stateConsumer);
         int state = stateConsumer.getOrTimeOut(); // ImsFeature.STATE_READY
         log("getImsServiceState state:" + state);
         return state;
@@ -978,7 +1038,8 @@ class QnsImsManager {
         return mContext.getResources()
                         .getBoolean(com.android.internal.R.bool.config_device_wfc_ims_available)
                 && getBooleanCarrierConfig(CarrierConfigManager.KEY_CARRIER_WFC_IMS_AVAILABLE_BOOL)
-                && isGbaValid();
+                && mImsCapabilityCache.get(
+                        ImsCapabilityCache.CAPABILITY_GBA_VALID, this::isGbaValid);
     }
 
     /**
@@ -1025,7 +1086,10 @@ class QnsImsManager {
      * @return true, if cross sim wi-fi calling is enabled.
      */
     boolean isCrossSimCallingEnabled() {
-        boolean userEnabled = isCrossSimCallingEnabledByUser();
+        boolean userEnabled =
+                mImsCapabilityCache.get(
+                        ImsCapabilityCache.CAPABILITY_CROSS_SIM_ENABLED_BY_USER,
+                        this::isCrossSimCallingEnabledByUser);
         boolean platformEnabled = isCrossSimEnabledByPlatform();
         boolean isProvisioned = isWfcProvisionedOnDevice();
 
@@ -1097,6 +1161,18 @@ class QnsImsManager {
         return true;
     }
 
+    /**
+     * Dumps the state of {@link QnsImsManager}
+     *
+     * @param pw {@link PrintWriter} to write the state of the object.
+     * @param prefix String to append at start of dumped log.
+     */
+    void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "------------------------------");
+        pw.println(prefix + mLogTag + ": subId=" + mSubId);
+        mImsCapabilityCache.dump(pw, prefix + "  ");
+    }
+
     protected void log(String s) {
         Log.d(mLogTag, s);
     }
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static com.android.telephony.qns.QnsUtils.getSystemElapsedRealTime;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+
+/**
+ * Decides how closely the quality monitors follow the signal strength, based on the device state
+ * reported by {@link QnsTimer}.
+ *
+ * <p>While the screen is off or the device is idle, the monitors widen the hysteresis of the
+ * signal strength reports, so that the modem and Wi-Fi wake the CPU less often. Full fidelity is
+ * restored as soon as the screen turns on or a call starts, and for a while after an IMS
+ * registration change, since the access network is likely to be re-evaluated then.
+ */
+class QnsMonitoringPolicy {
+    private static final String TAG = QnsMonitoringPolicy.class.getSimpleName();
+
+    /** Signal strength is followed as configured. */
+    static final int FIDELITY_FULL = 0;
+    /** Screen off or light idle, the hysteresis is widened. */
+    static final int FIDELITY_REDUCED = 1;
+    /** Deep idle, the hysteresis is widened further. */
+    static final int FIDELITY_MINIMAL = 2;
+    static final int FIDELITY_COUNT = 3;
+
+    /** Hysteresis added to the configured one, in dB, per fidelity. */
+    private static final int[] HYSTERESIS_DB_OFFSET = {0, 2, 4};
+    /** Minimum hysteresis time of the cellular reports, per fidelity. */
+    private static final int[] MIN_HYSTERESIS_MS = {0, 4000, 10000};
+    /** Minimum change of the Wi-Fi RSSI to process a sample, in dB, per fidelity. */
+    private static final int[] RSSI_DEADBAND_DB = {0, 3, 5};
+    /** Full fidelity is kept for this long after an IMS registration change. */
+    @VisibleForTesting static final long IMS_REGISTRATION_BOOST_MS = 30000;
+
+    private static final int EVENT_DEVICE_STATE_CHANGED = 1;
+    private static final int EVENT_IMS_REGISTRATION_STATE_CHANGED = 2;
+    private static final int EVENT_BOOST_EXPIRED = 3;
+
+    private final QnsTimer mQnsTimer;
+    private final HandlerThread mHandlerThread;
+    @VisibleForTesting final Handler mHandler;
+    private final QnsRegistrantList mFidelityRegistrants = new QnsRegistrantList();
+    private final SparseArray<QnsImsManager> mImsManagers = new SparseArray<>();
+    private int mDeviceState = QnsTimer.DEVICE_STATE_ACTIVE;
+    private boolean mIsBoosted;
+    private volatile int mFidelity = FIDELITY_FULL;
+    private long mFidelitySince = getSystemElapsedRealTime();
+    private final long[] mTimeInFidelity = new long[FIDELITY_COUNT];
+    private int mFidelityChangeCount;
+    private int mBoostCount;
+
+    QnsMonitoringPolicy(QnsTimer qnsTimer) {
+        mQnsTimer = qnsTimer;
+        mHandlerThread = new HandlerThread(TAG);
+        mHandlerThread.start();
+        mHandler = new PolicyHandler(mHandlerThread.getLooper());
+        mQnsTimer.registerDeviceStateChanged(mHandler, EVENT_DEVICE_STATE_CHANGED);
+    }
+
+    @VisibleForTesting
+    QnsMonitoringPolicy(QnsTimer qnsTimer, Looper looper) {
+        mQnsTimer = qnsTimer;
+        mHandlerThread = null;
+        mHandler = new PolicyHandler(looper);
+        mQnsTimer.registerDeviceStateChanged(mHandler, EVENT_DEVICE_STATE_CHANGED);
+    }
+
+    /**
+     * Follows the IMS registration changes of the given slot.
+     *
+     * @param slotIndex slot id
+     * @param imsManager QnsImsManager of the slot
+     */
+    synchronized void addImsManager(int slotIndex, QnsImsManager imsManager) {
+        mImsManagers.put(slotIndex, imsManager);
+        imsManager.registerImsRegistrationStatusChanged(
+                mHandler, EVENT_IMS_REGISTRATION_STATE_CHANGED);
+    }
+
+    /**
+     * Stops following the IMS registration changes of the given slot.
+     *
+     * @param slotIndex slot id
+     */
+    synchronized void removeImsManager(int slotIndex) {
+        QnsImsManager imsManager = mImsManagers.get(slotIndex);
+        if (imsManager != null) {
+            imsManager.unregisterImsRegistrationStatusChanged(mHandler);
+            mImsManagers.remove(slotIndex);
+        }
+    }
+
+    /**
+     * Registers to get the fidelity changes. The current fidelity is notified right away.
+     *
+     * @param h Handler to get an event
+     * @param what message id. The result of the {@link QnsAsyncResult} is the fidelity.
+     */
+    void registerFidelityChanged(Handler h, int what) {
+        QnsRegistrant r = new QnsRegistrant(h, what, null);
+        mFidelityRegistrants.add(r);
+        mHandler.post(() -> r.notifyResult(mFidelity));
+    }
+
+    /**
+     * Unregisters the fidelity changes for given handler.
+     *
+     * @param h Handler
+     */
+    void unregisterFidelityChanged(Handler h) {
+        mFidelityRegistrants.remove(h);
+    }
+
+    /** Returns the current fidelity. */
+    int getFidelity() {
+        return mFidelity;
+    }
+
+    /**
+     * Returns the hysteresis to apply to a group of cellular thresholds. The hysteresis is kept
+     * smaller than the gap between two thresholds, as a larger one would hide the crossing of the
+     * thresholds in between.
+     *
+     * @param fidelity current fidelity
+     * @param hysteresisDb configured hysteresis
+     * @param thresholds sorted thresholds of the group
+     */
+    static int getHysteresisDb(int fidelity, int hysteresisDb, int[] thresholds) {
+        int widened = hysteresisDb + HYSTERESIS_DB_OFFSET[fidelity];
+        for (int i = 1; i < thresholds.length; i++) {
+            widened = Math.min(widened, thresholds[i] - thresholds[i - 1] - 1);
+        }
+        return Math.max(hysteresisDb, widened);
+    }
+
+    /** Returns the hysteresis time to apply to a group of cellular thresholds. */
+    static int getHysteresisMs(int fidelity, int hysteresisMs) {
+        return Math.max(hysteresisMs, MIN_HYSTERESIS_MS[fidelity]);
+    }
+
+    /**
+     * Returns the minimum change of the Wi-Fi RSSI to process a new sample. As the cellular
+     * hysteresis, the deadband is kept smaller than the gap between two thresholds.
+     *
+     * @param fidelity current fidelity
+     * @param thresholds sorted RSSI thresholds
+     */
+    static int getRssiDeadbandDb(int fidelity, int[] thresholds) {
+        int deadband = RSSI_DEADBAND_DB[fidelity];
+        for (int i = 1; i < thresholds.length; i++) {
+            deadband = Math.min(deadband, thresholds[i] - thresholds[i - 1] - 1);
+        }
+        return Math.max(0, deadband);
+    }
+
+    /**
+     * Estimates the callbacks saved by the reduced fidelities, by applying the callback rate seen
+     * in full fidelity to the time spent in the other ones.
+     *
+     * @param callbackCounts number of callbacks received, per fidelity.
+     * @return the estimated number of callbacks saved, 0 if the rate is not known yet.
+     */
+    long estimateSavedCallbacks(int[] callbackCounts) {
+        long[] times = getTimeInFidelity();
+        if (times[FIDELITY_FULL] <= 0) {
+            return 0;
+        }
+        long saved = 0;
+        for (int fidelity = FIDELITY_REDUCED; fidelity < FIDELITY_COUNT; fidelity++) {
+            long expected = callbackCounts[FIDELITY_FULL] * times[fidelity] / times[FIDELITY_FULL];
+            saved += Math.max(0, expected - callbackCounts[fidelity]);
+        }
+        return saved;
+    }
+
+    /** Returns the time spent in every fidelity, in milliseconds. */
+    synchronized long[] getTimeInFidelity() {
+        long[] times = mTimeInFidelity.clone();
+        times[mFidelity] += getSystemElapsedRealTime() - mFidelitySince;
+        return times;
+    }
+
+    private void onImsRegistrationChanged() {
+        mHandler.removeMessages(EVENT_BOOST_EXPIRED);
+        // a delayed message does not wake the device up, so the boost never costs a wakeup.
+        mHandler.sendEmptyMessageDelayed(EVENT_BOOST_EXPIRED, IMS_REGISTRATION_BOOST_MS);
+        if (!mIsBoosted) {
+            mIsBoosted = true;
+            mBoostCount++;
+        }
+        updateFidelity();
+    }
+
+    private void updateFidelity() {
+        int fidelity;
+        if (mIsBoosted || mDeviceState == QnsTimer.DEVICE_STATE_ACTIVE) {
+            fidelity = FIDELITY_FULL;
+        } else if (mDeviceState == QnsTimer.DEVICE_STATE_DEEP_IDLE) {
+            fidelity = FIDELITY_MINIMAL;
+        } else {
+            fidelity = FIDELITY_REDUCED;
+        }
+        synchronized (this) {
+            if (fidelity == mFidelity) {
+                return;
+            }
+            long now = getSystemElapsedRealTime();
+            mTimeInFidelity[mFidelity] += now - mFidelitySince;
+            mFidelitySince = now;
+            Log.d(TAG, "Fidelity changed from " + mFidelity + " to " + fidelity);
+            mFidelity = fidelity;
+            mFidelityChangeCount++;
+        }
+        mFidelityRegistrants.notifyResult(fidelity);
+    }
+
+    private class PolicyHandler extends Handler {
+        PolicyHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case EVENT_DEVICE_STATE_CHANGED:
+                    mDeviceState = (int) ((QnsAsyncResult) msg.obj).mResult;
+                    updateFidelity();
+                    break;
+                case EVENT_IMS_REGISTRATION_STATE_CHANGED:
+                    onImsRegistrationChanged();
+                    break;
+                case EVENT_BOOST_EXPIRED:
+                    mIsBoosted = false;
+                    updateFidelity();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    void close() {
+        mQnsTimer.unregisterDeviceStateChanged(mHandler);
+        synchronized (this) {
+            for (int i = 0; i < mImsManagers.size(); i++) {
+                mImsManagers.valueAt(i).unregisterImsRegistrationStatusChanged(mHandler);
+            }
+            mImsManagers.clear();
+        }
+        mHandler.removeCallbacksAndMessages(null);
+        if (mHandlerThread != null) {
+            mHandlerThread.quitSafely();
+        }
+    }
+
+    /**
+     * Dumps the state of {@link QnsMonitoringPolicy}
+     *
+     * @param pw {@link PrintWriter} to write the state of the object.
+     * @param prefix String to append at start of dumped log.
+     */
+    void dump(PrintWriter pw, String prefix) {
+        long[] times = getTimeInFidelity();
+        pw.println(prefix + "------------------------------");
+        pw.println(prefix + "QnsMonitoringPolicy:");
+        pw.println(
+                prefix
+                        + "mFidelity="
+                        + mFidelity
+                        + ", mDeviceState="
+                        + mDeviceState
+                        + ", mIsBoosted="
+                        + mIsBoosted
+                        + ", mFidelityChangeCount="
+                        + mFidelityChangeCount
+                        + ", mBoostCount="
+                        + mBoostCount);
+        pw.println(
+                prefix
+                        + "time in fidelity: full="
+                        + times[FIDELITY_FULL]
+                        + "ms, reduced="
+                        + times[FIDELITY_REDUCED]
+                        + "ms, minimal="
+                        + times[FIDELITY_MINIMAL]
+                        + "ms");
+    }
+}
@@ -22,6 +22,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.telephony.SubscriptionManager;
 import android.telephony.ims.ProvisioningManager;
 import android.text.TextUtils;
@@ -48,6 +49,7 @@ class QnsProvisioningListener {
     @VisibleForTesting QnsProvisioningHandler mQnsProvisioningHandler;
 
     private final QnsProvisioningCallback mQnsProvisioningCallback;
+    private final QnsUtils.TimestampingExecutor mQnsProvisioningExecutor;
     private final QnsRegistrantList mRegistrantList;
     private ProvisioningManager mProvisioningManager;
     private boolean mIsProvisioningCallbackRegistered;
@@ -65,6 +67,7 @@ class QnsProvisioningListener {
         HandlerThread handlerThread = new HandlerThread(mLogTag);
         handlerThread.start();
         mQnsProvisioningHandler = new QnsProvisioningHandler(handlerThread.getLooper());
+        mQnsProvisioningExecutor = new QnsUtils.TimestampingExecutor(mQnsProvisioningHandler);
 
         registerProvisioningCallback();
         mQnsImsManager.registerImsStateChanged(mQnsProvisioningHandler, EVENT_IMS_STATE_CHANGED);
@@ -105,8 +108,9 @@ class QnsProvisioningListener {
             }
 
             // Register provisioning changed callback
+            // on the listener thread, not queued behind the main looper.
             mProvisioningManager.registerProvisioningChangedCallback(
-                    mContext.getMainExecutor(), mQnsProvisioningCallback);
+                    mQnsProvisioningExecutor, mQnsProvisioningCallback);
 
             // Set the provisioning callback is registered.
             mIsProvisioningCallbackRegistered = true;
@@ -160,8 +164,10 @@ class QnsProvisioningListener {
             QnsRegistrant r = new QnsRegistrant(h, what, userObj);
             mRegistrantList.add(r);
             if (notifyImmediately) {
-                r.notifyRegistrant(
-                        new QnsAsyncResult(null, new QnsProvisioningInfo(mProvisioningInfo), null));
+                QnsProvisioningInfo info = new QnsProvisioningInfo(mProvisioningInfo);
+                // not delivered for a callback, no latency to measure from the last update.
+                info.setUpdateTimeNanos(0);
+                r.notifyRegistrant(new QnsAsyncResult(null, info, null));
             }
         }
     }
@@ -247,6 +253,8 @@ class QnsProvisioningListener {
         private final ConcurrentHashMap<Integer, Integer> mIntegerItems;
         private final ConcurrentHashMap<Integer, String> mStringItems;
         private boolean mUpdated;
+        /** Elapsed realtime in nanoseconds of the first change not notified yet. */
+        private long mUpdateTimeNanos;
 
         QnsProvisioningInfo() {
             mIntegerItems = new ConcurrentHashMap<>();
@@ -260,6 +268,7 @@ class QnsProvisioningListener {
             mIntegerItems.putAll(info.mIntegerItems);
             mStringItems.putAll(info.mStringItems);
             mUpdated = info.mUpdated;
+            mUpdateTimeNanos = info.mUpdateTimeNanos;
         }
 
         @Override
@@ -346,9 +355,21 @@ class QnsProvisioningListener {
         }
 
         void markUpdated(boolean bUpdated) {
+            if (bUpdated && !mUpdated) {
+                mUpdateTimeNanos = SystemClock.elapsedRealtimeNanos();
+            }
             mUpdated = bUpdated;
         }
 
+        private void setUpdateTimeNanos(long updateTimeNanos) {
+            mUpdateTimeNanos = updateTimeNanos;
+        }
+
+        /** Returns the elapsed realtime in nanoseconds of the first change notified with. */
+        long getUpdateTimeNanos() {
+            return mUpdateTimeNanos;
+        }
+
         boolean isUpdated() {
             return mUpdated;
         }
@@ -371,6 +392,20 @@ class QnsProvisioningListener {
         /** Constructor */
         QnsProvisioningCallback() {}
 
+        private void onProvisioningInfoChanged(boolean wasUpdated) {
+            if (!mProvisioningInfo.isUpdated()) {
+                return;
+            }
+            if (!wasUpdated) {
+                // The first change pending dates from the binder call, not from the handler.
+                long callbackTimeNanos = mQnsProvisioningExecutor.getCallbackTimeNanos();
+                if (callbackTimeNanos > 0) {
+                    mProvisioningInfo.setUpdateTimeNanos(callbackTimeNanos);
+                }
+            }
+            mQnsProvisioningHandler.sendNotifyProvisioningInfoChanged();
+        }
+
         /**
          * Called when a provisioning item has changed.
          *
@@ -380,10 +415,9 @@ class QnsProvisioningListener {
         @Override
         public void onProvisioningIntChanged(int item, int value) {
             synchronized (mProvisioningInfo) {
+                boolean wasUpdated = mProvisioningInfo.isUpdated();
                 mProvisioningInfo.setIntegerItem(item, value);
-                if (mProvisioningInfo.isUpdated()) {
-                    mQnsProvisioningHandler.sendNotifyProvisioningInfoChanged();
-                }
+                onProvisioningInfoChanged(wasUpdated);
             }
         }
 
@@ -396,10 +430,9 @@ class QnsProvisioningListener {
         @Override
         public void onProvisioningStringChanged(int item, String value) {
             synchronized (mProvisioningInfo) {
+                boolean wasUpdated = mProvisioningInfo.isUpdated();
                 mProvisioningInfo.setStringItem(item, value);
-                if (mProvisioningInfo.isUpdated()) {
-                    mQnsProvisioningHandler.sendNotifyProvisioningInfoChanged();
-                }
+                onProvisioningInfoChanged(wasUpdated);
             }
         }
     }
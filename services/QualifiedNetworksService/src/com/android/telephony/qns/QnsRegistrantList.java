@@ -18,16 +18,28 @@ package com.android.telephony.qns;
 
 import android.os.Handler;
 
-import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
-/** @hide */
+/**
+ * Copy-on-write list of {@link QnsRegistrant}.
+ *
+ * <p>The registrants are kept in an array published through a volatile field: adding or removing
+ * a registrant copies the array under the lock of the list, while notifying iterates the current
+ * array without locking, so that posting to the handlers never blocks the registrations. The
+ * registrants cleared by a garbage collected handler are dropped with the next copy of the array.
+ *
+ * @hide
+ */
 class QnsRegistrantList {
-    protected final ArrayList<QnsRegistrant> mRegistrants;
+    private static final QnsRegistrant[] EMPTY = new QnsRegistrant[0];
+
+    private volatile QnsRegistrant[] mRegistrants = EMPTY;
+    /** Set when a notification met a cleared registrant, to drop it with the next change. */
+    private volatile boolean mHasCleared;
+    private final AtomicLong mNotificationCount = new AtomicLong();
 
     /** constructor */
-    QnsRegistrantList() {
-        mRegistrants = new ArrayList<>();
-    }
+    QnsRegistrantList() {}
 
     /**
      * Add each element for the registrant.
@@ -36,7 +48,7 @@ class QnsRegistrantList {
      * @param what message to be delivered
      * @param obj object
      */
-    synchronized void add(Handler h, int what, Object obj) {
+    void add(Handler h, int what, Object obj) {
         add(new QnsRegistrant(h, what, obj));
     }
 
@@ -59,24 +71,48 @@ class QnsRegistrantList {
      * @param r registrant.
      */
     synchronized void add(QnsRegistrant r) {
-        removeCleared();
-        mRegistrants.add(r);
+        QnsRegistrant[] registrants = mHasCleared ? compact(mRegistrants, null) : mRegistrants;
+        QnsRegistrant[] newRegistrants = new QnsRegistrant[registrants.length + 1];
+        System.arraycopy(registrants, 0, newRegistrants, 0, registrants.length);
+        newRegistrants[registrants.length] = r;
+        mRegistrants = newRegistrants;
     }
 
-    /** Remove cleared registrant in list */
-    synchronized void removeCleared() {
-        for (int i = mRegistrants.size() - 1; i >= 0; i--) {
-            QnsRegistrant r = mRegistrants.get(i);
-
-            if (r.mRefH == null) {
-                mRegistrants.remove(i);
+    /**
+     * Returns the registrants not cleared, clearing the ones of the given handler too.
+     *
+     * @param registrants registrants to compact
+     * @param h handler of the registrants to clear, or null
+     */
+    private QnsRegistrant[] compact(QnsRegistrant[] registrants, Handler h) {
+        mHasCleared = false;
+        int count = 0;
+        QnsRegistrant[] kept = new QnsRegistrant[registrants.length];
+        for (QnsRegistrant r : registrants) {
+            Handler rh = r.getHandler();
+            if (rh == null || rh == h) {
+                r.clear();
+            } else {
+                kept[count++] = r;
             }
         }
+        if (count == registrants.length) {
+            return registrants;
+        }
+        QnsRegistrant[] compacted = new QnsRegistrant[count];
+        System.arraycopy(kept, 0, compacted, 0, count);
+        return compacted;
+    }
+
+    /** Remove cleared registrant in list */
+    synchronized void removeCleared() {
+        mRegistrants = compact(mRegistrants, null);
     }
 
     /** Remove all registrant */
     synchronized void removeAll() {
-        mRegistrants.clear();
+        mRegistrants = EMPTY;
+        mHasCleared = false;
     }
 
     /**
@@ -84,8 +120,8 @@ class QnsRegistrantList {
      *
      * @return size
      */
-    synchronized int size() {
-        return mRegistrants.size();
+    int size() {
+        return mRegistrants.length;
     }
 
     /**
@@ -94,14 +130,26 @@ class QnsRegistrantList {
      * @param index index
      * @return Object
      */
-    synchronized Object get(int index) {
-        return mRegistrants.get(index);
+    Object get(int index) {
+        return mRegistrants[index];
     }
 
-    private synchronized void internalNotifyRegistrants(Object result, Throwable exception) {
+    /** Returns the count of notifications delivered to the registrants. */
+    long getNotificationCount() {
+        return mNotificationCount.get();
+    }
+
+    private void internalNotifyRegistrants(Object result, Throwable exception) {
+        int count = 0;
         for (QnsRegistrant registrant : mRegistrants) {
+            if (registrant.getHandler() == null) {
+                mHasCleared = true;
+                continue;
+            }
             registrant.internalNotifyRegistrant(result, exception);
+            count++;
         }
+        mNotificationCount.addAndGet(count);
     }
 
     /** notify registrant */
@@ -133,19 +181,9 @@ class QnsRegistrantList {
      * @param h handler
      */
     synchronized void remove(Handler h) {
-        for (QnsRegistrant r : mRegistrants) {
-            Handler rh;
-
-            rh = r.getHandler();
-
-            /* Clean up both the requested registrant and
-             * any now-collected registrants
-             */
-            if (rh == null || rh == h) {
-                r.clear();
-            }
-        }
-
-        removeCleared();
+        /* Clean up both the requested registrant and
+         * any now-collected registrants
+         */
+        mRegistrants = compact(mRegistrants, h);
     }
 }
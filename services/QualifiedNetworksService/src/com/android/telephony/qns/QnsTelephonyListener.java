@@ -58,14 +58,31 @@ import java.util.function.Consumer;
  */
 class QnsTelephonyListener {
 
-    private static final Archiving<PreciseDataConnectionState>
-            sArchivingPreciseDataConnectionState = new Archiving<>();
+    private static final DataConnectionStateArchive<PreciseDataConnectionState>
+            sArchivingPreciseDataConnectionState = new DataConnectionStateArchive<>();
+
+    /** Fields of {@link QnsTelephonyInfo}, as bits of its changed fields. */
+    static final int INFO_FIELD_VOICE_NETWORK_TYPE = 1 << 0;
+    static final int INFO_FIELD_DATA_NETWORK_TYPE = 1 << 1;
+    static final int INFO_FIELD_DATA_REG_STATE = 1 << 2;
+    /** Roaming or home coverage. */
+    static final int INFO_FIELD_COVERAGE = 1 << 3;
+    static final int INFO_FIELD_REGISTERED_PLMN = 1 << 4;
+    static final int INFO_FIELD_CELLULAR_AVAILABLE = 1 << 5;
+    /** Fields of {@link QnsTelephonyInfoIms} only. */
+    static final int INFO_FIELD_VOPS_SUPPORT = 1 << 6;
+    static final int INFO_FIELD_VOPS_EMERGENCY_SUPPORT = 1 << 7;
+    static final int INFO_FIELD_VOICE_BARRING = 1 << 8;
+    static final int INFO_FIELD_EMERGENCY_BARRING = 1 << 9;
+    static final int INFO_FIELD_ALL = (1 << 10) - 1;
+
     private final String mLogTag;
     private final int mSlotIndex;
     private final Context mContext;
     private final SubscriptionManager mSubscriptionManager;
     private final Handler mHandler;
     private final HandlerThread mHandlerThread;
+    private final QnsUtils.TimestampingExecutor mTelephonyExecutor;
     QnsRegistrantList mCallStateListener = new QnsRegistrantList();
     QnsRegistrantList mSrvccStateListener = new QnsRegistrantList();
     QnsRegistrantList mSubscriptionIdListener = new QnsRegistrantList();
@@ -97,6 +114,7 @@ class QnsTelephonyListener {
                     if ((mSubId != newSubId)
                             && (newSubId != SubscriptionManager.INVALID_SUBSCRIPTION_ID)) {
                         stopTelephonyListener(mSubId); // old
+                        sArchivingPreciseDataConnectionState.removeSubId(mSubId);
                         mSubId = newSubId;
                         onSubscriptionIdChanged(newSubId);
                         startTelephonyListener(newSubId); // new
@@ -114,6 +132,7 @@ class QnsTelephonyListener {
         mHandlerThread = new HandlerThread(QnsTelephonyListener.class.getSimpleName());
         mHandlerThread.start();
         mHandler = new Handler(mHandlerThread.getLooper());
+        mTelephonyExecutor = new QnsUtils.TimestampingExecutor(mHandler);
 
         mSubId = QnsUtils.getSubId(mContext, mSlotIndex);
         startTelephonyListener(mSubId);
@@ -212,8 +231,33 @@ class QnsTelephonyListener {
      */
     void registerQnsTelephonyInfoChanged(
             int netCapability, Handler h, int what, Object userObj, boolean notifyImmediately) {
+        registerQnsTelephonyInfoChanged(
+                netCapability, h, what, userObj, notifyImmediately, INFO_FIELD_ALL);
+    }
+
+    /**
+     * Register an event for QnsTelephonyInfo changed, notified only when one of the given fields
+     * changed.
+     *
+     * @param netCapability Network Capability to be notified.
+     * @param h the Handler to get event.
+     * @param what the event.
+     * @param userObj user object.
+     * @param notifyImmediately set true if want to notify immediately.
+     * @param fieldMask bit mask of the INFO_FIELD_* fields to be notified of.
+     */
+    void registerQnsTelephonyInfoChanged(
+            int netCapability,
+            Handler h,
+            int what,
+            Object userObj,
+            boolean notifyImmediately,
+            int fieldMask) {
         if (h != null) {
-            QnsRegistrant r = new QnsRegistrant(h, what, userObj);
+            QnsRegistrant r =
+                    fieldMask == INFO_FIELD_ALL
+                            ? new QnsRegistrant(h, what, userObj)
+                            : new InfoFieldRegistrant(h, what, userObj, fieldMask);
             QnsRegistrantList netCapabilityRegistrantList =
                     mQnsTelephonyInfoRegistrantMap.get(netCapability);
             if (netCapabilityRegistrantList == null) {
@@ -223,7 +267,14 @@ class QnsTelephonyListener {
             netCapabilityRegistrantList.add(r);
 
             if (notifyImmediately) {
-                r.notifyRegistrant(new QnsAsyncResult(null, getLastQnsTelephonyInfo(), null));
+                // a copy of the current info, with all fields changed and no callback time as
+                // it is not delivered for a callback.
+                new QnsRegistrant(h, what, userObj)
+                        .notifyRegistrant(
+                                new QnsAsyncResult(
+                                        null,
+                                        new QnsTelephonyInfo(getLastQnsTelephonyInfo()),
+                                        null));
             }
         }
     }
@@ -437,7 +488,8 @@ class QnsTelephonyListener {
 
     private void createTelephonyListener() {
         if (mTelephonyListener == null) {
-            mTelephonyListener = new TelephonyListener(mContext.getMainExecutor());
+            // Delivered on the listener thread, not queued behind the main looper.
+            mTelephonyListener = new TelephonyListener(mTelephonyExecutor);
             mTelephonyListener.setServiceStateListener(
                     (ServiceState serviceState) -> {
                         onServiceStateChanged(serviceState);
@@ -494,6 +546,7 @@ class QnsTelephonyListener {
     }
 
     protected void onServiceStateChanged(ServiceState serviceState) {
+        long callbackTimeNanos = mTelephonyExecutor.getCallbackTimeNanos();
         QnsTelephonyInfo newInfo = new QnsTelephonyInfo(mLastQnsTelephonyInfo);
 
         NetworkRegistrationInfo newIwlanNrs =
@@ -567,35 +620,24 @@ class QnsTelephonyListener {
         // Event for VOPS changed
         boolean vopsSupport = isSupportVoPS(newWwanNrs);
         boolean vopsEmergencySupport = isSupportEmergencyService(newWwanNrs);
-        boolean vopsSupportChanged = vopsSupport != mLastQnsTelephonyInfoIms.getVopsSupport();
-        boolean vopsEmergencySupportChanged =
-                vopsEmergencySupport != mLastQnsTelephonyInfoIms.getVopsEmergencySupport();
-
-        if (!newInfo.equals(mLastQnsTelephonyInfo)) {
-            StringBuilder sb = new StringBuilder();
-            if (newInfo.getVoiceNetworkType() != mLastQnsTelephonyInfo.getVoiceNetworkType()) {
-                sb.append(" voiceTech:").append(newInfo.getVoiceNetworkType());
-            }
-            if (newInfo.getDataNetworkType() != mLastQnsTelephonyInfo.getDataNetworkType()) {
-                sb.append(" dataTech:").append(newInfo.getDataNetworkType());
-            }
-            if (newInfo.getDataRegState() != mLastQnsTelephonyInfo.getDataRegState()) {
-                sb.append(" dataRegState:").append(newInfo.getDataRegState());
-            }
-            if (newInfo.isCoverage() != mLastQnsTelephonyInfo.isCoverage()) {
-                sb.append(" coverage:").append(newInfo.isCoverage() ? "ROAM" : "HOME");
-            }
-            if (newInfo.isCellularAvailable() != mLastQnsTelephonyInfo.isCellularAvailable()) {
-                sb.append(" cellAvailable:").append(newInfo.isCellularAvailable());
-            }
-            if (vopsSupportChanged) {
-                sb.append(" VOPS support:").append(vopsSupport);
-            }
-            if (vopsSupportChanged) {
-                sb.append(" VOPS emergency support:").append(vopsEmergencySupport);
-            }
+        int vopsChangedFields = 0;
+        if (vopsSupport != mLastQnsTelephonyInfoIms.getVopsSupport()) {
+            vopsChangedFields |= INFO_FIELD_VOPS_SUPPORT;
+        }
+        if (vopsEmergencySupport != mLastQnsTelephonyInfoIms.getVopsEmergencySupport()) {
+            vopsChangedFields |= INFO_FIELD_VOPS_EMERGENCY_SUPPORT;
+        }
 
-            log("onCellularServiceStateChanged QnsTelephonyInfo:" + sb);
+        // Compare the fields once, for the log and all the registrants.
+        int changedFields = newInfo.getFieldsChangedFrom(mLastQnsTelephonyInfo);
+        if (changedFields != 0) {
+            newInfo.setChangedFields(changedFields);
+            newInfo.setCallbackTimeNanos(callbackTimeNanos);
+            log(
+                    "onCellularServiceStateChanged QnsTelephonyInfo:"
+                            + changedFieldsToString(newInfo, changedFields)
+                            + vopsChangedToString(
+                                    vopsSupport, vopsEmergencySupport, vopsChangedFields));
 
             mLastQnsTelephonyInfo = newInfo;
             mLastQnsTelephonyInfoIms =
@@ -605,20 +647,66 @@ class QnsTelephonyListener {
                             vopsEmergencySupport,
                             mLastQnsTelephonyInfoIms.getVoiceBarring(),
                             mLastQnsTelephonyInfoIms.getEmergencyBarring());
+            mLastQnsTelephonyInfoIms.setChangedFields(changedFields | vopsChangedFields);
+            mLastQnsTelephonyInfoIms.setCallbackTimeNanos(callbackTimeNanos);
             mLastServiceState = serviceState;
             notifyQnsTelephonyInfo(newInfo);
-        } else {
-            if (vopsSupportChanged || vopsEmergencySupportChanged) {
-                log("onCellularServiceStateChanged VoPS enabled" + vopsSupport);
-                log("onCellularServiceStateChanged VoPS EMC support" + vopsEmergencySupport);
-                mLastQnsTelephonyInfoIms.setVopsSupport(vopsSupport);
-                mLastQnsTelephonyInfoIms.setVopsEmergencySupport(vopsEmergencySupport);
-                notifyQnsTelephonyInfoIms(mLastQnsTelephonyInfoIms);
-            }
+        } else if (vopsChangedFields != 0) {
+            log(
+                    "onCellularServiceStateChanged QnsTelephonyInfoIms:"
+                            + vopsChangedToString(
+                                    vopsSupport, vopsEmergencySupport, vopsChangedFields));
+            // A new snapshot, the notified one may still be read by the registrants.
+            QnsTelephonyInfoIms infoIms =
+                    new QnsTelephonyInfoIms(
+                            mLastQnsTelephonyInfoIms,
+                            vopsSupport,
+                            vopsEmergencySupport,
+                            mLastQnsTelephonyInfoIms.getVoiceBarring(),
+                            mLastQnsTelephonyInfoIms.getEmergencyBarring());
+            infoIms.setChangedFields(vopsChangedFields);
+            infoIms.setCallbackTimeNanos(callbackTimeNanos);
+            mLastQnsTelephonyInfoIms = infoIms;
+            notifyQnsTelephonyInfoIms(mLastQnsTelephonyInfoIms);
         }
         mLastServiceState = serviceState;
     }
 
+    private static String changedFieldsToString(QnsTelephonyInfo info, int changedFields) {
+        StringBuilder sb = new StringBuilder();
+        if ((changedFields & INFO_FIELD_VOICE_NETWORK_TYPE) != 0) {
+            sb.append(" voiceTech:").append(info.getVoiceNetworkType());
+        }
+        if ((changedFields & INFO_FIELD_DATA_NETWORK_TYPE) != 0) {
+            sb.append(" dataTech:").append(info.getDataNetworkType());
+        }
+        if ((changedFields & INFO_FIELD_DATA_REG_STATE) != 0) {
+            sb.append(" dataRegState:").append(info.getDataRegState());
+        }
+        if ((changedFields & INFO_FIELD_COVERAGE) != 0) {
+            sb.append(" coverage:").append(info.isCoverage() ? "ROAM" : "HOME");
+        }
+        if ((changedFields & INFO_FIELD_REGISTERED_PLMN) != 0) {
+            sb.append(" plmn:").append(info.getRegisteredPlmn());
+        }
+        if ((changedFields & INFO_FIELD_CELLULAR_AVAILABLE) != 0) {
+            sb.append(" cellAvailable:").append(info.isCellularAvailable());
+        }
+        return sb.toString();
+    }
+
+    private static String vopsChangedToString(
+            boolean vopsSupport, boolean vopsEmergencySupport, int changedFields) {
+        StringBuilder sb = new StringBuilder();
+        if ((changedFields & INFO_FIELD_VOPS_SUPPORT) != 0) {
+            sb.append(" VOPS support:").append(vopsSupport);
+        }
+        if ((changedFields & INFO_FIELD_VOPS_EMERGENCY_SUPPORT) != 0) {
+            sb.append(" VOPS emergency support:").append(vopsEmergencySupport);
+        }
+        return sb.toString();
+    }
+
     boolean isAirplaneModeEnabled() {
         return mLastServiceState.getState() == ServiceState.STATE_POWER_OFF;
     }
@@ -690,7 +778,7 @@ class QnsTelephonyListener {
                     PreciseDataConnectionState archiveState =
                             sArchivingPreciseDataConnectionState.get(
                                     mSubId, newState.getTransportType(), netCapability);
-                    if (archiveState.equals(newState) && lastState == null) {
+                    if (lastState == null && newState.equals(archiveState)) {
                         return false;
                     }
                 }
@@ -710,6 +798,7 @@ class QnsTelephonyListener {
     }
 
     protected void onBarringInfoChanged(BarringInfo barringInfo) {
+        long callbackTimeNanos = mTelephonyExecutor.getCallbackTimeNanos();
         boolean voiceBarringByFactor =
                 barringInfo
                                 .getBarringServiceInfo(BARRING_SERVICE_TYPE_MMTEL_VOICE)
@@ -725,18 +814,27 @@ class QnsTelephonyListener {
                         + voiceBarringByFactor
                         + " emergencyBarringFactor"
                         + emergencyBarringByFactor);
-        boolean changed = false;
+        int changedFields = 0;
         if (mLastQnsTelephonyInfoIms.getVoiceBarring() != voiceBarringByFactor) {
             log(" onBarringInfoChanged voiceBarring changed:" + voiceBarringByFactor);
-            mLastQnsTelephonyInfoIms.setVoiceBarring(voiceBarringByFactor);
-            changed = true;
+            changedFields |= INFO_FIELD_VOICE_BARRING;
         }
         if (mLastQnsTelephonyInfoIms.getEmergencyBarring() != emergencyBarringByFactor) {
             log(" onBarringInfoChanged emergencyBarring changed:" + emergencyBarringByFactor);
-            mLastQnsTelephonyInfoIms.setEmergencyBarring(emergencyBarringByFactor);
-            changed = true;
+            changedFields |= INFO_FIELD_EMERGENCY_BARRING;
         }
-        if (changed) {
+        if (changedFields != 0) {
+            // A new snapshot, the notified one may still be read by the registrants.
+            QnsTelephonyInfoIms infoIms =
+                    new QnsTelephonyInfoIms(
+                            mLastQnsTelephonyInfoIms,
+                            mLastQnsTelephonyInfoIms.getVopsSupport(),
+                            mLastQnsTelephonyInfoIms.getVopsEmergencySupport(),
+                            voiceBarringByFactor,
+                            emergencyBarringByFactor);
+            infoIms.setChangedFields(changedFields);
+            infoIms.setCallbackTimeNanos(callbackTimeNanos);
+            mLastQnsTelephonyInfoIms = infoIms;
             notifyQnsTelephonyInfoIms(mLastQnsTelephonyInfoIms);
         }
     }
@@ -811,21 +909,22 @@ class QnsTelephonyListener {
         void onImsCallDisconnectCauseChanged(@NonNull ImsReasonInfo imsReasonInfo);
     }
 
-    protected static class Archiving<V> {
-        protected HashMap<String, V> mArchiving = new HashMap<>();
-
-        Archiving() {}
+    /** Registrant notified only of the {@link QnsTelephonyInfo} changing one of its fields. */
+    private static class InfoFieldRegistrant extends QnsRegistrant {
+        private final int mFieldMask;
 
-        private String getKey(int subId, int transportType, int netCapability) {
-            return subId + "_" + transportType + "_" + netCapability;
+        InfoFieldRegistrant(Handler h, int what, Object obj, int fieldMask) {
+            super(h, what, obj);
+            mFieldMask = fieldMask;
         }
 
-        void put(int subId, int transportType, int netCapability, V v) {
-            mArchiving.put(getKey(subId, transportType, netCapability), v);
-        }
-
-        V get(int subId, int transportType, int netCapability) {
-            return mArchiving.get(getKey(subId, transportType, netCapability));
+        @Override
+        protected void internalNotifyRegistrant(Object result, Throwable exception) {
+            if (result instanceof QnsTelephonyInfo
+                    && (((QnsTelephonyInfo) result).getChangedFields() & mFieldMask) == 0) {
+                return;
+            }
+            super.internalNotifyRegistrant(result, exception);
         }
     }
 
@@ -957,6 +1056,10 @@ class QnsTelephonyListener {
         private boolean mCoverage;
         private String mRegisteredPlmn;
         private boolean mCellularAvailable;
+        /** Fields changed from the previously notified info, all for an info built anew. */
+        private int mChangedFields = INFO_FIELD_ALL;
+        /** Elapsed realtime in nanoseconds of the callback this info was built from, 0 if none. */
+        private long mCallbackTimeNanos;
 
         QnsTelephonyInfo() {
             mVoiceNetworkType = TelephonyManager.NETWORK_TYPE_UNKNOWN;
@@ -976,6 +1079,48 @@ class QnsTelephonyListener {
             mRegisteredPlmn = info.mRegisteredPlmn;
         }
 
+        /** Returns the bit mask of the INFO_FIELD_* fields changed with this info. */
+        int getChangedFields() {
+            return mChangedFields;
+        }
+
+        void setChangedFields(int changedFields) {
+            mChangedFields = changedFields;
+        }
+
+        /** Returns the elapsed realtime in nanoseconds of the callback, 0 if none. */
+        long getCallbackTimeNanos() {
+            return mCallbackTimeNanos;
+        }
+
+        void setCallbackTimeNanos(long callbackTimeNanos) {
+            mCallbackTimeNanos = callbackTimeNanos;
+        }
+
+        /** Returns the bit mask of the INFO_FIELD_* fields differing from the given info. */
+        int getFieldsChangedFrom(QnsTelephonyInfo info) {
+            int changedFields = 0;
+            if (mVoiceNetworkType != info.mVoiceNetworkType) {
+                changedFields |= INFO_FIELD_VOICE_NETWORK_TYPE;
+            }
+            if (mDataNetworkType != info.mDataNetworkType) {
+                changedFields |= INFO_FIELD_DATA_NETWORK_TYPE;
+            }
+            if (mDataRegState != info.mDataRegState) {
+                changedFields |= INFO_FIELD_DATA_REG_STATE;
+            }
+            if (mCoverage != info.mCoverage) {
+                changedFields |= INFO_FIELD_COVERAGE;
+            }
+            if (!mRegisteredPlmn.equals(info.mRegisteredPlmn)) {
+                changedFields |= INFO_FIELD_REGISTERED_PLMN;
+            }
+            if (mCellularAvailable != info.mCellularAvailable) {
+                changedFields |= INFO_FIELD_CELLULAR_AVAILABLE;
+            }
+            return changedFields;
+        }
+
         int getVoiceNetworkType() {
             return mVoiceNetworkType;
         }
@@ -1263,5 +1408,7 @@ class QnsTelephonyListener {
         pw.println(prefix + "mLastQnsTelephonyInfoIms=" + mLastQnsTelephonyInfoIms);
         pw.println(prefix + "mLastServiceState=" + mLastServiceState);
         pw.println(prefix + "mLastPreciseDataConnectionState=" + mLastPreciseDataConnectionState);
+        pw.println(prefix + "sArchivingPreciseDataConnectionState="
+                + sArchivingPreciseDataConnectionState);
     }
 }
@@ -53,6 +53,15 @@ class QnsTimer {
     static final String ACTION_ALARM_TIMER_EXPIRED =
             "com.android.telephony.qns.action.ALARM_TIMER_EXPIRED";
 
+    /** The screen is on or a call is ongoing. */
+    static final int DEVICE_STATE_ACTIVE = 0;
+    /** The screen is off. */
+    static final int DEVICE_STATE_SCREEN_OFF = 1;
+    /** The device is in light idle (doze) mode. */
+    static final int DEVICE_STATE_LIGHT_IDLE = 2;
+    /** The device is in deep idle (doze) mode. */
+    static final int DEVICE_STATE_DEEP_IDLE = 3;
+
     private static final AtomicInteger sTimerId = new AtomicInteger();
     private final Context mContext;
     private final AlarmManager mAlarmManager;
@@ -68,6 +77,8 @@ class QnsTimer {
     @VisibleForTesting Handler mHandler;
     private long mLastAlarmTriggerAtMs = Long.MAX_VALUE;
     private int mCallType = CALL_TYPE_IDLE;
+    private volatile int mDeviceState = DEVICE_STATE_ACTIVE;
+    private final QnsRegistrantList mDeviceStateRegistrants = new QnsRegistrantList();
 
     QnsTimer(Context context) {
         mContext = context;
@@ -157,6 +168,54 @@ class QnsTimer {
                 mMinAlarmTimeMs = MIN_ALARM_SCREEN_OFF_DELAY_MS; // SCREEN_OFF case
             }
         }
+        mHandler.post(this::updateDeviceState);
+    }
+
+    /**
+     * Registers to get the device state changes. The current state is notified right away.
+     *
+     * @param h Handler to get an event
+     * @param what message id. The result of the {@link QnsAsyncResult} is the device state, one
+     *     of {@link #DEVICE_STATE_ACTIVE}, {@link #DEVICE_STATE_SCREEN_OFF}, {@link
+     *     #DEVICE_STATE_LIGHT_IDLE} or {@link #DEVICE_STATE_DEEP_IDLE}.
+     */
+    void registerDeviceStateChanged(Handler h, int what) {
+        QnsRegistrant r = new QnsRegistrant(h, what, null);
+        mDeviceStateRegistrants.add(r);
+        mHandler.post(() -> r.notifyResult(mDeviceState));
+    }
+
+    /**
+     * Unregisters the device state changes for given handler.
+     *
+     * @param h Handler
+     */
+    void unregisterDeviceStateChanged(Handler h) {
+        mDeviceStateRegistrants.remove(h);
+    }
+
+    /** Returns the current device state. */
+    int getDeviceState() {
+        return mDeviceState;
+    }
+
+    /** Re-evaluates the device state and notifies the registrants if it changed. */
+    private void updateDeviceState() {
+        int state;
+        if (!mIsAlarmRequired || mCallType != CALL_TYPE_IDLE) {
+            state = DEVICE_STATE_ACTIVE;
+        } else if (mPowerManager.isDeviceIdleMode()) {
+            state = DEVICE_STATE_DEEP_IDLE;
+        } else if (mPowerManager.isDeviceLightIdleMode()) {
+            state = DEVICE_STATE_LIGHT_IDLE;
+        } else {
+            state = DEVICE_STATE_SCREEN_OFF;
+        }
+        if (state != mDeviceState) {
+            logd("Device state changed from " + mDeviceState + " to " + state);
+            mDeviceState = state;
+            mDeviceStateRegistrants.notifyResult(state);
+        }
     }
 
     /**
@@ -311,6 +370,9 @@ class QnsTimer {
                 default:
                     break;
             }
+            if (!ACTION_ALARM_TIMER_EXPIRED.equals(action)) {
+                mHandler.post(QnsTimer.this::updateDeviceState);
+            }
         }
     }
 
@@ -426,6 +488,8 @@ class QnsTimer {
                         + mCurrentHandlerTimerId
                         + ", latest timerId="
                         + sTimerId.get()
+                        + ", mDeviceState="
+                        + mDeviceState
                         + ", Current elapsed time="
                         + getSystemElapsedRealTime());
         pw.println(prefix + "mTimerInfos=" + mTimerInfos);
@@ -622,6 +622,11 @@ class QnsUtils {
                 return (T) Integer.valueOf(QnsConstants.KEY_DEFAULT_VALUE);
             case QnsCarrierConfigManager.KEY_QNS_WIFI_RSSI_THRESHOLDBACKHAUL_TIMER_MS_INT:
                 return (T) Integer.valueOf(QnsConstants.DEFAULT_WIFI_BACKHAUL_TIMER);
+            case QnsCarrierConfigManager.KEY_QNS_THRESHOLD_NOTIFICATION_MIN_INTERVAL_MS_INT:
+                return (T)
+                        Integer.valueOf(QnsConstants.DEFAULT_THRESHOLD_NOTIFICATION_MIN_INTERVAL);
+            case QnsCarrierConfigManager.KEY_QNS_WLAN_RTT_RESULT_CACHE_TTL_MS_INT:
+                return (T) Integer.valueOf(QnsConstants.DEFAULT_WLAN_RTT_RESULT_CACHE_TTL);
             case QnsCarrierConfigManager.KEY_QNS_IMS_TRANSPORT_TYPE_INT:
                 return (T) Integer.valueOf(QnsConstants.TRANSPORT_TYPE_ALLOWED_BOTH);
             case QnsCarrierConfigManager.KEY_QNS_MMS_TRANSPORT_TYPE_INT:
@@ -728,6 +733,7 @@ class QnsUtils {
             case CarrierConfigManager.Ims.KEY_IMS_PDN_ENABLED_IN_NO_VOPS_SUPPORT_INT_ARRAY:
                 return (T) new int[] {};
             case QnsCarrierConfigManager.KEY_QNS_WLAN_RTT_BACKHAUL_CHECK_ON_ICMP_PING_STRING:
+            case QnsCarrierConfigManager.KEY_QNS_WIFI_RSSI_FILTER_STRING:
                 return (T) "";
             case QnsCarrierConfigManager
                     .KEY_QNS_FALLBACK_ON_INITIAL_CONNECTION_FAILURE_STRING_ARRAY:
@@ -825,4 +831,41 @@ class QnsUtils {
             }
         }
     }
+
+    /**
+     * {@link QnsExecutor} stamping the time a callback is handed over on the binder thread, so that
+     * the queueing delay on the handler is part of the latency measured from the stamp.
+     */
+    protected static class TimestampingExecutor extends QnsExecutor {
+        /** Only accessed on the thread of the handler. */
+        private long mCallbackTimeNanos;
+
+        TimestampingExecutor(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            long callbackTimeNanos = SystemClock.elapsedRealtimeNanos();
+            super.execute(
+                    () -> {
+                        mCallbackTimeNanos = callbackTimeNanos;
+                        try {
+                            command.run();
+                        } finally {
+                            mCallbackTimeNanos = 0;
+                        }
+                    });
+        }
+
+        /**
+         * Returns the elapsed realtime in nanoseconds the running callback was handed over at, to
+         * be called from the callback on the thread of the handler.
+         *
+         * @return the time of the callback, 0 if not called from a callback of this executor.
+         */
+        long getCallbackTimeNanos() {
+            return mCallbackTimeNanos;
+        }
+    }
 }
@@ -16,6 +16,7 @@
 package com.android.telephony.qns;
 
 import android.content.Context;
+import android.os.Looper;
 import android.util.Log;
 
 import java.io.PrintWriter;
@@ -36,18 +37,41 @@ abstract class QualityMonitor {
     protected static final int EVENT_WIFI_STATE_CHANGED = BASE + 3;
     protected static final int EVENT_WIFI_NOTIFY_TIMER_EXPIRED = BASE + 4;
     protected static final int EVENT_SUBSCRIPTION_ID_CHANGED = BASE + 5;
+    protected static final int EVENT_SIGNAL_STRENGTH_REQUEST_UPDATE = BASE + 6;
+    protected static final int EVENT_MONITORING_FIDELITY_CHANGED = BASE + 7;
     private final String mTag;
     protected Context mContext;
     protected final HashMap<String, IThresholdListener> mThresholdCallbackMap = new HashMap<>();
     protected final ConcurrentHashMap<String, List<Threshold>> mThresholdsList =
             new ConcurrentHashMap<>();
     protected final HashMap<String, Boolean> mWaitingThresholds = new HashMap<>();
+    protected final ThresholdCrossingIndex mCrossingIndex = new ThresholdCrossingIndex();
+    protected ThresholdNotificationGate mNotificationGate;
+    /** Elapsed realtime in nanoseconds of the last framework callback, 0 if none. */
+    protected volatile long mLastCallbackTimeNanos;
 
     /** To-Do: For future use. */
     protected QualityMonitor(String tag) {
         mTag = tag;
     }
 
+    /**
+     * Creates the gate applied to the threshold notifications. Held notifications are delivered
+     * on the given looper.
+     */
+    protected void initNotificationGate(Looper looper) {
+        mNotificationGate =
+                new ThresholdNotificationGate(mTag, looper, this::deliverThresholdChange);
+    }
+
+    /**
+     * Returns the elapsed realtime in nanoseconds of the last framework callback reporting the
+     * quality, 0 if none. Used to measure the latency up to the evaluation it triggers.
+     */
+    long getLastCallbackTimeNanos() {
+        return mLastCallbackTimeNanos;
+    }
+
     /** Get current Quality based on access network & measurement type */
     abstract int getCurrentQuality(int accessNetwork, int measurementType);
 
@@ -69,8 +93,42 @@ abstract class QualityMonitor {
         mThresholdCallbackMap.remove(key);
         mThresholdsList.remove(key);
         mWaitingThresholds.remove(key);
+        mCrossingIndex.remove(key);
+        mNotificationGate.remove(key);
+    }
+
+    /**
+     * Sets the minimum interval between two threshold notifications to the listener of the given
+     * netCapability. Notifications within the interval are held and the latest one is delivered
+     * once the interval elapses.
+     *
+     * @param netCapability Network Capability of the listener
+     * @param slotIndex slot id
+     * @param minIntervalMillis minimum interval in milliseconds, 0 to disable.
+     */
+    void setNotificationMinInterval(int netCapability, int slotIndex, long minIntervalMillis) {
+        String key = getKey(netCapability, slotIndex);
+        Log.d(mTag, "Notification interval for key=[" + key + "]: " + minIntervalMillis);
+        mNotificationGate.setMinInterval(key, netCapability, minIntervalMillis);
     }
 
+    /**
+     * Sets the filter applied to the quality samples before threshold matching, for the carrier
+     * of the given slot. Monitors which don't filter their samples ignore it.
+     *
+     * @param slotIndex slot id
+     * @param config filter config, see {@link SignalFilter#fromConfig(String)}
+     */
+    void setSignalFilter(int slotIndex, String config) {}
+
+    /**
+     * Sets the policy deciding how closely the quality is followed depending on the device state.
+     * Monitors which don't adapt their monitoring ignore it.
+     *
+     * @param policy the monitoring policy
+     */
+    void setMonitoringPolicy(QnsMonitoringPolicy policy) {}
+
     /**
      * It replace/set the new threshold values to listen for the given netCapability.
      *
@@ -92,14 +150,42 @@ abstract class QualityMonitor {
         if (ths == null || ths.length == 0) {
             mThresholdsList.remove(key);
             mWaitingThresholds.remove(key);
+            mCrossingIndex.remove(key);
         } else {
             mThresholdsList.put(key, new ArrayList<>(List.of(ths)));
+            mCrossingIndex.update(key, ths);
         }
+        mNotificationGate.onThresholdsUpdated(key, netCapability, ths);
         Log.d(mTag, "Thresholds stored: " + mThresholdsList);
     }
 
     protected abstract void notifyThresholdChange(String key, Threshold[] ths);
 
+    /**
+     * Passes the matched thresholds through the notification gate, which applies the minimum
+     * interval of the listener.
+     */
+    protected void requestThresholdNotification(String key, Threshold[] ths) {
+        mNotificationGate.submit(key, ths);
+    }
+
+    /**
+     * Forgets the crossing state of a measurement, e.g. when it became unavailable. The next
+     * valid sample notifies every threshold it crosses, even if it repeats the last notification.
+     */
+    protected void resetCrossingState(int accessNetwork, int measurementType) {
+        mCrossingIndex.reset(accessNetwork, measurementType);
+    }
+
+    /** Forgets the crossing state of every measurement. */
+    protected void resetAllCrossingStates() {
+        mCrossingIndex.resetAll();
+    }
+
+    private synchronized void deliverThresholdChange(String key, Threshold[] ths) {
+        notifyThresholdChange(key, ths);
+    }
+
     /**
      * This method provides unique key to store the hashmap values and need to optimize in future.
      */
@@ -111,6 +197,8 @@ abstract class QualityMonitor {
         mThresholdsList.clear();
         mWaitingThresholds.clear();
         mThresholdCallbackMap.clear();
+        mCrossingIndex.clear();
+        mNotificationGate.clear();
     }
 
     /**
@@ -123,5 +211,7 @@ abstract class QualityMonitor {
         pw.println(prefix + "mThresholdCallbackMap=" + mThresholdCallbackMap);
         pw.println(prefix + "mThresholdsList=" + mThresholdsList);
         pw.println(prefix + "mWaitingThresholds=" + mWaitingThresholds);
+        pw.println(prefix + "mCrossingIndex=" + mCrossingIndex);
+        mNotificationGate.dump(pw, prefix);
     }
 }
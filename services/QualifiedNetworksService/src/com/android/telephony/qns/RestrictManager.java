@@ -37,10 +37,9 @@ import com.android.telephony.qns.DataConnectionStatusTracker.DataConnectionChang
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Prevents HO pingpong between Cellular and IWLAN. Provide Throttling for certain cause. Provide
@@ -75,6 +74,8 @@ class RestrictManager {
             })
     @interface RestrictType {}
 
+    private static final int RESTRICT_TYPE_MAX = RESTRICT_TYPE_FALLBACK_TO_WWAN_RTT_BACKHAUL_FAIL;
+
     static final int RELEASE_EVENT_DISCONNECT = 1;
     static final int RELEASE_EVENT_WIFI_AP_CHANGED = 2;
     static final int RELEASE_EVENT_WFC_PREFER_MODE_CHANGED = 3;
@@ -91,6 +92,8 @@ class RestrictManager {
             })
     @interface ReleaseEvent {}
 
+    private static final int RELEASE_EVENT_MAX = RELEASE_EVENT_IMS_NOT_SUPPORT_RAT;
+
     private static final int EVENT_DATA_CONNECTION_CHANGED = 3001;
     private static final int EVENT_CALL_STATE_CHANGED = 3002;
     private static final int EVENT_SRVCC_STATE_CHANGED = 3003;
@@ -102,6 +105,10 @@ class RestrictManager {
 
     @VisibleForTesting static final int GUARDING_TIMER_HANDOVER_INIT = 30000;
 
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+    /** Restrictions expiring within this time after a wakeup are released with it. */
+    @VisibleForTesting static final long RELEASE_BATCH_WINDOW_MILLIS = 100;
+
     static final HashMap<Integer, int[]> sReleaseEventMap =
             new HashMap<Integer, int[]>() {
                 {
@@ -145,6 +152,8 @@ class RestrictManager {
                 RESTRICT_TYPE_FALLBACK_ON_DATA_CONNECTION_FAIL,
                 RESTRICT_TYPE_FALLBACK_TO_WWAN_RTT_BACKHAUL_FAIL
             };
+    private static final int IGNORABLE_RESTRICTIONS_ON_SINGLE_RAT_MASK =
+            restrictionsToMask(ignorableRestrictionsOnSingleRat);
 
     private QnsCarrierConfigManager mQnsCarrierConfigManager;
     private QnsTelephonyListener mTelephonyListener;
@@ -178,6 +187,8 @@ class RestrictManager {
     private int mLastDataConnectionTransportType;
     private int mFallbackTimerId = -1;
     private boolean mIsTimerRunningOnDataConnectionFail = false;
+    private final FallbackBackoff mFallbackBackoff = new FallbackBackoff();
+    private final RestrictionStore mRestrictionStore;
     private Pair<Integer, Long> mDeferredThrottlingEvent = null;
 
     /** IMS call type */
@@ -185,8 +196,16 @@ class RestrictManager {
     /** Call state from TelephonyCallback.CallStateListener */
     @Annotation.CallState private int mCallState;
 
-    private Map<Integer, RestrictInfo> mRestrictInfos = new ConcurrentHashMap<>();
-    private Map<Restriction, Integer> mRestrictionTimers = new ConcurrentHashMap<>();
+    private final RestrictInfo mWwanRestrictInfo =
+            new RestrictInfo(AccessNetworkConstants.TRANSPORT_TYPE_WWAN);
+    private final RestrictInfo mWlanRestrictInfo =
+            new RestrictInfo(AccessNetworkConstants.TRANSPORT_TYPE_WLAN);
+    /** Timer of the single wakeup releasing the restrictions expiring first. */
+    private int mReleaseTimerId = INVALID_ID;
+    private long mReleaseWakeupTime = NO_DEADLINE;
+    private int mReleaseWakeupCount;
+    private int mExpiredRestrictionCount;
+    private int mRestoredRestrictionCount;
 
     private class RestrictManagerHandler extends Handler {
         RestrictManagerHandler(Looper l) {
@@ -229,23 +248,9 @@ class RestrictManager {
                     break;
 
                 case EVENT_RELEASE_RESTRICTION:
-                    transportType = message.arg1;
-                    Restriction restriction = (Restriction) message.obj;
-                    Log.d(
-                            mLogTag,
-                            "EVENT_RELEASE_RESTRICTION : "
-                                    + QnsConstants.transportTypeToString(transportType)
-                                    + " "
-                                    + restrictTypeToString(restriction.mRestrictType));
-                    if (restriction
-                            == mRestrictInfos
-                                    .get(transportType)
-                                    .getRestrictionMap()
-                                    .get(restriction.mRestrictType)) {
-                        releaseRestriction(transportType, restriction.mRestrictType);
-                        mQnsTimer.unregisterTimer(mRestrictionTimers
-                                .getOrDefault(restriction, INVALID_ID));
-                        mRestrictionTimers.remove(restriction);
+                    // The deadline tells apart a wakeup rescheduled since.
+                    if ((long) message.obj == mReleaseWakeupTime) {
+                        onReleaseWakeup();
                     }
                     break;
 
@@ -318,107 +323,128 @@ class RestrictManager {
         }
     }
 
-    class LowRtpQualityRestriction extends Restriction{
-        private int mReason;
-        LowRtpQualityRestriction(int type, int[] releaseEvents, int restrictTime, int reason) {
-            super(type, releaseEvents, restrictTime);
-            mReason = reason;
+    /**
+     * Restrictions of a transport type.
+     *
+     * <p>The active restrictions are kept as a bit mask of their restriction types, with the
+     * release time and the release events of each restriction in primitive arrays indexed by its
+     * restriction type. The restriction mask changes only when a restriction is added or released,
+     * so it can be used as a key of results derived from the restrictions.
+     */
+    class RestrictInfo {
+        private final int mTransportMode; // AccessNetworkConstants.TRANSPORT_TYPE_WWAN;
+        private volatile int mRestrictionMask;
+        /** Release time in elapsed realtime of each restriction type, 0 if it has no timer. */
+        private final long[] mReleaseTimes = new long[RESTRICT_TYPE_MAX + 1];
+        /** Mask of the release events of each restriction type. */
+        private final int[] mReleaseEventMasks = new int[RESTRICT_TYPE_MAX + 1];
+        /** Mask of the restriction types released by each release event. */
+        private final int[] mReleasedRestrictionMasks = new int[RELEASE_EVENT_MAX + 1];
+        /** Mask of the restriction types released when their release time expires. */
+        private int mTimedRestrictionMask;
+        /** Reasons of the low RTP quality restriction, 0 if it was not added for low RTP. */
+        private int mLowRtpQualityReason;
+
+        RestrictInfo(int transportMode) {
+            mTransportMode = transportMode;
         }
-        int getReason() {
-            return mReason;
+
+        /** Returns the bit mask of the active restriction types. */
+        int getRestrictionMask() {
+            return mRestrictionMask;
         }
-    }
 
-    class Restriction {
-        private final int mRestrictType;
-        final ArrayList<Integer> mReleaseEventList;
-        long mReleaseTime;
+        boolean isRestricted() {
+            return mRestrictionMask != 0;
+        }
 
-        Restriction(int type, int[] releaseEvents, long restrictTime) {
-            mRestrictType = type;
-            if (restrictTime == 0) {
-                mReleaseTime = 0;
-            } else {
-                mReleaseTime = restrictTime + SystemClock.elapsedRealtime();
-                if (restrictTime > 0 && mReleaseTime < 0) {
-                    mReleaseTime = Long.MAX_VALUE;
-                }
-            }
-            if (releaseEvents != null && releaseEvents.length > 0) {
-                mReleaseEventList = new ArrayList<>();
-                for (int i : releaseEvents) {
-                    mReleaseEventList.add(i);
-                }
-            } else {
-                mReleaseEventList = null;
-            }
+        /**
+         * This method returns if the restriction info has given restriction type.
+         *
+         * @param restrictType integer value of restriction type.
+         * @return true if restrictinfo has the restriction; otherwise false.
+         */
+        boolean hasRestrictionType(@RestrictType int restrictType) {
+            return (mRestrictionMask & restrictionToMask(restrictType)) != 0;
         }
 
-        boolean needRelease(int event) {
-            if (mReleaseEventList == null) {
-                return false;
-            }
-            for (Integer i : mReleaseEventList) {
-                if (event == i.intValue()) {
-                    return true;
-                }
-            }
-            return false;
+        long getReleaseTime(@RestrictType int restrictType) {
+            return mReleaseTimes[restrictType];
+        }
+
+        /** Returns the mask of the active restriction types released by the release event. */
+        int getRestrictionsReleasedBy(@ReleaseEvent int event) {
+            return mReleasedRestrictionMasks[event];
         }
 
-        void updateRestrictTime(long timeMillis) {
-            mReleaseTime = SystemClock.elapsedRealtime() + timeMillis;
-            if (timeMillis > 0 && mReleaseTime < 0) {
-                mReleaseTime = Long.MAX_VALUE;
+        /** Returns the earliest release time of the timed restrictions, or NO_DEADLINE. */
+        long getEarliestReleaseTime() {
+            long earliest = NO_DEADLINE;
+            for (int mask = mTimedRestrictionMask; mask != 0; mask &= mask - 1) {
+                earliest = Math.min(earliest, mReleaseTimes[Integer.numberOfTrailingZeros(mask)]);
             }
+            return earliest;
         }
 
-        @Override
-        public String toString() {
-            StringBuilder builder = new StringBuilder();
-            builder.append("[RESTRICTION type:").append(restrictTypeToString(mRestrictType));
-            builder.append(" releaseEvents:( ");
-            if (mReleaseEventList != null) {
-                for (Integer i : mReleaseEventList) {
-                    builder.append(i).append(" ");
+        /** Returns the mask of the timed restrictions expired at the given time. */
+        int getExpiredRestrictions(long elapsedRealtime) {
+            int expiredMask = 0;
+            for (int mask = mTimedRestrictionMask; mask != 0; mask &= mask - 1) {
+                int restrictType = Integer.numberOfTrailingZeros(mask);
+                if (mReleaseTimes[restrictType] <= elapsedRealtime) {
+                    expiredMask |= restrictionToMask(restrictType);
                 }
             }
-            builder.append(") remainedTimeMillis:");
-            if (mReleaseTime == 0) {
-                builder.append("N/A");
-            } else {
-                long remain = mReleaseTime - SystemClock.elapsedRealtime();
-                builder.append(remain);
-            }
-            builder.append("]");
-            return builder.toString();
+            return expiredMask;
         }
-    }
-
-    class RestrictInfo {
-        private int mTransportMode; // AccessNetworkConstants.TRANSPORT_TYPE_WWAN;
-        private HashMap<Integer, Restriction> mRestrictionMap = new HashMap<>();
 
-        RestrictInfo(int transportMode) {
-            mTransportMode = transportMode;
+        void add(@RestrictType int restrictType, int releaseEventMask, long restrictTime) {
+            int restrictionBit = restrictionToMask(restrictType);
+            mReleaseTimes[restrictType] = 0;
+            if (restrictTime != 0) {
+                updateReleaseTime(restrictType, restrictTime);
+            }
+            mReleaseEventMasks[restrictType] = releaseEventMask;
+            for (int event = RELEASE_EVENT_DISCONNECT; event <= RELEASE_EVENT_MAX; event++) {
+                if ((releaseEventMask & releaseEventToMask(event)) != 0) {
+                    mReleasedRestrictionMasks[event] |= restrictionBit;
+                }
+            }
+            mRestrictionMask |= restrictionBit;
         }
 
-        HashMap<Integer, Restriction> getRestrictionMap() {
-            return mRestrictionMap;
+        void updateReleaseTime(@RestrictType int restrictType, long timeMillis) {
+            long releaseTime = SystemClock.elapsedRealtime() + timeMillis;
+            if (timeMillis > 0 && releaseTime < 0) {
+                releaseTime = Long.MAX_VALUE;
+            }
+            mReleaseTimes[restrictType] = releaseTime;
+            if (timeMillis > 0) {
+                mTimedRestrictionMask |= restrictionToMask(restrictType);
+            }
         }
 
-        boolean isRestricted() {
-            return mRestrictionMap.size() != 0;
+        void remove(@RestrictType int restrictType) {
+            int restrictionBit = restrictionToMask(restrictType);
+            mRestrictionMask &= ~restrictionBit;
+            mTimedRestrictionMask &= ~restrictionBit;
+            for (int event = RELEASE_EVENT_DISCONNECT; event <= RELEASE_EVENT_MAX; event++) {
+                mReleasedRestrictionMasks[event] &= ~restrictionBit;
+            }
+            mReleaseTimes[restrictType] = 0;
+            mReleaseEventMasks[restrictType] = 0;
+            if (restrictType == RESTRICT_TYPE_RTP_LOW_QUALITY) {
+                mLowRtpQualityReason = 0;
+            }
         }
 
-        /**
-         * This method returns if the restriction info has given restriction type.
-         *
-         * @param restrictType integer value of restriction type.
-         * @return true if restrictinfo has the restriction; otherwise false.
-         */
-        boolean hasRestrictionType(@RestrictType int restrictType) {
-            return mRestrictionMap.get(restrictType) != null;
+        void clear() {
+            mRestrictionMask = 0;
+            mTimedRestrictionMask = 0;
+            Arrays.fill(mReleaseTimes, 0);
+            Arrays.fill(mReleaseEventMasks, 0);
+            Arrays.fill(mReleasedRestrictionMasks, 0);
+            mLowRtpQualityReason = 0;
         }
 
         @Override
@@ -428,8 +454,23 @@ class RestrictManager {
                     .append(QnsConstants.transportTypeToString(mTransportMode))
                     .append("] : ");
             if (isRestricted()) {
-                for (Restriction restriction : mRestrictionMap.values()) {
-                    builder.append(restriction.toString()).append(" ");
+                for (int mask = mRestrictionMask; mask != 0; mask &= mask - 1) {
+                    int restrictType = Integer.numberOfTrailingZeros(mask);
+                    builder.append("[RESTRICTION type:")
+                            .append(restrictTypeToString(restrictType))
+                            .append(" releaseEvents:( ");
+                    for (int events = mReleaseEventMasks[restrictType];
+                            events != 0;
+                            events &= events - 1) {
+                        builder.append(Integer.numberOfTrailingZeros(events)).append(" ");
+                    }
+                    builder.append(") remainedTimeMillis:");
+                    if (mReleaseTimes[restrictType] == 0) {
+                        builder.append("N/A");
+                    } else {
+                        builder.append(mReleaseTimes[restrictType] - SystemClock.elapsedRealtime());
+                    }
+                    builder.append("] ");
                 }
             } else {
                 builder.append("No restriction");
@@ -444,12 +485,6 @@ class RestrictManager {
             int netCapability,
             DataConnectionStatusTracker dcst,
             int slotId) {
-        mRestrictInfos.put(
-                AccessNetworkConstants.TRANSPORT_TYPE_WWAN,
-                new RestrictInfo(AccessNetworkConstants.TRANSPORT_TYPE_WWAN));
-        mRestrictInfos.put(
-                AccessNetworkConstants.TRANSPORT_TYPE_WLAN,
-                new RestrictInfo(AccessNetworkConstants.TRANSPORT_TYPE_WLAN));
         mSlotId = slotId;
         mLogTag =
                 RestrictManager.class.getSimpleName()
@@ -500,11 +535,80 @@ class RestrictManager {
 
         mCellularNetworkStatusTracker = qnsComponents.getCellularNetworkStatusTracker(mSlotId);
         restrictNonPreferredTransport();
+        mRestrictionStore = qnsComponents.getRestrictionStore();
+        restorePersistedRestrictions();
     }
 
     void clearRestrictions() {
-        mRestrictInfos.get(AccessNetworkConstants.TRANSPORT_TYPE_WWAN).getRestrictionMap().clear();
-        mRestrictInfos.get(AccessNetworkConstants.TRANSPORT_TYPE_WLAN).getRestrictionMap().clear();
+        mWwanRestrictInfo.clear();
+        mWlanRestrictInfo.clear();
+        cancelReleaseWakeup();
+        persistRestrictions();
+    }
+
+    /**
+     * Restores the timed restrictions persisted before a restart of the process. They are
+     * delivered on the handler once the store has read them back.
+     */
+    private void restorePersistedRestrictions() {
+        if (mRestrictionStore == null) {
+            return;
+        }
+        mRestrictionStore.takeRestoredRestrictions(
+                mSlotId, mNetCapability, mHandler::post, this::restoreRestrictions);
+    }
+
+    private void restoreRestrictions(List<RestrictionStore.Restriction> restrictions) {
+        long now = SystemClock.elapsedRealtime();
+        for (RestrictionStore.Restriction restriction : restrictions) {
+            if (getRestrictInfo(restriction.mTransportType) == null
+                    || restriction.mRestrictType < RESTRICT_TYPE_GUARDING
+                    || restriction.mRestrictType > RESTRICT_TYPE_MAX
+                    || restriction.mReleaseTime <= now
+                    || hasRestrictionType(restriction.mTransportType, restriction.mRestrictType)) {
+                // expired, or restricted again since the restart.
+                continue;
+            }
+            Log.d(
+                    mLogTag,
+                    "restore restriction["
+                            + QnsConstants.transportTypeToString(restriction.mTransportType)
+                            + "] "
+                            + restrictTypeToString(restriction.mRestrictType));
+            addRestriction(
+                    restriction.mTransportType,
+                    restriction.mRestrictType,
+                    restriction.mReleaseEventMask,
+                    restriction.mReleaseTime - now,
+                    0);
+            mRestoredRestrictionCount++;
+        }
+    }
+
+    /**
+     * Records the timed restrictions in the restriction store. The low RTP quality restriction is
+     * left out, its reasons belong to the ongoing call.
+     */
+    private void persistRestrictions() {
+        if (mRestrictionStore == null) {
+            return;
+        }
+        List<RestrictionStore.Restriction> restrictions = new ArrayList<>();
+        for (RestrictInfo info : new RestrictInfo[] {mWwanRestrictInfo, mWlanRestrictInfo}) {
+            int mask =
+                    info.mTimedRestrictionMask
+                            & ~restrictionToMask(RESTRICT_TYPE_RTP_LOW_QUALITY);
+            for (; mask != 0; mask &= mask - 1) {
+                int restrictType = Integer.numberOfTrailingZeros(mask);
+                restrictions.add(
+                        new RestrictionStore.Restriction(
+                                info.mTransportMode,
+                                restrictType,
+                                info.mReleaseEventMasks[restrictType],
+                                info.getReleaseTime(restrictType)));
+            }
+        }
+        mRestrictionStore.update(mSlotId, mNetCapability, restrictions);
     }
 
     void close() {
@@ -529,7 +633,7 @@ class RestrictManager {
         if (mNetCapability == NetworkCapabilities.NET_CAPABILITY_IMS) {
             mQnsImsManager.unregisterImsRegistrationStatusChanged(mHandler);
         }
-        mRestrictionTimers.clear();
+        cancelReleaseWakeup();
     }
 
     private void onWfcModeChanged(int prefMode, @QnsConstants.CellularCoverage int coverage) {
@@ -662,26 +766,18 @@ class RestrictManager {
                 && (mImsCallType == QnsConstants.CALL_TYPE_VOICE
                     || mImsCallType == QnsConstants.CALL_TYPE_EMERGENCY)) {
             if (reason > 0) {
-                Restriction restriction =
-                        new LowRtpQualityRestriction(RESTRICT_TYPE_RTP_LOW_QUALITY,
-                                sReleaseEventMap.get(RESTRICT_TYPE_RTP_LOW_QUALITY),
-                                lowRtpQualityRestrictTime,
-                                reason);
                 // If current report has 'no RTP reason' and previous report at previous
                 // transport type doesn't have 'no RTP reason', let's move back to previous
                 // transport type.
                 if ((reason & 1 << QnsConstants.RTP_LOW_QUALITY_REASON_NO_RTP) != 0) {
                     releaseRestriction(QnsUtils.getOtherTransportType(mTransportType),
                             RESTRICT_TYPE_GUARDING, true);
-                    HashMap<Integer, Restriction> restrictionMap = mRestrictInfos
-                            .get(QnsUtils.getOtherTransportType(mTransportType))
-                            .getRestrictionMap();
-                    Restriction restrictionOtherSide = restrictionMap.get(
-                            RESTRICT_TYPE_RTP_LOW_QUALITY);
-                    if (restrictionOtherSide != null
-                            && restrictionOtherSide instanceof LowRtpQualityRestriction) {
-                        int reasonOtherSide =
-                                ((LowRtpQualityRestriction) restrictionOtherSide).getReason();
+                    RestrictInfo infoOtherSide =
+                            getRestrictInfo(QnsUtils.getOtherTransportType(mTransportType));
+                    // the reason is 0 if the restriction was not added for a low RTP quality.
+                    int reasonOtherSide = infoOtherSide.mLowRtpQualityReason;
+                    if (infoOtherSide.hasRestrictionType(RESTRICT_TYPE_RTP_LOW_QUALITY)
+                            && reasonOtherSide != 0) {
                         if ((reasonOtherSide & 1 << QnsConstants.RTP_LOW_QUALITY_REASON_NO_RTP)
                                 == 0) {
                             releaseRestriction(QnsUtils.getOtherTransportType(mTransportType),
@@ -690,7 +786,12 @@ class RestrictManager {
                     }
                 }
                 // If both transport have low RTP quality restriction, let ANE do final decision.
-                addRestriction(mTransportType, restriction, lowRtpQualityRestrictTime);
+                addRestriction(
+                        mTransportType,
+                        RESTRICT_TYPE_RTP_LOW_QUALITY,
+                        releaseEventsToMask(sReleaseEventMap.get(RESTRICT_TYPE_RTP_LOW_QUALITY)),
+                        lowRtpQualityRestrictTime,
+                        reason);
 
                 if (mTransportType == AccessNetworkConstants.TRANSPORT_TYPE_WLAN) {
                     int fallbackReason = mQnsCarrierConfigManager.getQnsIwlanHoRestrictReason();
@@ -746,6 +847,7 @@ class RestrictManager {
     }
 
     private void processDataConnectionConnected(int transportType) {
+        mFallbackBackoff.onSuccess(getFallbackBackoffKey(transportType));
         // Since HO hysterisis Guard timer is expected
         checkToCancelInitialPdnConnectionFailFallback();
         clearInitialPdnConnectionFailFallbackRestriction();
@@ -954,12 +1056,43 @@ class RestrictManager {
 
         checkToCancelInitialPdnConnectionFailFallback();
 
+        long fallbackGuardTimer =
+                mQnsCarrierConfigManager.getFallbackGuardTimerOnInitialConnectionFail(
+                        mNetCapability);
+        int maxBackoffTimer =
+                mQnsCarrierConfigManager.getFallbackMaxBackoffTimerOnInitialConnectionFail(
+                        mNetCapability);
+        if (maxBackoffTimer > 0) {
+            fallbackGuardTimer =
+                    mFallbackBackoff.onFallback(
+                            getFallbackBackoffKey(currTransportType),
+                            fallbackGuardTimer,
+                            maxBackoffTimer);
+        }
         addRestriction(
                 currTransportType,
                 RESTRICT_TYPE_FALLBACK_ON_DATA_CONNECTION_FAIL,
                 sReleaseEventMap.get(RESTRICT_TYPE_FALLBACK_ON_DATA_CONNECTION_FAIL),
-                mQnsCarrierConfigManager.getFallbackGuardTimerOnInitialConnectionFail(
-                        mNetCapability));
+                fallbackGuardTimer);
+    }
+
+    /** Returns the key of the fallback history on the network of the transport type. */
+    private String getFallbackBackoffKey(int transportType) {
+        String networkId = null;
+        if (transportType == AccessNetworkConstants.TRANSPORT_TYPE_WLAN) {
+            if (mWifiBackhaulMonitor != null) {
+                networkId = mWifiBackhaulMonitor.getWifiNetworkId();
+            }
+        } else if (mTelephonyListener != null
+                && mTelephonyListener.getLastQnsTelephonyInfo() != null) {
+            networkId = mTelephonyListener.getLastQnsTelephonyInfo().getRegisteredPlmn();
+        }
+        return FallbackBackoff.getKey(transportType, mNetCapability, networkId);
+    }
+
+    @VisibleForTesting
+    FallbackBackoff getFallbackBackoff() {
+        return mFallbackBackoff;
     }
 
     @VisibleForTesting
@@ -1131,13 +1264,10 @@ class RestrictManager {
 
     private void updateGuardingTimerConditionOnCallState(int prevCallType, int newCallType) {
         int currGuardingTransport = QnsUtils.getOtherTransportType(mTransportType);
-        if (mRestrictInfos.get(currGuardingTransport) == null) return;
-
-        HashMap<Integer, Restriction> restrictionMap =
-                mRestrictInfos.get(currGuardingTransport).getRestrictionMap();
-        Restriction restriction = restrictionMap.get(RESTRICT_TYPE_GUARDING);
+        RestrictInfo info = getRestrictInfo(currGuardingTransport);
+        if (info == null) return;
 
-        if (restriction != null) {
+        if (info.hasRestrictionType(RESTRICT_TYPE_GUARDING)) {
             int prevCallTypeMillis = getGuardingTimeMillis(currGuardingTransport, prevCallType);
             if (prevCallTypeMillis == 0) {
                 return; // We don't need to update minimum guarding timer.
@@ -1150,7 +1280,8 @@ class RestrictManager {
             if (newCallTypeMillis != 0) {
                 // remaining time on current call type
                 long prevCallTypeRemainingMillis =
-                        restriction.mReleaseTime - SystemClock.elapsedRealtime();
+                        info.getReleaseTime(RESTRICT_TYPE_GUARDING)
+                                - SystemClock.elapsedRealtime();
                 int guardTimerElapsed = prevCallTypeMillis - (int) prevCallTypeRemainingMillis;
                 int newGuardTimer = newCallTypeMillis - guardTimerElapsed;
 
@@ -1189,55 +1320,15 @@ class RestrictManager {
         }
     }
 
-    void addRestriction(int transport, Restriction restrictObj, long timeMillis) {
-        boolean needNotify = false;
-        HashMap<Integer, Restriction> restrictionMap =
-                mRestrictInfos.get(transport).getRestrictionMap();
-        Restriction restriction = restrictionMap.get(restrictObj.mRestrictType);
-        Log.d(
-                mLogTag,
-                "addRestriction["
-                        + QnsConstants.transportTypeToString(transport)
-                        + "] "
-                        + restrictTypeToString(restrictObj.mRestrictType)
-                        + " was restrict:"
-                        + (restriction != null)
-                        + " timeMillis:" + timeMillis);
-        if (restriction == null) {
-            restriction = restrictObj;
-            restrictionMap.put(restrictObj.mRestrictType, restriction);
-            Log.d(
-                    mLogTag,
-                    "addRestriction["
-                            + QnsConstants.transportTypeToString(transport)
-                            + "] "
-                            + restriction);
-            needNotify = true;
-        } else {
-            if (timeMillis > 0) {
-                restriction.updateRestrictTime(timeMillis);
-                removeReleaseRestrictionMessage(restriction);
-            }
-            Log.d(
-                    mLogTag,
-                    "updateRestriction["
-                            + QnsConstants.transportTypeToString(transport)
-                            + "] "
-                            + restriction);
-        }
-        if (timeMillis > 0) {
-            sendReleaseRestrictionMessage(transport, restriction);
-        }
-        if (needNotify) {
-            notifyRestrictInfoChanged();
-        }
+    void addRestriction(int transport, int type, int[] releaseEvents, long timeMillis) {
+        addRestriction(transport, type, releaseEventsToMask(releaseEvents), timeMillis, 0);
     }
 
-    void addRestriction(int transport, int type, int[] releaseEvents, long timeMillis) {
+    private void addRestriction(
+            int transport, int type, int releaseEventMask, long timeMillis, int lowRtpReason) {
         boolean needNotify = false;
-        HashMap<Integer, Restriction> restrictionMap =
-                mRestrictInfos.get(transport).getRestrictionMap();
-        Restriction restriction = restrictionMap.get(type);
+        RestrictInfo info = getRestrictInfo(transport);
+        boolean wasRestricted = info.hasRestrictionType(type);
         Log.d(
                 mLogTag,
                 "addRestriction["
@@ -1245,32 +1336,30 @@ class RestrictManager {
                         + "] "
                         + restrictTypeToString(type)
                         + " was restrict:"
-                        + (restriction != null)
+                        + wasRestricted
                         + " timeMillis:" + timeMillis);
-        if (restriction == null) {
-            restriction = new Restriction(type, releaseEvents, timeMillis);
-            restrictionMap.put(type, restriction);
-            Log.d(
-                    mLogTag,
-                    "addRestriction["
-                            + QnsConstants.transportTypeToString(transport)
-                            + "] "
-                            + restriction);
+        if (!wasRestricted) {
+            info.add(type, releaseEventMask, timeMillis);
+            if (type == RESTRICT_TYPE_RTP_LOW_QUALITY) {
+                info.mLowRtpQualityReason = lowRtpReason;
+            }
+            Log.d(mLogTag, "addRestriction" + info);
             needNotify = true;
         } else {
             if (timeMillis > 0) {
-                restriction.updateRestrictTime(timeMillis);
-                removeReleaseRestrictionMessage(restriction);
+                info.updateReleaseTime(type, timeMillis);
             }
-            Log.d(
-                    mLogTag,
-                    "updateRestriction["
-                            + QnsConstants.transportTypeToString(transport)
-                            + "] "
-                            + restriction);
+            Log.d(mLogTag, "updateRestriction" + info);
         }
         if (timeMillis > 0) {
-            sendReleaseRestrictionMessage(transport, restriction);
+            Log.d(
+                    mLogTag,
+                    restrictTypeToString(type)
+                            + " will be released after "
+                            + timeMillis
+                            + " millisecs");
+            scheduleReleaseWakeup(SystemClock.elapsedRealtime());
+            persistRestrictions();
         }
         if (needNotify) {
             notifyRestrictInfoChanged();
@@ -1283,9 +1372,8 @@ class RestrictManager {
 
     void releaseRestriction(int transport, int type, boolean skipNotify) {
         boolean needNotify = false;
-        HashMap<Integer, Restriction> restrictionMap =
-                mRestrictInfos.get(transport).getRestrictionMap();
-        Restriction restriction = restrictionMap.get(type);
+        RestrictInfo info = getRestrictInfo(transport);
+        boolean wasRestricted = info.hasRestrictionType(type);
         Log.d(
                 mLogTag,
                 "releaseRestriction["
@@ -1293,15 +1381,17 @@ class RestrictManager {
                         + "] "
                         + restrictTypeToString(type)
                         + " was restrict:"
-                        + (restriction != null));
-        if (restriction == null) {
+                        + wasRestricted);
+        if (!wasRestricted) {
             Log.d(mLogTag, "no restriction to release " + restrictTypeToString(type) + " " + type);
         } else {
-            if (restriction.mReleaseTime > 0) {
-                removeReleaseRestrictionMessage(restriction);
+            info.remove(type);
+            // A wakeup left for a released restriction only schedules the next one.
+            if (mWwanRestrictInfo.mTimedRestrictionMask == 0
+                    && mWlanRestrictInfo.mTimedRestrictionMask == 0) {
+                cancelReleaseWakeup();
             }
-            restrictionMap.remove(restriction.mRestrictType);
-            mRestrictionTimers.remove(restriction);
+            persistRestrictions();
             needNotify = true;
         }
         if (needNotify && !skipNotify) {
@@ -1310,9 +1400,6 @@ class RestrictManager {
     }
 
     void processReleaseEvent(int transportType, int event) {
-        ArrayList<Integer> releaseList = new ArrayList<>();
-        HashMap<Integer, Restriction> restrictMap =
-                mRestrictInfos.get(transportType).getRestrictionMap();
         Log.d(
                 mLogTag,
                 "processReleaseEvent["
@@ -1320,41 +1407,74 @@ class RestrictManager {
                         + "] "
                         + event);
 
-        for (Integer restrictType : restrictMap.keySet()) {
-            if (restrictMap.get(restrictType).needRelease(event)) {
-                releaseList.add(restrictType);
-            }
-        }
-        for (Integer restrictType : releaseList) {
-            releaseRestriction(transportType, restrictType);
+        int releaseMask = getRestrictInfo(transportType).getRestrictionsReleasedBy(event);
+        for (; releaseMask != 0; releaseMask &= releaseMask - 1) {
+            releaseRestriction(transportType, Integer.numberOfTrailingZeros(releaseMask));
         }
     }
 
-    private void sendReleaseRestrictionMessage(int transportType, Restriction restriction) {
-        if (restriction == null) {
-            Log.e(mLogTag, "sendReleaseRestrictionMessage restriction is null");
+    /**
+     * Schedules the single wakeup at the earliest release time of the timed restrictions of both
+     * transport types, if it changed.
+     *
+     * @param now elapsed realtime the delay of the wakeup is computed from.
+     */
+    private void scheduleReleaseWakeup(long now) {
+        long deadline =
+                Math.min(
+                        mWwanRestrictInfo.getEarliestReleaseTime(),
+                        mWlanRestrictInfo.getEarliestReleaseTime());
+        if (deadline == mReleaseWakeupTime) {
             return;
         }
-        Message msg =
-                mHandler.obtainMessage(EVENT_RELEASE_RESTRICTION, transportType, 0, restriction);
-        long delayInMillis = restriction.mReleaseTime - SystemClock.elapsedRealtime();
-        int timerId = mQnsTimer.registerTimer(msg, delayInMillis);
-        mRestrictionTimers.put(restriction, timerId);
-        Log.d(
-                mLogTag,
-                restrictTypeToString(restriction.mRestrictType)
-                        + " will be released after "
-                        + delayInMillis
-                        + " millisecs");
+        cancelReleaseWakeup();
+        if (deadline == NO_DEADLINE) {
+            return;
+        }
+        Message msg = mHandler.obtainMessage(EVENT_RELEASE_RESTRICTION, deadline);
+        mReleaseTimerId = mQnsTimer.registerTimer(msg, Math.max(0, deadline - now));
+        mReleaseWakeupTime = deadline;
     }
 
-    private void removeReleaseRestrictionMessage(Restriction restriction) {
-        if (restriction == null) {
-            Log.e(mLogTag, "removeReleaseRestrictionMessage restriction is null");
-            return;
+    private void cancelReleaseWakeup() {
+        if (mReleaseTimerId != INVALID_ID) {
+            mQnsTimer.unregisterTimer(mReleaseTimerId);
+        }
+        mReleaseTimerId = INVALID_ID;
+        mReleaseWakeupTime = NO_DEADLINE;
+    }
+
+    /** Releases the restrictions expired at the wakeup in one batch, and schedules the next. */
+    private void onReleaseWakeup() {
+        // The wakeup is for its deadline even if the clock reads a little earlier.
+        long now = Math.max(SystemClock.elapsedRealtime(), mReleaseWakeupTime);
+        cancelReleaseWakeup();
+        mReleaseWakeupCount++;
+        boolean released =
+                releaseExpiredRestrictions(mWwanRestrictInfo, now + RELEASE_BATCH_WINDOW_MILLIS);
+        released |=
+                releaseExpiredRestrictions(mWlanRestrictInfo, now + RELEASE_BATCH_WINDOW_MILLIS);
+        scheduleReleaseWakeup(now);
+        if (released) {
+            persistRestrictions();
+            notifyRestrictInfoChanged();
+        }
+    }
+
+    private boolean releaseExpiredRestrictions(RestrictInfo info, long elapsedRealtime) {
+        int expiredMask = info.getExpiredRestrictions(elapsedRealtime);
+        for (int mask = expiredMask; mask != 0; mask &= mask - 1) {
+            int restrictType = Integer.numberOfTrailingZeros(mask);
+            Log.d(
+                    mLogTag,
+                    "release expired restriction["
+                            + QnsConstants.transportTypeToString(info.mTransportMode)
+                            + "] "
+                            + restrictTypeToString(restrictType));
+            info.remove(restrictType);
+            mExpiredRestrictionCount++;
         }
-        mQnsTimer.unregisterTimer(mRestrictionTimers.getOrDefault(restriction, INVALID_ID));
-        mRestrictionTimers.remove(restriction);
+        return expiredMask != 0;
     }
 
     void registerRestrictInfoChanged(Handler h, int what) {
@@ -1365,73 +1485,60 @@ class RestrictManager {
         mRestrictInfoRegistrant = null;
     }
 
-    @VisibleForTesting
-    boolean isRestricted(int transportType) {
-        if (mRestrictInfos.isEmpty()) return false;
-
-        if (mRestrictInfos.get(transportType) != null) {
-            return mRestrictInfos.get(transportType).isRestricted();
+    private RestrictInfo getRestrictInfo(int transportType) {
+        switch (transportType) {
+            case AccessNetworkConstants.TRANSPORT_TYPE_WWAN:
+                return mWwanRestrictInfo;
+            case AccessNetworkConstants.TRANSPORT_TYPE_WLAN:
+                return mWlanRestrictInfo;
+            default:
+                return null;
         }
+    }
+
+    /**
+     * Returns the bit mask of the restriction types active on the transport type, each restriction
+     * type being the bit {@code 1 << restrictType}. The mask is the same as long as the
+     * restrictions of the transport type are, so it can be used as a cache key.
+     */
+    int getRestrictionMask(int transportType) {
+        RestrictInfo info = getRestrictInfo(transportType);
+        return info != null ? info.getRestrictionMask() : 0;
+    }
 
-        return false;
+    @VisibleForTesting
+    boolean isRestricted(int transportType) {
+        return getRestrictionMask(transportType) != 0;
     }
 
     boolean isRestrictedExceptGuarding(int transportType) {
-        try {
-            RestrictInfo info = mRestrictInfos.get(transportType);
-            int size = info.getRestrictionMap().size();
-            if (info.hasRestrictionType(RESTRICT_TYPE_GUARDING)) {
-                size--;
-            }
-            return size > 0;
-        } catch (Exception e) {
-        }
-        return false;
+        return (getRestrictionMask(transportType) & ~restrictionToMask(RESTRICT_TYPE_GUARDING))
+                != 0;
     }
 
     @VisibleForTesting
     boolean hasRestrictionType(int transportType, int restrictType) {
-        try {
-            if (mRestrictInfos != null) {
-                return mRestrictInfos.get(transportType).hasRestrictionType(restrictType);
-            }
-        } catch (Exception e) {
-
-        }
-        return false;
+        return (getRestrictionMask(transportType) & restrictionToMask(restrictType)) != 0;
     }
 
     /** This method is only for Testing */
     @VisibleForTesting
     protected long getRemainingGuardTimer(int transportType) {
-        return mRestrictInfos
-                        .get(transportType)
-                        .getRestrictionMap()
-                        .get(RESTRICT_TYPE_GUARDING)
-                        .mReleaseTime
+        return getRestrictInfo(transportType).getReleaseTime(RESTRICT_TYPE_GUARDING)
                 - SystemClock.elapsedRealtime();
     }
 
     @VisibleForTesting
     boolean isAllowedOnSingleTransport(int transportType) {
-        if (mRestrictInfos.isEmpty()) return false;
+        RestrictInfo info = getRestrictInfo(transportType);
+        if (info == null) return false;
         Log.d(
                 mLogTag,
                 "isAllowedOnSingleTransport ("
                         + QnsConstants.transportTypeToString(transportType)
                         + ")  restriction :"
-                        + mRestrictInfos.get(transportType).toString());
-        int countIgnorableRestriction = 0;
-        for (int restrictType : ignorableRestrictionsOnSingleRat) {
-            if (mRestrictInfos.get(transportType).hasRestrictionType(restrictType)) {
-                countIgnorableRestriction++;
-            }
-        }
-        if (mRestrictInfos.get(transportType).getRestrictionMap().size()
-                == countIgnorableRestriction) {
-            return true;
-        }
-        return false;
+                        + info.toString());
+        return (info.getRestrictionMask() & ~IGNORABLE_RESTRICTIONS_ON_SINGLE_RAT_MASK) == 0;
     }
 
     void increaseCounterToRestrictIwlanInCall() {
@@ -1452,7 +1559,11 @@ class RestrictManager {
     private void notifyRestrictInfoChanged() {
         Log.d(mLogTag, "notifyRestrictInfoChanged");
         if (mRestrictInfoRegistrant != null) {
-            mRestrictInfoRegistrant.notifyResult(mRestrictInfos);
+            mRestrictInfoRegistrant.notifyResult(
+                    new int[] {
+                        mWwanRestrictInfo.getRestrictionMask(),
+                        mWlanRestrictInfo.getRestrictionMask()
+                    });
 
             // metrics
             sendRestrictionsForMetrics();
@@ -1698,7 +1809,20 @@ class RestrictManager {
                         + QnsConstants.callTypeToString(mImsCallType)
                         + ", mCallState="
                         + QnsConstants.callStateToString(mCallState));
-        pw.println(prefix + "mRestrictInfos=" + mRestrictInfos);
+        pw.println(prefix + "mRestrictInfos=" + mWwanRestrictInfo + ", " + mWlanRestrictInfo);
+        mFallbackBackoff.dump(pw, prefix);
+        pw.println(
+                prefix
+                        + "releaseWakeupInMillis="
+                        + (mReleaseWakeupTime == NO_DEADLINE
+                                ? "N/A"
+                                : mReleaseWakeupTime - SystemClock.elapsedRealtime())
+                        + ", mReleaseWakeupCount="
+                        + mReleaseWakeupCount
+                        + ", mExpiredRestrictionCount="
+                        + mExpiredRestrictionCount
+                        + ", mRestoredRestrictionCount="
+                        + mRestoredRestrictionCount);
     }
 
     private void sendRestrictionsForMetrics() {
@@ -1706,18 +1830,44 @@ class RestrictManager {
             return;
         }
         ArrayList<Integer> wlanRestrictions =
-                new ArrayList<>(
-                        mRestrictInfos
-                                .get(AccessNetworkConstants.TRANSPORT_TYPE_WLAN)
-                                .getRestrictionMap()
-                                .keySet());
+                maskToRestrictions(mWlanRestrictInfo.getRestrictionMask());
         ArrayList<Integer> wwanRestrictions =
-                new ArrayList<>(
-                        mRestrictInfos
-                                .get(AccessNetworkConstants.TRANSPORT_TYPE_WLAN)
-                                .getRestrictionMap()
-                                .keySet());
+                maskToRestrictions(mWlanRestrictInfo.getRestrictionMask());
         mQnsMetrics.reportAtomForRestrictions(mNetCapability, mSlotId,
                 wlanRestrictions, wwanRestrictions, mQnsCarrierConfigManager.getCarrierId());
     }
+
+    private static ArrayList<Integer> maskToRestrictions(int restrictionMask) {
+        ArrayList<Integer> restrictions = new ArrayList<>();
+        for (int mask = restrictionMask; mask != 0; mask &= mask - 1) {
+            restrictions.add(Integer.numberOfTrailingZeros(mask));
+        }
+        return restrictions;
+    }
+
+    private static int restrictionToMask(@RestrictType int restrictType) {
+        return 1 << restrictType;
+    }
+
+    private static int restrictionsToMask(int[] restrictTypes) {
+        int mask = 0;
+        for (int restrictType : restrictTypes) {
+            mask |= restrictionToMask(restrictType);
+        }
+        return mask;
+    }
+
+    private static int releaseEventToMask(@ReleaseEvent int event) {
+        return 1 << event;
+    }
+
+    private static int releaseEventsToMask(int[] releaseEvents) {
+        int mask = 0;
+        if (releaseEvents != null) {
+            for (int event : releaseEvents) {
+                mask |= releaseEventToMask(event);
+            }
+        }
+        return mask;
+    }
 }
@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Persists the timed restrictions of the restrict managers, so that they survive a restart of
+ * the QNS process.
+ *
+ * <p>The restrictions of a restrict manager are written as one line of an append-only journal
+ * each time they change, with their release times in absolute elapsed realtime. Once the journal
+ * holds more than {@link #MAX_RECORD_COUNT} lines, the latest line of each restrict manager is
+ * written to a snapshot through {@link AtomicFile}, and a new journal is started. The snapshot
+ * carries its generation, which names the journal appended after it, so that the journal of the
+ * previous generation is ignored if a crash left it behind.
+ *
+ * <p>The last line of a restrict manager wins when the files are read back; the restrictions
+ * expired in the meantime, or written during another boot, are dropped. A line cut by a crash is
+ * ignored.
+ *
+ * <p>The files are read and written on a background thread. Writes are done at most once per
+ * {@link #MIN_WRITE_INTERVAL_MILLIS} whatever the rate of the changes: the changes in the
+ * meantime are coalesced.
+ */
+class RestrictionStore {
+    private static final String TAG = RestrictionStore.class.getSimpleName();
+    private static final String FILE_NAME = "qns_restrictions";
+    /** Minimum interval between two writes of the file. */
+    static final long MIN_WRITE_INTERVAL_MILLIS = 1000;
+    /** Count of lines above which the journal is compacted into the snapshot. */
+    static final int MAX_RECORD_COUNT = 64;
+    /** Boot count of the lines which can't be tied to a boot. They are never restored. */
+    private static final int UNKNOWN_BOOT_COUNT = -1;
+    /** Prefix of the first line of the snapshot, followed by the generation. */
+    private static final String GENERATION_PREFIX = "#";
+    /** Count of values per restriction in a line. */
+    private static final int VALUES_PER_RESTRICTION = 4;
+    /** Count of values before the restrictions in a line: boot count, slot, network capability. */
+    private static final int HEADER_VALUES = 3;
+
+    /** A persisted timed restriction. */
+    static final class Restriction {
+        final int mTransportType;
+        final int mRestrictType;
+        final int mReleaseEventMask;
+        /** Release time in elapsed realtime. */
+        final long mReleaseTime;
+
+        Restriction(int transportType, int restrictType, int releaseEventMask, long releaseTime) {
+            mTransportType = transportType;
+            mRestrictType = restrictType;
+            mReleaseEventMask = releaseEventMask;
+            mReleaseTime = releaseTime;
+        }
+    }
+
+    private final Supplier<File> mFileSupplier;
+    private final IntSupplier mBootCountSupplier;
+    private final HandlerThread mHandlerThread;
+    private final Handler mHandler;
+    private final Runnable mFlushRunnable = this::flush;
+    private final Object mLock = new Object();
+    /** Latest restrictions per restrict manager key, without the boot count. */
+    private final Map<String, String> mLatest = new HashMap<>();
+    /** Restrictions changed since the last write, per restrict manager key. */
+    private final Map<String, String> mPending = new LinkedHashMap<>();
+    /** Restrictions read back on creation and not yet taken, per restrict manager key. */
+    private final Map<String, List<Restriction>> mRestored = new HashMap<>();
+    /** Snapshot, accessed on the background thread only. */
+    private AtomicFile mFile;
+    /** Generation of the snapshot, accessed on the background thread only. */
+    private int mGeneration;
+    private int mBootCount = UNKNOWN_BOOT_COUNT;
+    private boolean mFlushScheduled;
+    private boolean mClosed;
+    private long mLastWriteUptime = -MIN_WRITE_INTERVAL_MILLIS;
+    private int mRecordCount;
+    private int mWriteCount;
+    private int mCompactionCount;
+    private int mRestoredCount;
+
+    RestrictionStore(Context context) {
+        this(
+                () ->
+                        new File(
+                                context.createDeviceProtectedStorageContext().getFilesDir(),
+                                FILE_NAME),
+                () ->
+                        Settings.Global.getInt(
+                                context.getContentResolver(),
+                                Settings.Global.BOOT_COUNT,
+                                UNKNOWN_BOOT_COUNT),
+                null);
+    }
+
+    @VisibleForTesting
+    RestrictionStore(File file, int bootCount, Looper looper) {
+        this(() -> file, () -> bootCount, looper);
+    }
+
+    private RestrictionStore(
+            Supplier<File> fileSupplier, IntSupplier bootCountSupplier, Looper looper) {
+        mFileSupplier = fileSupplier;
+        mBootCountSupplier = bootCountSupplier;
+        if (looper == null) {
+            mHandlerThread = new HandlerThread(TAG);
+            mHandlerThread.start();
+            looper = mHandlerThread.getLooper();
+        } else {
+            mHandlerThread = null;
+        }
+        mHandler = new Handler(looper);
+        // read on the background thread, the store is created on the main thread.
+        mHandler.post(this::load);
+    }
+
+    private static String getKey(int slotId, int netCapability) {
+        return slotId + " " + netCapability;
+    }
+
+    private File getJournalFile(int generation) {
+        return new File(mFile.getBaseFile().getPath() + "." + generation + ".log");
+    }
+
+    /** Reads back the latest restrictions, dropping the expired ones. */
+    private void load() {
+        mBootCount = mBootCountSupplier.getAsInt();
+        mFile = new AtomicFile(mFileSupplier.get());
+        Map<String, String[]> lines = new HashMap<>();
+        int recordCount = 0;
+        try (InputStream in = mFile.openRead()) {
+            recordCount += readLines(in, lines, true);
+        } catch (FileNotFoundException e) {
+            // nothing compacted yet.
+        } catch (IOException e) {
+            Log.e(TAG, "failed to read restrictions: " + e);
+        }
+        File journal = getJournalFile(mGeneration);
+        if (journal.exists()) {
+            try (InputStream in = new FileInputStream(journal)) {
+                recordCount += readLines(in, lines, false);
+            } catch (IOException e) {
+                Log.e(TAG, "failed to read restrictions: " + e);
+            }
+        }
+        if (mGeneration > 0) {
+            // left behind by a crash right after the compaction.
+            getJournalFile(mGeneration - 1).delete();
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        synchronized (mLock) {
+            mRecordCount += recordCount;
+            for (Map.Entry<String, String[]> entry : lines.entrySet()) {
+                restore(entry.getKey(), entry.getValue(), now);
+            }
+        }
+        Log.d(TAG, "restored " + mRestoredCount + " restrictions from " + recordCount + " lines");
+    }
+
+    /**
+     * Reads the lines of a file, the last line of a restrict manager replacing the previous ones.
+     *
+     * @return count of lines read.
+     */
+    private int readLines(InputStream in, Map<String, String[]> lines, boolean snapshot)
+            throws IOException {
+        BufferedReader reader =
+                new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        int count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (snapshot && line.startsWith(GENERATION_PREFIX)) {
+                try {
+                    mGeneration = Integer.parseInt(line.substring(GENERATION_PREFIX.length()));
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "ignore malformed generation: " + line);
+                }
+                continue;
+            }
+            count++;
+            String[] values = line.split(" ");
+            if (values.length < HEADER_VALUES
+                    || (values.length - HEADER_VALUES) % VALUES_PER_RESTRICTION != 0) {
+                Log.w(TAG, "ignore malformed line: " + line);
+                continue;
+            }
+            lines.put(values[1] + " " + values[2], values);
+        }
+        return count;
+    }
+
+    private void restore(String key, String[] values, long now) {
+        if (mBootCount == UNKNOWN_BOOT_COUNT || !values[0].equals(Integer.toString(mBootCount))) {
+            return;
+        }
+        if (mLatest.containsKey(key)) {
+            // updated by the restrict manager before the file was read.
+            return;
+        }
+        try {
+            List<Restriction> restrictions = new ArrayList<>();
+            for (int i = HEADER_VALUES; i < values.length; i += VALUES_PER_RESTRICTION) {
+                Restriction restriction =
+                        new Restriction(
+                                Integer.parseInt(values[i]),
+                                Integer.parseInt(values[i + 1]),
+                                Integer.parseInt(values[i + 2]),
+                                Long.parseLong(values[i + 3]));
+                if (restriction.mReleaseTime > now) {
+                    restrictions.add(restriction);
+                }
+            }
+            if (!restrictions.isEmpty()) {
+                // an update to no restriction has to overwrite the line.
+                mLatest.put(key, String.join(" ", values).substring(values[0].length() + 1));
+                mRestored.put(key, restrictions);
+                mRestoredCount += restrictions.size();
+            }
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "ignore malformed restrictions of " + key);
+        }
+    }
+
+    /**
+     * Takes the restrictions of a restrict manager read back on creation and not expired yet.
+     * They are delivered once the file is read, once, to the first restrict manager of the slot
+     * and network capability. Nothing is delivered if there is none.
+     *
+     * @param slotId slot index
+     * @param netCapability network capability of the restrict manager
+     * @param executor executor on which the restrictions are delivered
+     * @param consumer receives the restrictions.
+     */
+    void takeRestoredRestrictions(
+            int slotId,
+            int netCapability,
+            Executor executor,
+            Consumer<List<Restriction>> consumer) {
+        String key = getKey(slotId, netCapability);
+        mHandler.post(
+                () -> {
+                    List<Restriction> restrictions;
+                    synchronized (mLock) {
+                        restrictions = mRestored.remove(key);
+                    }
+                    if (restrictions != null) {
+                        executor.execute(() -> consumer.accept(restrictions));
+                    }
+                });
+    }
+
+    /**
+     * Records the current timed restrictions of a restrict manager, to be written with the next
+     * write of the file. It is ignored once the store is closed.
+     *
+     * @param slotId slot index
+     * @param netCapability network capability of the restrict manager
+     * @param restrictions all the timed restrictions of the restrict manager
+     */
+    void update(int slotId, int netCapability, List<Restriction> restrictions) {
+        String key = getKey(slotId, netCapability);
+        StringBuilder builder = new StringBuilder(key);
+        for (Restriction restriction : restrictions) {
+            builder.append(' ')
+                    .append(restriction.mTransportType)
+                    .append(' ')
+                    .append(restriction.mRestrictType)
+                    .append(' ')
+                    .append(restriction.mReleaseEventMask)
+                    .append(' ')
+                    .append(restriction.mReleaseTime);
+        }
+        String record = builder.toString();
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+            String latest = mLatest.get(key);
+            if (record.equals(latest) || (latest == null && restrictions.isEmpty())) {
+                return;
+            }
+            mLatest.put(key, record);
+            mPending.put(key, record);
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.postAtTime(
+                        mFlushRunnable,
+                        Math.max(
+                                SystemClock.uptimeMillis(),
+                                mLastWriteUptime + MIN_WRITE_INTERVAL_MILLIS));
+            }
+        }
+    }
+
+    /** Writes the pending changes, appending them to the journal or compacting it. */
+    @VisibleForTesting
+    void flush() {
+        List<String> latest;
+        List<String> pending;
+        boolean compact;
+        synchronized (mLock) {
+            mFlushScheduled = false;
+            if (mPending.isEmpty()) {
+                return;
+            }
+            compact = mRecordCount + mPending.size() > MAX_RECORD_COUNT;
+            latest = new ArrayList<>(mLatest.values());
+            pending = new ArrayList<>(mPending.values());
+            mPending.clear();
+            mLastWriteUptime = SystemClock.uptimeMillis();
+        }
+
+        String bootCount = Integer.toString(mBootCount);
+        int snapshotCount = compact ? writeSnapshot(latest, bootCount) : -1;
+        int appendCount = snapshotCount < 0 ? appendJournal(pending, bootCount) : 0;
+        synchronized (mLock) {
+            if (snapshotCount >= 0) {
+                mRecordCount = snapshotCount;
+                mCompactionCount++;
+            } else {
+                mRecordCount += appendCount;
+            }
+            mWriteCount++;
+        }
+    }
+
+    /**
+     * Writes the latest lines to the snapshot of the next generation, and deletes the journal
+     * of the current one.
+     *
+     * @return count of lines written, -1 if failed.
+     */
+    private int writeSnapshot(List<String> records, String bootCount) {
+        StringBuilder builder = new StringBuilder(GENERATION_PREFIX).append(mGeneration + 1);
+        int count = 0;
+        for (String record : records) {
+            if (record.indexOf(' ', record.indexOf(' ') + 1) < 0) {
+                // no restriction left, nothing to restore.
+                continue;
+            }
+            builder.append('\n').append(bootCount).append(' ').append(record);
+            count++;
+        }
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            out.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(TAG, "failed to compact restrictions: " + e);
+            mFile.failWrite(out);
+            return -1;
+        }
+        // the lines of the journal are all in the snapshot.
+        getJournalFile(mGeneration).delete();
+        mGeneration++;
+        return count;
+    }
+
+    /**
+     * Appends lines to the journal of the current generation.
+     *
+     * @return count of lines written.
+     */
+    private int appendJournal(List<String> records, String bootCount) {
+        StringBuilder builder = new StringBuilder();
+        for (String record : records) {
+            // a line cut by a crash is ended by the next one.
+            builder.append('\n').append(bootCount).append(' ').append(record);
+        }
+        try (FileOutputStream out = new FileOutputStream(getJournalFile(mGeneration), true)) {
+            out.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "failed to append restrictions: " + e);
+            return 0;
+        }
+        return records.size();
+    }
+
+    @VisibleForTesting
+    int getRecordCount() {
+        synchronized (mLock) {
+            return mRecordCount;
+        }
+    }
+
+    @VisibleForTesting
+    int getWriteCount() {
+        synchronized (mLock) {
+            return mWriteCount;
+        }
+    }
+
+    /**
+     * Writes the pending changes and stops the background thread. The updates of the restrict
+     * managers closed after it are ignored.
+     */
+    void close() {
+        synchronized (mLock) {
+            mClosed = true;
+        }
+        mHandler.removeCallbacks(mFlushRunnable);
+        mHandler.post(mFlushRunnable);
+        if (mHandlerThread != null) {
+            mHandlerThread.quitSafely();
+        }
+    }
+
+    /**
+     * Dumps the state of {@link RestrictionStore}
+     *
+     * @param pw {@link PrintWriter} to write the state of the object.
+     * @param prefix String to append at start of dumped log.
+     */
+    void dump(PrintWriter pw, String prefix) {
+        synchronized (mLock) {
+            pw.println(
+                    prefix
+                            + "RestrictionStore: records="
+                            + mRecordCount
+                            + ", writes="
+                            + mWriteCount
+                            + ", compactions="
+                            + mCompactionCount
+                            + ", restored="
+                            + mRestoredCount
+                            + ", pending="
+                            + mPending.size()
+                            + (mClosed ? ", closed" : ""));
+        }
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static android.system.OsConstants.AF_INET;
+import static android.system.OsConstants.AF_INET6;
+import static android.system.OsConstants.IPPROTO_ICMP;
+import static android.system.OsConstants.IPPROTO_ICMPV6;
+import static android.system.OsConstants.POLLIN;
+import static android.system.OsConstants.SOCK_DGRAM;
+
+import android.net.Network;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructPollfd;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+
+/**
+ * Measures the round trip time to a server with echo requests sent from this process, instead of
+ * forking a ping process.
+ *
+ * <p>The requests are sent at a fixed interval over an {@link EchoTransport}, an ICMP datagram
+ * socket bound to the Wi-Fi network in production. Replies are matched by sequence number, so
+ * late or duplicated replies are ignored. {@link #probe()} blocks the calling thread until every
+ * reply is received, the reply timeout elapses after the last request, or {@link #cancel()} is
+ * called from another thread.
+ */
+class RttProber {
+    /** Time to wait for the replies after the last request. */
+    static final int REPLY_TIMEOUT_MILLIS = 1000;
+    /** Maximum time a blocked receive waits before the cancellation is checked. */
+    private static final int CANCEL_CHECK_MILLIS = 50;
+    private static final int MAX_SEQUENCE = 0xFFFF;
+
+    /** Sends echo requests and receives their replies. */
+    interface EchoTransport {
+        /**
+         * Sends an echo request.
+         *
+         * @param sequence sequence number of the request
+         * @param payload payload of the request
+         */
+        void send(int sequence, byte[] payload) throws IOException;
+
+        /**
+         * Waits for an echo reply.
+         *
+         * @param timeoutMillis maximum time to wait
+         * @return the sequence number of the reply, or -1 if no reply is received in time.
+         */
+        int receive(int timeoutMillis) throws IOException;
+
+        /** Releases the resources of the transport. */
+        void close();
+    }
+
+    /** Creates the transport used to probe an address. */
+    interface EchoTransportFactory {
+        /**
+         * @param address address to probe
+         * @return a transport connected to the address
+         */
+        EchoTransport create(InetAddress address) throws IOException;
+    }
+
+    /** Round trip time statistics of a probe. */
+    static class Result {
+        private final int mSentCount;
+        private final int mReceivedCount;
+        private final long mMinMicros;
+        private final long mAvgMicros;
+        private final long mMaxMicros;
+        private final long mJitterMicros;
+        /** Round trip time of every reply, sorted. */
+        private final long[] mSortedRttMicros;
+        private final boolean mIsCancelled;
+
+        /**
+         * @param sentCount number of requests sent
+         * @param rttMicros round trip time of every reply, in reception order. Sorted in place.
+         * @param jitterMicros mean difference of the round trip times of consecutive replies
+         * @param isCancelled whether the probe was cancelled
+         */
+        Result(int sentCount, long[] rttMicros, long jitterMicros, boolean isCancelled) {
+            mSentCount = sentCount;
+            mReceivedCount = rttMicros.length;
+            mJitterMicros = jitterMicros;
+            mIsCancelled = isCancelled;
+            Arrays.sort(rttMicros);
+            mSortedRttMicros = rttMicros;
+            long sum = 0;
+            for (long rtt : rttMicros) {
+                sum += rtt;
+            }
+            mMinMicros = mReceivedCount > 0 ? rttMicros[0] : 0;
+            mMaxMicros = mReceivedCount > 0 ? rttMicros[mReceivedCount - 1] : 0;
+            mAvgMicros = mReceivedCount > 0 ? sum / mReceivedCount : 0;
+        }
+
+        int getReceivedCount() {
+            return mReceivedCount;
+        }
+
+        /** Returns true if at least one reply was received. */
+        boolean hasReplies() {
+            return mReceivedCount > 0;
+        }
+
+        float getMinMillis() {
+            return mMinMicros / 1000f;
+        }
+
+        float getAverageMillis() {
+            return mAvgMicros / 1000f;
+        }
+
+        float getMaxMillis() {
+            return mMaxMicros / 1000f;
+        }
+
+        /**
+         * Returns the round trip time below which the given percentage of the replies were
+         * received, with the nearest-rank method.
+         *
+         * @param percentile percentile, 1 ~ 100.
+         * @return the round trip time, or 0 if no reply was received.
+         */
+        float getPercentileMillis(int percentile) {
+            if (mReceivedCount == 0) {
+                return 0;
+            }
+            percentile = Math.max(1, Math.min(100, percentile));
+            int rank = (int) Math.ceil(percentile * mReceivedCount / 100.0);
+            return mSortedRttMicros[Math.max(1, rank) - 1] / 1000f;
+        }
+
+        /** Returns the mean difference of the round trip times of consecutive replies. */
+        float getJitterMillis() {
+            return mJitterMicros / 1000f;
+        }
+
+        /** Returns the percentage of requests without reply. */
+        int getLossPercent() {
+            return mSentCount > 0 ? (mSentCount - mReceivedCount) * 100 / mSentCount : 0;
+        }
+
+        boolean isCancelled() {
+            return mIsCancelled;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{sent="
+                    + mSentCount
+                    + ", received="
+                    + mReceivedCount
+                    + ", loss="
+                    + getLossPercent()
+                    + "%, min/avg/max/jitter="
+                    + getMinMillis()
+                    + "/"
+                    + getAverageMillis()
+                    + "/"
+                    + getMaxMillis()
+                    + "/"
+                    + getJitterMillis()
+                    + " ms, p50/p90/p99="
+                    + getPercentileMillis(50)
+                    + "/"
+                    + getPercentileMillis(90)
+                    + "/"
+                    + getPercentileMillis(99)
+                    + " ms"
+                    + (mIsCancelled ? ", cancelled" : "")
+                    + "}";
+        }
+    }
+
+    private final EchoTransport mTransport;
+    private final int mCount;
+    private final int mIntervalMillis;
+    private final byte[] mPayload;
+    private volatile boolean mIsCancelled;
+
+    /**
+     * @param transport transport to send the requests over, closed when the probe ends.
+     * @param count number of requests
+     * @param intervalMillis interval between two requests
+     * @param payloadSize size of the payload of a request, in bytes.
+     */
+    RttProber(EchoTransport transport, int count, int intervalMillis, int payloadSize) {
+        mTransport = transport;
+        mCount = Math.max(1, Math.min(MAX_SEQUENCE, count));
+        mIntervalMillis = Math.max(0, intervalMillis);
+        mPayload = new byte[Math.max(0, payloadSize)];
+    }
+
+    /** Stops the probe, {@link #probe()} returns the statistics of the replies received so far. */
+    void cancel() {
+        mIsCancelled = true;
+    }
+
+    boolean isCancelled() {
+        return mIsCancelled;
+    }
+
+    /**
+     * Sends the requests and waits for the replies. The transport is closed when it returns.
+     *
+     * @return statistics of the replies.
+     */
+    Result probe() throws IOException {
+        long[] sendTimes = new long[mCount];
+        boolean[] replied = new boolean[mCount];
+        long[] rtts = new long[mCount];
+        int sent = 0;
+        int received = 0;
+        long jitterSum = 0;
+        long lastRtt = -1;
+        long nextSendTime = elapsedMicros();
+        long deadline = Long.MAX_VALUE;
+        try {
+            while (!mIsCancelled) {
+                long now = elapsedMicros();
+                if (sent < mCount && now >= nextSendTime) {
+                    mTransport.send(sent, mPayload);
+                    sendTimes[sent++] = now;
+                    nextSendTime += mIntervalMillis * 1000L;
+                    if (sent == mCount) {
+                        deadline = now + REPLY_TIMEOUT_MILLIS * 1000L;
+                    }
+                }
+                if (received == mCount || now >= deadline) {
+                    break;
+                }
+                long wait = (sent < mCount ? nextSendTime : deadline) - now;
+                int sequence =
+                        mTransport.receive(
+                                (int) Math.max(1, Math.min(wait / 1000, CANCEL_CHECK_MILLIS)));
+                if (sequence < 0 || sequence >= sent || replied[sequence]) {
+                    continue;
+                }
+                long rtt = elapsedMicros() - sendTimes[sequence];
+                replied[sequence] = true;
+                rtts[received++] = rtt;
+                if (lastRtt >= 0) {
+                    jitterSum += Math.abs(rtt - lastRtt);
+                }
+                lastRtt = rtt;
+            }
+        } finally {
+            mTransport.close();
+        }
+        return new Result(
+                sent,
+                Arrays.copyOf(rtts, received),
+                received > 1 ? jitterSum / (received - 1) : 0,
+                mIsCancelled);
+    }
+
+    private static long elapsedMicros() {
+        return SystemClock.elapsedRealtimeNanos() / 1000;
+    }
+
+    /**
+     * Echo over an ICMP datagram ("ping") socket. The kernel sets the identifier and the checksum
+     * of the requests, and only delivers the replies matching the identifier of the socket.
+     */
+    static class IcmpEchoTransport implements EchoTransport {
+        private static final int ICMP_HEADER_SIZE = 8;
+        private static final int ICMP_ECHO_REQUEST = 8;
+        private static final int ICMP_ECHO_REPLY = 0;
+        private static final int ICMPV6_ECHO_REQUEST = 128;
+        private static final int ICMPV6_ECHO_REPLY = 129;
+
+        private final FileDescriptor mFd;
+        private final boolean mIsIpv6;
+        private byte[] mBuffer = new byte[0];
+
+        /**
+         * @param address address to probe
+         * @param network network to bind the socket to, {@code null} for the default network.
+         */
+        IcmpEchoTransport(InetAddress address, Network network) throws IOException {
+            mIsIpv6 = address instanceof Inet6Address;
+            try {
+                mFd =
+                        Os.socket(
+                                mIsIpv6 ? AF_INET6 : AF_INET,
+                                SOCK_DGRAM,
+                                mIsIpv6 ? IPPROTO_ICMPV6 : IPPROTO_ICMP);
+            } catch (ErrnoException e) {
+                throw e.rethrowAsIOException();
+            }
+            try {
+                if (network != null) {
+                    network.bindSocket(mFd);
+                }
+                Os.connect(mFd, address, 0);
+            } catch (ErrnoException e) {
+                close();
+                throw e.rethrowAsIOException();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void send(int sequence, byte[] payload) throws IOException {
+            int size = ICMP_HEADER_SIZE + payload.length;
+            if (mBuffer.length < size) {
+                mBuffer = new byte[size];
+            }
+            mBuffer[0] = (byte) (mIsIpv6 ? ICMPV6_ECHO_REQUEST : ICMP_ECHO_REQUEST);
+            // code, checksum and identifier are zero, the kernel fills them in.
+            for (int i = 1; i < 6; i++) {
+                mBuffer[i] = 0;
+            }
+            mBuffer[6] = (byte) (sequence >> 8);
+            mBuffer[7] = (byte) sequence;
+            System.arraycopy(payload, 0, mBuffer, ICMP_HEADER_SIZE, payload.length);
+            try {
+                Os.write(mFd, mBuffer, 0, size);
+            } catch (ErrnoException e) {
+                throw e.rethrowAsIOException();
+            }
+        }
+
+        @Override
+        public int receive(int timeoutMillis) throws IOException {
+            StructPollfd pollfd = new StructPollfd();
+            pollfd.fd = mFd;
+            pollfd.events = (short) POLLIN;
+            try {
+                if (Os.poll(new StructPollfd[] {pollfd}, timeoutMillis) <= 0) {
+                    return -1;
+                }
+                int length = Os.read(mFd, mBuffer, 0, mBuffer.length);
+                int replyType = mIsIpv6 ? ICMPV6_ECHO_REPLY : ICMP_ECHO_REPLY;
+                if (length < ICMP_HEADER_SIZE || (mBuffer[0] & 0xFF) != replyType) {
+                    return -1;
+                }
+                return (mBuffer[6] & 0xFF) << 8 | (mBuffer[7] & 0xFF);
+            } catch (ErrnoException e) {
+                throw e.rethrowAsIOException();
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                Os.close(mFd);
+            } catch (ErrnoException e) {
+                // already closed
+            }
+        }
+    }
+
+    /**
+     * Echo over UDP, for servers running an echo service. A request is the sequence number on
+     * two bytes followed by the payload, and the server sends it back as is.
+     */
+    static class UdpEchoTransport implements EchoTransport {
+        private final DatagramSocket mSocket;
+        private final DatagramPacket mReceivePacket;
+        private byte[] mSendBuffer = new byte[0];
+
+        /**
+         * @param server address and port of the echo server
+         * @param network network to bind the socket to, {@code null} for the default network.
+         */
+        UdpEchoTransport(InetSocketAddress server, Network network) throws IOException {
+            mSocket = new DatagramSocket();
+            try {
+                if (network != null) {
+                    network.bindSocket(mSocket);
+                }
+                mSocket.connect(server);
+            } catch (IOException e) {
+                mSocket.close();
+                throw e;
+            }
+            mReceivePacket = new DatagramPacket(new byte[2], 2);
+        }
+
+        @Override
+        public void send(int sequence, byte[] payload) throws IOException {
+            int size = 2 + payload.length;
+            if (mSendBuffer.length < size) {
+                mSendBuffer = new byte[size];
+            }
+            mSendBuffer[0] = (byte) (sequence >> 8);
+            mSendBuffer[1] = (byte) sequence;
+            System.arraycopy(payload, 0, mSendBuffer, 2, payload.length);
+            mSocket.send(new DatagramPacket(mSendBuffer, size));
+        }
+
+        @Override
+        public int receive(int timeoutMillis) throws IOException {
+            mSocket.setSoTimeout(timeoutMillis);
+            try {
+                // only the sequence number is read, the rest of the datagram is discarded.
+                mReceivePacket.setLength(2);
+                mSocket.receive(mReceivePacket);
+            } catch (SocketTimeoutException e) {
+                return -1;
+            }
+            if (mReceivePacket.getLength() < 2) {
+                return -1;
+            }
+            byte[] data = mReceivePacket.getData();
+            return (data[0] & 0xFF) << 8 | (data[1] & 0xFF);
+        }
+
+        @Override
+        public void close() {
+            mSocket.close();
+        }
+    }
+}
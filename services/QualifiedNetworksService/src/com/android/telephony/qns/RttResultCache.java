@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import android.os.SystemClock;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps the result of the last RTT check of the recently used Wi-Fi networks, so that a check
+ * requested again shortly after, for example after reconnecting to the same access point, does not
+ * probe the server again.
+ *
+ * <p>A network is identified by the BSSID of its access point when it is known, or by its {@link
+ * android.net.Network} handle otherwise. An entry is only valid for the RTT server it was checked
+ * against, and for the configured time to live.
+ */
+class RttResultCache {
+    /** Maximum number of networks kept, the least recently used one is evicted first. */
+    @VisibleForTesting static final int MAX_ENTRIES = 8;
+
+    /** Result of an RTT check. */
+    static class Entry {
+        final String mServer;
+        final boolean mRttResult;
+        final long mCheckTime;
+
+        Entry(String server, boolean rttResult, long checkTime) {
+            mServer = server;
+            mRttResult = rttResult;
+            mCheckTime = checkTime;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{server="
+                    + mServer
+                    + ", result="
+                    + mRttResult
+                    + ", checkTime="
+                    + mCheckTime
+                    + "}";
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    private int mHitCount;
+    private int mMissCount;
+    private int mInvalidationCount;
+
+    /** Returns the current time used to apply the time to live. */
+    @VisibleForTesting
+    long getTimeMillis() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Returns the cached result of a network.
+     *
+     * @param networkId identity of the Wi-Fi network
+     * @param server RTT server the result is requested for
+     * @param ttlMillis time to live of the results, 0 or less to disable the cache.
+     * @return the result if checked against the same server within the time to live, {@code null}
+     *     otherwise.
+     */
+    synchronized Entry get(String networkId, String server, long ttlMillis) {
+        Entry entry = networkId != null && ttlMillis > 0 ? mEntries.get(networkId) : null;
+        if (entry == null
+                || !Objects.equals(entry.mServer, server)
+                || getTimeMillis() - entry.mCheckTime >= ttlMillis) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return entry;
+    }
+
+    /**
+     * Stores the result of a check.
+     *
+     * @param networkId identity of the Wi-Fi network
+     * @param server RTT server the network was checked against
+     * @param rttResult result of the check
+     */
+    synchronized void put(String networkId, String server, boolean rttResult) {
+        if (networkId != null) {
+            mEntries.put(networkId, new Entry(server, rttResult, getTimeMillis()));
+        }
+    }
+
+    /**
+     * Removes the result of a network, when its configuration changed.
+     *
+     * @param networkId identity of the Wi-Fi network
+     */
+    synchronized void invalidate(String networkId) {
+        if (networkId != null && mEntries.remove(networkId) != null) {
+            mInvalidationCount++;
+        }
+    }
+
+    /** Removes all the results. */
+    synchronized void clear() {
+        mEntries.clear();
+    }
+
+    @VisibleForTesting
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    @VisibleForTesting
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Dumps the state of {@link RttResultCache}
+     *
+     * @param pw {@link PrintWriter} to write the state of the object.
+     * @param prefix String to append at start of dumped log.
+     */
+    synchronized void dump(PrintWriter pw, String prefix) {
+        int lookups = mHitCount + mMissCount;
+        pw.println(
+                prefix
+                        + "RttResultCache: hits="
+                        + mHitCount
+                        + ", misses="
+                        + mMissCount
+                        + ", hitRate="
+                        + (lookups > 0 ? mHitCount * 100 / lookups : 0)
+                        + "%, invalidations="
+                        + mInvalidationCount);
+        for (Map.Entry<String, Entry> e : mEntries.entrySet()) {
+            pw.println(prefix + "  " + e.getKey() + ": " + e.getValue());
+        }
+    }
+}
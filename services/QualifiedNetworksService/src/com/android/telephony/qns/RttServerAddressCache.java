@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import android.net.Network;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Objects;
+
+/**
+ * Resolves the RTT server through the Wi-Fi network and keeps the addresses, so that an RTT check
+ * does not wait for a DNS query, nor resolves the server over another network.
+ *
+ * <p>The platform resolver does not expose the TTL of the records, so the addresses are kept for
+ * {@link #ADDRESS_TTL_MILLIS}, which is shorter than the TTL usually set for the servers of the
+ * operators. The resolver of the network honors the TTL of the records it caches itself.
+ */
+class RttServerAddressCache {
+    /** Time the addresses of the server are kept. */
+    @VisibleForTesting static final long ADDRESS_TTL_MILLIS = 5 * 60 * 1000;
+
+    /** Resolves a host name through a network. */
+    interface HostResolver {
+        /**
+         * @param network network to resolve through
+         * @param host host name to resolve
+         * @return the addresses of the host
+         */
+        InetAddress[] getAllByName(Network network, String host) throws UnknownHostException;
+    }
+
+    private final HostResolver mHostResolver;
+    /** Increased when the addresses change, so that an overtaken query is not published. */
+    private long mGeneration;
+    private Network mNetwork;
+    private String mHost;
+    private InetAddress[] mAddresses;
+    private long mResolvedTime;
+    private int mHitCount;
+    private int mResolveCount;
+    private int mFailureCount;
+
+    RttServerAddressCache() {
+        this(Network::getAllByName);
+    }
+
+    @VisibleForTesting
+    RttServerAddressCache(HostResolver hostResolver) {
+        mHostResolver = hostResolver;
+    }
+
+    /** Returns the current time used to apply the time to live. */
+    @VisibleForTesting
+    long getTimeMillis() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Returns the addresses of the host on the network, resolving them if they are not known yet
+     * or expired. The query runs without the lock, so that a slow DNS server does not block the
+     * other callers. Its result is only kept if the addresses did not change in the meantime,
+     * e.g. because the network was lost.
+     *
+     * @param network network to resolve through
+     * @param host host name of the RTT server
+     * @return the addresses of the host
+     * @throws UnknownHostException if the host could not be resolved
+     */
+    InetAddress[] resolve(Network network, String host) throws UnknownHostException {
+        long generation;
+        synchronized (this) {
+            if (mAddresses != null
+                    && Objects.equals(mNetwork, network)
+                    && Objects.equals(mHost, host)
+                    && getTimeMillis() - mResolvedTime < ADDRESS_TTL_MILLIS) {
+                mHitCount++;
+                return mAddresses;
+            }
+            mResolveCount++;
+            generation = mGeneration;
+        }
+        InetAddress[] addresses;
+        try {
+            addresses = mHostResolver.getAllByName(network, host);
+        } catch (UnknownHostException e) {
+            synchronized (this) {
+                mFailureCount++;
+                if (generation == mGeneration) {
+                    clear();
+                }
+            }
+            throw e;
+        }
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mGeneration++;
+                mNetwork = network;
+                mHost = host;
+                mAddresses = addresses;
+                mResolvedTime = getTimeMillis();
+            }
+        }
+        return addresses;
+    }
+
+    /** Forgets the addresses, when the network is lost. */
+    synchronized void clear() {
+        mGeneration++;
+        mNetwork = null;
+        mHost = null;
+        mAddresses = null;
+    }
+
+    @VisibleForTesting
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    @VisibleForTesting
+    synchronized int getResolveCount() {
+        return mResolveCount;
+    }
+
+    /**
+     * Dumps the state of {@link RttServerAddressCache}
+     *
+     * @param pw {@link PrintWriter} to write the state of the object.
+     * @param prefix String to append at start of dumped log.
+     */
+    synchronized void dump(PrintWriter pw, String prefix) {
+        pw.println(
+                prefix
+                        + "RttServerAddressCache: host="
+                        + mHost
+                        + ", addresses="
+                        + (mAddresses != null ? mAddresses.length : 0)
+                        + ", hits="
+                        + mHitCount
+                        + ", resolves="
+                        + mResolveCount
+                        + ", failures="
+                        + mFailureCount);
+    }
+}
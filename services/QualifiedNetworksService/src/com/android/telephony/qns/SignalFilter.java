@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window filter applied to signal strength samples before threshold matching.
+ *
+ * <p>Supported variants:
+ *
+ * <ul>
+ *   <li>{@link #TYPE_NONE}: samples are passed as is.
+ *   <li>{@link #TYPE_EWMA}: exponentially weighted moving average, the parameter is the weight of
+ *       a new sample in percent.
+ *   <li>{@link #TYPE_MEDIAN}: median of the last N samples, the parameter is N.
+ *   <li>{@link #TYPE_MIN}: minimum of the last N samples, the parameter is N.
+ * </ul>
+ *
+ * <p>Samples of the window are kept in a fixed size ring buffer, so filtering a sample doesn't
+ * allocate. This class is not thread safe.
+ */
+class SignalFilter {
+    private static final String TAG = SignalFilter.class.getSimpleName();
+
+    static final int TYPE_NONE = 0;
+    static final int TYPE_EWMA = 1;
+    static final int TYPE_MEDIAN = 2;
+    static final int TYPE_MIN = 3;
+
+    static final int MAX_WINDOW_SIZE = 16;
+    /** Fixed point scale of the EWMA state. */
+    private static final int EWMA_SCALE = 256;
+
+    private final int mType;
+    private final int mParam;
+    private final int[] mRing;
+    private final int[] mSortBuffer;
+    private int mHead;
+    private int mCount;
+    private long mEwma;
+
+    SignalFilter(int type, int param) {
+        switch (type) {
+            case TYPE_EWMA:
+                param = Math.max(1, Math.min(100, param));
+                break;
+            case TYPE_MEDIAN:
+            case TYPE_MIN:
+                param = Math.max(1, Math.min(MAX_WINDOW_SIZE, param));
+                break;
+            default:
+                type = TYPE_NONE;
+                param = 0;
+                break;
+        }
+        mType = type;
+        mParam = param;
+        int ringSize = (type == TYPE_MEDIAN || type == TYPE_MIN) ? param : 0;
+        mRing = new int[ringSize];
+        mSortBuffer = new int[type == TYPE_MEDIAN ? ringSize : 0];
+    }
+
+    /**
+     * Creates a filter from a carrier config string "<type>,<param>", with type one of "none",
+     * "ewma", "median" or "min". For Ex: "median,5". An invalid string gives {@link #TYPE_NONE}.
+     */
+    static SignalFilter fromConfig(String config) {
+        if (config == null || config.isEmpty()) {
+            return new SignalFilter(TYPE_NONE, 0);
+        }
+        String[] items = config.split(",");
+        try {
+            int param = items.length > 1 ? Integer.parseInt(items[1].trim()) : 0;
+            switch (items[0].trim()) {
+                case "ewma":
+                    return new SignalFilter(TYPE_EWMA, param);
+                case "median":
+                    return new SignalFilter(TYPE_MEDIAN, param);
+                case "min":
+                    return new SignalFilter(TYPE_MIN, param);
+                default:
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Invalid filter config: " + config);
+        }
+        return new SignalFilter(TYPE_NONE, 0);
+    }
+
+    int getType() {
+        return mType;
+    }
+
+    int getParam() {
+        return mParam;
+    }
+
+    /** Returns {@code true} if the filter has the same type and parameter. */
+    boolean isSameConfig(SignalFilter other) {
+        return other != null && mType == other.mType && mParam == other.mParam;
+    }
+
+    /** Forgets all samples, e.g. when the signal is lost. */
+    void reset() {
+        mHead = 0;
+        mCount = 0;
+        mEwma = 0;
+    }
+
+    /** Adds a sample to the window and returns the filtered value. */
+    int filter(int sample) {
+        switch (mType) {
+            case TYPE_EWMA:
+                if (mCount == 0) {
+                    mEwma = (long) sample * EWMA_SCALE;
+                    mCount = 1;
+                } else {
+                    mEwma += ((long) sample * EWMA_SCALE - mEwma) * mParam / 100;
+                }
+                return (int) Math.round((double) mEwma / EWMA_SCALE);
+            case TYPE_MEDIAN:
+                add(sample);
+                System.arraycopy(mRing, 0, mSortBuffer, 0, mCount);
+                Arrays.sort(mSortBuffer, 0, mCount);
+                // the lower median is taken for an even count.
+                return mSortBuffer[(mCount - 1) / 2];
+            case TYPE_MIN:
+                add(sample);
+                int min = mRing[0];
+                for (int i = 1; i < mCount; i++) {
+                    min = Math.min(min, mRing[i]);
+                }
+                return min;
+            default:
+                return sample;
+        }
+    }
+
+    private void add(int sample) {
+        mRing[mHead] = sample;
+        mHead = (mHead + 1) % mRing.length;
+        if (mCount < mRing.length) {
+            mCount++;
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (mType) {
+            case TYPE_EWMA:
+                return "ewma," + mParam;
+            case TYPE_MEDIAN:
+                return "median," + mParam;
+            case TYPE_MIN:
+                return "min," + mParam;
+            default:
+                return "none";
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ref-counted registry of the (access network, measurement type, threshold value) tuples
+ * requested by the listeners of a {@link CellularQualityMonitor}.
+ *
+ * <p>Every listener key (see {@link QualityMonitor#getKey(int, int)}) contributes a set of values
+ * per (access network, measurement type) group, and each value is counted once per listener
+ * requesting it. An update only touches the groups of the given listener, and a group is reported
+ * as changed only if a value appeared or disappeared from the union of all listeners, or if the
+ * hysteresis time of the group changed. If the union of a group is larger than the number of
+ * thresholds allowed in a {@link android.telephony.SignalThresholdInfo}, the values requested by
+ * most listeners are kept first, then the lowest ones.
+ *
+ * <p>This class is not thread safe, the owning {@link CellularQualityMonitor} guards the access to
+ * it.
+ */
+class SignalThresholdRegistry {
+    private static final int VALUES_CHANGED = 1;
+    private static final int HYSTERESIS_CHANGED = 1 << 1;
+
+    /** Values of one (access network, measurement type) pair. */
+    private static class Group {
+        final int mAccessNetwork;
+        final int mMeasurementType;
+        /** Number of listeners requesting a value, sorted by value. */
+        final SparseIntArray mRefCounts = new SparseIntArray();
+        int mHysteresisMs = QnsConstants.INVALID_ID;
+        int[] mEffective = new int[0];
+
+        Group(int accessNetwork, int measurementType) {
+            mAccessNetwork = accessNetwork;
+            mMeasurementType = measurementType;
+        }
+    }
+
+    private final int mMaxThresholds;
+    private final SparseArray<Group> mGroups = new SparseArray<>();
+    /** Distinct values per group key, for every listener key. */
+    private final Map<String, SparseArray<int[]>> mListenerValues = new HashMap<>();
+
+    /**
+     * @param maxThresholds maximum number of thresholds of a group.
+     */
+    SignalThresholdRegistry(int maxThresholds) {
+        mMaxThresholds = maxThresholds;
+    }
+
+    /** Returns the key of the (access network, measurement type) group. */
+    static int getGroupKey(int accessNetwork, int measurementType) {
+        return accessNetwork << 16 | measurementType;
+    }
+
+    /** Returns the access network of the group key. */
+    static int getAccessNetwork(int groupKey) {
+        return groupKey >>> 16;
+    }
+
+    /** Returns the measurement type of the group key. */
+    static int getMeasurementType(int groupKey) {
+        return groupKey & 0xFFFF;
+    }
+
+    /**
+     * Replaces the thresholds requested by a listener.
+     *
+     * @param key listener key, see {@link QualityMonitor#getKey(int, int)}
+     * @param ths thresholds requested by the listener, {@code null} or empty to remove them.
+     * @return the keys of the groups whose effective thresholds or hysteresis time changed.
+     */
+    List<Integer> update(String key, Threshold[] ths) {
+        SparseArray<int[]> newValues = collectValues(ths);
+        SparseArray<int[]> oldValues =
+                newValues.size() > 0
+                        ? mListenerValues.put(key, newValues)
+                        : mListenerValues.remove(key);
+
+        SparseIntArray touched = new SparseIntArray();
+        if (oldValues != null) {
+            for (int i = 0; i < oldValues.size(); i++) {
+                Group group = mGroups.get(oldValues.keyAt(i));
+                for (int value : oldValues.valueAt(i)) {
+                    int count = group.mRefCounts.get(value) - 1;
+                    if (count > 0) {
+                        group.mRefCounts.put(value, count);
+                    } else {
+                        group.mRefCounts.delete(value);
+                        markTouched(touched, oldValues.keyAt(i), VALUES_CHANGED);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < newValues.size(); i++) {
+            int groupKey = newValues.keyAt(i);
+            Group group = mGroups.get(groupKey);
+            if (group == null) {
+                group = new Group(getAccessNetwork(groupKey), getMeasurementType(groupKey));
+                mGroups.put(groupKey, group);
+            }
+            for (int value : newValues.valueAt(i)) {
+                int count = group.mRefCounts.get(value);
+                group.mRefCounts.put(value, count + 1);
+                if (count == 0) {
+                    markTouched(touched, groupKey, VALUES_CHANGED);
+                }
+            }
+        }
+        if (ths != null) {
+            // the most recently registered wait time is applied to the group.
+            for (Threshold th : ths) {
+                int groupKey = getGroupKey(th.getAccessNetwork(), th.getMeasurementType());
+                Group group = mGroups.get(groupKey);
+                if (group.mHysteresisMs != th.getWaitTime()) {
+                    group.mHysteresisMs = th.getWaitTime();
+                    markTouched(touched, groupKey, HYSTERESIS_CHANGED);
+                }
+            }
+        }
+
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < touched.size(); i++) {
+            int groupKey = touched.keyAt(i);
+            Group group = mGroups.get(groupKey);
+            if (group.mRefCounts.size() == 0) {
+                mGroups.remove(groupKey);
+                changed.add(groupKey);
+                continue;
+            }
+            int[] effective = computeEffective(group);
+            if (!Arrays.equals(effective, group.mEffective)
+                    || (touched.valueAt(i) & HYSTERESIS_CHANGED) != 0) {
+                group.mEffective = effective;
+                changed.add(groupKey);
+            }
+        }
+        return changed;
+    }
+
+    /** Removes the thresholds of every listener. */
+    void clear() {
+        mGroups.clear();
+        mListenerValues.clear();
+    }
+
+    /** Returns the sorted effective thresholds of the group, or {@code null} if it is empty. */
+    int[] getThresholds(int groupKey) {
+        Group group = mGroups.get(groupKey);
+        return group != null ? group.mEffective : null;
+    }
+
+    /** Returns the hysteresis time of the group, {@link QnsConstants#INVALID_ID} if not set. */
+    int getHysteresisMs(int groupKey) {
+        Group group = mGroups.get(groupKey);
+        return group != null ? group.mHysteresisMs : QnsConstants.INVALID_ID;
+    }
+
+    private static void markTouched(SparseIntArray touched, int groupKey, int flag) {
+        touched.put(groupKey, touched.get(groupKey) | flag);
+    }
+
+    private static SparseArray<int[]> collectValues(Threshold[] ths) {
+        SparseArray<int[]> values = new SparseArray<>();
+        if (ths == null) {
+            return values;
+        }
+        SparseArray<SparseIntArray> distinct = new SparseArray<>();
+        for (Threshold th : ths) {
+            int groupKey = getGroupKey(th.getAccessNetwork(), th.getMeasurementType());
+            SparseIntArray set = distinct.get(groupKey);
+            if (set == null) {
+                set = new SparseIntArray();
+                distinct.put(groupKey, set);
+            }
+            set.put(th.getThreshold(), 1);
+        }
+        for (int i = 0; i < distinct.size(); i++) {
+            SparseIntArray set = distinct.valueAt(i);
+            int[] array = new int[set.size()];
+            for (int j = 0; j < array.length; j++) {
+                array[j] = set.keyAt(j);
+            }
+            values.put(distinct.keyAt(i), array);
+        }
+        return values;
+    }
+
+    private int[] computeEffective(Group group) {
+        int size = group.mRefCounts.size();
+        if (size <= mMaxThresholds) {
+            int[] effective = new int[size];
+            for (int i = 0; i < size; i++) {
+                effective[i] = group.mRefCounts.keyAt(i);
+            }
+            return effective;
+        }
+        // keep the values shared by most listeners, then the lowest ones.
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(
+                order,
+                (a, b) -> {
+                    int diff = group.mRefCounts.valueAt(b) - group.mRefCounts.valueAt(a);
+                    return diff != 0 ? diff : Integer.compare(a, b);
+                });
+        int[] effective = new int[mMaxThresholds];
+        for (int i = 0; i < mMaxThresholds; i++) {
+            effective[i] = group.mRefCounts.keyAt(order[i]);
+        }
+        Arrays.sort(effective);
+        return effective;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("SignalThresholdRegistry{");
+        for (int i = 0; i < mGroups.size(); i++) {
+            Group group = mGroups.valueAt(i);
+            sb.append(QnsConstants.accessNetworkTypeToString(group.mAccessNetwork))
+                    .append("/")
+                    .append(group.mMeasurementType)
+                    .append(":")
+                    .append(group.mRefCounts)
+                    .append(" effective=")
+                    .append(Arrays.toString(group.mEffective))
+                    .append(" hysteresisMs=")
+                    .append(group.mHysteresisMs)
+                    .append(i < mGroups.size() - 1 ? ", " : "");
+        }
+        return sb.append(" listeners=").append(mListenerValues.keySet()).append("}").toString();
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static android.telephony.SignalStrength.INVALID;
+
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Sorted index of the thresholds registered to a {@link QualityMonitor}.
+ *
+ * <p>Thresholds are grouped per (access network, measurement type) and kept sorted by threshold
+ * value together with the last known crossing state of each entry. A new sample only needs to
+ * re-check the entries whose value lies between the previous sample and the new one, which is
+ * found by binary search. Only listener keys that have at least one threshold newly crossed are
+ * reported back to the caller.
+ *
+ * <p>This class is not thread safe, the owning {@link QualityMonitor} guards the access to it.
+ */
+class ThresholdCrossingIndex {
+
+    /** Thresholds of one (access network, measurement type) pair, sorted by value. */
+    private static class Group {
+        final int mAccessNetwork;
+        final int mMeasurementType;
+        int[] mValues = new int[0];
+        String[] mKeys = new String[0];
+        Threshold[] mThresholds = new Threshold[0];
+        boolean[] mMatched = new boolean[0];
+        int mLastSample = INVALID;
+
+        Group(int accessNetwork, int measurementType) {
+            mAccessNetwork = accessNetwork;
+            mMeasurementType = measurementType;
+        }
+
+        int size() {
+            return mValues.length;
+        }
+    }
+
+    private final SparseArray<Group> mGroups = new SparseArray<>();
+
+    private static int getGroupKey(int accessNetwork, int measurementType) {
+        return accessNetwork << 16 | measurementType;
+    }
+
+    /**
+     * Replaces the thresholds registered for the given listener key.
+     *
+     * <p>Entries which are identical to the previously registered ones keep their crossing state,
+     * so a listener re-registering the same thresholds is not notified again for a crossing it
+     * has already been told about. Affected groups are fully re-evaluated on the next sample.
+     *
+     * @param key listener key, see {@link QualityMonitor#getKey(int, int)}
+     * @param ths new thresholds for the key, or {@code null} to remove all of them.
+     */
+    void update(String key, Threshold[] ths) {
+        for (int i = mGroups.size() - 1; i >= 0; i--) {
+            Group group = mGroups.valueAt(i);
+            if (!contains(group, key) && !hasThresholdFor(ths, group)) {
+                continue;
+            }
+            rebuild(group, key, ths);
+            if (group.size() == 0) {
+                mGroups.removeAt(i);
+            }
+        }
+        if (ths == null) {
+            return;
+        }
+        for (Threshold th : ths) {
+            int groupKey = getGroupKey(th.getAccessNetwork(), th.getMeasurementType());
+            if (mGroups.get(groupKey) == null) {
+                Group group = new Group(th.getAccessNetwork(), th.getMeasurementType());
+                rebuild(group, key, ths);
+                mGroups.put(groupKey, group);
+            }
+        }
+    }
+
+    /** Removes all thresholds registered for the given listener key. */
+    void remove(String key) {
+        update(key, null);
+    }
+
+    /** Removes all thresholds. */
+    void clear() {
+        mGroups.clear();
+    }
+
+    /**
+     * Forgets the crossing state of a group. It is used when the measurement became unavailable,
+     * so that the next valid sample reports every threshold it crosses.
+     */
+    void reset(int accessNetwork, int measurementType) {
+        Group group = mGroups.get(getGroupKey(accessNetwork, measurementType));
+        if (group != null) {
+            Arrays.fill(group.mMatched, false);
+            group.mLastSample = INVALID;
+        }
+    }
+
+    /**
+     * Applies a new sample to a group and collects the listener keys having at least one threshold
+     * which changed from not matching to matching.
+     *
+     * @param accessNetwork access network of the sample
+     * @param measurementType measurement type of the sample
+     * @param sample measured value
+     * @param crossedKeys collection to which the crossed listener keys are added.
+     */
+    void onSample(
+            int accessNetwork, int measurementType, int sample, Collection<String> crossedKeys) {
+        Group group = mGroups.get(getGroupKey(accessNetwork, measurementType));
+        if (group == null || sample == INVALID) {
+            return;
+        }
+        int from = 0;
+        int to = group.size();
+        if (group.mLastSample != INVALID) {
+            // Only the thresholds in [min(last, sample), max(last, sample)] can change state.
+            from = lowerBound(group.mValues, Math.min(group.mLastSample, sample));
+            to = lowerBound(group.mValues, Math.max(group.mLastSample, sample) + 1);
+        }
+        group.mLastSample = sample;
+        for (int i = from; i < to; i++) {
+            boolean matched = group.mThresholds[i].isMatching(sample);
+            if (matched == group.mMatched[i]) {
+                continue;
+            }
+            group.mMatched[i] = matched;
+            if (matched && !crossedKeys.contains(group.mKeys[i])) {
+                crossedKeys.add(group.mKeys[i]);
+            }
+        }
+    }
+
+    /** Forgets the crossing state of every group. */
+    void resetAll() {
+        for (int i = 0; i < mGroups.size(); i++) {
+            Group group = mGroups.valueAt(i);
+            reset(group.mAccessNetwork, group.mMeasurementType);
+        }
+    }
+
+    /** Returns the number of (access network, measurement type) groups. */
+    int getGroupCount() {
+        return mGroups.size();
+    }
+
+    /** Returns the access network of the group at the given index. */
+    int getAccessNetworkAt(int index) {
+        return mGroups.valueAt(index).mAccessNetwork;
+    }
+
+    /** Returns the measurement type of the group at the given index. */
+    int getMeasurementTypeAt(int index) {
+        return mGroups.valueAt(index).mMeasurementType;
+    }
+
+    /** Returns {@code true} if the given threshold of the listener key is currently crossed. */
+    boolean isMatched(String key, Threshold th) {
+        Group group = mGroups.get(getGroupKey(th.getAccessNetwork(), th.getMeasurementType()));
+        if (group == null) {
+            return false;
+        }
+        int index = indexOf(group, key, th);
+        return index >= 0 && group.mMatched[index];
+    }
+
+    private static boolean contains(Group group, String key) {
+        for (String k : group.mKeys) {
+            if (k.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasThresholdFor(Threshold[] ths, Group group) {
+        if (ths == null) {
+            return false;
+        }
+        for (Threshold th : ths) {
+            if (th.getAccessNetwork() == group.mAccessNetwork
+                    && th.getMeasurementType() == group.mMeasurementType) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void rebuild(Group group, String key, Threshold[] ths) {
+        List<Integer> order = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        List<Threshold> thresholds = new ArrayList<>();
+        List<Boolean> matched = new ArrayList<>();
+        for (int i = 0; i < group.size(); i++) {
+            if (!group.mKeys[i].equals(key)) {
+                keys.add(group.mKeys[i]);
+                thresholds.add(group.mThresholds[i]);
+                matched.add(group.mMatched[i]);
+            }
+        }
+        if (ths != null) {
+            for (Threshold th : ths) {
+                if (th.getAccessNetwork() != group.mAccessNetwork
+                        || th.getMeasurementType() != group.mMeasurementType) {
+                    continue;
+                }
+                keys.add(key);
+                // keep a private copy, so the sorted order can't be changed by the owner.
+                thresholds.add(th.copy());
+                int index = indexOf(group, key, th);
+                matched.add(index >= 0 && group.mMatched[index]);
+            }
+        }
+        for (int i = 0; i < thresholds.size(); i++) {
+            order.add(i);
+        }
+        order.sort((a, b) -> Integer.compare(
+                thresholds.get(a).getThreshold(), thresholds.get(b).getThreshold()));
+
+        int size = order.size();
+        group.mValues = new int[size];
+        group.mKeys = new String[size];
+        group.mThresholds = new Threshold[size];
+        group.mMatched = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            int j = order.get(i);
+            group.mValues[i] = thresholds.get(j).getThreshold();
+            group.mKeys[i] = keys.get(j);
+            group.mThresholds[i] = thresholds.get(j);
+            group.mMatched[i] = matched.get(j);
+        }
+        group.mLastSample = INVALID;
+    }
+
+    private static int indexOf(Group group, String key, Threshold th) {
+        for (int i = 0; i < group.size(); i++) {
+            if (group.mKeys[i].equals(key) && group.mThresholds[i].identicalThreshold(th)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the index of the first value which is not smaller than the given value. */
+    private static int lowerBound(int[] values, int value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ThresholdCrossingIndex{");
+        for (int i = 0; i < mGroups.size(); i++) {
+            Group group = mGroups.valueAt(i);
+            sb.append(QnsConstants.accessNetworkTypeToString(group.mAccessNetwork))
+                    .append("/")
+                    .append(group.mMeasurementType)
+                    .append(":")
+                    .append(Arrays.toString(group.mValues))
+                    .append(" matched=")
+                    .append(Arrays.toString(group.mMatched))
+                    .append(" last=")
+                    .append(group.mLastSample)
+                    .append(i < mGroups.size() - 1 ? ", " : "");
+        }
+        return sb.append("}").toString();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gate for the threshold notifications of a {@link QualityMonitor}.
+ *
+ * <p>For every listener key, notifications are delivered at most once per configured minimum
+ * interval. A notification arriving within the interval is held and delivered when the interval
+ * elapses (trailing edge); newer notifications replace the held one. Repeats don't reach the
+ * gate, as {@link ThresholdCrossingIndex} only reports thresholds which are newly crossed.
+ */
+class ThresholdNotificationGate {
+
+    /** Receives the notifications which passed the gate. */
+    interface Delivery {
+        void deliver(String key, Threshold[] ths);
+    }
+
+    private static final long NEVER = -1;
+
+    private class KeyState {
+        final String mKey;
+        int mNetCapability;
+        long mMinIntervalMillis;
+        long mLastDeliveryTime = NEVER;
+        int[] mRegisteredIds = new int[0];
+        Threshold[] mPending;
+        final Runnable mTrailingDelivery;
+
+        KeyState(String key, int netCapability) {
+            mKey = key;
+            mNetCapability = netCapability;
+            mTrailingDelivery = () -> onTrailingEdge(mKey);
+        }
+    }
+
+    private final String mTag;
+    private final Handler mHandler;
+    private final Delivery mDelivery;
+    private final Map<String, KeyState> mStates = new HashMap<>();
+    private final SparseIntArray mSuppressedByInterval = new SparseIntArray();
+
+    ThresholdNotificationGate(String tag, Looper looper, Delivery delivery) {
+        mTag = tag;
+        mHandler = new Handler(looper);
+        mDelivery = delivery;
+    }
+
+    /** Returns the current time used to apply the minimum interval. */
+    @VisibleForTesting
+    long getTimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Sets the minimum interval between two notifications delivered to the listener key.
+     *
+     * @param key listener key, see {@link QualityMonitor#getKey(int, int)}
+     * @param netCapability network capability of the listener
+     * @param minIntervalMillis minimum interval in milliseconds, 0 or less to disable.
+     */
+    synchronized void setMinInterval(String key, int netCapability, long minIntervalMillis) {
+        getOrCreateState(key, netCapability).mMinIntervalMillis = Math.max(0, minIntervalMillis);
+    }
+
+    /**
+     * Updates the thresholds registered for the listener key. If the set differs from the
+     * previous one, a held notification only keeps the thresholds which are still registered.
+     */
+    synchronized void onThresholdsUpdated(String key, int netCapability, Threshold[] ths) {
+        // a key without thresholds has nothing to gate, unless a notification is held for it.
+        KeyState state = ths == null ? mStates.get(key) : getOrCreateState(key, netCapability);
+        if (state == null) {
+            return;
+        }
+        int[] ids = getSortedIds(ths);
+        if (Arrays.equals(ids, state.mRegisteredIds)) {
+            return;
+        }
+        state.mRegisteredIds = ids;
+        if (state.mPending != null) {
+            List<Threshold> stillRegistered = new ArrayList<>();
+            for (Threshold th : state.mPending) {
+                if (Arrays.binarySearch(ids, th.getThresholdId()) >= 0) {
+                    stillRegistered.add(th);
+                }
+            }
+            if (stillRegistered.isEmpty()) {
+                state.mPending = null;
+                mHandler.removeCallbacks(state.mTrailingDelivery);
+            } else {
+                state.mPending = stillRegistered.toArray(new Threshold[0]);
+            }
+        }
+    }
+
+    /** Forgets everything about the listener key. */
+    synchronized void remove(String key) {
+        KeyState state = mStates.remove(key);
+        if (state != null) {
+            mHandler.removeCallbacks(state.mTrailingDelivery);
+        }
+    }
+
+    /** Forgets every listener key. Suppression counters are kept for dump. */
+    synchronized void clear() {
+        for (KeyState state : mStates.values()) {
+            mHandler.removeCallbacks(state.mTrailingDelivery);
+        }
+        mStates.clear();
+    }
+
+    /**
+     * Passes a notification through the gate. It is delivered right away, or held for the
+     * trailing edge of the minimum interval.
+     *
+     * @param key listener key, see {@link QualityMonitor#getKey(int, int)}
+     * @param ths matched thresholds to notify.
+     */
+    void submit(String key, Threshold[] ths) {
+        synchronized (this) {
+            KeyState state = mStates.get(key);
+            if (state != null && !admit(state, ths)) {
+                return;
+            }
+        }
+        mDelivery.deliver(key, ths);
+    }
+
+    /** Returns {@code true} if the notification has to be delivered right away. */
+    private boolean admit(KeyState state, Threshold[] ths) {
+        if (state.mPending != null) {
+            Log.d(mTag, "Replace held notification for " + state.mKey);
+            state.mPending = ths;
+            increase(mSuppressedByInterval, state.mNetCapability);
+            return false;
+        }
+        long now = getTimeMillis();
+        long wait =
+                state.mLastDeliveryTime == NEVER
+                        ? 0
+                        : state.mLastDeliveryTime + state.mMinIntervalMillis - now;
+        if (wait > 0) {
+            Log.d(mTag, "Hold notification for " + state.mKey + " " + wait + "ms");
+            state.mPending = ths;
+            mHandler.postDelayed(state.mTrailingDelivery, wait);
+            return false;
+        }
+        state.mLastDeliveryTime = now;
+        return true;
+    }
+
+    private void onTrailingEdge(String key) {
+        Threshold[] ths;
+        synchronized (this) {
+            KeyState state = mStates.get(key);
+            if (state == null || state.mPending == null) {
+                return;
+            }
+            ths = state.mPending;
+            state.mPending = null;
+            state.mLastDeliveryTime = getTimeMillis();
+        }
+        mDelivery.deliver(key, ths);
+    }
+
+    private KeyState getOrCreateState(String key, int netCapability) {
+        KeyState state = mStates.get(key);
+        if (state == null) {
+            state = new KeyState(key, netCapability);
+            mStates.put(key, state);
+        }
+        state.mNetCapability = netCapability;
+        return state;
+    }
+
+    private static int[] getSortedIds(Threshold[] ths) {
+        if (ths == null) {
+            return new int[0];
+        }
+        int[] ids = new int[ths.length];
+        for (int i = 0; i < ths.length; i++) {
+            ids[i] = ths[i].getThresholdId();
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static void increase(SparseIntArray counts, int netCapability) {
+        counts.put(netCapability, counts.get(netCapability) + 1);
+    }
+
+    /** Returns the number of held notifications replaced by a newer one for the capability. */
+    @VisibleForTesting
+    synchronized int getSuppressedByIntervalCount(int netCapability) {
+        return mSuppressedByInterval.get(netCapability);
+    }
+
+    /**
+     * Dumps the state of {@link ThresholdNotificationGate}
+     *
+     * @param pw {@link PrintWriter} to write the state of the object.
+     * @param prefix String to append at start of dumped log.
+     */
+    synchronized void dump(PrintWriter pw, String prefix) {
+        StringBuilder sb = new StringBuilder();
+        for (KeyState state : mStates.values()) {
+            sb.append(state.mKey)
+                    .append(":interval=")
+                    .append(state.mMinIntervalMillis)
+                    .append(state.mPending != null ? "(held) " : " ");
+        }
+        pw.println(prefix + "NotificationGate: " + sb);
+        for (int i = 0; i < mSuppressedByInterval.size(); i++) {
+            pw.println(
+                    prefix
+                            + "  suppressed by interval "
+                            + QnsUtils.getNameOfNetCapability(mSuppressedByInterval.keyAt(i))
+                            + "="
+                            + mSuppressedByInterval.valueAt(i));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * Cache of the WFC settings of a slot, read from the settings provider and the IMS service.
+ *
+ * <p>Each setting has a generation, incremented when the setting is invalidated, e.g. when its
+ * URI is reported changed. A read is served from memory while the value was loaded at the
+ * current generation of the setting, and queries the provider otherwise. A value loaded while the
+ * setting was invalidated is not kept, so that the next read queries it again.
+ */
+class WfcSettingsCache {
+    static final int SETTING_WFC_PLATFORM_ENABLED = 0;
+    static final int SETTING_CROSS_SIM_CALLING_ENABLED = 1;
+    static final int SETTING_WFC_ENABLED = 2;
+    static final int SETTING_WFC_MODE = 3;
+    static final int SETTING_WFC_ROAMING_ENABLED = 4;
+    static final int SETTING_WFC_ROAMING_MODE = 5;
+
+    private static final int SETTING_COUNT = 6;
+    private static final String[] SETTING_NAMES = {
+        "wfcPlatformEnabled",
+        "crossSimCallingEnabled",
+        "wfcEnabled",
+        "wfcMode",
+        "wfcRoamingEnabled",
+        "wfcRoamingMode"
+    };
+
+    private final int[] mValues = new int[SETTING_COUNT];
+    private final long[] mGenerations = new long[SETTING_COUNT];
+    /** Generation at which the value was loaded, -1 if never loaded. */
+    private final long[] mLoadedGenerations = new long[SETTING_COUNT];
+    private final long[] mQueryCounts = new long[SETTING_COUNT];
+    private final long[] mHitCounts = new long[SETTING_COUNT];
+    private long mEventCount;
+
+    WfcSettingsCache() {
+        Arrays.fill(mLoadedGenerations, -1);
+    }
+
+    /**
+     * Returns the value of a setting, loading it only if invalidated since last loaded.
+     *
+     * @param setting SETTING_* to read.
+     * @param loader queries the current value of the setting.
+     * @return the value of the setting.
+     */
+    int get(int setting, IntSupplier loader) {
+        long generation;
+        synchronized (this) {
+            generation = mGenerations[setting];
+            if (mLoadedGenerations[setting] == generation) {
+                mHitCounts[setting]++;
+                return mValues[setting];
+            }
+            mQueryCounts[setting]++;
+        }
+        // queried without the lock, as the loader may call the IMS service.
+        int value = loader.getAsInt();
+        synchronized (this) {
+            if (mGenerations[setting] == generation) {
+                mValues[setting] = value;
+                mLoadedGenerations[setting] = generation;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value of a boolean setting, loading it only if invalidated since last loaded.
+     *
+     * @param setting SETTING_* to read.
+     * @param loader queries the current value of the setting.
+     * @return the value of the setting.
+     */
+    boolean getBoolean(int setting, BooleanSupplier loader) {
+        return get(setting, () -> loader.getAsBoolean() ? 1 : 0) != 0;
+    }
+
+    /**
+     * Invalidates a setting, so that the next read queries it.
+     *
+     * @param setting SETTING_* changed.
+     */
+    synchronized void invalidate(int setting) {
+        mGenerations[setting]++;
+    }
+
+    /** Invalidates all the settings, e.g. when the subscription or carrier config changed. */
+    synchronized void invalidateAll() {
+        for (int setting = 0; setting < SETTING_COUNT; setting++) {
+            mGenerations[setting]++;
+        }
+    }
+
+    /** Counts an event reading the settings, to report the queries per event. */
+    synchronized void recordEvent() {
+        mEventCount++;
+    }
+
+    @VisibleForTesting
+    synchronized long getQueryCount(int setting) {
+        return mQueryCounts[setting];
+    }
+
+    @VisibleForTesting
+    synchronized long getHitCount(int setting) {
+        return mHitCounts[setting];
+    }
+
+    @VisibleForTesting
+    synchronized long getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * Dumps the state of {@link WfcSettingsCache}
+     *
+     * @param pw {@link PrintWriter} to write the state of the object.
+     * @param prefix String to append at start of dumped log.
+     */
+    synchronized void dump(PrintWriter pw, String prefix) {
+        long queries = 0;
+        for (int setting = 0; setting < SETTING_COUNT; setting++) {
+            queries += mQueryCounts[setting];
+        }
+        StringBuilder sb = new StringBuilder(prefix).append("WfcSettingsCache: events=");
+        sb.append(mEventCount).append(", queries=").append(queries);
+        if (mEventCount > 0) {
+            double queriesPerEvent = (double) queries / mEventCount;
+            sb.append(String.format(Locale.US, ", queriesPerEvent=%.2f", queriesPerEvent));
+        }
+        pw.println(sb);
+        for (int setting = 0; setting < SETTING_COUNT; setting++) {
+            pw.println(
+                    prefix
+                            + "  "
+                            + SETTING_NAMES[setting]
+                            + "[generation="
+                            + mGenerations[setting]
+                            + ", queries="
+                            + mQueryCounts[setting]
+                            + ", hits="
+                            + mHitCounts[setting]
+                            + "]");
+        }
+    }
+}
@@ -24,22 +24,30 @@ import android.net.LinkProperties;
 import android.net.Network;
 import android.net.NetworkCapabilities;
 import android.net.NetworkRequest;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
 import android.telephony.AccessNetworkConstants;
 import android.util.Log;
+import android.util.Pair;
 
 import com.android.internal.annotations.VisibleForTesting;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.PrintWriter;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class provides support for the RTT verification for Wifi. It schedules the RTT verification
@@ -49,6 +57,12 @@ import java.util.List;
 class WifiBackhaulMonitor {
     private static final int EVENT_START_RTT_CHECK = 1;
     private static final int EVENT_IMS_REGISTRATION_STATE_CHANGED = 2;
+    /** Delay between the starts of the probes of two addresses. */
+    @VisibleForTesting static final int PROBE_STAGGER_MILLIS = 250;
+    /** Time given to the probes on top of their expected duration, before giving up. */
+    @VisibleForTesting static final int PROBE_DEADLINE_MARGIN_MILLIS = 500;
+    static final int FAMILY_IPV4 = 0;
+    static final int FAMILY_IPV6 = 1;
     private final String mTag;
     private final ConnectivityManager mConnectivityManager;
     private final QnsImsManager mQnsImsManager;
@@ -70,7 +84,23 @@ class WifiBackhaulMonitor {
     private boolean mIsIwlanConnected = false;
     private boolean mIsRttRunning = false;
     private String mInterfaceName = null;
+    private Network mWifiNetwork = null;
+    private LinkProperties mWifiLinkProperties = null;
+    private String mWifiBssid = null;
+    private final RttResultCache mRttResultCache = new RttResultCache();
+    private RttServerAddressCache mRttServerAddressCache = new RttServerAddressCache();
     private int mRttTimerId = INVALID_ID;
+    private volatile RttCheck mActiveRttCheck;
+    private volatile boolean mIsRttCheckCancelled;
+    private final ExecutorService mProbeExecutor = Executors.newCachedThreadPool();
+    // per family statistics, indexed by FAMILY_IPV4 and FAMILY_IPV6.
+    private final int[] mProbeCounts = new int[2];
+    private final int[] mRepliedProbeCounts = new int[2];
+    private final int[] mWinCounts = new int[2];
+    private final double[] mRttSumMillis = new double[2];
+    private long mLastRttCheckDurationMillis;
+    private RttProber.EchoTransportFactory mEchoTransportFactory =
+            address -> new RttProber.IcmpEchoTransport(address, mWifiNetwork);
 
     private class BackhaulHandler extends Handler {
         BackhaulHandler() {
@@ -105,15 +135,46 @@ class WifiBackhaulMonitor {
                 LinkProperties lp = mConnectivityManager.getLinkProperties(network);
                 if (lp != null && lp.getInterfaceName().contains("wlan")) {
                     mInterfaceName = lp.getInterfaceName();
+                    mWifiNetwork = network;
+                    mWifiLinkProperties = lp;
+                    prefetchRttServerAddresses(network);
                 }
             }
         }
 
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities nc) {
+            super.onCapabilitiesChanged(network, nc);
+            if (network.equals(mWifiNetwork) && nc.getTransportInfo() instanceof WifiInfo) {
+                String bssid = ((WifiInfo) nc.getTransportInfo()).getBSSID();
+                // the BSSID is redacted to the default MAC address when not available.
+                mWifiBssid = WifiManager.DEFAULT_MAC_ADDRESS.equals(bssid) ? null : bssid;
+            }
+        }
+
+        @Override
+        public void onLinkPropertiesChanged(Network network, LinkProperties lp) {
+            super.onLinkPropertiesChanged(network, lp);
+            if (network.equals(mWifiNetwork)) {
+                if (mWifiLinkProperties != null && !mWifiLinkProperties.equals(lp)) {
+                    log("Link properties changed, invalidate the RTT result");
+                    mRttResultCache.invalidate(getWifiNetworkId());
+                    mRttServerAddressCache.clear();
+                }
+                mWifiLinkProperties = lp;
+            }
+        }
+
         @Override
         public void onLost(Network network) {
             super.onLost(network);
             stopRttSchedule();
+            cancelRttCheck();
             mInterfaceName = null;
+            mWifiNetwork = null;
+            mWifiLinkProperties = null;
+            mWifiBssid = null;
+            mRttServerAddressCache.clear();
             mRttResult = false;
         }
     }
@@ -206,6 +267,7 @@ class WifiBackhaulMonitor {
 
     private void onRttCheckStarted() {
         mIsRttRunning = true;
+        mIsRttCheckCancelled = false;
         mRttResult = startRttCheck();
         if (mIsRttScheduled && mRttResult) {
             mIsRttScheduled = false;
@@ -275,68 +337,286 @@ class WifiBackhaulMonitor {
         int pingCount = config[0];
         int intervalTime = Math.max(config[1], 200);
         int pingSize = config[2];
-        int requiredRttAverage = config[3];
         String rttPingServer = mConfigManager.getWlanRttServerAddressConfig();
+        String networkId = getWifiNetworkId();
+        RttResultCache.Entry cached =
+                mRttResultCache.get(
+                        networkId, rttPingServer, mConfigManager.getWlanRttResultCacheTtl());
+        if (cached != null) {
+            log("RTT Result reused for " + networkId + ": " + cached);
+            return cached.mRttResult;
+        }
 
-        List<String>[] hostAddresses;
+        Network network = mWifiNetwork;
+        if (network == null) {
+            log("Wifi network is not set for RTT check");
+            return false;
+        }
+        List<InetAddress>[] hostAddresses;
         try {
-            hostAddresses = getHostAddresses(rttPingServer);
+            hostAddresses = getHostAddresses(network, rttPingServer);
         } catch (UnknownHostException e) {
             log("Host not found for " + rttPingServer);
             return true;
         }
 
-        boolean rttResult = true;
-        Runtime runtime = Runtime.getRuntime();
-        int ver = 0;
-        String[] pings = new String[] {"ping", "ping6"}; // ping for IPv4 and IPv6
-        for (String ping : pings) {
-            List<String> addresses = hostAddresses[ver];
-            for (String address : addresses) {
-                StringBuilder command = new StringBuilder(ping);
-                command.append(" -I ").append(mInterfaceName);
-                command.append(" -i ").append((float) intervalTime / 1000);
-                command.append(" -s ").append(pingSize);
-                command.append(" -c ").append(pingCount);
-                command.append(" ").append(address);
-                try {
-                    Process p = runtime.exec(command.toString());
-                    BufferedReader br =
-                            new BufferedReader(new InputStreamReader(p.getInputStream()));
-                    String s;
-                    while ((s = br.readLine()) != null) {
-                        if (s.contains("/avg/")) {
-                            int i = s.indexOf("/", s.indexOf("="));
-                            String time = s.substring(i + 1, s.indexOf("/", i + 2));
-                            float avgRtt = Float.parseFloat(time);
-                            rttResult = avgRtt <= requiredRttAverage;
-                            if (rttResult) {
-                                log("RTT check is success.");
-                                return true;
+        RttCheck check =
+                new RttCheck(
+                        interleave(hostAddresses[0], hostAddresses[1]),
+                        pingCount,
+                        intervalTime,
+                        pingSize);
+        mActiveRttCheck = check;
+        if (mIsRttCheckCancelled) {
+            check.cancel();
+        }
+        long startTime = QnsUtils.getSystemElapsedRealTime();
+        try {
+            boolean rttResult = check.run(config);
+            if (mIsRttCheckCancelled) {
+                log("RTT check is cancelled.");
+                return false;
+            }
+            log("RTT Result: " + rttResult);
+            mRttResultCache.put(networkId, rttPingServer, rttResult);
+            return rttResult;
+        } finally {
+            mActiveRttCheck = null;
+            mLastRttCheckDurationMillis = QnsUtils.getSystemElapsedRealTime() - startTime;
+        }
+    }
+
+    /**
+     * Returns the identity of the connected Wi-Fi network: the BSSID of the access point when it
+     * is known, which is kept across reconnections, or the network handle.
+     */
+    String getWifiNetworkId() {
+        String bssid = mWifiBssid;
+        if (bssid != null) {
+            return "bssid:" + bssid;
+        }
+        Network network = mWifiNetwork;
+        return network != null ? "network:" + network.getNetworkHandle() : null;
+    }
+
+    /**
+     * Orders the addresses as in Happy Eyeballs (RFC 8305), alternating the families so that a
+     * dead family does not hold the probes of the other one back. IPv4 goes first, as it was
+     * probed first before the probes ran concurrently.
+     */
+    private static List<InetAddress> interleave(List<InetAddress> v4, List<InetAddress> v6) {
+        List<InetAddress> addresses = new ArrayList<>(v4.size() + v6.size());
+        for (int i = 0; i < Math.max(v4.size(), v6.size()); i++) {
+            if (i < v4.size()) {
+                addresses.add(v4.get(i));
+            }
+            if (i < v6.size()) {
+                addresses.add(v6.get(i));
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Probes all the addresses of the RTT server concurrently, each one starting {@link
+     * #PROBE_STAGGER_MILLIS} after the previous one. The check ends as soon as an address meets
+     * the required average, or when all the probes are done, or when the deadline is reached,
+     * and the probes still running are cancelled.
+     */
+    private class RttCheck {
+        private final List<InetAddress> mAddresses;
+        private final int mPingCount;
+        private final int mIntervalTime;
+        private final int mPingSize;
+        private final CountDownLatch mDecided = new CountDownLatch(1);
+        private final BlockingQueue<Pair<InetAddress, RttProber.Result>> mOutcomes =
+                new LinkedBlockingQueue<>();
+        private final List<RttProber> mProbers = new ArrayList<>();
+        private boolean mIsCancelled;
+
+        RttCheck(List<InetAddress> addresses, int pingCount, int intervalTime, int pingSize) {
+            mAddresses = addresses;
+            mPingCount = Math.max(1, pingCount);
+            mIntervalTime = intervalTime;
+            mPingSize = pingSize;
+        }
+
+        /** Returns the time after which the check gives up on the probes still running. */
+        private long getTimeoutMillis() {
+            return (long) PROBE_STAGGER_MILLIS * Math.max(0, mAddresses.size() - 1)
+                    + (long) mIntervalTime * (mPingCount - 1)
+                    + RttProber.REPLY_TIMEOUT_MILLIS
+                    + PROBE_DEADLINE_MARGIN_MILLIS;
+        }
+
+        boolean run(int[] config) {
+            for (int i = 0; i < mAddresses.size(); i++) {
+                InetAddress address = mAddresses.get(i);
+                long startDelay = (long) i * PROBE_STAGGER_MILLIS;
+                mProbeExecutor.execute(
+                        () -> {
+                            RttProber.Result result = null;
+                            try {
+                                if (!mDecided.await(startDelay, TimeUnit.MILLISECONDS)) {
+                                    result = probe(address);
+                                }
+                            } catch (InterruptedException e) {
+                                // closed
                             }
-                        }
+                            mOutcomes.add(new Pair<>(address, result));
+                        });
+            }
+
+            // An address without any reply leaves the result unchanged, as the server may not
+            // answer echo requests at all.
+            boolean rttResult = true;
+            long deadline = QnsUtils.getSystemElapsedRealTime() + getTimeoutMillis();
+            try {
+                for (int i = 0; i < mAddresses.size(); i++) {
+                    long remaining = deadline - QnsUtils.getSystemElapsedRealTime();
+                    Pair<InetAddress, RttProber.Result> outcome =
+                            remaining > 0
+                                    ? mOutcomes.poll(remaining, TimeUnit.MILLISECONDS)
+                                    : null;
+                    if (outcome == null) {
+                        log("RTT check timed out");
+                        break;
+                    }
+                    RttProber.Result result = outcome.second;
+                    if (mIsRttCheckCancelled) {
+                        break;
+                    }
+                    if (result == null || !result.hasReplies()) {
+                        recordProbe(outcome.first, result, false);
+                        continue;
+                    }
+                    rttResult = meetsRttCriteria(result, config);
+                    recordProbe(outcome.first, result, rttResult);
+                    if (rttResult) {
+                        log("RTT check is success over " + outcome.first.getHostAddress());
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                log("RTT check is interrupted");
+            } finally {
+                cancel();
+            }
+            return rttResult;
+        }
+
+        private RttProber.Result probe(InetAddress address) {
+            try {
+                RttProber prober =
+                        new RttProber(
+                                mEchoTransportFactory.create(address),
+                                mPingCount,
+                                mIntervalTime,
+                                mPingSize);
+                synchronized (this) {
+                    mProbers.add(prober);
+                    if (mIsCancelled) {
+                        prober.cancel();
                     }
-                } catch (IOException | NumberFormatException e) {
-                    e.printStackTrace();
                 }
+                RttProber.Result result = prober.probe();
+                log("RTT to " + address.getHostAddress() + ": " + result);
+                return result;
+            } catch (IOException e) {
+                log("RTT probe to " + address.getHostAddress() + " failed: " + e);
+                return null;
             }
-            ver++;
         }
 
-        log("RTT Result: " + rttResult);
-        return rttResult;
+        /** Ends the check, cancelling the probes which are running or not started yet. */
+        void cancel() {
+            mDecided.countDown();
+            synchronized (this) {
+                mIsCancelled = true;
+                for (RttProber prober : mProbers) {
+                    prober.cancel();
+                }
+            }
+        }
     }
 
-    private List<String>[] getHostAddresses(String rttPingServer) throws UnknownHostException {
-        List<String>[] lists = new List[2];
+    /**
+     * Returns true if the replies of a probe meet the RTT criteria.
+     *
+     * @param result statistics of the probe, with at least one reply.
+     * @param config configurations from {@link QnsCarrierConfigManager#getWlanRttOtherConfigs()}
+     */
+    @VisibleForTesting
+    static boolean meetsRttCriteria(RttProber.Result result, int[] config) {
+        if (result.getAverageMillis() > config[3]) {
+            return false;
+        }
+        // the optional criteria are not applied when set to 0.
+        int percentile = config.length > 5 ? config[5] : 0;
+        int percentileCriteria = config.length > 6 ? config[6] : 0;
+        int jitterCriteria = config.length > 7 ? config[7] : 0;
+        int lossRateCriteria = config.length > 8 ? config[8] : 0;
+        if (percentile > 0
+                && percentileCriteria > 0
+                && result.getPercentileMillis(percentile) > percentileCriteria) {
+            return false;
+        }
+        if (jitterCriteria > 0 && result.getJitterMillis() > jitterCriteria) {
+            return false;
+        }
+        return lossRateCriteria <= 0 || result.getLossPercent() <= lossRateCriteria;
+    }
+
+    private synchronized void recordProbe(
+            InetAddress address, RttProber.Result result, boolean won) {
+        int family = address instanceof Inet4Address ? FAMILY_IPV4 : FAMILY_IPV6;
+        mProbeCounts[family]++;
+        if (result != null && result.hasReplies()) {
+            mRepliedProbeCounts[family]++;
+            mRttSumMillis[family] += result.getAverageMillis();
+        }
+        if (won) {
+            mWinCounts[family]++;
+        }
+    }
+
+    /** Cancels the running RTT check, if any. */
+    private void cancelRttCheck() {
+        mIsRttCheckCancelled = true;
+        RttCheck check = mActiveRttCheck;
+        if (check != null) {
+            log("cancel RTT check");
+            check.cancel();
+        }
+    }
+
+    /** Resolves the RTT server through the new Wi-Fi network, before a check needs it. */
+    private void prefetchRttServerAddresses(Network network) {
+        String rttPingServer = mConfigManager.getWlanRttServerAddressConfig();
+        if (rttPingServer == null || mRegistrantList.size() == 0 || mProbeExecutor.isShutdown()) {
+            return;
+        }
+        mProbeExecutor.execute(
+                () -> {
+                    try {
+                        mRttServerAddressCache.resolve(network, rttPingServer);
+                    } catch (UnknownHostException e) {
+                        log("Host not found for " + rttPingServer);
+                    }
+                });
+    }
+
+    private List<InetAddress>[] getHostAddresses(Network network, String rttPingServer)
+            throws UnknownHostException {
+        List<InetAddress>[] lists = new List[2];
         lists[0] = new ArrayList<>(); // for IPv4
         lists[1] = new ArrayList<>(); // for IPv6
-        InetAddress[] inetAddress = InetAddress.getAllByName(rttPingServer);
+        InetAddress[] inetAddress = mRttServerAddressCache.resolve(network, rttPingServer);
         for (InetAddress addr : inetAddress) {
             if (addr instanceof Inet4Address) {
-                lists[0].add(addr.getHostAddress());
+                lists[0].add(addr);
             } else {
-                lists[1].add(addr.getHostAddress());
+                lists[1].add(addr);
             }
         }
         return lists;
@@ -346,11 +626,13 @@ class WifiBackhaulMonitor {
     void close() {
         mHandlerThread.quit();
         clearAll();
+        mProbeExecutor.shutdownNow();
     }
 
     /** Method to clear all settings in WifiBackhaulMonitor */
     void clearAll() {
         stopRttSchedule();
+        cancelRttCheck();
         mRegistrantList.removeAll();
         if (mIsCallbackRegistered) {
             mConnectivityManager.unregisterNetworkCallback(mNetworkCallback);
@@ -363,11 +645,71 @@ class WifiBackhaulMonitor {
         mIsRttScheduled = false;
     }
 
+    @VisibleForTesting
+    void setEchoTransportFactory(RttProber.EchoTransportFactory factory) {
+        mEchoTransportFactory = factory;
+    }
+
+    @VisibleForTesting
+    void setRttServerAddressCache(RttServerAddressCache cache) {
+        mRttServerAddressCache = cache;
+    }
+
+    @VisibleForTesting
+    RttResultCache getRttResultCache() {
+        return mRttResultCache;
+    }
+
+    @VisibleForTesting
+    synchronized int getWinCount(int family) {
+        return mWinCounts[family];
+    }
+
     @VisibleForTesting
     int getRttTimerId() {
         return mRttTimerId;
     }
 
+    /**
+     * Dumps the state of {@link WifiBackhaulMonitor}
+     *
+     * @param pw {@link PrintWriter} to write the state of the object.
+     * @param prefix String to append at start of dumped log.
+     */
+    synchronized void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "------------------------------");
+        pw.println(prefix + "WifiBackhaulMonitor[" + mSlotIndex + "]:");
+        pw.println(
+                prefix
+                        + "mRttResult="
+                        + mRttResult
+                        + ", mIsRttRunning="
+                        + mIsRttRunning
+                        + ", mIsRttScheduled="
+                        + mIsRttScheduled
+                        + ", mLastRttCheckDurationMillis="
+                        + mLastRttCheckDurationMillis);
+        String[] families = {"IPv4", "IPv6"};
+        for (int family = FAMILY_IPV4; family <= FAMILY_IPV6; family++) {
+            pw.println(
+                    prefix
+                            + families[family]
+                            + ": probes="
+                            + mProbeCounts[family]
+                            + ", replied="
+                            + mRepliedProbeCounts[family]
+                            + ", wins="
+                            + mWinCounts[family]
+                            + ", avgRtt="
+                            + (mRepliedProbeCounts[family] > 0
+                                    ? mRttSumMillis[family] / mRepliedProbeCounts[family]
+                                    : 0)
+                            + "ms");
+        }
+        mRttResultCache.dump(pw, prefix);
+        mRttServerAddressCache.dump(pw, prefix);
+    }
+
     private void log(String s) {
         Log.d(mTag, s);
     }
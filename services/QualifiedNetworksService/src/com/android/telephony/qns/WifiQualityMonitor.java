@@ -32,14 +32,19 @@ import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.telephony.SignalThresholdInfo;
+import android.util.ArraySet;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * This class manages threshold information registered from AccessNetworkEvaluator It is intended to
@@ -64,6 +69,22 @@ public class WifiQualityMonitor extends QualityMonitor {
     private boolean mIsRegistered = false;
     private boolean mIsBackhaulRunning;
 
+    /** Filter configs requested per slot, the one of the lowest slot index is applied. */
+    private final SparseArray<SignalFilter> mRssiFilterConfigs = new SparseArray<>();
+    private SignalFilter mRssiFilter = new SignalFilter(SignalFilter.TYPE_NONE, 0);
+    private int mFilteredRssi = SIGNAL_STRENGTH_UNSPECIFIED;
+    private int mFilteredOutCrossingCount;
+
+    private QnsMonitoringPolicy mMonitoringPolicy;
+    private int mFidelity = QnsMonitoringPolicy.FIDELITY_FULL;
+    /** Last RSSI sample passed to the handler, samples closer than the deadband are dropped. */
+    private int mLastProcessedRssi = SIGNAL_STRENGTH_UNSPECIFIED;
+    /** Sorted values of the registered RSSI thresholds, limiting the deadband. */
+    private int[] mRssiThresholds = new int[0];
+    /** RSSI samples received and samples dropped by the deadband, per fidelity. */
+    private final int[] mRssiSampleCounts = new int[QnsMonitoringPolicy.FIDELITY_COUNT];
+    private final int[] mDroppedRssiSampleCounts = new int[QnsMonitoringPolicy.FIDELITY_COUNT];
+
     private class WiFiThresholdCallback extends ConnectivityManager.NetworkCallback {
         /** Callback Received based on meeting Wifi RSSI Threshold Registered or Wifi Lost */
         @Override
@@ -97,6 +118,14 @@ public class WifiQualityMonitor extends QualityMonitor {
     synchronized void validateWqmStatus(int wifiRssi) {
         if (isWifiRssiValid(wifiRssi)) {
             Log.d(mTag, "Registered Threshold @ Wqm Status check =" + mRegisteredThreshold);
+            mRssiSampleCounts[mFidelity]++;
+            if (mLastProcessedRssi != SIGNAL_STRENGTH_UNSPECIFIED
+                    && Math.abs(wifiRssi - mLastProcessedRssi)
+                            < QnsMonitoringPolicy.getRssiDeadbandDb(mFidelity, mRssiThresholds)) {
+                mDroppedRssiSampleCounts[mFidelity]++;
+                return;
+            }
+            mLastProcessedRssi = wifiRssi;
             mHandler.obtainMessage(EVENT_WIFI_RSSI_CHANGED, wifiRssi, 0).sendToTarget();
         } else {
             Log.d(mTag, "Cancel backhaul if running for invalid SS received");
@@ -122,6 +151,11 @@ public class WifiQualityMonitor extends QualityMonitor {
         }
         mTimerIds.clear();
         mWaitingThresholds.clear();
+        mRssiFilter.reset();
+        mFilteredRssi = SIGNAL_STRENGTH_UNSPECIFIED;
+        mLastProcessedRssi = SIGNAL_STRENGTH_UNSPECIFIED;
+        // crossings pending on the backhaul timer are reported again by the next valid sample.
+        resetAllCrossingStates();
     }
 
     /**
@@ -137,6 +171,7 @@ public class WifiQualityMonitor extends QualityMonitor {
         HandlerThread handlerThread = new HandlerThread(mTag);
         handlerThread.start();
         mHandler = new WiFiEventsHandler(handlerThread.getLooper());
+        initNotificationGate(handlerThread.getLooper());
 
         mConnectivityManager = mContext.getSystemService(ConnectivityManager.class);
         mWifiManager = mContext.getSystemService(WifiManager.class);
@@ -188,9 +223,24 @@ public class WifiQualityMonitor extends QualityMonitor {
     @Override
     synchronized void unregisterThresholdChange(int netCapability, int slotIndex) {
         super.unregisterThresholdChange(netCapability, slotIndex);
+        if (!hasListenerOnSlot(slotIndex) && mRssiFilterConfigs.get(slotIndex) != null) {
+            // the filter of a slot without listener must not stay selected.
+            mRssiFilterConfigs.remove(slotIndex);
+            updateRssiFilter();
+        }
         checkForThresholdRegistration();
     }
 
+    private boolean hasListenerOnSlot(int slotIndex) {
+        String suffix = "_" + slotIndex;
+        for (String key : mThresholdCallbackMap.keySet()) {
+            if (key.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     synchronized void updateThresholdsForNetCapability(
             int netCapability, int slotIndex, Threshold[] ths) {
@@ -211,9 +261,11 @@ public class WifiQualityMonitor extends QualityMonitor {
         // Current check is on measurement type as RSSI
         // Future to be enhanced for WiFi PER.
         int newThreshold = SIGNAL_STRENGTH_UNSPECIFIED;
+        TreeSet<Integer> rssiThresholds = new TreeSet<>();
         for (Map.Entry<String, List<Threshold>> entry : mThresholdsList.entrySet()) {
             for (Threshold t : entry.getValue()) {
                 if (t.getMeasurementType() == SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSI) {
+                    rssiThresholds.add(t.getThreshold());
                     // check ROVE IN cases:
                     if (t.getMatchType() == THRESHOLD_EQUAL_OR_LARGER) {
                         if (newThreshold > t.getThreshold()
@@ -228,6 +280,8 @@ public class WifiQualityMonitor extends QualityMonitor {
             }
         }
 
+        mRssiThresholds = rssiThresholds.stream().mapToInt(Integer::intValue).toArray();
+
         Log.d(
                 mTag,
                 "Registered threshold = "
@@ -240,21 +294,114 @@ public class WifiQualityMonitor extends QualityMonitor {
         }
     }
 
-    private void validateForWifiBackhaul(int wifiRssi) {
+    /**
+     * Sets the filter applied to the RSSI samples for the carrier of the given slot. Wi-Fi RSSI
+     * is shared by all slots, so when the slots request different filters, the one of the lowest
+     * slot index is applied.
+     *
+     * @param slotIndex slot id
+     * @param config filter config, see {@link SignalFilter#fromConfig(String)}
+     */
+    @Override
+    synchronized void setSignalFilter(int slotIndex, String config) {
+        mRssiFilterConfigs.put(slotIndex, SignalFilter.fromConfig(config));
+        updateRssiFilter();
+    }
+
+    /** Applies the filter requested by the lowest slot index, none if no slot requests one. */
+    private void updateRssiFilter() {
+        SignalFilter filter =
+                mRssiFilterConfigs.size() > 0
+                        ? mRssiFilterConfigs.valueAt(0)
+                        : new SignalFilter(SignalFilter.TYPE_NONE, 0);
+        if (!filter.isSameConfig(mRssiFilter)) {
+            Log.d(mTag, "RSSI filter changed from " + mRssiFilter + " to " + filter);
+            mRssiFilter = new SignalFilter(filter.getType(), filter.getParam());
+            mFilteredRssi = SIGNAL_STRENGTH_UNSPECIFIED;
+        }
+    }
+
+    @Override
+    void setMonitoringPolicy(QnsMonitoringPolicy policy) {
+        mMonitoringPolicy = policy;
+        mMonitoringPolicy.registerFidelityChanged(mHandler, EVENT_MONITORING_FIDELITY_CHANGED);
+    }
+
+    /**
+     * Applies the RSSI deadband of the new fidelity. Going back to full fidelity processes the
+     * latest sample right away, in case it was dropped by the deadband.
+     */
+    private synchronized void onFidelityChanged(int fidelity) {
+        if (fidelity == mFidelity) {
+            return;
+        }
+        Log.d(mTag, "Monitoring fidelity changed from " + mFidelity + " to " + fidelity);
+        mFidelity = fidelity;
+        if (fidelity == QnsMonitoringPolicy.FIDELITY_FULL
+                && mWifiRssi != mLastProcessedRssi
+                && isWifiRssiValid(mWifiRssi)) {
+            validateWqmStatus(mWifiRssi);
+        }
+    }
+
+    /**
+     * Passes a RSSI sample through the filter and returns the filtered value. A sample matching a
+     * registered threshold which the filtered value doesn't match is counted as a filtered-out
+     * crossing.
+     */
+    private int filterRssi(int wifiRssi) {
+        int filteredRssi = mRssiFilter.filter(wifiRssi);
+        mFilteredRssi = filteredRssi;
+        if (filteredRssi != wifiRssi && isFilteredOutCrossing(wifiRssi, filteredRssi)) {
+            mFilteredOutCrossingCount++;
+            Log.d(mTag, "RSSI " + wifiRssi + " filtered to " + filteredRssi);
+        }
+        return filteredRssi;
+    }
+
+    private boolean isFilteredOutCrossing(int wifiRssi, int filteredRssi) {
+        for (List<Threshold> thresholds : mThresholdsList.values()) {
+            for (Threshold th : thresholds) {
+                if (th.isMatching(wifiRssi) && !th.isMatching(filteredRssi)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private synchronized void validateForWifiBackhaul(int wifiRssi) {
         mIsBackhaulRunning = false;
-        for (Map.Entry<String, List<Threshold>> entry : mThresholdsList.entrySet()) {
-            if (mWaitingThresholds.getOrDefault(entry.getKey(), false)) {
+        wifiRssi = filterRssi(wifiRssi);
+        for (String key : updateCrossingIndex(wifiRssi)) {
+            if (mWaitingThresholds.getOrDefault(key, false)) {
                 continue;
             }
-            for (Threshold th : entry.getValue()) {
+            for (Threshold th : mThresholdsList.getOrDefault(key, List.of())) {
                 if (th.isMatching(wifiRssi)) {
                     Log.d(mTag, "RSSI matched for threshold = " + th);
-                    handleMatchingThreshold(entry.getKey(), th, wifiRssi);
+                    handleMatchingThreshold(key, th, wifiRssi);
                 }
             }
         }
     }
 
+    /**
+     * Applies the RSSI sample to every threshold group and returns the keys with at least one
+     * threshold newly crossed by the sample.
+     */
+    private Set<String> updateCrossingIndex(int wifiRssi) {
+        Set<String> crossedKeys = new ArraySet<>();
+        for (int i = 0; i < mCrossingIndex.getGroupCount(); i++) {
+            mCrossingIndex.onSample(
+                    mCrossingIndex.getAccessNetworkAt(i),
+                    mCrossingIndex.getMeasurementTypeAt(i),
+                    wifiRssi,
+                    crossedKeys);
+        }
+        return crossedKeys;
+    }
+
     private void handleMatchingThreshold(String key, Threshold th, int wifiRssi) {
         int backhaul = th.getWaitTime();
         if (backhaul < 0 && th.getMatchType() != QnsConstants.THRESHOLD_EQUAL_OR_SMALLER) {
@@ -276,11 +423,32 @@ public class WifiQualityMonitor extends QualityMonitor {
         }
     }
 
-    private void validateThresholdsAfterBackHaul(int wifiRssi) {
+    /**
+     * Notifies the thresholds waiting for the backhaul timer.
+     *
+     * @param wifiRssi RSSI already passed through the filter.
+     */
+    private synchronized void validateThresholdsAfterBackHaul(int wifiRssi) {
+        updateCrossingIndex(wifiRssi);
+        List<String> waitingKeys = new ArrayList<>(mWaitingThresholds.keySet());
         mWaitingThresholds.clear();
-        for (Map.Entry<String, List<Threshold>> entry : mThresholdsList.entrySet()) {
-            checkAndNotifySignalStrength(entry.getKey(), wifiRssi);
+        // Only the thresholds which were crossed when the backhaul timer started are notified.
+        for (String key : waitingKeys) {
+            checkAndNotifySignalStrength(key, wifiRssi);
+        }
+    }
+
+    /**
+     * Returns the RSSI to check at the expiry of the backhaul timer. The filter is only advanced
+     * by the samples reported by the framework, so that a sample is not counted twice: with a
+     * filter, the last filtered value is used, otherwise the current RSSI.
+     */
+    private synchronized int getRssiAfterBackHaul(int currentRssi) {
+        if (mRssiFilter.getType() == SignalFilter.TYPE_NONE
+                || mFilteredRssi == SIGNAL_STRENGTH_UNSPECIFIED) {
+            return currentRssi;
         }
+        return mFilteredRssi;
     }
 
     private void checkAndNotifySignalStrength(String key, int wifiRssi) {
@@ -297,7 +465,7 @@ public class WifiQualityMonitor extends QualityMonitor {
             }
         }
         if (matchedThresholds.size() > 0) {
-            notifyThresholdChange(key, matchedThresholds.toArray(new Threshold[0]));
+            requestThresholdNotification(key, matchedThresholds.toArray(new Threshold[0]));
         }
     }
 
@@ -336,6 +504,21 @@ public class WifiQualityMonitor extends QualityMonitor {
         return mRegisteredThreshold;
     }
 
+    @VisibleForTesting
+    synchronized int getFilteredOutCrossingCount() {
+        return mFilteredOutCrossingCount;
+    }
+
+    @VisibleForTesting
+    synchronized int getRssiFilterType() {
+        return mRssiFilter.getType();
+    }
+
+    @VisibleForTesting
+    synchronized int getDroppedRssiSampleCount(int fidelity) {
+        return mDroppedRssiSampleCounts[fidelity];
+    }
+
     private class WiFiEventsHandler extends Handler {
         WiFiEventsHandler(Looper looper) {
             super(looper);
@@ -352,10 +535,14 @@ public class WifiQualityMonitor extends QualityMonitor {
                 case EVENT_WIFI_NOTIFY_TIMER_EXPIRED:
                     mWifiRssi = getCurrentQuality(SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSI);
                     Log.d(mTag, "Backhaul timer expired, wifi rssi = " + mWifiRssi);
-                    if (isWifiRssiValid(mWifiRssi)) {
-                        validateThresholdsAfterBackHaul(mWifiRssi);
+                    int rssi = getRssiAfterBackHaul(mWifiRssi);
+                    if (isWifiRssiValid(rssi)) {
+                        validateThresholdsAfterBackHaul(rssi);
                     }
                     break;
+                case EVENT_MONITORING_FIDELITY_CHANGED:
+                    onFidelityChanged((int) ((QnsAsyncResult) msg.obj).mResult);
+                    break;
                 default:
                     Log.d(mTag, "Not Handled !");
             }
@@ -366,6 +553,9 @@ public class WifiQualityMonitor extends QualityMonitor {
     @Override
     public void close() {
         unregisterCallback();
+        if (mMonitoringPolicy != null) {
+            mMonitoringPolicy.unregisterFidelityChanged(mHandler);
+        }
         mWifiRssi = SIGNAL_STRENGTH_UNSPECIFIED;
         mIsRegistered = false;
         mRegisteredThreshold = SIGNAL_STRENGTH_UNSPECIFIED;
@@ -389,5 +579,21 @@ public class WifiQualityMonitor extends QualityMonitor {
                         + mWifiRssi
                         + ", mRegisteredThreshold="
                         + mRegisteredThreshold);
+        pw.println(
+                prefix
+                        + "mRssiFilter="
+                        + mRssiFilter
+                        + ", mFilteredRssi="
+                        + mFilteredRssi
+                        + ", mFilteredOutCrossingCount="
+                        + mFilteredOutCrossingCount);
+        pw.println(
+                prefix
+                        + "mFidelity="
+                        + mFidelity
+                        + ", RSSI samples per fidelity="
+                        + Arrays.toString(mRssiSampleCounts)
+                        + ", dropped by deadband="
+                        + Arrays.toString(mDroppedRssiSampleCounts));
     }
 }
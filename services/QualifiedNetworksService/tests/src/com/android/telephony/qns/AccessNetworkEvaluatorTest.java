@@ -30,6 +30,7 @@ import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.isNotNull;
 import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
@@ -43,6 +44,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.telephony.AccessNetworkConstants;
 import android.telephony.ServiceState;
 import android.telephony.SignalThresholdInfo;
@@ -166,6 +168,21 @@ public class AccessNetworkEvaluatorTest extends QnsTest {
                 .thenAnswer(i -> mWfcRoamingEnabled);
         when(mMockQnsImsManager.getWfcMode(anyBoolean()))
                 .thenAnswer(i -> (boolean) i.getArguments()[0] ? mWfcModeRoaming : mWfcMode);
+        // the dispatcher reads the settings again, as its cache is invalidated on each change.
+        when(mMockQnsEventDispatcher.isWfcEnabledByPlatform())
+                .thenAnswer(i -> QnsUtils.isWfcEnabledByPlatform(mMockQnsImsManager));
+        when(mMockQnsEventDispatcher.isWfcEnabled(anyBoolean()))
+                .thenAnswer(
+                        i ->
+                                QnsUtils.isWfcEnabled(
+                                        mMockQnsImsManager,
+                                        mMockQnsProvisioningListener,
+                                        (boolean) i.getArguments()[0]));
+        when(mMockQnsEventDispatcher.getWfcMode(anyBoolean()))
+                .thenAnswer(
+                        i ->
+                                QnsUtils.getWfcMode(
+                                        mMockQnsImsManager, (boolean) i.getArguments()[0]));
 
         when(mMockQnsTelephonyListener.getLastQnsTelephonyInfo())
                 .thenReturn(mMockQnsTelephonyListener.new QnsTelephonyInfo());
@@ -496,6 +513,7 @@ public class AccessNetworkEvaluatorTest extends QnsTest {
         info.setDataNetworkType(TelephonyManager.NETWORK_TYPE_LTE);
         info.setVoiceNetworkType(TelephonyManager.NETWORK_TYPE_LTE);
         info.setDataRegState(ServiceState.STATE_IN_SERVICE);
+        info.setCallbackTimeNanos(SystemClock.elapsedRealtimeNanos());
         Message.obtain(
                         mAne.mHandler,
                         EVENT_QNS_TELEPHONY_INFO_CHANGED,
@@ -508,6 +526,25 @@ public class AccessNetworkEvaluatorTest extends QnsTest {
         ArrayList<Integer> expected = new ArrayList<>();
         expected.add(AccessNetworkConstants.AccessNetworkType.EUTRAN);
         assertEquals(expected, mQualifiedNetworksInfo.getAccessNetworkTypes());
+        // the latency from the service state callback to the evaluation is recorded.
+        assertEquals(
+                1,
+                mAne.getCallbackLatencyTracker()
+                        .getCount(CallbackLatencyTracker.SOURCE_SERVICE_STATE));
+
+        // an info delivered on registration has no callback time, nothing is recorded for it.
+        info = mMockQnsTelephonyListener.new QnsTelephonyInfo(info);
+        info.setDataNetworkType(TelephonyManager.NETWORK_TYPE_NR);
+        Message.obtain(
+                        mAne.mHandler,
+                        EVENT_QNS_TELEPHONY_INFO_CHANGED,
+                        new QnsAsyncResult(null, info, null))
+                .sendToTarget();
+        waitForLastHandlerAction(mAne.mHandler);
+        assertEquals(
+                1,
+                mAne.getCallbackLatencyTracker()
+                        .getCount(CallbackLatencyTracker.SOURCE_SERVICE_STATE));
     }
 
     @Test
@@ -1579,6 +1616,35 @@ public class AccessNetworkEvaluatorTest extends QnsTest {
         assertTrue(mAne.isWfcEnabled());
     }
 
+    @Test
+    public void testEvaluationReadsWfcSettingsWithoutIpc() {
+        mAne.onIwlanNetworkStatusChanged(
+                mMockIwlanNetworkStatusTracker.new IwlanAvailabilityInfo(true, false));
+        waitForLastHandlerAction(mAne.mHandler);
+        when(mMockQnsEventDispatcher.isWfcEnabledByPlatform()).thenReturn(true);
+        when(mMockQnsEventDispatcher.isWfcEnabled(anyBoolean())).thenReturn(false);
+        when(mMockQnsEventDispatcher.getWfcMode(anyBoolean())).thenReturn(QnsConstants.CELL_PREF);
+        clearInvocations(mMockQnsImsManager, mMockImsMmTelManager, mMockCarrierConfigManager);
+
+        mAne.evaluate();
+        waitForLastHandlerAction(mAne.mHandler);
+
+        // the mismatching setting is taken from the dispatcher, not read again over IPC.
+        verify(mMockQnsEventDispatcher, atLeast(1)).isWfcEnabled(false);
+        assertFalse(mAne.isWfcEnabled());
+        assertEquals(QnsConstants.CELL_PREF, mAne.getPreferredMode());
+        verify(mMockQnsImsManager, never()).isWfcEnabledByUser();
+        verify(mMockQnsImsManager, never()).isWfcRoamingEnabledByUser();
+        verify(mMockQnsImsManager, never()).isWfcEnabledByPlatform();
+        verify(mMockQnsImsManager, never()).isWfcProvisionedOnDevice();
+        verify(mMockQnsImsManager, never()).getWfcMode(anyBoolean());
+        verify(mMockImsMmTelManager, never()).isVoWiFiSettingEnabled();
+        verify(mMockImsMmTelManager, never()).isVoWiFiRoamingSettingEnabled();
+        verify(mMockImsMmTelManager, never()).getVoWiFiModeSetting();
+        verify(mMockImsMmTelManager, never()).getVoWiFiRoamingModeSetting();
+        verify(mMockCarrierConfigManager, never()).getConfigForSubId(anyInt());
+    }
+
     @Test
     public void testEvaluateAgainWhenRebuild() throws InterruptedException {
         mLatch = new CountDownLatch(3);
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static com.android.telephony.qns.CallbackLatencyTracker.SOURCE_PROVISIONING;
+import static com.android.telephony.qns.CallbackLatencyTracker.SOURCE_SERVICE_STATE;
+import static com.android.telephony.qns.CallbackLatencyTracker.SOURCE_SIGNAL_STRENGTH;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@RunWith(JUnit4.class)
+public class CallbackLatencyTrackerTest {
+    private static final long MILLIS = 1000000L;
+
+    private final CallbackLatencyTracker mTracker = new CallbackLatencyTracker();
+
+    @Test
+    public void testRecordPerSource() {
+        mTracker.record(SOURCE_SERVICE_STATE, 200000L);
+        mTracker.record(SOURCE_SERVICE_STATE, 3 * MILLIS);
+        mTracker.record(SOURCE_SIGNAL_STRENGTH, 50 * MILLIS);
+
+        assertEquals(2, mTracker.getCount(SOURCE_SERVICE_STATE));
+        assertEquals(3 * MILLIS, mTracker.getMaxNanos(SOURCE_SERVICE_STATE));
+        assertEquals(1, mTracker.getCount(SOURCE_SIGNAL_STRENGTH));
+        assertEquals(0, mTracker.getCount(SOURCE_PROVISIONING));
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        mTracker.record(SOURCE_PROVISIONING, 0);
+        mTracker.record(SOURCE_PROVISIONING, 4 * MILLIS);
+        mTracker.record(SOURCE_PROVISIONING, 5 * MILLIS);
+        mTracker.record(SOURCE_PROVISIONING, 10000 * MILLIS);
+
+        assertEquals(1, mTracker.getBucketCount(SOURCE_PROVISIONING, 0));
+        assertEquals(1, mTracker.getBucketCount(SOURCE_PROVISIONING, 1));
+        assertEquals(1, mTracker.getBucketCount(SOURCE_PROVISIONING, 2));
+        assertEquals(
+                1,
+                mTracker.getBucketCount(
+                        SOURCE_PROVISIONING, CallbackLatencyTracker.BUCKET_BOUNDS_MILLIS.length));
+    }
+
+    @Test
+    public void testInvalidLatencyIgnored() {
+        mTracker.record(SOURCE_SERVICE_STATE, -1);
+        mTracker.record(-1, MILLIS);
+        mTracker.record(SOURCE_PROVISIONING + 1, MILLIS);
+
+        assertEquals(0, mTracker.getCount(SOURCE_SERVICE_STATE));
+    }
+
+    @Test
+    public void testDump() {
+        mTracker.record(SOURCE_SIGNAL_STRENGTH, 2 * MILLIS);
+        StringWriter sw = new StringWriter();
+        mTracker.dump(new PrintWriter(sw, true), "");
+
+        String dump = sw.toString();
+        assertTrue(dump.contains("signalStrength[count=1, meanUs=2000, maxUs=2000"));
+        assertFalse(dump.contains("serviceState"));
+    }
+}
@@ -27,6 +27,8 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -296,6 +298,76 @@ public final class CellularQualityMonitorTest extends QnsTest {
         Assert.assertEquals(2, mCellularQualityMonitor.getSignalThresholdInfo().size());
     }
 
+    @Test
+    public void testSignalStrengthRequestOnlyOnUnionChange() {
+        mCellularQualityMonitor.registerThresholdChange(
+                mThresholdListener, mApnType1, mTh2, mSlotIndex);
+        verify(mMockTelephonyManager)
+                .setSignalStrengthUpdateRequest(isA(SignalStrengthUpdateRequest.class));
+        verify(mMockTelephonyManager)
+                .registerTelephonyCallback(isA(Executor.class), isA(TelephonyCallback.class));
+
+        // the same tuple requested by another netCapability doesn't change the request.
+        Threshold[] sameValue =
+                new Threshold[] {
+                    new Threshold(
+                            AccessNetworkConstants.AccessNetworkType.EUTRAN,
+                            SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSRP,
+                            -110,
+                            QnsConstants.THRESHOLD_EQUAL_OR_LARGER,
+                            QnsConstants.INVALID_ID)
+                };
+        mCellularQualityMonitor.registerThresholdChange(
+                mThresholdListener, mApnType2, sameValue, mSlotIndex);
+        mCellularQualityMonitor.unregisterThresholdChange(mApnType2, mSlotIndex);
+        verify(mMockTelephonyManager)
+                .setSignalStrengthUpdateRequest(isA(SignalStrengthUpdateRequest.class));
+
+        // updates within the batch window are sent in one request.
+        mCellularQualityMonitor.updateThresholdsForNetCapability(mApnType1, mSlotIndex, mTh3);
+        mCellularQualityMonitor.updateThresholdsForNetCapability(mApnType1, mSlotIndex, mTh1);
+        verify(mMockTelephonyManager, timeout(1000).times(2))
+                .setSignalStrengthUpdateRequest(isA(SignalStrengthUpdateRequest.class));
+        verify(mMockTelephonyManager)
+                .clearSignalStrengthUpdateRequest(isA(SignalStrengthUpdateRequest.class));
+        Assert.assertEquals(2, mCellularQualityMonitor.getSignalThresholdInfo().size());
+        verify(mMockTelephonyManager, times(1))
+                .registerTelephonyCallback(isA(Executor.class), isA(TelephonyCallback.class));
+    }
+
+    @Test
+    public void testMonitoringFidelityWidensHysteresis() {
+        mCellularQualityMonitor.registerThresholdChange(
+                mThresholdListener, mApnType1, mTh2, mSlotIndex);
+        SignalThresholdInfo info = mCellularQualityMonitor.getSignalThresholdInfo().get(0);
+        assertEquals(0, info.getHysteresisMs());
+
+        mCellularQualityMonitor
+                .mHandler
+                .obtainMessage(
+                        QualityMonitor.EVENT_MONITORING_FIDELITY_CHANGED,
+                        new QnsAsyncResult(null, QnsMonitoringPolicy.FIDELITY_MINIMAL, null))
+                .sendToTarget();
+        verify(mMockTelephonyManager, timeout(1000).times(2))
+                .setSignalStrengthUpdateRequest(isA(SignalStrengthUpdateRequest.class));
+        info = mCellularQualityMonitor.getSignalThresholdInfo().get(0);
+        assertEquals(
+                QnsMonitoringPolicy.getHysteresisMs(QnsMonitoringPolicy.FIDELITY_MINIMAL, 0),
+                info.getHysteresisMs());
+        assertTrue(info.getHysteresisDb() > 0);
+
+        // full fidelity is restored right away, regardless of the batch window.
+        mCellularQualityMonitor
+                .mHandler
+                .obtainMessage(
+                        QualityMonitor.EVENT_MONITORING_FIDELITY_CHANGED,
+                        new QnsAsyncResult(null, QnsMonitoringPolicy.FIDELITY_FULL, null))
+                .sendToTarget();
+        verify(mMockTelephonyManager, timeout(100).times(3))
+                .setSignalStrengthUpdateRequest(isA(SignalStrengthUpdateRequest.class));
+        assertEquals(0, mCellularQualityMonitor.getSignalThresholdInfo().get(0).getHysteresisMs());
+    }
+
     @Test
     public void testGetSignalThresholdInfo() {
         testRegisterThresholdChange();
@@ -698,20 +770,89 @@ public final class CellularQualityMonitorTest extends QnsTest {
         assertNull(mOutputThs);
     }
 
+    @Test
+    public void testOnSignalStrengthsChanged_NotifyOnlyOnCrossing() throws InterruptedException {
+        mTh1 =
+                new Threshold[] {
+                    new Threshold(
+                            AccessNetworkConstants.AccessNetworkType.EUTRAN,
+                            SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSRP,
+                            -100,
+                            QnsConstants.THRESHOLD_EQUAL_OR_LARGER,
+                            QnsConstants.DEFAULT_WIFI_BACKHAUL_TIMER)
+                };
+        mCellularQualityMonitor.registerThresholdChange(
+                mThresholdListener, mApnType1, mTh1, mSlotIndex);
+        ArgumentCaptor<TelephonyCallback> capture =
+                ArgumentCaptor.forClass(TelephonyCallback.class);
+        verify(mMockTelephonyManager)
+                .registerTelephonyCallback(isA(Executor.class), capture.capture());
+        TelephonyCallback.SignalStrengthsListener callback =
+                (TelephonyCallback.SignalStrengthsListener) capture.getValue();
+
+        // crossed, notify.
+        mLatch = new CountDownLatch(1);
+        mOutputThs = null;
+        callback.onSignalStrengthsChanged(getLteSignalStrength(-95));
+        verifyReportedThreshold(-95);
+
+        // still crossed, no repeated notification.
+        mLatch = new CountDownLatch(1);
+        mOutputThs = null;
+        callback.onSignalStrengthsChanged(getLteSignalStrength(-90));
+        assertFalse(mLatch.await(100, TimeUnit.MILLISECONDS));
+
+        // not crossed anymore, nothing to notify.
+        mLatch = new CountDownLatch(1);
+        callback.onSignalStrengthsChanged(getLteSignalStrength(-105));
+        assertFalse(mLatch.await(100, TimeUnit.MILLISECONDS));
+
+        // crossed again, a new crossing of the same threshold is notified.
+        mLatch = new CountDownLatch(1);
+        mOutputThs = null;
+        callback.onSignalStrengthsChanged(getLteSignalStrength(-100));
+        verifyReportedThreshold(-100);
+
+        // re-registering the same threshold keeps the crossing state.
+        mCellularQualityMonitor.updateThresholdsForNetCapability(mApnType1, mSlotIndex, mTh1);
+        mLatch = new CountDownLatch(1);
+        callback.onSignalStrengthsChanged(getLteSignalStrength(-99));
+        assertFalse(mLatch.await(100, TimeUnit.MILLISECONDS));
+
+        // measurement became unavailable, the next crossing is notified again.
+        callback.onSignalStrengthsChanged(getLteSignalStrength(UNAVAILABLE));
+        mLatch = new CountDownLatch(1);
+        mOutputThs = null;
+        callback.onSignalStrengthsChanged(getLteSignalStrength(-98));
+        verifyReportedThreshold(-98);
+    }
+
+    private SignalStrength getLteSignalStrength(int rsrp) {
+        return new SignalStrength(
+                new CellSignalStrengthCdma(),
+                new CellSignalStrengthGsm(),
+                new CellSignalStrengthWcdma(),
+                new CellSignalStrengthTdscdma(),
+                new CellSignalStrengthLte(-85, rsrp, -6, -10, 1, 12, 1),
+                new CellSignalStrengthNr());
+    }
+
     @Test
     public void testOnQnsTelephonyInfoChanged() {
         testRegisterThresholdChange();
         when(mQnsTelephonyInfo.getDataRegState()).thenReturn(ServiceState.STATE_IN_SERVICE);
         when(mQnsTelephonyInfo.getDataNetworkType()).thenReturn(TelephonyManager.NETWORK_TYPE_LTE);
-        when(mQnsTelephonyInfo.isCellularAvailable()).thenReturn(true, false);
+        when(mQnsTelephonyInfo.isCellularAvailable()).thenReturn(false);
         when(mQnsTelephonyInfo.getDataRegState()).thenReturn(ServiceState.STATE_IN_SERVICE);
         Message.obtain(
                         mCellularQualityMonitor.mHandler,
                         EVENT_CELLULAR_QNS_TELEPHONY_INFO_CHANGED,
                         new QnsAsyncResult(null, mQnsTelephonyInfo, null))
                 .sendToTarget();
-        verify(mMockTelephonyManager)
+        verify(mMockTelephonyManager, timeout(1000))
                 .clearSignalStrengthUpdateRequest(isA(SignalStrengthUpdateRequest.class));
+        verify(mMockTelephonyManager, timeout(1000))
+                .unregisterTelephonyCallback(isA(TelephonyCallback.class));
         Mockito.clearInvocations(mMockTelephonyManager);
 
         Message.obtain(
@@ -772,7 +913,8 @@ public final class CellularQualityMonitorTest extends QnsTest {
         // signal strength is valid, so CQM should notify SignalStrength.
         assertTrue(mLatch.await(200, TimeUnit.MILLISECONDS));
 
-        // Valid thresholds - Only SSRSRP, SSRSRQ and SSSINR for NR are valid.
+        // Invalid thresholds - Only CSI signal params are valid. SSRSRP, SSRSRQ and SSSINR for NR
+        // are invalid.
         ss =
                 new SignalStrength(
                         new CellSignalStrengthCdma(
@@ -791,23 +933,24 @@ public final class CellularQualityMonitorTest extends QnsTest {
                                 UNAVAILABLE,
                                 UNAVAILABLE),
                         new CellSignalStrengthNr(
+                                -91,
+                                -6,
+                                3,
+                                1,
+                                NrCqiReport,
                                 UNAVAILABLE,
                                 UNAVAILABLE,
                                 UNAVAILABLE,
-                                UNAVAILABLE,
-                                NrCqiReport,
-                                -80,
-                                -7,
-                                4,
                                 1));
 
         mLatch = new CountDownLatch(1);
         mOutputThs = null;
         callback.onSignalStrengthsChanged(ss);
-        // signal strength is valid, so CQM should notify SignalStrength.
-        assertTrue(mLatch.await(200, TimeUnit.MILLISECONDS));
+        // signal strength is not valid, so CQM should not notify SignalStrength and it forgets
+        // the crossing state of the thresholds.
+        assertFalse(mLatch.await(200, TimeUnit.MILLISECONDS));
 
-        // Invalid thresholds - All NR signal params UNAVAILABLE
+        // Valid thresholds - Only SSRSRP, SSRSRQ and SSSINR for NR are valid.
         ss =
                 new SignalStrength(
                         new CellSignalStrengthCdma(
@@ -831,19 +974,18 @@ public final class CellularQualityMonitorTest extends QnsTest {
                                 UNAVAILABLE,
                                 UNAVAILABLE,
                                 NrCqiReport,
-                                UNAVAILABLE,
-                                UNAVAILABLE,
-                                UNAVAILABLE,
+                                -80,
+                                -7,
+                                4,
                                 1));
 
         mLatch = new CountDownLatch(1);
         mOutputThs = null;
         callback.onSignalStrengthsChanged(ss);
-        // signal strength is not valid, so CQM should not notify SignalStrength.
-        assertFalse(mLatch.await(200, TimeUnit.MILLISECONDS));
+        // signal strength is valid again, so CQM should notify SignalStrength.
+        assertTrue(mLatch.await(200, TimeUnit.MILLISECONDS));
 
-        // Invalid thresholds - Only CSI signal params are valid. SSRSRP, SSRSRQ and SSSINR for NR
-        // are invalid.
+        // Invalid thresholds - All NR signal params UNAVAILABLE
         ss =
                 new SignalStrength(
                         new CellSignalStrengthCdma(
@@ -862,10 +1004,10 @@ public final class CellularQualityMonitorTest extends QnsTest {
                                 UNAVAILABLE,
                                 UNAVAILABLE),
                         new CellSignalStrengthNr(
-                                -91,
-                                -6,
-                                3,
-                                1,
+                                UNAVAILABLE,
+                                UNAVAILABLE,
+                                UNAVAILABLE,
+                                UNAVAILABLE,
                                 NrCqiReport,
                                 UNAVAILABLE,
                                 UNAVAILABLE,
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.net.NetworkCapabilities;
+import android.os.SystemClock;
+import android.telephony.AccessNetworkConstants;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class DataConnectionStateArchiveTest {
+    private static final String TAG = DataConnectionStateArchiveTest.class.getSimpleName();
+    private static final int WLAN = AccessNetworkConstants.TRANSPORT_TYPE_WLAN;
+    private static final int WWAN = AccessNetworkConstants.TRANSPORT_TYPE_WWAN;
+    private static final int IMS = NetworkCapabilities.NET_CAPABILITY_IMS;
+    private static final int EIMS = NetworkCapabilities.NET_CAPABILITY_EIMS;
+
+    private final DataConnectionStateArchive<String> mArchive = new DataConnectionStateArchive<>();
+
+    /** The string keyed map the archive replaces, as the reference of the benchmark. */
+    private static class StringKeyedArchive<V> {
+        private final HashMap<String, V> mArchiving = new HashMap<>();
+
+        private String getKey(int subId, int transportType, int netCapability) {
+            return subId + "_" + transportType + "_" + netCapability;
+        }
+
+        void put(int subId, int transportType, int netCapability, V v) {
+            mArchiving.put(getKey(subId, transportType, netCapability), v);
+        }
+
+        V get(int subId, int transportType, int netCapability) {
+            return mArchiving.get(getKey(subId, transportType, netCapability));
+        }
+    }
+
+    @Test
+    public void testPutAndGet() {
+        mArchive.put(1, WWAN, IMS, "wwan_ims");
+        mArchive.put(1, WLAN, IMS, "wlan_ims");
+        mArchive.put(2, WWAN, IMS, "sub2");
+        assertEquals("wwan_ims", mArchive.get(1, WWAN, IMS));
+        assertEquals("wlan_ims", mArchive.get(1, WLAN, IMS));
+        assertEquals("sub2", mArchive.get(2, WWAN, IMS));
+        assertNull(mArchive.get(1, WWAN, EIMS));
+
+        mArchive.put(1, WWAN, IMS, "replaced");
+        assertEquals("replaced", mArchive.get(1, WWAN, IMS));
+        assertEquals(3, mArchive.size());
+
+        mArchive.put(1, WWAN, IMS, null);
+        assertNull(mArchive.get(1, WWAN, IMS));
+        assertEquals(2, mArchive.size());
+    }
+
+    @Test
+    public void testKeysOfInvalidSubIdKeptApart() {
+        assertNotEquals(
+                DataConnectionStateArchive.getKey(-1, WWAN, IMS),
+                DataConnectionStateArchive.getKey(1, WWAN, IMS));
+        mArchive.put(-1, WWAN, IMS, "invalid");
+        mArchive.put(1, WWAN, IMS, "valid");
+        assertEquals("invalid", mArchive.get(-1, WWAN, IMS));
+        assertEquals("valid", mArchive.get(1, WWAN, IMS));
+    }
+
+    @Test
+    public void testRemoveSubId() {
+        for (int netCapability = 0; netCapability < 20; netCapability++) {
+            mArchive.put(1, WWAN, netCapability, "sub1_" + netCapability);
+            mArchive.put(2, WLAN, netCapability, "sub2_" + netCapability);
+        }
+
+        mArchive.removeSubId(1);
+        assertEquals(20, mArchive.size());
+        for (int netCapability = 0; netCapability < 20; netCapability++) {
+            assertNull(mArchive.get(1, WWAN, netCapability));
+            assertEquals("sub2_" + netCapability, mArchive.get(2, WLAN, netCapability));
+        }
+    }
+
+    @Test
+    public void testBoundedSize() {
+        for (int i = 0; i < DataConnectionStateArchive.MAX_ENTRY_COUNT + 10; i++) {
+            mArchive.put(i, WWAN, IMS, "sub" + i);
+        }
+        assertEquals(DataConnectionStateArchive.MAX_ENTRY_COUNT, mArchive.size());
+        assertEquals(10, mArchive.getEvictionCount());
+        // the least recently stored states are dropped first.
+        assertNull(mArchive.get(9, WWAN, IMS));
+        assertEquals("sub10", mArchive.get(10, WWAN, IMS));
+    }
+
+    @Test
+    public void testMatchesStringKeyedArchive() {
+        StringKeyedArchive<String> reference = new StringKeyedArchive<>();
+        Random random = new Random(0);
+        for (int i = 0; i < 2000; i++) {
+            int subId = random.nextInt(8);
+            int transportType = random.nextBoolean() ? WWAN : WLAN;
+            int netCapability = random.nextInt(4);
+            if (random.nextInt(4) == 0) {
+                mArchive.put(subId, transportType, netCapability, null);
+                reference.put(subId, transportType, netCapability, null);
+            } else {
+                String state = "state" + i;
+                mArchive.put(subId, transportType, netCapability, state);
+                reference.put(subId, transportType, netCapability, state);
+            }
+            assertEquals(
+                    reference.get(subId, transportType, netCapability),
+                    mArchive.get(subId, transportType, netCapability));
+        }
+        for (int subId = 0; subId < 8; subId++) {
+            for (int netCapability = 0; netCapability < 4; netCapability++) {
+                assertEquals(
+                        reference.get(subId, WWAN, netCapability),
+                        mArchive.get(subId, WWAN, netCapability));
+            }
+        }
+    }
+
+    /** Micro benchmark of the lookups, against the string keyed map replaced. */
+    @Test
+    public void testLookupBenchmark() {
+        final int lookups = 100000;
+        StringKeyedArchive<String> reference = new StringKeyedArchive<>();
+        for (int subId = 1; subId <= 2; subId++) {
+            for (int netCapability = 0; netCapability < 8; netCapability++) {
+                mArchive.put(subId, WWAN, netCapability, "state");
+                reference.put(subId, WWAN, netCapability, "state");
+            }
+        }
+
+        String last = null;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < lookups; i++) {
+            last = reference.get(1 + (i & 1), WWAN, i & 7);
+        }
+        long referenceNanos = SystemClock.elapsedRealtimeNanos() - start;
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < lookups; i++) {
+            last = mArchive.get(1 + (i & 1), WWAN, i & 7);
+        }
+        long archiveNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        Log.d(
+                TAG,
+                "lookup ns/op: string keyed="
+                        + referenceNanos / lookups
+                        + ", packed key="
+                        + archiveNanos / lookups);
+        assertSame("state", last);
+    }
+}
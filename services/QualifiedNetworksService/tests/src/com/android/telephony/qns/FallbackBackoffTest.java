@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.net.NetworkCapabilities;
+import android.telephony.AccessNetworkConstants;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class FallbackBackoffTest {
+    private static final long RESTRICT_TIME = 10000;
+    private static final long MAX_RESTRICT_TIME = 300000;
+
+    /** Random returning a set value, so that the jitter is known. */
+    private static class FixedRandom extends Random {
+        int mValue = FallbackBackoff.JITTER_PERCENT; // no jitter
+
+        @Override
+        public int nextInt(int bound) {
+            return mValue;
+        }
+    }
+
+    private final FixedRandom mRandom = new FixedRandom();
+    private final String mKey =
+            FallbackBackoff.getKey(
+                    AccessNetworkConstants.TRANSPORT_TYPE_WLAN,
+                    NetworkCapabilities.NET_CAPABILITY_IMS,
+                    "bssid:00:11:22:33:44:55");
+    private FallbackBackoff mBackoff;
+
+    @Before
+    public void setUp() {
+        mBackoff = new FallbackBackoff(mRandom);
+    }
+
+    @Test
+    public void testExponentialBackoff() {
+        assertEquals(RESTRICT_TIME, mBackoff.onFallback(mKey, RESTRICT_TIME, MAX_RESTRICT_TIME));
+        assertEquals(
+                RESTRICT_TIME * 2, mBackoff.onFallback(mKey, RESTRICT_TIME, MAX_RESTRICT_TIME));
+        assertEquals(
+                RESTRICT_TIME * 4, mBackoff.onFallback(mKey, RESTRICT_TIME, MAX_RESTRICT_TIME));
+        assertEquals(3, mBackoff.getLevel(mKey));
+        assertEquals(2, mBackoff.getBackoffCount());
+        // 1 attempt avoided by the 2nd restriction, 3 by the 3rd one.
+        assertEquals(4, mBackoff.getAvoidedAttemptCount());
+
+        // capped by the maximum duration.
+        for (int i = 0; i < FallbackBackoff.MAX_BACKOFF_LEVEL; i++) {
+            mBackoff.onFallback(mKey, RESTRICT_TIME, MAX_RESTRICT_TIME);
+        }
+        assertEquals(FallbackBackoff.MAX_BACKOFF_LEVEL, mBackoff.getLevel(mKey));
+        assertEquals(
+                MAX_RESTRICT_TIME, mBackoff.onFallback(mKey, RESTRICT_TIME, MAX_RESTRICT_TIME));
+        assertEquals(
+                RESTRICT_TIME * 16, mBackoff.onFallback(mKey, RESTRICT_TIME, RESTRICT_TIME * 16));
+    }
+
+    @Test
+    public void testJitter() {
+        mBackoff.onFallback(mKey, RESTRICT_TIME, MAX_RESTRICT_TIME);
+        mRandom.mValue = 0; // -20%
+        assertEquals(16000, mBackoff.onFallback(mKey, RESTRICT_TIME, MAX_RESTRICT_TIME));
+        mRandom.mValue = 2 * FallbackBackoff.JITTER_PERCENT; // +20%
+        assertEquals(48000, mBackoff.onFallback(mKey, RESTRICT_TIME, MAX_RESTRICT_TIME));
+    }
+
+    @Test
+    public void testDecayAfterSuccess() {
+        mBackoff.onFallback(mKey, RESTRICT_TIME, MAX_RESTRICT_TIME);
+        mBackoff.onFallback(mKey, RESTRICT_TIME, MAX_RESTRICT_TIME);
+        mBackoff.onFallback(mKey, RESTRICT_TIME, MAX_RESTRICT_TIME);
+
+        mBackoff.onSuccess(mKey);
+        assertEquals(2, mBackoff.getLevel(mKey));
+        assertEquals(
+                RESTRICT_TIME * 4, mBackoff.onFallback(mKey, RESTRICT_TIME, MAX_RESTRICT_TIME));
+
+        mBackoff.onSuccess(mKey);
+        mBackoff.onSuccess(mKey);
+        mBackoff.onSuccess(mKey);
+        assertEquals(0, mBackoff.getLevel(mKey));
+        assertEquals(RESTRICT_TIME, mBackoff.onFallback(mKey, RESTRICT_TIME, MAX_RESTRICT_TIME));
+    }
+
+    @Test
+    public void testKeysTrackedApart() {
+        String otherKey =
+                FallbackBackoff.getKey(
+                        AccessNetworkConstants.TRANSPORT_TYPE_WLAN,
+                        NetworkCapabilities.NET_CAPABILITY_IMS,
+                        "bssid:66:77:88:99:aa:bb");
+        assertNotEquals(mKey, otherKey);
+
+        mBackoff.onFallback(mKey, RESTRICT_TIME, MAX_RESTRICT_TIME);
+        assertEquals(
+                RESTRICT_TIME, mBackoff.onFallback(otherKey, RESTRICT_TIME, MAX_RESTRICT_TIME));
+
+        for (int i = 0; i < FallbackBackoff.MAX_KEY_COUNT; i++) {
+            mBackoff.onFallback("key" + i, RESTRICT_TIME, MAX_RESTRICT_TIME);
+        }
+        // the least recently used histories are forgotten.
+        assertEquals(0, mBackoff.getLevel(mKey));
+        assertTrue(mBackoff.getLevel("key0") > 0);
+    }
+
+    @Test
+    public void testRestrictionWithoutTimer() {
+        mBackoff.onFallback(mKey, 0, MAX_RESTRICT_TIME);
+        assertEquals(0, mBackoff.onFallback(mKey, 0, MAX_RESTRICT_TIME));
+        assertEquals(0, mBackoff.getAvoidedAttemptCount());
+    }
+}
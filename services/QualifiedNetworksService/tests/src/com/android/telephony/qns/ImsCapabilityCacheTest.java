@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static com.android.telephony.qns.ImsCapabilityCache.CAPABILITY_CROSS_SIM_ENABLED_BY_USER;
+import static com.android.telephony.qns.ImsCapabilityCache.CAPABILITY_GBA_VALID;
+import static com.android.telephony.qns.ImsCapabilityCache.CAPABILITY_WFC_PROVISIONED;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@RunWith(JUnit4.class)
+public class ImsCapabilityCacheTest {
+    private final ImsCapabilityCache mCache = new ImsCapabilityCache();
+
+    @Test
+    public void testHitUntilInvalidated() {
+        assertTrue(mCache.get(CAPABILITY_WFC_PROVISIONED, () -> true));
+        assertTrue(mCache.get(CAPABILITY_WFC_PROVISIONED, () -> false));
+        assertEquals(1, mCache.getIpcCount(CAPABILITY_WFC_PROVISIONED));
+        assertEquals(1, mCache.getHitCount(CAPABILITY_WFC_PROVISIONED));
+
+        mCache.invalidate(ImsCapabilityCache.MASK_PROVISIONING);
+        assertFalse(mCache.get(CAPABILITY_WFC_PROVISIONED, () -> false));
+        assertEquals(2, mCache.getIpcCount(CAPABILITY_WFC_PROVISIONED));
+    }
+
+    @Test
+    public void testInvalidateOnlyMaskedCapabilities() {
+        mCache.get(CAPABILITY_GBA_VALID, () -> true);
+        mCache.get(CAPABILITY_CROSS_SIM_ENABLED_BY_USER, () -> true);
+
+        mCache.invalidate(ImsCapabilityCache.MASK_CROSS_SIM_ENABLED_BY_USER);
+        assertTrue(mCache.get(CAPABILITY_GBA_VALID, () -> false));
+        assertFalse(mCache.get(CAPABILITY_CROSS_SIM_ENABLED_BY_USER, () -> false));
+
+        mCache.invalidate(ImsCapabilityCache.MASK_ALL);
+        assertFalse(mCache.get(CAPABILITY_GBA_VALID, () -> false));
+        assertEquals(2, mCache.getIpcCount(CAPABILITY_GBA_VALID));
+    }
+
+    @Test
+    public void testValueQueriedWhileInvalidatedNotKept() {
+        assertTrue(
+                mCache.get(
+                        CAPABILITY_WFC_PROVISIONED,
+                        () -> {
+                            // the provisioning changes while it is queried.
+                            mCache.invalidate(ImsCapabilityCache.MASK_PROVISIONING);
+                            return true;
+                        }));
+        assertFalse(mCache.get(CAPABILITY_WFC_PROVISIONED, () -> false));
+        assertEquals(2, mCache.getIpcCount(CAPABILITY_WFC_PROVISIONED));
+    }
+
+    @Test
+    public void testDump() {
+        mCache.get(CAPABILITY_GBA_VALID, () -> true);
+        mCache.get(CAPABILITY_GBA_VALID, () -> true);
+        StringWriter sw = new StringWriter();
+        mCache.dump(new PrintWriter(sw, true), "");
+
+        String dump = sw.toString();
+        assertTrue(dump.contains("ImsCapabilityCache: hits=1, ipcs=1"));
+        assertTrue(dump.contains("gbaValid[true, hits=1, ipcs=1]"));
+        assertTrue(dump.contains("wfcProvisioned[invalid, hits=0, ipcs=0]"));
+    }
+}
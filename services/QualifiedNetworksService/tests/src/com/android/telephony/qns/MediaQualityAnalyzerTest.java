@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static org.junit.Assert.assertEquals;
+
+import android.telephony.AccessNetworkConstants;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MediaQualityAnalyzerTest {
+    private static final int WLAN = AccessNetworkConstants.TRANSPORT_TYPE_WLAN;
+    private static final int WWAN = AccessNetworkConstants.TRANSPORT_TYPE_WWAN;
+
+    // jitter 120ms, loss rate 30%, loss time 5s, no RTP 10s.
+    private final QnsCarrierConfigManager.RtpMetricsConfig mConfig =
+            new QnsCarrierConfigManager.RtpMetricsConfig(120, 30, 5000, 10000);
+    private MediaQualityAnalyzer mAnalyzer;
+
+    @Before
+    public void setUp() {
+        mAnalyzer = new MediaQualityAnalyzer();
+    }
+
+    @Test
+    public void testWindowedEstimates() {
+        for (int i = 0; i < MediaQualityAnalyzer.WINDOW_SIZE; i++) {
+            // samples leaving the window.
+            mAnalyzer.addSample(WLAN, 90, 500, 9000, mConfig);
+        }
+        for (int i = 1; i <= MediaQualityAnalyzer.WINDOW_SIZE; i++) {
+            mAnalyzer.addSample(WLAN, i % 2 == 0 ? 10 : 0, i, i * 100, mConfig);
+        }
+
+        assertEquals(MediaQualityAnalyzer.WINDOW_SIZE, mAnalyzer.getSampleCount(WLAN));
+        assertEquals(5, mAnalyzer.getLossRate(WLAN));
+        // jitters 1 ~ 32ms: 9 below 10ms, 10 below 20ms, 10 below 30ms, 3 below 40ms.
+        assertEquals(20, mAnalyzer.getJitterPercentileMillis(WLAN, 50));
+        assertEquals(40, mAnalyzer.getJitterPercentileMillis(WLAN, 99));
+        assertEquals(10, mAnalyzer.getJitterPercentileMillis(WLAN, 1));
+        assertEquals(1650, mAnalyzer.getAverageInactivityMillis(WLAN));
+        assertEquals(3200, mAnalyzer.getLatestInactivityMillis(WLAN));
+        // the other transport type is tracked apart.
+        assertEquals(0, mAnalyzer.getSampleCount(WWAN));
+        assertEquals(0, mAnalyzer.getJitterPercentileMillis(WWAN, 50));
+    }
+
+    @Test
+    public void testDegradationTrendBeforeBreach() {
+        for (int i = 0; i < MediaQualityAnalyzer.MIN_SAMPLES_FOR_TREND; i++) {
+            assertEquals(0, mAnalyzer.addSample(WLAN, 0, 10, 0, mConfig));
+        }
+        // packet loss rises toward the 30% threshold.
+        mAnalyzer.addSample(WLAN, 20, 10, 0, mConfig);
+        assertEquals(0, mAnalyzer.addSample(WLAN, 25, 10, 0, mConfig));
+        int reason = mAnalyzer.addSample(WLAN, 28, 10, 0, mConfig);
+
+        assertEquals(1 << QnsConstants.RTP_LOW_QUALITY_REASON_PACKET_LOSS, reason);
+        assertEquals(reason, mAnalyzer.getDegradingReason(WLAN));
+        assertEquals(0, mAnalyzer.getDegradingReason(WWAN));
+        assertEquals(1, mAnalyzer.getTrendDetectedCount());
+
+        // breaching is not a trend anymore.
+        assertEquals(0, mAnalyzer.addSample(WLAN, 35, 10, 0, mConfig));
+        // jitter rises too.
+        mAnalyzer.addSample(WLAN, 0, 100, 0, mConfig);
+        mAnalyzer.addSample(WLAN, 0, 110, 0, mConfig);
+        reason = mAnalyzer.addSample(WLAN, 0, 118, 0, mConfig);
+        assertEquals(1 << QnsConstants.RTP_LOW_QUALITY_REASON_JITTER, reason);
+        assertEquals(2, mAnalyzer.getTrendDetectedCount());
+    }
+
+    @Test
+    public void testStableQualityNotDegrading() {
+        for (int i = 0; i < MediaQualityAnalyzer.WINDOW_SIZE; i++) {
+            // high but stable values are not a trend.
+            assertEquals(0, mAnalyzer.addSample(WLAN, 25, 100, 8000, mConfig));
+        }
+        assertEquals(0, mAnalyzer.getTrendDetectedCount());
+    }
+
+    @Test
+    public void testReset() {
+        mAnalyzer.addSample(WWAN, 10, 20, 30, mConfig);
+        mAnalyzer.addSample(AccessNetworkConstants.TRANSPORT_TYPE_INVALID, 10, 20, 30, mConfig);
+        assertEquals(1, mAnalyzer.getSampleCount(WWAN));
+
+        mAnalyzer.reset();
+        assertEquals(0, mAnalyzer.getSampleCount(WWAN));
+        assertEquals(0, mAnalyzer.getLossRate(WWAN));
+        assertEquals(0, mAnalyzer.getJitterPercentileMillis(WWAN, 90));
+    }
+}
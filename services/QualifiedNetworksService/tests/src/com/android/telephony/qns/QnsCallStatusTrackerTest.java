@@ -24,11 +24,14 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.net.LinkProperties;
@@ -47,7 +50,6 @@ import android.telephony.ims.ImsCallProfile;
 import android.telephony.ims.MediaQualityStatus;
 
 import com.android.telephony.qns.QnsCallStatusTracker.ActiveCallTracker.TransportQuality;
-import com.android.telephony.qns.QnsCallStatusTracker.CallQualityBlock;
 
 import org.junit.After;
 import org.junit.Before;
@@ -76,6 +78,7 @@ public class QnsCallStatusTrackerTest extends QnsTest {
     private MockitoSession mMockSession;
     List<CallState> mTestCallStateList = new ArrayList<>();
     int mId = 0;
+    long mElapsedRealTime = 0;
     HashMap<Integer, Message> mMessageHashMap = new HashMap<>();
 
     @Before
@@ -108,6 +111,8 @@ public class QnsCallStatusTrackerTest extends QnsTest {
             }
             return null;
         }).when(mMockQnsTimer).unregisterTimer(anyInt());
+        lenient().when(QnsUtils.getSystemElapsedRealTime())
+                .thenAnswer(invocation -> mElapsedRealTime);
         mCallTracker = new QnsCallStatusTracker(
                 mMockQnsTelephonyListener, mMockQnsConfigManager, mMockQnsTimer, 0,
                 mTestLooper.getLooper());
@@ -141,6 +146,11 @@ public class QnsCallStatusTrackerTest extends QnsTest {
         }
     }
 
+    private void moveTimeForward(long millis) {
+        mElapsedRealTime += millis;
+        mTestLooper.moveTimeForward(millis);
+    }
+
     @Test
     public void testForVoiceCallTypeChangedScenarios() {
 
@@ -723,7 +733,7 @@ public class QnsCallStatusTrackerTest extends QnsTest {
         TransportQuality transportQuality =
                 activeCallTracker.getLastTransportQuality(activeCallTracker.getTransportType());
         assertEquals(activeCallTracker.getTransportType(), transportQuality.mTransportType);
-        assertNotNull(transportQuality.mCallQualityBlockList);
+        assertFalse(transportQuality.hasCallQualityBlock());
         transportQuality.mLowRtpQualityReportedTime = -1;
 
         mTestCallStateList.clear();
@@ -743,18 +753,16 @@ public class QnsCallStatusTrackerTest extends QnsTest {
                 activeCallTracker.getLastTransportQuality(activeCallTracker.getTransportType());
         assertNull(activeCallTracker
                 .getLastTransportQuality(AccessNetworkConstants.TRANSPORT_TYPE_WWAN));
-        assertEquals(1, transportQuality.mCallQualityBlockList.size());
-        CallQualityBlock qualityBlock = transportQuality.mCallQualityBlockList.get(0);
-        assertEquals(firstCallQaulityUpdateTime, qualityBlock.mCreatedElapsedTime);
-        assertEquals(CallQuality.CALL_QUALITY_FAIR, qualityBlock.mUpLinkLevel);
-        assertEquals(CallQuality.CALL_QUALITY_GOOD, qualityBlock.mDownLinkLevel);
+        assertEquals(1, transportQuality.getCallQualityBlockCount());
+        assertEquals(firstCallQaulityUpdateTime, transportQuality.getCreatedElapsedTime(0));
+        assertEquals(CallQuality.CALL_QUALITY_FAIR, transportQuality.getUpLinkLevel(0));
+        assertEquals(CallQuality.CALL_QUALITY_GOOD, transportQuality.getDownLinkLevel(0));
 
         long testTime = 15000;
-        lenient().when(QnsUtils.getSystemElapsedRealTime()).thenReturn(testTime);
-        assertEquals((testTime - firstCallQaulityUpdateTime) * qualityBlock.mUpLinkLevel,
-                qualityBlock.getUpLinkQualityVolume());
-        assertEquals((testTime - firstCallQaulityUpdateTime) * qualityBlock.mDownLinkLevel,
-                qualityBlock.getDownLinkQualityVolume());
+        assertEquals((testTime - firstCallQaulityUpdateTime) * CallQuality.CALL_QUALITY_FAIR,
+                transportQuality.getUpLinkQualityVolume(testTime));
+        assertEquals((testTime - firstCallQaulityUpdateTime) * CallQuality.CALL_QUALITY_GOOD,
+                transportQuality.getDownLinkQualityVolume(testTime));
 
         long handoverTime = 20000;
         lenient().when(QnsUtils.getSystemElapsedRealTime()).thenReturn(handoverTime);
@@ -764,31 +772,29 @@ public class QnsCallStatusTrackerTest extends QnsTest {
                         AccessNetworkConstants.TRANSPORT_TYPE_WLAN);
         TransportQuality newTransportQuality =
                 activeCallTracker.getLastTransportQuality(activeCallTracker.getTransportType());
-        assertEquals(1, oldTransportQuality.mCallQualityBlockList.size());
-        CallQualityBlock oldQualityBlock = oldTransportQuality.getLastCallQualityBlock();
-        CallQualityBlock newQualityBlock = newTransportQuality.getLastCallQualityBlock();
-        assertEquals(firstCallQaulityUpdateTime, oldQualityBlock.mCreatedElapsedTime);
+        assertEquals(1, oldTransportQuality.getCallQualityBlockCount());
+        assertEquals(firstCallQaulityUpdateTime, oldTransportQuality.getCreatedElapsedTime(0));
         assertEquals(
-                handoverTime - firstCallQaulityUpdateTime, oldQualityBlock.mDurationMillis);
-        assertEquals(CallQuality.CALL_QUALITY_FAIR, oldQualityBlock.mUpLinkLevel);
-        assertEquals(CallQuality.CALL_QUALITY_GOOD, oldQualityBlock.mDownLinkLevel);
+                handoverTime - firstCallQaulityUpdateTime,
+                oldTransportQuality.getDurationMillis(0));
+        assertEquals(CallQuality.CALL_QUALITY_FAIR, oldTransportQuality.getUpLinkLevel(0));
+        assertEquals(CallQuality.CALL_QUALITY_GOOD, oldTransportQuality.getDownLinkLevel(0));
 
-        assertEquals(1, newTransportQuality.mCallQualityBlockList.size());
-        assertEquals(handoverTime, newQualityBlock.mCreatedElapsedTime);
-        assertEquals(0, newQualityBlock.mDurationMillis);
-        assertEquals(CallQuality.CALL_QUALITY_FAIR, newQualityBlock.mUpLinkLevel);
-        assertEquals(CallQuality.CALL_QUALITY_GOOD, newQualityBlock.mDownLinkLevel);
+        assertEquals(1, newTransportQuality.getCallQualityBlockCount());
+        assertEquals(handoverTime, newTransportQuality.getCreatedElapsedTime(0));
+        assertEquals(0, newTransportQuality.getDurationMillis(0));
+        assertEquals(CallQuality.CALL_QUALITY_FAIR, newTransportQuality.getUpLinkLevel(0));
+        assertEquals(CallQuality.CALL_QUALITY_GOOD, newTransportQuality.getDownLinkLevel(0));
 
         long testTime2 = 22000;
-        lenient().when(QnsUtils.getSystemElapsedRealTime()).thenReturn(testTime2);
-        assertEquals((handoverTime - firstCallQaulityUpdateTime)
-                * oldQualityBlock.mUpLinkLevel, oldQualityBlock.getUpLinkQualityVolume());
-        assertEquals((handoverTime - firstCallQaulityUpdateTime)
-                * oldQualityBlock.mDownLinkLevel, oldQualityBlock.getDownLinkQualityVolume());
-        assertEquals((testTime2 - handoverTime) * newQualityBlock.mUpLinkLevel,
-                newQualityBlock.getUpLinkQualityVolume());
-        assertEquals((testTime2 - handoverTime) * newQualityBlock.mDownLinkLevel,
-                newQualityBlock.getDownLinkQualityVolume());
+        assertEquals((handoverTime - firstCallQaulityUpdateTime) * CallQuality.CALL_QUALITY_FAIR,
+                oldTransportQuality.getUpLinkQualityVolume(testTime2));
+        assertEquals((handoverTime - firstCallQaulityUpdateTime) * CallQuality.CALL_QUALITY_GOOD,
+                oldTransportQuality.getDownLinkQualityVolume(testTime2));
+        assertEquals((testTime2 - handoverTime) * CallQuality.CALL_QUALITY_FAIR,
+                newTransportQuality.getUpLinkQualityVolume(testTime2));
+        assertEquals((testTime2 - handoverTime) * CallQuality.CALL_QUALITY_GOOD,
+                newTransportQuality.getDownLinkQualityVolume(testTime2));
 
         long secondCallQualityUpdateTime = 25000;
         lenient().when(QnsUtils.getSystemElapsedRealTime()).thenReturn(secondCallQualityUpdateTime);
@@ -804,18 +810,18 @@ public class QnsCallStatusTrackerTest extends QnsTest {
         mTestLooper.dispatchAll();
         TransportQuality testTransportQuality =
                 activeCallTracker.getLastTransportQuality(activeCallTracker.getTransportType());
-        assertEquals(2, newTransportQuality.mCallQualityBlockList.size());
-        CallQualityBlock prev = testTransportQuality.mCallQualityBlockList.get(0);
-        assertEquals(CallQuality.CALL_QUALITY_FAIR, prev.mUpLinkLevel);
-        assertEquals(CallQuality.CALL_QUALITY_GOOD, prev.mDownLinkLevel);
-        assertEquals(handoverTime, prev.mCreatedElapsedTime);
-        assertEquals(secondCallQualityUpdateTime - handoverTime, prev.mDurationMillis);
-
-        newQualityBlock = testTransportQuality.getLastCallQualityBlock();
-        assertEquals(secondCallQualityUpdateTime, newQualityBlock.mCreatedElapsedTime);
-        assertEquals(0, newQualityBlock.mDurationMillis);
-        assertEquals(CallQuality.CALL_QUALITY_GOOD, newQualityBlock.mUpLinkLevel);
-        assertEquals(CallQuality.CALL_QUALITY_FAIR, newQualityBlock.mDownLinkLevel);
+        assertEquals(2, newTransportQuality.getCallQualityBlockCount());
+        assertEquals(CallQuality.CALL_QUALITY_FAIR, testTransportQuality.getUpLinkLevel(1));
+        assertEquals(CallQuality.CALL_QUALITY_GOOD, testTransportQuality.getDownLinkLevel(1));
+        assertEquals(handoverTime, testTransportQuality.getCreatedElapsedTime(1));
+        assertEquals(
+                secondCallQualityUpdateTime - handoverTime,
+                testTransportQuality.getDurationMillis(1));
+
+        assertEquals(secondCallQualityUpdateTime, testTransportQuality.getCreatedElapsedTime(0));
+        assertEquals(0, testTransportQuality.getDurationMillis(0));
+        assertEquals(CallQuality.CALL_QUALITY_GOOD, testTransportQuality.getUpLinkLevel(0));
+        assertEquals(CallQuality.CALL_QUALITY_FAIR, testTransportQuality.getDownLinkLevel(0));
 
         long handoverTime2 = 30000;
         lenient().when(QnsUtils.getSystemElapsedRealTime()).thenReturn(handoverTime2);
@@ -826,20 +832,19 @@ public class QnsCallStatusTrackerTest extends QnsTest {
                         AccessNetworkConstants.TRANSPORT_TYPE_WWAN);
         newTransportQuality =
                 activeCallTracker.getLastTransportQuality(activeCallTracker.getTransportType());
-        assertEquals(2, oldTransportQuality.mCallQualityBlockList.size());
-        oldQualityBlock = oldTransportQuality.getLastCallQualityBlock();
-        newQualityBlock = newTransportQuality.getLastCallQualityBlock();
-        assertEquals(secondCallQualityUpdateTime, oldQualityBlock.mCreatedElapsedTime);
+        assertEquals(2, oldTransportQuality.getCallQualityBlockCount());
+        assertEquals(secondCallQualityUpdateTime, oldTransportQuality.getCreatedElapsedTime(0));
         assertEquals(
-                handoverTime2 - secondCallQualityUpdateTime, oldQualityBlock.mDurationMillis);
-        assertEquals(CallQuality.CALL_QUALITY_GOOD, oldQualityBlock.mUpLinkLevel);
-        assertEquals(CallQuality.CALL_QUALITY_FAIR, oldQualityBlock.mDownLinkLevel);
+                handoverTime2 - secondCallQualityUpdateTime,
+                oldTransportQuality.getDurationMillis(0));
+        assertEquals(CallQuality.CALL_QUALITY_GOOD, oldTransportQuality.getUpLinkLevel(0));
+        assertEquals(CallQuality.CALL_QUALITY_FAIR, oldTransportQuality.getDownLinkLevel(0));
 
-        assertEquals(1, newTransportQuality.mCallQualityBlockList.size());
-        assertEquals(handoverTime2, newQualityBlock.mCreatedElapsedTime);
-        assertEquals(0, newQualityBlock.mDurationMillis);
-        assertEquals(CallQuality.CALL_QUALITY_GOOD, newQualityBlock.mUpLinkLevel);
-        assertEquals(CallQuality.CALL_QUALITY_FAIR, newQualityBlock.mDownLinkLevel);
+        assertEquals(1, newTransportQuality.getCallQualityBlockCount());
+        assertEquals(handoverTime2, newTransportQuality.getCreatedElapsedTime(0));
+        assertEquals(0, newTransportQuality.getDurationMillis(0));
+        assertEquals(CallQuality.CALL_QUALITY_GOOD, newTransportQuality.getUpLinkLevel(0));
+        assertEquals(CallQuality.CALL_QUALITY_FAIR, newTransportQuality.getDownLinkLevel(0));
 
         // Test3:
         long callEndTime = 40000;
@@ -851,22 +856,17 @@ public class QnsCallStatusTrackerTest extends QnsTest {
 
         oldTransportQuality = activeCallTracker.getLastTransportQuality(
                         AccessNetworkConstants.TRANSPORT_TYPE_WLAN);
-        assertEquals(1, oldTransportQuality.mCallQualityBlockList.size());
-        oldQualityBlock = oldTransportQuality.getLastCallQualityBlock();
-        assertEquals(handoverTime2, oldQualityBlock.mCreatedElapsedTime);
+        assertEquals(1, oldTransportQuality.getCallQualityBlockCount());
+        assertEquals(handoverTime2, oldTransportQuality.getCreatedElapsedTime(0));
         assertEquals(
-                callEndTime - handoverTime2, oldQualityBlock.mDurationMillis);
-        assertEquals(CallQuality.CALL_QUALITY_GOOD, oldQualityBlock.mUpLinkLevel);
-        assertEquals(CallQuality.CALL_QUALITY_FAIR, oldQualityBlock.mDownLinkLevel);
-
-        List<TransportQuality> wlanTransportQualityList =
-                activeCallTracker.getTransportQualityList(
-                        AccessNetworkConstants.TRANSPORT_TYPE_WLAN);
-        List<TransportQuality> wwanTransportQualityList =
-                activeCallTracker.getTransportQualityList(
-                        AccessNetworkConstants.TRANSPORT_TYPE_WWAN);
-        assertEquals(2, wlanTransportQualityList.size());
-        assertEquals(1, wwanTransportQualityList.size());
+                callEndTime - handoverTime2, oldTransportQuality.getDurationMillis(0));
+        assertEquals(CallQuality.CALL_QUALITY_GOOD, oldTransportQuality.getUpLinkLevel(0));
+        assertEquals(CallQuality.CALL_QUALITY_FAIR, oldTransportQuality.getDownLinkLevel(0));
+
+        assertEquals(2, activeCallTracker.getLastTransportQuality(
+                AccessNetworkConstants.TRANSPORT_TYPE_WLAN).getSegmentCount());
+        assertEquals(1, activeCallTracker.getLastTransportQuality(
+                AccessNetworkConstants.TRANSPORT_TYPE_WWAN).getSegmentCount());
         long expectedUplinkQualityLevelWlan =
                 ((handoverTime - firstCallQaulityUpdateTime) * CallQuality.CALL_QUALITY_FAIR
                 + (callEndTime - handoverTime2) * CallQuality.CALL_QUALITY_GOOD)
@@ -883,6 +883,53 @@ public class QnsCallStatusTrackerTest extends QnsTest {
                 .getDownLinkQualityLevelDuringCall(AccessNetworkConstants.TRANSPORT_TYPE_WLAN));
     }
 
+    @Test
+    public void testTransportQualityBoundedDuringLongCall() {
+        QnsCallStatusTracker.ActiveCallTracker activeCallTracker =
+                mCallTracker.getActiveCallTracker();
+        TransportQuality tq =
+                activeCallTracker.new TransportQuality(AccessNetworkConstants.TRANSPORT_TYPE_WLAN);
+        int blockCount = TransportQuality.MAX_CALL_QUALITY_BLOCKS * 10;
+        long now = 1000;
+        long expectedUpLinkVolume = 0;
+        long expectedDownLinkVolume = 0;
+        for (int i = 0; i < blockCount; i++) {
+            if (i % 7 == 0) {
+                // the call comes back to the transport type after a handover.
+                tq.completeLastCallQualityBlock(now);
+                now += 500;
+                tq.startSegment();
+            }
+            int upLinkLevel = i % (CallQuality.CALL_QUALITY_BAD + 1);
+            int downLinkLevel = (i + 1) % (CallQuality.CALL_QUALITY_BAD + 1);
+            tq.addCallQualityBlock(upLinkLevel, downLinkLevel, now);
+            expectedUpLinkVolume += upLinkLevel * 100L;
+            expectedDownLinkVolume += downLinkLevel * 100L;
+            now += 100;
+        }
+
+        assertEquals(blockCount * 100L, tq.getTotalDurationMillis(now));
+        assertEquals(expectedUpLinkVolume, tq.getUpLinkQualityVolume(now));
+        assertEquals(expectedDownLinkVolume, tq.getDownLinkQualityVolume(now));
+        assertEquals((blockCount + 6) / 7, tq.getSegmentCount());
+        assertEquals((blockCount - 1) % 7 + 1, tq.getCallQualityBlockCount());
+        assertEquals((blockCount - 1) % (CallQuality.CALL_QUALITY_BAD + 1), tq.getUpLinkLevel(0));
+        assertEquals(
+                (blockCount - TransportQuality.MAX_CALL_QUALITY_BLOCKS)
+                        % (CallQuality.CALL_QUALITY_BAD + 1),
+                tq.getUpLinkLevel(TransportQuality.MAX_CALL_QUALITY_BLOCKS - 1));
+        try {
+            tq.getUpLinkLevel(TransportQuality.MAX_CALL_QUALITY_BLOCKS);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // older blocks are only kept in the sums.
+        }
+
+        tq.reset();
+        assertFalse(tq.isUsedDuringCall());
+        assertEquals(0, tq.getTotalDurationMillis(now));
+    }
+
     @Test
     public void testMediaQualityBreachedWithJitter() {
         QnsCarrierConfigManager.RtpMetricsConfig config =
@@ -1039,11 +1086,11 @@ public class QnsCallStatusTrackerTest extends QnsTest {
         mTestLooper.dispatchAll();
         Message msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
-        mTestLooper.moveTimeForward(config.mPktLossTime - 1000);
+        moveTimeForward(config.mPktLossTime - 1000);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
-        mTestLooper.moveTimeForward(2000);
+        moveTimeForward(2000);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNotNull(msg);
@@ -1102,7 +1149,7 @@ public class QnsCallStatusTrackerTest extends QnsTest {
         mTestLooper.dispatchAll();
         Message msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
-        mTestLooper.moveTimeForward(config.mPktLossTime / 3);
+        moveTimeForward(config.mPktLossTime / 3);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
@@ -1116,7 +1163,7 @@ public class QnsCallStatusTrackerTest extends QnsTest {
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
-        mTestLooper.moveTimeForward(4000);
+        moveTimeForward(4000);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNotNull(msg);
@@ -1134,7 +1181,7 @@ public class QnsCallStatusTrackerTest extends QnsTest {
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
-        mTestLooper.moveTimeForward(config.mPktLossTime / 3);
+        moveTimeForward(config.mPktLossTime / 3);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
@@ -1148,7 +1195,7 @@ public class QnsCallStatusTrackerTest extends QnsTest {
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
-        mTestLooper.moveTimeForward(2000);
+        moveTimeForward(2000);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
@@ -1162,7 +1209,7 @@ public class QnsCallStatusTrackerTest extends QnsTest {
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
-        mTestLooper.moveTimeForward(config.mPktLossTime * 2 / 3);
+        moveTimeForward(config.mPktLossTime * 2 / 3);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNotNull(msg);
@@ -1173,6 +1220,132 @@ public class QnsCallStatusTrackerTest extends QnsTest {
                 1 << QnsConstants.RTP_LOW_QUALITY_REASON_PACKET_LOSS, (int) result.mResult);
     }
 
+    @Test
+    public void testMediaQualityBreachedWithPacketLossAfterDegradingTrend() {
+        QnsCarrierConfigManager.RtpMetricsConfig config =
+                new QnsCarrierConfigManager.RtpMetricsConfig(120, 30, 12000, 10000);
+        when(mMockQnsConfigManager.getRTPMetricsData()).thenReturn(config);
+        PreciseDataConnectionState emergencyDataStatusOnWwan =
+                new PreciseDataConnectionState.Builder()
+                        .setTransportType(AccessNetworkConstants.TRANSPORT_TYPE_WWAN)
+                        .setState(TelephonyManager.DATA_CONNECTED)
+                        .setNetworkType(TelephonyManager.NETWORK_TYPE_LTE)
+                        .setApnSetting(
+                                new ApnSetting.Builder()
+                                        .setApnTypeBitmask(ApnSetting.TYPE_EMERGENCY)
+                                        .setApnName("sos")
+                                        .setEntryName("sos")
+                                        .build())
+                        .build();
+        when(mMockQnsTelephonyListener.getLastPreciseDataConnectionState(
+                NetworkCapabilities.NET_CAPABILITY_EIMS))
+                .thenReturn(emergencyDataStatusOnWwan);
+        mTestCallStateList.add(new CallState.Builder(PreciseCallState.PRECISE_CALL_STATE_ACTIVE)
+                .setImsCallType(ImsCallProfile.CALL_TYPE_VOICE)
+                .setImsCallServiceType(ImsCallProfile.SERVICE_TYPE_EMERGENCY).build());
+        mCallTracker.updateCallState(mTestCallStateList);
+        QnsCallStatusTracker.ActiveCallTracker activeCallTracker =
+                mCallTracker.getActiveCallTracker();
+
+        // the packet loss rises toward the threshold without breaching it.
+        int[] lossRates = {0, 0, 0, 25, 25, 25};
+        for (int lossRate : lossRates) {
+            activeCallTracker.onMediaQualityStatusChanged(
+                    new MediaQualityStatus(
+                            "1", MediaQualityStatus.MEDIA_SESSION_TYPE_AUDIO,
+                            AccessNetworkConstants.TRANSPORT_TYPE_WLAN,
+                            lossRate /*packetLossRate*/, 70 /*jitter*/, 0 /*inactivityTime*/));
+            mTestLooper.dispatchAll();
+        }
+        assertEquals(
+                1 << QnsConstants.RTP_LOW_QUALITY_REASON_PACKET_LOSS,
+                activeCallTracker
+                        .getMediaQualityAnalyzer()
+                        .getDegradingReason(AccessNetworkConstants.TRANSPORT_TYPE_WLAN));
+        assertNull(mLowQualityListenerLooper.nextMessage());
+        moveTimeForward(4000);
+
+        activeCallTracker.onMediaQualityStatusChanged(
+                new MediaQualityStatus(
+                        "1", MediaQualityStatus.MEDIA_SESSION_TYPE_AUDIO,
+                        AccessNetworkConstants.TRANSPORT_TYPE_WLAN,
+                        35 /*packetLossRate*/, 70 /*jitter*/, 0 /*inactivityTime*/));
+        mTestLooper.dispatchAll();
+        assertNull(mLowQualityListenerLooper.nextMessage());
+
+        // the 4 seconds spent degrading are taken off the packet loss time.
+        moveTimeForward(config.mPktLossTime - 4000 - 1000);
+        mTestLooper.dispatchAll();
+        assertNull(mLowQualityListenerLooper.nextMessage());
+        moveTimeForward(2000);
+        mTestLooper.dispatchAll();
+        Message msg = mLowQualityListenerLooper.nextMessage();
+        assertNotNull(msg);
+        QnsAsyncResult result = (QnsAsyncResult) msg.obj;
+        assertEquals(
+                1 << QnsConstants.RTP_LOW_QUALITY_REASON_PACKET_LOSS, (int) result.mResult);
+    }
+
+    @Test
+    public void testLowQualityDeadlinesAvoidTimerChurn() {
+        QnsCarrierConfigManager.RtpMetricsConfig config =
+                new QnsCarrierConfigManager.RtpMetricsConfig(120, 30, 12000, 10000);
+        when(mMockQnsConfigManager.getRTPMetricsData()).thenReturn(config);
+        PreciseDataConnectionState imsDataStatusOnWlan =
+                new PreciseDataConnectionState.Builder()
+                        .setTransportType(AccessNetworkConstants.TRANSPORT_TYPE_WLAN)
+                        .setState(TelephonyManager.DATA_CONNECTED)
+                        .setNetworkType(TelephonyManager.NETWORK_TYPE_IWLAN)
+                        .setApnSetting(
+                                new ApnSetting.Builder()
+                                        .setApnTypeBitmask(ApnSetting.TYPE_IMS)
+                                        .setApnName("ims")
+                                        .setEntryName("ims")
+                                        .build())
+                        .build();
+        when(mMockQnsTelephonyListener.getLastPreciseDataConnectionState(
+                NetworkCapabilities.NET_CAPABILITY_IMS))
+                .thenReturn(imsDataStatusOnWlan);
+        mTestCallStateList.add(new CallState.Builder(PreciseCallState.PRECISE_CALL_STATE_ACTIVE)
+                .setImsCallType(ImsCallProfile.CALL_TYPE_VOICE)
+                .setImsCallServiceType(ImsCallProfile.SERVICE_TYPE_NORMAL).build());
+        mCallTracker.updateCallState(mTestCallStateList);
+        QnsCallStatusTracker.ActiveCallTracker activeCallTracker =
+                mCallTracker.getActiveCallTracker();
+        MediaQualityStatus lossStatus =
+                new MediaQualityStatus(
+                        "1", MediaQualityStatus.MEDIA_SESSION_TYPE_AUDIO,
+                        AccessNetworkConstants.TRANSPORT_TYPE_WLAN,
+                        35 /*packetLossRate*/, 70 /*jitter*/, 0 /*inactivityTime*/);
+        MediaQualityStatus goodStatus =
+                new MediaQualityStatus(
+                        "1", MediaQualityStatus.MEDIA_SESSION_TYPE_AUDIO,
+                        AccessNetworkConstants.TRANSPORT_TYPE_WLAN,
+                        5 /*packetLossRate*/, 20 /*jitter*/, 0 /*inactivityTime*/);
+
+        // packet loss timer, then flapping quality starting and cancelling the hysteresis.
+        activeCallTracker.onMediaQualityStatusChanged(lossStatus);
+        for (int i = 0; i < 10; i++) {
+            activeCallTracker.onMediaQualityStatusChanged(goodStatus);
+            activeCallTracker.onMediaQualityStatusChanged(lossStatus);
+        }
+        activeCallTracker.onMediaQualityStatusChanged(goodStatus);
+        mTestLooper.dispatchAll();
+        assertNull(mLowQualityListenerLooper.nextMessage());
+
+        moveTimeForward(3000);
+        mTestLooper.dispatchAll();
+        Message msg = mLowQualityListenerLooper.nextMessage();
+        assertNotNull(msg);
+        assertEquals(0, (int) ((QnsAsyncResult) msg.obj).mResult);
+
+        // the wakeup is only re-armed once, when the hysteresis moves the deadline earlier.
+        verify(mMockQnsTimer, times(2)).registerTimer(isA(Message.class), anyLong());
+        verify(mMockQnsTimer, times(1)).unregisterTimer(anyInt());
+        // packet loss timer started and cancelled, 11 hysteresis timers and 10 cancelled ones.
+        assertEquals(23 - 3, activeCallTracker.getAvoidedTimerOpCount());
+    }
+
     @Test
     public void testHandlingLowQualityEventAtHandover() {
         QnsCarrierConfigManager.RtpMetricsConfig config =
@@ -1231,19 +1404,19 @@ public class QnsCallStatusTrackerTest extends QnsTest {
         mTestLooper.dispatchAll();
         Message msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
-        mTestLooper.moveTimeForward(4000);
+        moveTimeForward(4000);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
 
         activeCallTracker.onDataConnectionStatusChanged(imsDataStatusOnWlan);
 
-        mTestLooper.moveTimeForward(10000);
+        moveTimeForward(10000);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
 
-        mTestLooper.moveTimeForward(2500);
+        moveTimeForward(2500);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNotNull(msg);
@@ -1253,12 +1426,12 @@ public class QnsCallStatusTrackerTest extends QnsTest {
         assertEquals(
                 1 << QnsConstants.RTP_LOW_QUALITY_REASON_PACKET_LOSS, (int) result.mResult);
 
-        mTestLooper.moveTimeForward(1000);
+        moveTimeForward(1000);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
         activeCallTracker.onDataConnectionStatusChanged(imsDataStatusOnWlan);
-        mTestLooper.moveTimeForward(1000);
+        moveTimeForward(1000);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
@@ -1272,11 +1445,11 @@ public class QnsCallStatusTrackerTest extends QnsTest {
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
-        mTestLooper.moveTimeForward(2100);
+        moveTimeForward(2100);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
-        mTestLooper.moveTimeForward(3100);
+        moveTimeForward(3100);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNotNull(msg);
@@ -1285,7 +1458,7 @@ public class QnsCallStatusTrackerTest extends QnsTest {
         assertNotNull(result.mResult);
         assertEquals(0, (int) result.mResult);
 
-        mTestLooper.moveTimeForward(10000);
+        moveTimeForward(10000);
         mTestLooper.dispatchAll();
         status =
                 new MediaQualityStatus(
@@ -1311,17 +1484,17 @@ public class QnsCallStatusTrackerTest extends QnsTest {
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
-        mTestLooper.moveTimeForward(2000);
+        moveTimeForward(2000);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
 
         activeCallTracker.onDataConnectionStatusChanged(imsDataStatusOnWwan);
-        mTestLooper.moveTimeForward(2000);
+        moveTimeForward(2000);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNull(msg);
-        mTestLooper.moveTimeForward(1100);
+        moveTimeForward(1100);
         mTestLooper.dispatchAll();
         msg = mLowQualityListenerLooper.nextMessage();
         assertNotNull(msg);
@@ -1570,6 +1570,21 @@ public class QnsCarrierConfigManagerTest extends QnsTest {
         Assert.assertNotEquals(QnsConstants.KEY_DEFAULT_VALUE, rtpMetricsData.mNoRtpInterval);
     }
 
+    @Test
+    public void testRTPMetricsDataCachedUntilConfigLoaded() {
+        QnsCarrierConfigManager.RtpMetricsConfig rtpMetricsData =
+                mConfigManager.getRTPMetricsData();
+        Assert.assertSame(rtpMetricsData, mConfigManager.getRTPMetricsData());
+
+        PersistableBundle bundle = new PersistableBundle();
+        bundle.putInt(CarrierConfigManager.ImsVoice.KEY_VOICE_RTP_JITTER_THRESHOLD_MILLIS_INT, 50);
+        mConfigManager.loadMediaThreshold(bundle, null);
+        QnsCarrierConfigManager.RtpMetricsConfig reloaded = mConfigManager.getRTPMetricsData();
+        Assert.assertNotSame(rtpMetricsData, reloaded);
+        Assert.assertEquals(50, reloaded.mJitter);
+        Assert.assertSame(reloaded, mConfigManager.getRTPMetricsData());
+    }
+
     @Test
     public void testIsHandoverAllowedByPolicyWithTestBundle() {
         PersistableBundle bundle = new PersistableBundle();
@@ -2051,6 +2066,37 @@ public class QnsCarrierConfigManagerTest extends QnsTest {
         assertEquals(10000, mmsFallbackConfigs[2]);
         assertEquals(2, mmsFallbackConfigs[3]);
         assertEquals(5000, mmsFallbackGuardTimer);
+        assertEquals(
+                0,
+                mConfigManager.getFallbackMaxBackoffTimerOnInitialConnectionFail(
+                        NetworkCapabilities.NET_CAPABILITY_MMS));
+    }
+
+    @Test
+    public void testFallbackMaxBackoffTimerOnInitialDataConnectionFail() {
+        PersistableBundle bundle = new PersistableBundle();
+        bundle.putStringArray(
+                QnsCarrierConfigManager.KEY_QNS_FALLBACK_ON_INITIAL_CONNECTION_FAILURE_STRING_ARRAY,
+                new String[] {"ims:2:30000:60000:0:600000", "mms:1:10000:5000:2:5000"});
+        mConfigManager.loadQnsAneSupportConfigurations(null, bundle);
+
+        assertEquals(
+                60000,
+                mConfigManager.getFallbackGuardTimerOnInitialConnectionFail(
+                        NetworkCapabilities.NET_CAPABILITY_IMS));
+        assertEquals(
+                600000,
+                mConfigManager.getFallbackMaxBackoffTimerOnInitialConnectionFail(
+                        NetworkCapabilities.NET_CAPABILITY_IMS));
+        // not above the fallback guard timer.
+        assertEquals(
+                0,
+                mConfigManager.getFallbackMaxBackoffTimerOnInitialConnectionFail(
+                        NetworkCapabilities.NET_CAPABILITY_MMS));
+        assertEquals(
+                0,
+                mConfigManager.getFallbackMaxBackoffTimerOnInitialConnectionFail(
+                        NetworkCapabilities.NET_CAPABILITY_XCAP));
     }
 
     @Test
@@ -2347,6 +2393,25 @@ public class QnsCarrierConfigManagerTest extends QnsTest {
         assertEquals(10000, mConfigManager.getWlanRttFallbackHystTimer());
     }
 
+    @Test
+    public void testWlanRttConfigsWithPercentileAndLossCriteria() {
+        PersistableBundle bundle = new PersistableBundle();
+        bundle.putString(
+                QnsCarrierConfigManager.KEY_QNS_WLAN_RTT_BACKHAUL_CHECK_ON_ICMP_PING_STRING,
+                "8.8.8.8,10,200,32,50,20000,10000,90,150,30,20");
+        mConfigManager.loadQnsAneSupportConfigurations(null, bundle);
+
+        int[] pingConfigs = mConfigManager.getWlanRttOtherConfigs();
+        assertEquals(10, pingConfigs[0]);
+        assertEquals(50, pingConfigs[3]);
+        assertEquals(20000, pingConfigs[4]);
+        assertEquals(90, pingConfigs[5]);
+        assertEquals(150, pingConfigs[6]);
+        assertEquals(30, pingConfigs[7]);
+        assertEquals(20, pingConfigs[8]);
+        assertEquals(10000, mConfigManager.getWlanRttFallbackHystTimer());
+    }
+
     private void setObject(Object obj, String field, ConcurrentHashMap<Integer, Integer> value)
             throws NoSuchFieldException, IllegalAccessException {
         Field f = QnsProvisioningListener.QnsProvisioningInfo.class.getDeclaredField(field);
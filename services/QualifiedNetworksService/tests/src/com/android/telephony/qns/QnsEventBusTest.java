@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+@RunWith(JUnit4.class)
+public class QnsEventBusTest {
+    private static final QnsEventBus.Topic<Integer> PULSE = new QnsEventBus.Topic<>(0, "p", false);
+    private static final QnsEventBus.Topic<String> STICKY = new QnsEventBus.Topic<>(1, "s", true);
+
+    private final QnsEventBus mBus = new QnsEventBus(2);
+    private final Object mOwner = new Object();
+    private final Object mOtherOwner = new Object();
+
+    /** Subscriber recording the values it receives. */
+    private static class Recorder<T> implements QnsEventBus.Subscriber<T> {
+        final List<T> mValues = new ArrayList<>();
+
+        @Override
+        public synchronized void onEvent(QnsEventBus.Topic<T> topic, T value) {
+            mValues.add(value);
+        }
+    }
+
+    @Test
+    public void testPublishToSubscribers() {
+        Recorder<Integer> recorder = new Recorder<>();
+        Recorder<Integer> other = new Recorder<>();
+        mBus.publish(PULSE, 1);
+        mBus.subscribe(PULSE, mOwner, recorder);
+        mBus.subscribe(PULSE, mOtherOwner, other);
+        mBus.publish(PULSE, 2);
+        mBus.publish(PULSE, 3);
+
+        // a topic which is not sticky does not deliver the values published before subscribing.
+        assertEquals(List.of(2, 3), recorder.mValues);
+        assertEquals(List.of(2, 3), other.mValues);
+        assertNull(mBus.getStickyValue(PULSE));
+    }
+
+    @Test
+    public void testStickyValueDeliveredOnSubscription() {
+        Recorder<String> recorder = new Recorder<>();
+        mBus.setStickyValue(STICKY, "initial");
+        mBus.publish(STICKY, "last");
+        mBus.subscribe(STICKY, mOwner, recorder);
+        assertEquals(List.of("last"), recorder.mValues);
+        assertEquals("last", mBus.getStickyValue(STICKY));
+
+        mBus.setStickyValue(STICKY, "silent");
+        assertEquals(List.of("last"), recorder.mValues);
+        assertEquals("silent", mBus.getStickyValue(STICKY));
+    }
+
+    @Test
+    public void testSubscribeReplacesSubscriberOfOwner() {
+        Recorder<String> first = new Recorder<>();
+        Recorder<String> second = new Recorder<>();
+        mBus.publish(STICKY, "a");
+        mBus.subscribe(STICKY, mOwner, first);
+        mBus.subscribe(STICKY, mOwner, second);
+        mBus.publish(STICKY, "b");
+
+        assertEquals(List.of("a"), first.mValues);
+        assertEquals(List.of("a", "b"), second.mValues);
+        assertSame(second, mBus.getSubscriber(STICKY, mOwner));
+        assertNull(mBus.getSubscriber(STICKY, mOtherOwner));
+    }
+
+    @Test
+    public void testUnsubscribe() {
+        Recorder<Integer> pulse = new Recorder<>();
+        Recorder<String> sticky = new Recorder<>();
+        Recorder<Integer> other = new Recorder<>();
+        mBus.subscribe(PULSE, mOwner, pulse);
+        mBus.subscribe(STICKY, mOwner, sticky);
+        mBus.subscribe(PULSE, mOtherOwner, other);
+
+        mBus.unsubscribe(mOwner);
+        mBus.publish(PULSE, 1);
+        mBus.publish(STICKY, "a");
+        assertTrue(pulse.mValues.isEmpty());
+        assertTrue(sticky.mValues.isEmpty());
+        assertEquals(List.of(1), other.mValues);
+        assertTrue(mBus.hasSubscribers());
+
+        mBus.unsubscribe(mOtherOwner);
+        assertFalse(mBus.hasSubscribers());
+    }
+
+    @Test
+    public void testConcurrentPublishDeliveredInOrder() throws InterruptedException {
+        final int count = 10000;
+        List<Integer> values = new ArrayList<>();
+        QnsEventBus.Topic<Integer> topic = new QnsEventBus.Topic<>(0, "counter", true);
+        CountDownLatch started = new CountDownLatch(1);
+        Thread publisher =
+                new Thread(
+                        () -> {
+                            started.countDown();
+                            for (int i = 1; i <= count; i++) {
+                                mBus.publish(topic, i);
+                            }
+                        });
+        publisher.start();
+        started.await();
+        // subscribing while publishing, the sticky value must not arrive after a newer value.
+        mBus.subscribe(topic, mOwner, (t, value) -> values.add(value));
+        publisher.join();
+
+        assertEquals(count, (int) values.get(values.size() - 1));
+        for (int i = 1; i < values.size(); i++) {
+            assertTrue(values.get(i) > values.get(i - 1));
+        }
+    }
+}
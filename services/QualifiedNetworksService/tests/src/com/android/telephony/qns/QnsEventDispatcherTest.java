@@ -24,6 +24,8 @@ import static com.android.telephony.qns.wfc.WfcActivationHelper.STATUS_END;
 import static com.android.telephony.qns.wfc.WfcActivationHelper.STATUS_START;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 import android.content.ContentResolver;
@@ -45,6 +47,7 @@ import com.android.internal.telephony.TelephonyIntents;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.MockitoSession;
@@ -774,4 +777,89 @@ public class QnsEventDispatcherTest extends QnsTest {
                 mMockContext, validWfcActivationdEndIntent);
         verify(mMockMessage2, never()).sendToTarget();
     }
+
+    @Test
+    public void testWfcSettingsPublishedOncePerLoad() {
+        List<QnsEventDispatcher.WfcSettings> settings = new ArrayList<>();
+        mQnsEventDispatcher.subscribe(
+                QnsEventDispatcher.TOPIC_WFC_SETTINGS,
+                this,
+                (topic, value) -> settings.add(value));
+        // the last settings are delivered on subscription.
+        assertEquals(1, settings.size());
+        assertFalse(settings.get(0).mWfcEnabled);
+
+        setEnabledStatusForWfcSettingsCrossSimSettings();
+
+        // the settings loaded on carrier config change are published together.
+        assertEquals(2, settings.size());
+        assertTrue(settings.get(1).mWfcEnabledByPlatform);
+        assertTrue(settings.get(1).mCrossSimCallingEnabled);
+        assertTrue(settings.get(1).mWfcEnabled);
+        assertTrue(settings.get(1).mWfcRoamingEnabled);
+
+        mQnsEventDispatcher.unsubscribe(this);
+        setDisabledStatusForWfcSettingsCrossSimSettings();
+        assertEquals(2, settings.size());
+    }
+
+    @Test
+    public void testSettingsReadFromCacheUntilUriChanged() {
+        when(mMockHandler.obtainMessage(eq(QnsEventDispatcher.QNS_EVENT_WFC_MODE_TO_WIFI_ONLY)))
+                .thenReturn(mMockMessage);
+        when(mMockHandler.obtainMessage(
+                        eq(QnsEventDispatcher.QNS_EVENT_CROSS_SIM_CALLING_DISABLED)))
+                .thenReturn(mMockMessage1);
+        WfcSettingsCache cache = mQnsEventDispatcher.getWfcSettingsCache();
+        long modeQueries = cache.getQueryCount(WfcSettingsCache.SETTING_WFC_MODE);
+        long crossSimQueries =
+                cache.getQueryCount(WfcSettingsCache.SETTING_CROSS_SIM_CALLING_ENABLED);
+
+        List<Integer> events = new ArrayList<>();
+        events.add(QnsEventDispatcher.QNS_EVENT_WFC_MODE_TO_WIFI_ONLY);
+        events.add(QnsEventDispatcher.QNS_EVENT_CROSS_SIM_CALLING_DISABLED);
+        mQnsEventDispatcher.registerEvent(events, mMockHandler);
+
+        // the settings checked again on registration are served from the cache.
+        verify(mMockMessage, times(1)).sendToTarget();
+        verify(mMockMessage1, times(1)).sendToTarget();
+        assertEquals(modeQueries, cache.getQueryCount(WfcSettingsCache.SETTING_WFC_MODE));
+        assertEquals(
+                crossSimQueries,
+                cache.getQueryCount(WfcSettingsCache.SETTING_CROSS_SIM_CALLING_ENABLED));
+
+        // only the setting of the changed uri is queried.
+        mQnsEventDispatcher.mUserSettingObserver.onChange(true, WFC_MODE_URI);
+        assertEquals(modeQueries + 1, cache.getQueryCount(WfcSettingsCache.SETTING_WFC_MODE));
+        assertEquals(
+                crossSimQueries,
+                cache.getQueryCount(WfcSettingsCache.SETTING_CROSS_SIM_CALLING_ENABLED));
+    }
+
+    @Test
+    public void testSettingLoadedBeforeImsReadyReadAgainOnImsStateChanged() {
+        ArgumentCaptor<Handler> handler = ArgumentCaptor.forClass(Handler.class);
+        ArgumentCaptor<Integer> what = ArgumentCaptor.forClass(Integer.class);
+        verify(mMockQnsImsManager).registerImsStateChanged(handler.capture(), what.capture());
+        when(mMockHandler.obtainMessage(
+                        eq(QnsEventDispatcher.QNS_EVENT_WFC_MODE_TO_WIFI_PREFERRED)))
+                .thenReturn(mMockMessage);
+
+        // the mode loaded before IMS was ready is the default, the user setting is read once
+        // IMS is ready.
+        when(mMockQnsImsManager.getWfcMode(false)).thenReturn(QnsConstants.WIFI_PREF);
+        List<Integer> events = new ArrayList<>();
+        events.add(QnsEventDispatcher.QNS_EVENT_WFC_MODE_TO_WIFI_PREFERRED);
+        mQnsEventDispatcher.registerEvent(events, mMockHandler);
+        verify(mMockMessage, never()).sendToTarget();
+
+        handler.getValue()
+                .obtainMessage(
+                        what.getValue(),
+                        new QnsAsyncResult(null, new QnsImsManager.ImsState(true), null))
+                .sendToTarget();
+        waitForLastHandlerAction(handler.getValue());
+        verify(mMockMessage, times(1)).sendToTarget();
+        assertEquals(QnsConstants.WIFI_PREF, mQnsEventDispatcher.mLastWfcMode);
+    }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static com.android.telephony.qns.QnsImsCallbackDispatcher.CALLBACK_IMS_STATE;
+import static com.android.telephony.qns.QnsImsCallbackDispatcher.CALLBACK_REGISTRATION;
+import static com.android.telephony.qns.QnsImsCallbackDispatcher.CALLBACK_SIP_DIALOG_STATE;
+import static com.android.telephony.qns.QnsImsCallbackDispatcher.MAX_PENDING_CALLBACKS;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.test.TestLooper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+@RunWith(JUnit4.class)
+public class QnsImsCallbackDispatcherTest {
+    private final QnsImsCallbackDispatcher mDispatcher = new QnsImsCallbackDispatcher();
+    private final List<Looper> mRunLoopers = new ArrayList<>();
+    private TestLooper mTestLooper;
+    private QnsImsCallbackDispatcher.SlotQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mTestLooper = new TestLooper();
+        mQueue = mDispatcher.createSlotQueue(new Handler(mTestLooper.getLooper()));
+    }
+
+    private void runCallback() {
+        mRunLoopers.add(Looper.myLooper());
+    }
+
+    @Test
+    public void testCallbackRunOnSlotHandler() {
+        mQueue.getExecutor(CALLBACK_IMS_STATE).execute(this::runCallback);
+        mQueue.getExecutor(CALLBACK_REGISTRATION).execute(this::runCallback);
+        assertTrue(mRunLoopers.isEmpty());
+        assertEquals(2, mQueue.getPendingCount());
+
+        mTestLooper.dispatchAll();
+        assertEquals(2, mRunLoopers.size());
+        assertSame(mTestLooper.getLooper(), mRunLoopers.get(0));
+        assertSame(mTestLooper.getLooper(), mRunLoopers.get(1));
+        assertEquals(0, mQueue.getPendingCount());
+        assertEquals(1, mDispatcher.getCount(CALLBACK_IMS_STATE));
+        assertEquals(1, mDispatcher.getCount(CALLBACK_REGISTRATION));
+        assertEquals(0, mDispatcher.getCount(CALLBACK_SIP_DIALOG_STATE));
+    }
+
+    @Test
+    public void testStateCallbackRunWhenQueueFull() {
+        Executor executor = mQueue.getExecutor(CALLBACK_REGISTRATION);
+        for (int i = 0; i < MAX_PENDING_CALLBACKS; i++) {
+            executor.execute(this::runCallback);
+        }
+        mQueue.getExecutor(CALLBACK_IMS_STATE).execute(this::runCallback);
+        executor.execute(this::runCallback);
+        assertEquals(MAX_PENDING_CALLBACKS + 2, mQueue.getPendingCount());
+        assertEquals(1, mDispatcher.getOverflowCount(CALLBACK_IMS_STATE));
+        assertEquals(1, mDispatcher.getOverflowCount(CALLBACK_REGISTRATION));
+        assertEquals(0, mDispatcher.getDropCount(CALLBACK_IMS_STATE));
+        assertEquals(0, mDispatcher.getDropCount(CALLBACK_REGISTRATION));
+
+        mTestLooper.dispatchAll();
+        assertEquals(MAX_PENDING_CALLBACKS + 2, mRunLoopers.size());
+        assertEquals(1, mDispatcher.getCount(CALLBACK_IMS_STATE));
+        assertEquals(MAX_PENDING_CALLBACKS + 1, mDispatcher.getCount(CALLBACK_REGISTRATION));
+        assertEquals(0, mQueue.getPendingCount());
+    }
+
+    @Test
+    public void testSipDialogStateCallbackLatestDeliveredWhenQueueFull() {
+        Executor executor = mQueue.getExecutor(CALLBACK_REGISTRATION);
+        for (int i = 0; i < MAX_PENDING_CALLBACKS; i++) {
+            executor.execute(this::runCallback);
+        }
+        List<Boolean> sipDialogStates = new ArrayList<>();
+        Executor sipDialogStateExecutor = mQueue.getExecutor(CALLBACK_SIP_DIALOG_STATE);
+        sipDialogStateExecutor.execute(() -> sipDialogStates.add(true));
+        sipDialogStateExecutor.execute(() -> sipDialogStates.add(false));
+        assertEquals(MAX_PENDING_CALLBACKS + 1, mQueue.getPendingCount());
+        assertEquals(1, mDispatcher.getOverflowCount(CALLBACK_SIP_DIALOG_STATE));
+        assertEquals(1, mDispatcher.getSupersededCount(CALLBACK_SIP_DIALOG_STATE));
+        assertEquals(0, mDispatcher.getDropCount(CALLBACK_SIP_DIALOG_STATE));
+
+        // only the latest state is delivered, the dialogs of the first one have ended.
+        mTestLooper.dispatchAll();
+        assertEquals(List.of(false), sipDialogStates);
+        assertEquals(1, mDispatcher.getCount(CALLBACK_SIP_DIALOG_STATE));
+
+        // a new state is delivered once the pending one has run.
+        sipDialogStateExecutor.execute(() -> sipDialogStates.add(true));
+        mTestLooper.dispatchAll();
+        assertEquals(List.of(false, true), sipDialogStates);
+        assertEquals(1, mDispatcher.getSupersededCount(CALLBACK_SIP_DIALOG_STATE));
+    }
+
+    @Test
+    public void testCallbackDroppedWhenLooperQuit() throws InterruptedException {
+        HandlerThread handlerThread = new HandlerThread("QnsImsCallbackDispatcherTest");
+        handlerThread.start();
+        Handler handler = new Handler(handlerThread.getLooper());
+        handlerThread.quit();
+        handlerThread.join();
+
+        QnsImsCallbackDispatcher.SlotQueue queue = mDispatcher.createSlotQueue(handler);
+        queue.getExecutor(CALLBACK_IMS_STATE).execute(this::runCallback);
+        assertEquals(0, queue.getPendingCount());
+        assertEquals(1, mDispatcher.getDropCount(CALLBACK_IMS_STATE));
+        assertTrue(mRunLoopers.isEmpty());
+    }
+
+    @Test
+    public void testDump() {
+        mQueue.getExecutor(CALLBACK_IMS_STATE).execute(this::runCallback);
+        mTestLooper.dispatchAll();
+        StringWriter sw = new StringWriter();
+        mDispatcher.dump(new PrintWriter(sw, true), "");
+
+        String dump = sw.toString();
+        assertTrue(dump.contains("imsState[count=1, "));
+        assertTrue(
+                dump.contains(
+                        "registration[count=0, meanUs=0, maxUs=0, dropped=0, overflowed=0,"
+                                + " superseded=0]"));
+    }
+}
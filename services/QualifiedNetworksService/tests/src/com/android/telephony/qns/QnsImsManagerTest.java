@@ -193,6 +193,7 @@ public class QnsImsManagerTest extends QnsTest {
         when(mProvisioningManager.getProvisioningStatusForCapability(
                         anyInt(), eq(REGISTRATION_TECH_IWLAN)))
                 .thenReturn(true);
+        mQnsImsMgr.invalidateImsCapabilities(ImsCapabilityCache.MASK_ALL);
         assertTrue(mQnsImsMgr.isWfcProvisionedOnDevice());
 
         when(mBundle.getBoolean(
@@ -206,6 +207,7 @@ public class QnsImsManagerTest extends QnsTest {
         when(mProvisioningManager.getProvisioningStatusForCapability(
                         anyInt(), eq(REGISTRATION_TECH_IWLAN)))
                 .thenReturn(false);
+        mQnsImsMgr.invalidateImsCapabilities(ImsCapabilityCache.MASK_ALL);
         assertFalse(mQnsImsMgr.isWfcProvisionedOnDevice());
 
         when(mBundle.getBoolean(
@@ -213,9 +215,33 @@ public class QnsImsManagerTest extends QnsTest {
                 .thenReturn(false);
         when(mProvisioningManager.isProvisioningRequiredForCapability(anyInt(), anyInt()))
                 .thenReturn(false);
+        mQnsImsMgr.invalidateImsCapabilities(ImsCapabilityCache.MASK_ALL);
         assertTrue(mQnsImsMgr.isWfcProvisionedOnDevice());
     }
 
+    @Test
+    public void testQnsImsManagerProvisioningServedFromCache() {
+        when(mProvisioningManager.isProvisioningRequiredForCapability(anyInt(), anyInt()))
+                .thenReturn(true);
+        when(mProvisioningManager.getProvisioningStatusForCapability(
+                        anyInt(), eq(REGISTRATION_TECH_IWLAN)))
+                .thenReturn(true);
+        assertTrue(mQnsImsMgr.isWfcProvisionedOnDevice());
+        assertTrue(mQnsImsMgr.isWfcProvisionedOnDevice());
+        verify(mProvisioningManager, times(1))
+                .getProvisioningStatusForCapability(anyInt(), eq(REGISTRATION_TECH_IWLAN));
+
+        when(mProvisioningManager.getProvisioningStatusForCapability(
+                        anyInt(), eq(REGISTRATION_TECH_IWLAN)))
+                .thenReturn(false);
+        mQnsImsMgr.invalidateImsCapabilities(ImsCapabilityCache.MASK_PROVISIONING);
+        assertFalse(mQnsImsMgr.isWfcProvisionedOnDevice());
+
+        ImsCapabilityCache cache = mQnsImsMgr.getImsCapabilityCache();
+        assertEquals(1, cache.getHitCount(ImsCapabilityCache.CAPABILITY_WFC_PROVISIONED));
+        assertEquals(2, cache.getIpcCount(ImsCapabilityCache.CAPABILITY_WFC_PROVISIONED));
+    }
+
     @Test
     public void testQnsImsManagerIsCrossSimCallingEnabled() throws ImsException {
         when(mMockImsMmTelManager.isCrossSimCallingEnabled()).thenReturn(false);
@@ -231,6 +257,7 @@ public class QnsImsManagerTest extends QnsTest {
                 .thenReturn(false);
         when(mBundle.getBoolean(eq(CarrierConfigManager.KEY_CARRIER_CROSS_SIM_IMS_AVAILABLE_BOOL)))
                 .thenReturn(false);
+        mQnsImsMgr.invalidateImsCapabilities(ImsCapabilityCache.MASK_ALL);
         assertFalse(mQnsImsMgr.isCrossSimCallingEnabled());
 
         when(mBundle.getBoolean(eq(CarrierConfigManager.KEY_CARRIER_CROSS_SIM_IMS_AVAILABLE_BOOL)))
@@ -246,6 +273,7 @@ public class QnsImsManagerTest extends QnsTest {
         when(mProvisioningManager.getProvisioningStatusForCapability(
                         anyInt(), eq(REGISTRATION_TECH_IWLAN)))
                 .thenReturn(true);
+        mQnsImsMgr.invalidateImsCapabilities(ImsCapabilityCache.MASK_ALL);
         assertFalse(mQnsImsMgr.isCrossSimCallingEnabled());
 
         when(mBundle.getBoolean(eq(CarrierConfigManager.KEY_CARRIER_CROSS_SIM_IMS_AVAILABLE_BOOL)))
@@ -261,6 +289,7 @@ public class QnsImsManagerTest extends QnsTest {
         when(mProvisioningManager.getProvisioningStatusForCapability(
                         anyInt(), eq(REGISTRATION_TECH_IWLAN)))
                 .thenReturn(true);
+        mQnsImsMgr.invalidateImsCapabilities(ImsCapabilityCache.MASK_ALL);
         assertTrue(mQnsImsMgr.isCrossSimCallingEnabled());
     }
 
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static com.android.telephony.qns.QnsMonitoringPolicy.FIDELITY_FULL;
+import static com.android.telephony.qns.QnsMonitoringPolicy.FIDELITY_MINIMAL;
+import static com.android.telephony.qns.QnsMonitoringPolicy.FIDELITY_REDUCED;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+
+import android.os.Handler;
+import android.os.Message;
+import android.os.test.TestLooper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class QnsMonitoringPolicyTest {
+    private static final int EVENT_FIDELITY_CHANGED = 1;
+
+    @Mock private QnsTimer mQnsTimer;
+    @Mock private QnsImsManager mQnsImsManager;
+    private TestLooper mTestLooper;
+    private QnsMonitoringPolicy mPolicy;
+    private Message mDeviceStateMessage;
+    private Message mImsRegistrationMessage;
+    private final List<Integer> mFidelities = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mTestLooper = new TestLooper();
+        mPolicy = new QnsMonitoringPolicy(mQnsTimer, mTestLooper.getLooper());
+        mPolicy.addImsManager(0, mQnsImsManager);
+
+        ArgumentCaptor<Integer> what = ArgumentCaptor.forClass(Integer.class);
+        verify(mQnsTimer).registerDeviceStateChanged(eq(mPolicy.mHandler), what.capture());
+        mDeviceStateMessage = Message.obtain(mPolicy.mHandler, what.getValue());
+        verify(mQnsImsManager)
+                .registerImsRegistrationStatusChanged(eq(mPolicy.mHandler), what.capture());
+        mImsRegistrationMessage = Message.obtain(mPolicy.mHandler, what.getValue());
+
+        Handler handler =
+                new Handler(mTestLooper.getLooper()) {
+                    @Override
+                    public void handleMessage(Message msg) {
+                        mFidelities.add((int) ((QnsAsyncResult) msg.obj).mResult);
+                    }
+                };
+        mPolicy.registerFidelityChanged(handler, EVENT_FIDELITY_CHANGED);
+        mTestLooper.dispatchAll();
+    }
+
+    private void setDeviceState(int state) {
+        Message msg = Message.obtain(mDeviceStateMessage);
+        msg.obj = new QnsAsyncResult(null, state, null);
+        msg.sendToTarget();
+        mTestLooper.dispatchAll();
+    }
+
+    private void changeImsRegistration() {
+        Message.obtain(mImsRegistrationMessage).sendToTarget();
+        mTestLooper.dispatchAll();
+    }
+
+    @Test
+    public void testFidelityFollowsDeviceState() {
+        assertEquals(List.of(FIDELITY_FULL), mFidelities);
+
+        setDeviceState(QnsTimer.DEVICE_STATE_SCREEN_OFF);
+        setDeviceState(QnsTimer.DEVICE_STATE_LIGHT_IDLE);
+        setDeviceState(QnsTimer.DEVICE_STATE_DEEP_IDLE);
+        assertEquals(List.of(FIDELITY_FULL, FIDELITY_REDUCED, FIDELITY_MINIMAL), mFidelities);
+
+        // a call start is reported as an active device state.
+        setDeviceState(QnsTimer.DEVICE_STATE_ACTIVE);
+        assertEquals(FIDELITY_FULL, mPolicy.getFidelity());
+        assertEquals(FIDELITY_FULL, (int) mFidelities.get(mFidelities.size() - 1));
+    }
+
+    @Test
+    public void testImsRegistrationChangeRestoresFullFidelity() {
+        setDeviceState(QnsTimer.DEVICE_STATE_DEEP_IDLE);
+        assertEquals(FIDELITY_MINIMAL, mPolicy.getFidelity());
+
+        changeImsRegistration();
+        assertEquals(FIDELITY_FULL, mPolicy.getFidelity());
+
+        // the boost is extended by a new change.
+        mTestLooper.moveTimeForward(QnsMonitoringPolicy.IMS_REGISTRATION_BOOST_MS / 2);
+        changeImsRegistration();
+        mTestLooper.moveTimeForward(QnsMonitoringPolicy.IMS_REGISTRATION_BOOST_MS / 2);
+        mTestLooper.dispatchAll();
+        assertEquals(FIDELITY_FULL, mPolicy.getFidelity());
+
+        mTestLooper.moveTimeForward(QnsMonitoringPolicy.IMS_REGISTRATION_BOOST_MS / 2);
+        mTestLooper.dispatchAll();
+        assertEquals(FIDELITY_MINIMAL, mPolicy.getFidelity());
+    }
+
+    @Test
+    public void testHysteresis() {
+        int[] thresholds = new int[] {-120, -115, -100};
+        assertEquals(2, QnsMonitoringPolicy.getHysteresisDb(FIDELITY_FULL, 2, thresholds));
+        assertEquals(4, QnsMonitoringPolicy.getHysteresisDb(FIDELITY_REDUCED, 2, thresholds));
+        // kept below the smallest gap between two thresholds.
+        assertEquals(4, QnsMonitoringPolicy.getHysteresisDb(FIDELITY_MINIMAL, 2, thresholds));
+        // but never below the configured one.
+        assertEquals(6, QnsMonitoringPolicy.getHysteresisDb(FIDELITY_MINIMAL, 6, thresholds));
+
+        // the Wi-Fi deadband is kept below the smallest gap as well.
+        assertEquals(0, QnsMonitoringPolicy.getRssiDeadbandDb(FIDELITY_FULL, thresholds));
+        assertEquals(3, QnsMonitoringPolicy.getRssiDeadbandDb(FIDELITY_REDUCED, thresholds));
+        assertEquals(4, QnsMonitoringPolicy.getRssiDeadbandDb(FIDELITY_MINIMAL, thresholds));
+        assertEquals(
+                0, QnsMonitoringPolicy.getRssiDeadbandDb(FIDELITY_MINIMAL, new int[] {-70, -70}));
+
+        assertEquals(0, QnsMonitoringPolicy.getHysteresisMs(FIDELITY_FULL, 0));
+        assertEquals(20000, QnsMonitoringPolicy.getHysteresisMs(FIDELITY_MINIMAL, 20000));
+    }
+
+    @Test
+    public void testClose() {
+        mPolicy.close();
+        verify(mQnsTimer).unregisterDeviceStateChanged(mPolicy.mHandler);
+        verify(mQnsImsManager).unregisterImsRegistrationStatusChanged(mPolicy.mHandler);
+    }
+}
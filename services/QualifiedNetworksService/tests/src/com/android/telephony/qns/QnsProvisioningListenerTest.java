@@ -143,6 +143,20 @@ public class QnsProvisioningListenerTest extends QnsTest {
         assertNull(msg);
     }
 
+    @Test
+    public void testNotifyImmediatelyWithoutUpdateTime() {
+        // wait for QnsProvisioningListener to load default items, which marks them updated.
+        waitForLastHandlerAction(mQnsProvisioningListener.mQnsProvisioningHandler);
+        mQnsProvisioningListener.registerProvisioningItemInfoChanged(mHandler, 1, null, true);
+
+        Message msg = mTestLooper.nextMessage();
+        assertNotNull(msg);
+        QnsProvisioningListener.QnsProvisioningInfo info =
+                (QnsProvisioningListener.QnsProvisioningInfo) ((QnsAsyncResult) msg.obj).mResult;
+        // not delivered for a callback, so no latency is recorded for it.
+        assertEquals(0, info.getUpdateTimeNanos());
+    }
+
     @Test
     public void testUnregisterProvisioningItemInfoChanged() {
         // wait for QnsProvisioningListener to load default items.
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.os.Handler;
+import android.os.Message;
+import android.os.test.TestLooper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class QnsRegistrantListTest {
+    private final TestLooper mTestLooper = new TestLooper();
+    private Handler mHandler1;
+    private Handler mHandler2;
+    private QnsRegistrantList mList;
+
+    @Before
+    public void setUp() {
+        mHandler1 = new Handler(mTestLooper.getLooper());
+        mHandler2 = new Handler(mTestLooper.getLooper());
+        mList = new QnsRegistrantList();
+    }
+
+    @Test
+    public void testNotifyRegistrants() {
+        mList.add(mHandler1, 1, "obj1");
+        mList.add(mHandler2, 2, "obj2");
+        assertEquals(2, mList.size());
+
+        mList.notifyResult("result");
+        Message msg = mTestLooper.nextMessage();
+        assertEquals(1, msg.what);
+        assertEquals("obj1", ((QnsAsyncResult) msg.obj).mUserObj);
+        assertEquals("result", ((QnsAsyncResult) msg.obj).mResult);
+        msg = mTestLooper.nextMessage();
+        assertEquals(2, msg.what);
+        assertNull(mTestLooper.nextMessage());
+        assertEquals(2, mList.getNotificationCount());
+    }
+
+    @Test
+    public void testAddUniqueAndRemove() {
+        mList.add(mHandler1, 1, null);
+        mList.addUnique(mHandler1, 3, null);
+        mList.add(mHandler2, 2, null);
+        assertEquals(2, mList.size());
+
+        mList.remove(mHandler1);
+        assertEquals(1, mList.size());
+        assertSame(mHandler2, ((QnsRegistrant) mList.get(0)).getHandler());
+
+        mList.notifyRegistrants();
+        assertEquals(2, mTestLooper.nextMessage().what);
+        assertNull(mTestLooper.nextMessage());
+
+        mList.removeAll();
+        assertEquals(0, mList.size());
+    }
+
+    @Test
+    public void testClearedRegistrantCompactedLazily() {
+        QnsRegistrant cleared = new QnsRegistrant(mHandler1, 1, null);
+        mList.add(cleared);
+        mList.add(mHandler2, 2, null);
+        cleared.clear();
+
+        mList.notifyRegistrants();
+        assertEquals(2, mTestLooper.nextMessage().what);
+        assertNull(mTestLooper.nextMessage());
+        assertEquals(1, mList.getNotificationCount());
+        // dropped with the next change of the list.
+        assertEquals(2, mList.size());
+        mList.add(mHandler1, 3, null);
+        assertEquals(2, mList.size());
+    }
+
+    @Test
+    public void testNotifyDuringChangesUsesSnapshot() {
+        mList.add(mHandler1, 1, null);
+        QnsRegistrant registrant =
+                new QnsRegistrant(mHandler2, 2, null) {
+                    @Override
+                    protected void internalNotifyRegistrant(Object result, Throwable exception) {
+                        // changing the list while notifying it neither blocks nor throws.
+                        mList.remove(mHandler1);
+                        super.internalNotifyRegistrant(result, exception);
+                    }
+                };
+        mList.add(registrant);
+        mList.add(mHandler1, 3, null);
+
+        mList.notifyRegistrants();
+        assertEquals(1, mTestLooper.nextMessage().what);
+        assertEquals(2, mTestLooper.nextMessage().what);
+        // the registrant removed meanwhile was already cleared.
+        assertNull(mTestLooper.nextMessage());
+        assertEquals(1, mList.size());
+    }
+}
@@ -165,6 +165,71 @@ public final class QnsTelephonyListenerTest extends QnsTest {
         assertEquals(qtInfoIms, output); // notify for IMS network capability
     }
 
+    @Test
+    public void testNotifyQnsTelephonyInfoOfSubscribedFields() {
+        QnsTelephonyListener.QnsTelephonyInfo qtInfo = mQtListener.new QnsTelephonyInfo();
+        qtInfo.setChangedFields(QnsTelephonyListener.INFO_FIELD_REGISTERED_PLMN);
+        mQtListener.registerQnsTelephonyInfoChanged(
+                NetworkCapabilities.NET_CAPABILITY_MMS,
+                mHandler,
+                1,
+                null,
+                false,
+                QnsTelephonyListener.INFO_FIELD_DATA_NETWORK_TYPE);
+
+        mQtListener.notifyQnsTelephonyInfo(qtInfo);
+        assertNull(mTestLooper.nextMessage());
+
+        qtInfo.setChangedFields(
+                QnsTelephonyListener.INFO_FIELD_REGISTERED_PLMN
+                        | QnsTelephonyListener.INFO_FIELD_DATA_NETWORK_TYPE);
+        mQtListener.notifyQnsTelephonyInfo(qtInfo);
+        Message msg = mTestLooper.nextMessage();
+        assertNotNull(msg);
+        assertEquals(qtInfo, ((QnsAsyncResult) msg.obj).mResult);
+
+        // notified immediately whatever the changed fields.
+        mQtListener.registerQnsTelephonyInfoChanged(
+                NetworkCapabilities.NET_CAPABILITY_XCAP,
+                mHandler,
+                2,
+                null,
+                true,
+                QnsTelephonyListener.INFO_FIELD_VOICE_BARRING);
+        assertEquals(1, mTestLooper.dispatchAll());
+    }
+
+    @Test
+    public void testChangedFieldsOfQnsTelephonyInfo() {
+        mQtListener.registerQnsTelephonyInfoChanged(
+                NetworkCapabilities.NET_CAPABILITY_IMS,
+                mHandler,
+                1,
+                null,
+                false,
+                QnsTelephonyListener.INFO_FIELD_VOICE_BARRING);
+
+        testOnCellularServiceStateChangedWithLteVopsOnHome();
+        int changedFields = mQtListener.getLastQnsTelephonyInfo().getChangedFields();
+        assertTrue((changedFields & QnsTelephonyListener.INFO_FIELD_DATA_NETWORK_TYPE) != 0);
+        assertTrue((changedFields & QnsTelephonyListener.INFO_FIELD_REGISTERED_PLMN) != 0);
+        assertEquals(0, changedFields & QnsTelephonyListener.INFO_FIELD_COVERAGE);
+        assertTrue(
+                (mQtListener.mLastQnsTelephonyInfoIms.getChangedFields()
+                                & QnsTelephonyListener.INFO_FIELD_VOPS_SUPPORT)
+                        != 0);
+        // not subscribed to the service state fields.
+        assertNull(mTestLooper.nextMessage());
+
+        mQtListener.mTelephonyListener.onBarringInfoChanged(setupBarringInfo(true, false));
+        Message msg = mTestLooper.nextMessage();
+        assertNotNull(msg);
+        QnsTelephonyListener.QnsTelephonyInfoIms qtInfoIms =
+                (QnsTelephonyListener.QnsTelephonyInfoIms) ((QnsAsyncResult) msg.obj).mResult;
+        assertEquals(QnsTelephonyListener.INFO_FIELD_VOICE_BARRING, qtInfoIms.getChangedFields());
+        assertTrue(qtInfoIms.getVopsSupport());
+    }
+
     @Test
     public void testGetLastQnsTelephonyInfo() {
         QnsTelephonyListener.QnsTelephonyInfo qtInfo = mQtListener.getLastQnsTelephonyInfo();
@@ -329,6 +394,23 @@ public final class QnsTelephonyListenerTest extends QnsTest {
         assertEquals(1, mTestLooper.dispatchAll());
     }
 
+    @Test
+    public void testNotifyImmediatelyWithoutCallbackTime() {
+        mQtListener.mLastQnsTelephonyInfo.setCallbackTimeNanos(1000);
+        mQtListener.registerQnsTelephonyInfoChanged(
+                NetworkCapabilities.NET_CAPABILITY_MMS, mHandler, 1, null, true);
+
+        Message msg = mTestLooper.nextMessage();
+        assertNotNull(msg);
+        QnsTelephonyListener.QnsTelephonyInfo info =
+                (QnsTelephonyListener.QnsTelephonyInfo) ((QnsAsyncResult) msg.obj).mResult;
+        // a copy of the last info, not delivered for a callback.
+        assertEquals(mQtListener.getLastQnsTelephonyInfo(), info);
+        assertEquals(0, info.getCallbackTimeNanos());
+        assertEquals(QnsTelephonyListener.INFO_FIELD_ALL, info.getChangedFields());
+        assertEquals(1000, mQtListener.getLastQnsTelephonyInfo().getCallbackTimeNanos());
+    }
+
     @Test
     public void testRegisterPreciseDataConnectionStateChanged() {
         mQtListener.registerPreciseDataConnectionStateChanged(
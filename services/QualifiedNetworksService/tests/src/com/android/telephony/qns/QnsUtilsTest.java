@@ -27,8 +27,10 @@ import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.when;
 
 import android.net.NetworkCapabilities;
+import android.os.Handler;
 import android.os.PersistableBundle;
 import android.os.SystemClock;
+import android.os.test.TestLooper;
 import android.telephony.AccessNetworkConstants;
 import android.telephony.CarrierConfigManager;
 import android.telephony.ServiceState;
@@ -47,6 +49,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 @RunWith(JUnit4.class)
 public class QnsUtilsTest extends QnsTest {
@@ -1325,4 +1328,22 @@ public class QnsUtilsTest extends QnsTest {
             assertTrue(result.contains(netCapability));
         }
     }
+
+    @Test
+    public void testTimestampingExecutorStampsOnExecute() {
+        TestLooper testLooper = new TestLooper();
+        QnsUtils.TimestampingExecutor executor =
+                new QnsUtils.TimestampingExecutor(new Handler(testLooper.getLooper()));
+        AtomicLong callbackTimeNanos = new AtomicLong();
+
+        long beforeExecuteNanos = SystemClock.elapsedRealtimeNanos();
+        executor.execute(() -> callbackTimeNanos.set(executor.getCallbackTimeNanos()));
+        long afterExecuteNanos = SystemClock.elapsedRealtimeNanos();
+        testLooper.dispatchAll();
+
+        // stamped when handed over, not when run on the handler.
+        assertTrue(callbackTimeNanos.get() >= beforeExecuteNanos);
+        assertTrue(callbackTimeNanos.get() <= afterExecuteNanos);
+        assertEquals(0, executor.getCallbackTimeNanos());
+    }
 }
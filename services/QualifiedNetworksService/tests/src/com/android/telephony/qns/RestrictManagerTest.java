@@ -41,6 +41,7 @@ import static com.android.telephony.qns.RestrictManager.RESTRICT_TYPE_RTP_LOW_QU
 import static com.android.telephony.qns.RestrictManager.RESTRICT_TYPE_THROTTLING;
 import static com.android.telephony.qns.RestrictManager.sReleaseEventMap;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -49,8 +50,11 @@ import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.net.NetworkCapabilities;
@@ -401,6 +405,117 @@ public class RestrictManagerTest extends QnsTest {
         assertFalse(mRestrictManager.isRestricted(AccessNetworkConstants.TRANSPORT_TYPE_WLAN));
     }
 
+    @Test
+    public void testRestrictionMask() {
+        assertEquals(
+                0, mRestrictManager.getRestrictionMask(AccessNetworkConstants.TRANSPORT_TYPE_WLAN));
+        mRestrictManager.addRestriction(
+                AccessNetworkConstants.TRANSPORT_TYPE_WLAN,
+                RESTRICT_TYPE_GUARDING,
+                sReleaseEventMap.get(RESTRICT_TYPE_GUARDING),
+                0);
+        mRestrictManager.addRestriction(
+                AccessNetworkConstants.TRANSPORT_TYPE_WLAN,
+                RESTRICT_TYPE_RESTRICT_IWLAN_IN_CALL,
+                sReleaseEventMap.get(RESTRICT_TYPE_RESTRICT_IWLAN_IN_CALL),
+                0);
+        assertEquals(
+                1 << RESTRICT_TYPE_GUARDING | 1 << RESTRICT_TYPE_RESTRICT_IWLAN_IN_CALL,
+                mRestrictManager.getRestrictionMask(AccessNetworkConstants.TRANSPORT_TYPE_WLAN));
+        assertEquals(
+                0, mRestrictManager.getRestrictionMask(AccessNetworkConstants.TRANSPORT_TYPE_WWAN));
+        assertEquals(
+                0,
+                mRestrictManager.getRestrictionMask(AccessNetworkConstants.TRANSPORT_TYPE_INVALID));
+        assertTrue(
+                mRestrictManager.isRestrictedExceptGuarding(
+                        AccessNetworkConstants.TRANSPORT_TYPE_WLAN));
+        assertTrue(
+                mRestrictManager.isAllowedOnSingleTransport(
+                        AccessNetworkConstants.TRANSPORT_TYPE_WLAN));
+
+        // only the restrictions released by the event are released.
+        mRestrictManager.processReleaseEvent(
+                AccessNetworkConstants.TRANSPORT_TYPE_WLAN, RELEASE_EVENT_DISCONNECT);
+        assertEquals(
+                1 << RESTRICT_TYPE_RESTRICT_IWLAN_IN_CALL,
+                mRestrictManager.getRestrictionMask(AccessNetworkConstants.TRANSPORT_TYPE_WLAN));
+        assertFalse(
+                mRestrictManager.isRestrictedExceptGuarding(
+                        AccessNetworkConstants.TRANSPORT_TYPE_WWAN));
+
+        mRestrictManager.addRestriction(
+                AccessNetworkConstants.TRANSPORT_TYPE_WLAN,
+                RESTRICT_TYPE_THROTTLING,
+                sReleaseEventMap.get(RESTRICT_TYPE_THROTTLING),
+                0);
+        assertFalse(
+                mRestrictManager.isAllowedOnSingleTransport(
+                        AccessNetworkConstants.TRANSPORT_TYPE_WLAN));
+        mRestrictManager.processReleaseEvent(
+                AccessNetworkConstants.TRANSPORT_TYPE_WLAN, RELEASE_EVENT_CALL_END);
+        assertEquals(
+                1 << RESTRICT_TYPE_THROTTLING,
+                mRestrictManager.getRestrictionMask(AccessNetworkConstants.TRANSPORT_TYPE_WLAN));
+    }
+
+    @Test
+    public void testExpiredRestrictionsReleasedInOneBatch() {
+        int[] notifyCount = new int[1];
+        Handler handler =
+                new Handler(mTestLooper.getLooper()) {
+                    @Override
+                    public void handleMessage(Message msg) {
+                        notifyCount[0]++;
+                    }
+                };
+        mRestrictManager.registerRestrictInfoChanged(handler, 0);
+        clearInvocations(mMockQnsTimer);
+
+        mRestrictManager.addRestriction(
+                AccessNetworkConstants.TRANSPORT_TYPE_WLAN,
+                RESTRICT_TYPE_NON_PREFERRED_TRANSPORT,
+                sReleaseEventMap.get(RESTRICT_TYPE_NON_PREFERRED_TRANSPORT),
+                DEFAULT_RESTRICT_NON_PREFERRED_TRANSPORT_TIME);
+        mRestrictManager.addRestriction(
+                AccessNetworkConstants.TRANSPORT_TYPE_WWAN,
+                RESTRICT_TYPE_NON_PREFERRED_TRANSPORT,
+                sReleaseEventMap.get(RESTRICT_TYPE_NON_PREFERRED_TRANSPORT),
+                DEFAULT_RESTRICT_NON_PREFERRED_TRANSPORT_TIME);
+        mRestrictManager.addRestriction(
+                AccessNetworkConstants.TRANSPORT_TYPE_WLAN,
+                RESTRICT_TYPE_THROTTLING,
+                sReleaseEventMap.get(RESTRICT_TYPE_THROTTLING),
+                DEFAULT_RESTRICT_NON_PREFERRED_TRANSPORT_TIME * 2);
+        mTestLooper.dispatchAll();
+        // one wakeup for the earliest expiry.
+        verify(mMockQnsTimer, times(1)).registerTimer(isA(Message.class), anyLong());
+        notifyCount[0] = 0;
+
+        mTestLooper.moveTimeForward(DEFAULT_RESTRICT_NON_PREFERRED_TRANSPORT_TIME);
+        mTestLooper.dispatchAll();
+        assertFalse(
+                mRestrictManager.hasRestrictionType(
+                        AccessNetworkConstants.TRANSPORT_TYPE_WLAN,
+                        RESTRICT_TYPE_NON_PREFERRED_TRANSPORT));
+        assertFalse(mRestrictManager.isRestricted(AccessNetworkConstants.TRANSPORT_TYPE_WWAN));
+        assertTrue(
+                mRestrictManager.hasRestrictionType(
+                        AccessNetworkConstants.TRANSPORT_TYPE_WLAN, RESTRICT_TYPE_THROTTLING));
+        assertEquals(1, notifyCount[0]);
+        verify(mMockQnsTimer, times(2)).registerTimer(isA(Message.class), anyLong());
+
+        // the next wakeup is scheduled from the previous deadline.
+        mTestLooper.moveTimeForward(
+                DEFAULT_RESTRICT_NON_PREFERRED_TRANSPORT_TIME
+                        + RestrictManager.RELEASE_BATCH_WINDOW_MILLIS);
+        mTestLooper.dispatchAll();
+        assertFalse(mRestrictManager.isRestricted(AccessNetworkConstants.TRANSPORT_TYPE_WLAN));
+        assertEquals(2, notifyCount[0]);
+        verify(mMockQnsTimer, times(2)).registerTimer(isA(Message.class), anyLong());
+        mRestrictManager.unRegisterRestrictInfoChanged(handler);
+    }
+
     @Test
     public void testGuardingWithHandoverComplete() {
         when(mMockQnsConfigManager.isHysteresisTimerEnabled(QnsConstants.COVERAGE_HOME))
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static com.android.telephony.qns.RestrictManager.RELEASE_EVENT_DISCONNECT;
+import static com.android.telephony.qns.RestrictManager.RESTRICT_TYPE_FALLBACK_ON_DATA_CONNECTION_FAIL;
+import static com.android.telephony.qns.RestrictManager.RESTRICT_TYPE_GUARDING;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.net.NetworkCapabilities;
+import android.os.SystemClock;
+import android.os.test.TestLooper;
+import android.telephony.AccessNetworkConstants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class RestrictionStoreTest {
+    private static final int WLAN = AccessNetworkConstants.TRANSPORT_TYPE_WLAN;
+    private static final int WWAN = AccessNetworkConstants.TRANSPORT_TYPE_WWAN;
+    private static final int IMS = NetworkCapabilities.NET_CAPABILITY_IMS;
+
+    private static final int BOOT_COUNT = 5;
+
+    private final TestLooper mTestLooper = new TestLooper();
+    private File mFile;
+    private RestrictionStore mStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("qns_restrictions", null);
+        mFile.delete();
+        mStore = new RestrictionStore(mFile, BOOT_COUNT, mTestLooper.getLooper());
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        new File(mFile.getPath() + ".bak").delete();
+        new File(mFile.getPath() + ".new").delete();
+        for (int generation = 0; generation < 3; generation++) {
+            new File(mFile.getPath() + "." + generation + ".log").delete();
+        }
+    }
+
+    private static List<RestrictionStore.Restriction> restrictions(
+            RestrictionStore.Restriction... restrictions) {
+        List<RestrictionStore.Restriction> list = new ArrayList<>();
+        for (RestrictionStore.Restriction restriction : restrictions) {
+            list.add(restriction);
+        }
+        return list;
+    }
+
+    private RestrictionStore restore(int bootCount) {
+        RestrictionStore restored = new RestrictionStore(mFile, bootCount, mTestLooper.getLooper());
+        mTestLooper.dispatchAll();
+        return restored;
+    }
+
+    private List<RestrictionStore.Restriction> take(
+            RestrictionStore store, int slotId, int netCapability) {
+        List<RestrictionStore.Restriction> taken = new ArrayList<>();
+        store.takeRestoredRestrictions(slotId, netCapability, Runnable::run, taken::addAll);
+        mTestLooper.dispatchAll();
+        return taken;
+    }
+
+    private void updateAndFlush(int slotId, long releaseTime) {
+        mStore.update(
+                slotId,
+                IMS,
+                restrictions(
+                        new RestrictionStore.Restriction(
+                                WLAN, RESTRICT_TYPE_GUARDING, 0, releaseTime)));
+        mTestLooper.moveTimeForward(RestrictionStore.MIN_WRITE_INTERVAL_MILLIS);
+        mTestLooper.dispatchAll();
+    }
+
+    @Test
+    public void testRestoreNotExpiredRestrictions() {
+        long now = SystemClock.elapsedRealtime();
+        mStore.update(
+                0,
+                IMS,
+                restrictions(
+                        new RestrictionStore.Restriction(
+                                WLAN, RESTRICT_TYPE_GUARDING, 1 << RELEASE_EVENT_DISCONNECT,
+                                now + 60000),
+                        new RestrictionStore.Restriction(
+                                WWAN, RESTRICT_TYPE_FALLBACK_ON_DATA_CONNECTION_FAIL, 0,
+                                now - 1)));
+        mTestLooper.dispatchAll();
+        assertEquals(1, mStore.getWriteCount());
+
+        RestrictionStore restored = restore(BOOT_COUNT);
+        List<RestrictionStore.Restriction> list = take(restored, 0, IMS);
+        assertEquals(1, list.size());
+        assertEquals(WLAN, list.get(0).mTransportType);
+        assertEquals(RESTRICT_TYPE_GUARDING, list.get(0).mRestrictType);
+        assertEquals(1 << RELEASE_EVENT_DISCONNECT, list.get(0).mReleaseEventMask);
+        assertEquals(now + 60000, list.get(0).mReleaseTime);
+        // taken once, and kept per slot and network capability.
+        assertTrue(take(restored, 0, IMS).isEmpty());
+        assertTrue(take(restored, 1, IMS).isEmpty());
+    }
+
+    @Test
+    public void testRestrictionsOfOtherBootNotRestored() {
+        updateAndFlush(0, SystemClock.elapsedRealtime() + 60000);
+
+        assertTrue(take(restore(BOOT_COUNT + 1), 0, IMS).isEmpty());
+        assertEquals(1, take(restore(BOOT_COUNT), 0, IMS).size());
+    }
+
+    @Test
+    public void testWritesCoalesced() {
+        long deadline = SystemClock.elapsedRealtime() + 60000;
+        for (int i = 0; i < 10; i++) {
+            mStore.update(
+                    0,
+                    IMS,
+                    restrictions(
+                            new RestrictionStore.Restriction(
+                                    WLAN, RESTRICT_TYPE_GUARDING, 0, deadline + i)));
+            mTestLooper.dispatchAll();
+        }
+        // only the first change is written before the write interval elapses.
+        assertEquals(1, mStore.getWriteCount());
+
+        mTestLooper.moveTimeForward(RestrictionStore.MIN_WRITE_INTERVAL_MILLIS);
+        mTestLooper.dispatchAll();
+        assertEquals(2, mStore.getWriteCount());
+        assertEquals(2, mStore.getRecordCount());
+
+        RestrictionStore restored = restore(BOOT_COUNT);
+        assertEquals(deadline + 9, take(restored, 0, IMS).get(0).mReleaseTime);
+    }
+
+    @Test
+    public void testReleasedRestrictionsNotRestored() {
+        mStore.update(
+                0,
+                IMS,
+                restrictions(
+                        new RestrictionStore.Restriction(
+                                WLAN, RESTRICT_TYPE_GUARDING, 0,
+                                SystemClock.elapsedRealtime() + 60000)));
+        mTestLooper.dispatchAll();
+        mStore.update(0, IMS, restrictions());
+        mTestLooper.moveTimeForward(RestrictionStore.MIN_WRITE_INTERVAL_MILLIS);
+        mTestLooper.dispatchAll();
+        assertEquals(2, mStore.getWriteCount());
+
+        assertTrue(take(restore(BOOT_COUNT), 0, IMS).isEmpty());
+    }
+
+    @Test
+    public void testCompaction() {
+        long deadline = SystemClock.elapsedRealtime() + 60000;
+        for (int i = 0; i <= RestrictionStore.MAX_RECORD_COUNT; i++) {
+            updateAndFlush(i % 2, deadline + i);
+        }
+        // rewritten with the latest line of each slot.
+        assertEquals(2, mStore.getRecordCount());
+
+        RestrictionStore restored = restore(BOOT_COUNT);
+        int last = RestrictionStore.MAX_RECORD_COUNT;
+        assertEquals(deadline + last, take(restored, last % 2, IMS).get(0).mReleaseTime);
+        assertEquals(
+                deadline + last - 1, take(restored, (last - 1) % 2, IMS).get(0).mReleaseTime);
+    }
+
+    @Test
+    public void testJournalKeptWithRestoredBackup() throws IOException {
+        long deadline = SystemClock.elapsedRealtime() + 60000;
+        for (int i = 0; i <= RestrictionStore.MAX_RECORD_COUNT; i++) {
+            updateAndFlush(0, deadline);
+            updateAndFlush(0, deadline + 1);
+        }
+        // appended after the compaction.
+        updateAndFlush(0, deadline + 2);
+        byte[] snapshot = Files.readAllBytes(mFile.toPath());
+        // a compaction cut by a crash leaves the backup of the snapshot.
+        Files.write(new File(mFile.getPath() + ".bak").toPath(), snapshot);
+        Files.write(mFile.toPath(), "#9\n".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(deadline + 2, take(restore(BOOT_COUNT), 0, IMS).get(0).mReleaseTime);
+    }
+
+    @Test
+    public void testJournalOfPreviousGenerationIgnored() throws IOException {
+        long deadline = SystemClock.elapsedRealtime() + 60000;
+        for (int i = 0; i <= RestrictionStore.MAX_RECORD_COUNT; i++) {
+            updateAndFlush(0, deadline + i);
+        }
+        // left behind by a crash right after the compaction.
+        File journal = new File(mFile.getPath() + ".0.log");
+        String line = "\n" + BOOT_COUNT + " 0 " + IMS + " " + WLAN + " "
+                + RESTRICT_TYPE_GUARDING + " 0 " + deadline;
+        try (FileOutputStream out = new FileOutputStream(journal)) {
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+        }
+
+        int last = RestrictionStore.MAX_RECORD_COUNT;
+        assertEquals(deadline + last, take(restore(BOOT_COUNT), 0, IMS).get(0).mReleaseTime);
+        assertFalse(journal.exists());
+    }
+
+    @Test
+    public void testUpdateIgnoredOnceClosed() {
+        mStore.close();
+        mTestLooper.dispatchAll();
+        mStore.update(
+                0,
+                IMS,
+                restrictions(
+                        new RestrictionStore.Restriction(
+                                WLAN, RESTRICT_TYPE_GUARDING, 0,
+                                SystemClock.elapsedRealtime() + 60000)));
+        assertTrue(mTestLooper.isIdle());
+        assertEquals(0, mStore.getWriteCount());
+    }
+
+    @Test
+    public void testMalformedAndStaleLinesIgnored() throws IOException {
+        long deadline = SystemClock.elapsedRealtime() + 60000;
+        String content =
+                // written during a previous boot.
+                "\n" + (BOOT_COUNT - 1) + " 1 " + IMS + " " + WLAN + " "
+                        + RESTRICT_TYPE_GUARDING + " 0 " + deadline
+                        // cut by a crash.
+                        + "\n" + BOOT_COUNT + " 0 " + IMS + " " + WLAN + " 1"
+                        + "\n" + BOOT_COUNT + " 2 " + IMS + " " + WWAN + " "
+                        + RESTRICT_TYPE_GUARDING + " 0 " + deadline;
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+
+        RestrictionStore restored = restore(BOOT_COUNT);
+        assertEquals(3, restored.getRecordCount());
+        assertTrue(take(restored, 0, IMS).isEmpty());
+        assertTrue(take(restored, 1, IMS).isEmpty());
+        assertEquals(WWAN, take(restored, 2, IMS).get(0).mTransportType);
+    }
+}
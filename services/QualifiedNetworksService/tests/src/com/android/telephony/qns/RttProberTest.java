@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(JUnit4.class)
+public class RttProberTest {
+    private static final int PAYLOAD_SIZE = 32;
+
+    /** UDP echo server on the loopback interface, replying after a configurable delay. */
+    private static class LoopbackEchoServer {
+        private final DatagramSocket mSocket;
+        private final ScheduledExecutorService mExecutor =
+                Executors.newSingleThreadScheduledExecutor();
+        private final Thread mThread;
+        private volatile int mDelayMillis;
+        private volatile int mDropEvery;
+        private int mReceivedCount;
+
+        LoopbackEchoServer() throws SocketException {
+            mSocket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+            mThread = new Thread(this::serve);
+            mThread.start();
+        }
+
+        InetSocketAddress getAddress() {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), mSocket.getLocalPort());
+        }
+
+        void setDelayMillis(int delayMillis) {
+            mDelayMillis = delayMillis;
+        }
+
+        /** Drops every n-th request, 0 to reply to all. */
+        void setDropEvery(int n) {
+            mDropEvery = n;
+        }
+
+        private void serve() {
+            byte[] buffer = new byte[1500];
+            while (!mSocket.isClosed()) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                try {
+                    mSocket.receive(packet);
+                } catch (IOException e) {
+                    return;
+                }
+                mReceivedCount++;
+                if (mDropEvery > 0 && mReceivedCount % mDropEvery == 0) {
+                    continue;
+                }
+                DatagramPacket reply =
+                        new DatagramPacket(
+                                packet.getData().clone(),
+                                packet.getLength(),
+                                packet.getSocketAddress());
+                mExecutor.schedule(
+                        () -> {
+                            try {
+                                mSocket.send(reply);
+                            } catch (IOException e) {
+                                // closed
+                            }
+                        },
+                        mDelayMillis,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void close() throws InterruptedException {
+            mSocket.close();
+            mExecutor.shutdownNow();
+            mThread.join();
+        }
+    }
+
+    private LoopbackEchoServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new LoopbackEchoServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.close();
+    }
+
+    private RttProber createProber(int count, int intervalMillis) throws IOException {
+        return new RttProber(
+                new RttProber.UdpEchoTransport(mServer.getAddress(), null),
+                count,
+                intervalMillis,
+                PAYLOAD_SIZE);
+    }
+
+    @Test
+    public void testRoundTripTime() throws IOException {
+        mServer.setDelayMillis(40);
+        RttProber.Result result = createProber(4, 100).probe();
+
+        assertEquals(4, result.getReceivedCount());
+        assertEquals(0, result.getLossPercent());
+        assertTrue(result.getMinMillis() >= 40);
+        assertTrue(result.getMinMillis() <= result.getAverageMillis());
+        assertTrue(result.getAverageMillis() <= result.getMaxMillis());
+        assertTrue(result.getAverageMillis() < 40 + 100);
+        assertFalse(result.isCancelled());
+    }
+
+    @Test
+    public void testLoss() throws IOException {
+        mServer.setDropEvery(2);
+        long start = System.currentTimeMillis();
+        RttProber.Result result = createProber(4, 50).probe();
+
+        assertEquals(2, result.getReceivedCount());
+        assertEquals(50, result.getLossPercent());
+        // waits for the missing replies no longer than the reply timeout.
+        assertTrue(
+                System.currentTimeMillis() - start < 3 * 50 + RttProber.REPLY_TIMEOUT_MILLIS + 500);
+    }
+
+    @Test
+    public void testPercentiles() {
+        long[] rtts = new long[20];
+        for (int i = 0; i < rtts.length; i++) {
+            // received out of order, 10 ~ 200 ms.
+            rtts[i] = ((i * 7) % 20 + 1) * 10000;
+        }
+        RttProber.Result result = new RttProber.Result(20, rtts, 0, false);
+
+        assertEquals(10, result.getMinMillis(), 0);
+        assertEquals(200, result.getMaxMillis(), 0);
+        assertEquals(105, result.getAverageMillis(), 0);
+        assertEquals(100, result.getPercentileMillis(50), 0);
+        assertEquals(180, result.getPercentileMillis(90), 0);
+        assertEquals(200, result.getPercentileMillis(99), 0);
+        assertEquals(0, new RttProber.Result(1, new long[0], 0, false).getPercentileMillis(90), 0);
+    }
+
+    @Test
+    public void testNoReply() throws IOException {
+        mServer.setDropEvery(1);
+        RttProber.Result result = createProber(2, 50).probe();
+
+        assertFalse(result.hasReplies());
+        assertEquals(100, result.getLossPercent());
+        assertEquals(0, result.getAverageMillis(), 0);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        RttProber prober = createProber(20, 500);
+        AtomicReference<RttProber.Result> result = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        new Thread(
+                        () -> {
+                            try {
+                                result.set(prober.probe());
+                            } catch (IOException e) {
+                                // result stays null
+                            }
+                            latch.countDown();
+                        })
+                .start();
+
+        Thread.sleep(200);
+        prober.cancel();
+        assertTrue(latch.await(500, TimeUnit.MILLISECONDS));
+        assertTrue(result.get().isCancelled());
+        assertEquals(1, result.get().getReceivedCount());
+        // stopped before sending the 20 requests, which would be a loss of 95%.
+        assertTrue(result.get().getLossPercent() < 95);
+    }
+}
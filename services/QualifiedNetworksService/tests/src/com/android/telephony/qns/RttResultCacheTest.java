@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RttResultCacheTest {
+    private static final String SERVER = "epdg.epc.mnc001.mcc001.pub.3gppnetwork.org";
+    private static final String NETWORK = "bssid:00:11:22:33:44:55";
+    private static final long TTL = 60000;
+
+    private long mTimeMillis;
+    private RttResultCache mCache;
+
+    @Before
+    public void setUp() {
+        mTimeMillis = 1000;
+        mCache =
+                new RttResultCache() {
+                    @Override
+                    long getTimeMillis() {
+                        return mTimeMillis;
+                    }
+                };
+    }
+
+    @Test
+    public void testHitWithinTtl() {
+        assertNull(mCache.get(NETWORK, SERVER, TTL));
+        mCache.put(NETWORK, SERVER, false);
+
+        mTimeMillis += TTL - 1;
+        RttResultCache.Entry entry = mCache.get(NETWORK, SERVER, TTL);
+        assertNotNull(entry);
+        assertFalse(entry.mRttResult);
+
+        mTimeMillis++;
+        assertNull(mCache.get(NETWORK, SERVER, TTL));
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    @Test
+    public void testMissForOtherServerOrDisabledTtl() {
+        mCache.put(NETWORK, SERVER, true);
+        assertNull(mCache.get(NETWORK, "other.server", TTL));
+        assertNull(mCache.get(NETWORK, SERVER, 0));
+        assertNull(mCache.get(null, SERVER, TTL));
+        assertNotNull(mCache.get(NETWORK, SERVER, TTL));
+    }
+
+    @Test
+    public void testInvalidate() {
+        mCache.put(NETWORK, SERVER, true);
+        mCache.put("network:100", SERVER, true);
+        mCache.invalidate(NETWORK);
+
+        assertNull(mCache.get(NETWORK, SERVER, TTL));
+        assertNotNull(mCache.get("network:100", SERVER, TTL));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        for (int i = 0; i <= RttResultCache.MAX_ENTRIES; i++) {
+            mCache.put("network:" + i, SERVER, true);
+            // keeps the first network in use.
+            mCache.get("network:0", SERVER, TTL);
+        }
+
+        assertNotNull(mCache.get("network:0", SERVER, TTL));
+        assertNull(mCache.get("network:1", SERVER, TTL));
+        assertNotNull(mCache.get("network:" + RttResultCache.MAX_ENTRIES, SERVER, TTL));
+    }
+}
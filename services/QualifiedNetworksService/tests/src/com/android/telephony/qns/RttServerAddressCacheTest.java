@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import android.net.Network;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+@RunWith(JUnit4.class)
+public class RttServerAddressCacheTest {
+    private static final String HOST = "epdg.epc.mnc001.mcc001.pub.3gppnetwork.org";
+
+    @Mock private Network mNetwork;
+    @Mock private Network mOtherNetwork;
+    private long mTimeMillis;
+    private int mQueryCount;
+    private boolean mIsUnknownHost;
+    private InetAddress[] mAddresses;
+    private Runnable mDuringQuery;
+    private RttServerAddressCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mTimeMillis = 1000;
+        mAddresses = new InetAddress[] {InetAddress.getByAddress(new byte[] {10, 0, 0, 1})};
+        mCache =
+                new RttServerAddressCache(
+                        (network, host) -> {
+                            mQueryCount++;
+                            if (mDuringQuery != null) {
+                                mDuringQuery.run();
+                            }
+                            if (mIsUnknownHost) {
+                                throw new UnknownHostException(host);
+                            }
+                            return mAddresses;
+                        }) {
+                    @Override
+                    long getTimeMillis() {
+                        return mTimeMillis;
+                    }
+                };
+    }
+
+    @Test
+    public void testAddressesKeptForTtl() throws Exception {
+        assertSame(mAddresses, mCache.resolve(mNetwork, HOST));
+        mTimeMillis += RttServerAddressCache.ADDRESS_TTL_MILLIS - 1;
+        assertSame(mAddresses, mCache.resolve(mNetwork, HOST));
+        assertEquals(1, mQueryCount);
+
+        mTimeMillis++;
+        mCache.resolve(mNetwork, HOST);
+        assertEquals(2, mQueryCount);
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    @Test
+    public void testAddressesScopedToNetwork() throws Exception {
+        mCache.resolve(mNetwork, HOST);
+        mCache.resolve(mOtherNetwork, HOST);
+        assertEquals(2, mQueryCount);
+
+        mCache.clear();
+        mCache.resolve(mOtherNetwork, HOST);
+        assertEquals(3, mQueryCount);
+    }
+
+    @Test
+    public void testQueryRunsWithoutLock() throws Exception {
+        boolean[] blocked = new boolean[1];
+        mDuringQuery =
+                () -> {
+                    // the network is lost while the query runs on another thread.
+                    Thread clearer = new Thread(mCache::clear);
+                    clearer.start();
+                    try {
+                        clearer.join(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    blocked[0] = clearer.isAlive();
+                };
+        assertSame(mAddresses, mCache.resolve(mNetwork, HOST));
+        assertFalse(blocked[0]);
+
+        // the addresses of the overtaken query are not kept.
+        mDuringQuery = null;
+        mCache.resolve(mNetwork, HOST);
+        assertEquals(2, mQueryCount);
+        assertEquals(0, mCache.getHitCount());
+    }
+
+    @Test
+    public void testUnknownHostNotKept() throws Exception {
+        mIsUnknownHost = true;
+        try {
+            mCache.resolve(mNetwork, HOST);
+            fail();
+        } catch (UnknownHostException e) {
+            // expected
+        }
+
+        mIsUnknownHost = false;
+        assertSame(mAddresses, mCache.resolve(mNetwork, HOST));
+        assertEquals(2, mQueryCount);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SignalFilterTest {
+
+    @Test
+    public void testFromConfig() {
+        assertEquals(SignalFilter.TYPE_NONE, SignalFilter.fromConfig(null).getType());
+        assertEquals(SignalFilter.TYPE_NONE, SignalFilter.fromConfig("").getType());
+        assertEquals(SignalFilter.TYPE_NONE, SignalFilter.fromConfig("median,x").getType());
+        assertEquals(SignalFilter.TYPE_NONE, SignalFilter.fromConfig("unknown,3").getType());
+
+        SignalFilter filter = SignalFilter.fromConfig("median,5");
+        assertEquals(SignalFilter.TYPE_MEDIAN, filter.getType());
+        assertEquals(5, filter.getParam());
+        assertEquals(
+                SignalFilter.MAX_WINDOW_SIZE, SignalFilter.fromConfig("min,100").getParam());
+        assertEquals(100, SignalFilter.fromConfig("ewma,500").getParam());
+        assertTrue(filter.isSameConfig(SignalFilter.fromConfig(" median , 5")));
+        assertFalse(filter.isSameConfig(SignalFilter.fromConfig("median,3")));
+    }
+
+    @Test
+    public void testNone() {
+        SignalFilter filter = new SignalFilter(SignalFilter.TYPE_NONE, 0);
+        assertEquals(-70, filter.filter(-70));
+        assertEquals(-90, filter.filter(-90));
+    }
+
+    @Test
+    public void testEwma() {
+        SignalFilter filter = new SignalFilter(SignalFilter.TYPE_EWMA, 50);
+        assertEquals(-60, filter.filter(-60));
+        assertEquals(-70, filter.filter(-80));
+        assertEquals(-75, filter.filter(-80));
+
+        filter.reset();
+        assertEquals(-90, filter.filter(-90));
+    }
+
+    @Test
+    public void testMedian() {
+        SignalFilter filter = new SignalFilter(SignalFilter.TYPE_MEDIAN, 3);
+        assertEquals(-60, filter.filter(-60));
+        // lower median for an even count.
+        assertEquals(-80, filter.filter(-80));
+        assertEquals(-62, filter.filter(-62));
+        // the oldest sample leaves the window.
+        assertEquals(-80, filter.filter(-90));
+        assertEquals(-90, filter.filter(-95));
+    }
+
+    @Test
+    public void testMin() {
+        SignalFilter filter = new SignalFilter(SignalFilter.TYPE_MIN, 2);
+        assertEquals(-60, filter.filter(-60));
+        assertEquals(-75, filter.filter(-75));
+        assertEquals(-75, filter.filter(-50));
+        assertEquals(-50, filter.filter(-40));
+
+        filter.reset();
+        assertEquals(-30, filter.filter(-30));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.AccessNetworkConstants.AccessNetworkType;
+import android.telephony.SignalThresholdInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class SignalThresholdRegistryTest {
+    private static final int EUTRAN = AccessNetworkType.EUTRAN;
+    private static final int RSRP = SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSRP;
+    private static final int RSSNR = SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSNR;
+    private static final int GROUP_RSRP = SignalThresholdRegistry.getGroupKey(EUTRAN, RSRP);
+    private static final int GROUP_RSSNR = SignalThresholdRegistry.getGroupKey(EUTRAN, RSSNR);
+    private static final String KEY_IMS = "4_0";
+    private static final String KEY_MMS = "0_0";
+    private static final String KEY_XCAP = "9_0";
+
+    private SignalThresholdRegistry mRegistry;
+
+    @Before
+    public void setUp() {
+        mRegistry = new SignalThresholdRegistry(4);
+    }
+
+    private static Threshold th(int measurementType, int value, int waitTime) {
+        return new Threshold(
+                EUTRAN, measurementType, value, QnsConstants.THRESHOLD_EQUAL_OR_LARGER, waitTime);
+    }
+
+    @Test
+    public void testGroupKey() {
+        assertEquals(EUTRAN, SignalThresholdRegistry.getAccessNetwork(GROUP_RSSNR));
+        assertEquals(RSSNR, SignalThresholdRegistry.getMeasurementType(GROUP_RSSNR));
+    }
+
+    @Test
+    public void testSharedValuesAreRefCounted() {
+        Threshold[] ths = new Threshold[] {th(RSRP, -110, QnsConstants.INVALID_ID)};
+        assertEquals(List.of(GROUP_RSRP), mRegistry.update(KEY_IMS, ths));
+        assertTrue(mRegistry.update(KEY_MMS, ths).isEmpty());
+
+        // the value is still requested by the other listener.
+        assertTrue(mRegistry.update(KEY_IMS, null).isEmpty());
+        assertArrayEquals(new int[] {-110}, mRegistry.getThresholds(GROUP_RSRP));
+
+        assertEquals(List.of(GROUP_RSRP), mRegistry.update(KEY_MMS, null));
+        assertNull(mRegistry.getThresholds(GROUP_RSRP));
+    }
+
+    @Test
+    public void testOnlyTouchedGroupsAreReported() {
+        mRegistry.update(
+                KEY_IMS,
+                new Threshold[] {
+                    th(RSRP, -110, QnsConstants.INVALID_ID), th(RSSNR, -5, QnsConstants.INVALID_ID)
+                });
+
+        List<Integer> changed =
+                mRegistry.update(
+                        KEY_IMS,
+                        new Threshold[] {
+                            th(RSRP, -110, QnsConstants.INVALID_ID),
+                            th(RSSNR, -10, QnsConstants.INVALID_ID)
+                        });
+        assertEquals(List.of(GROUP_RSSNR), changed);
+        assertArrayEquals(new int[] {-10}, mRegistry.getThresholds(GROUP_RSSNR));
+    }
+
+    @Test
+    public void testHysteresisChange() {
+        mRegistry.update(KEY_IMS, new Threshold[] {th(RSRP, -110, 3000)});
+        assertEquals(3000, mRegistry.getHysteresisMs(GROUP_RSRP));
+
+        assertEquals(
+                List.of(GROUP_RSRP),
+                mRegistry.update(KEY_IMS, new Threshold[] {th(RSRP, -110, 4000)}));
+        assertEquals(4000, mRegistry.getHysteresisMs(GROUP_RSRP));
+    }
+
+    @Test
+    public void testMaxThresholdsKeepsSharedValuesFirst() {
+        mRegistry.update(
+                KEY_IMS,
+                new Threshold[] {
+                    th(RSRP, -120, QnsConstants.INVALID_ID),
+                    th(RSRP, -110, QnsConstants.INVALID_ID),
+                    th(RSRP, -100, QnsConstants.INVALID_ID)
+                });
+        mRegistry.update(
+                KEY_MMS,
+                new Threshold[] {
+                    th(RSRP, -90, QnsConstants.INVALID_ID), th(RSRP, -80, QnsConstants.INVALID_ID)
+                });
+        assertArrayEquals(new int[] {-120, -110, -100, -90}, mRegistry.getThresholds(GROUP_RSRP));
+
+        mRegistry.update(KEY_XCAP, new Threshold[] {th(RSRP, -80, QnsConstants.INVALID_ID)});
+        assertArrayEquals(new int[] {-120, -110, -100, -80}, mRegistry.getThresholds(GROUP_RSRP));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.AccessNetworkConstants.AccessNetworkType;
+import android.telephony.SignalThresholdInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class ThresholdCrossingIndexTest {
+    private static final int EUTRAN = AccessNetworkType.EUTRAN;
+    private static final int RSRP = SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSRP;
+    private static final int RSRQ = SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSRQ;
+    private static final String KEY_IMS = "4_0";
+    private static final String KEY_MMS = "0_0";
+
+    private ThresholdCrossingIndex mIndex;
+    private final List<String> mCrossedKeys = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mIndex = new ThresholdCrossingIndex();
+    }
+
+    private Threshold rsrp(int value, int matchType) {
+        return new Threshold(EUTRAN, RSRP, value, matchType, QnsConstants.INVALID_ID);
+    }
+
+    private List<String> sample(int measurementType, int value) {
+        mCrossedKeys.clear();
+        mIndex.onSample(EUTRAN, measurementType, value, mCrossedKeys);
+        return mCrossedKeys;
+    }
+
+    @Test
+    public void testFirstSampleReportsAllCrossedThresholds() {
+        mIndex.update(KEY_IMS, new Threshold[] {rsrp(-110, QnsConstants.THRESHOLD_EQUAL_OR_LARGER)});
+        mIndex.update(KEY_MMS, new Threshold[] {rsrp(-90, QnsConstants.THRESHOLD_EQUAL_OR_LARGER)});
+
+        List<String> crossed = sample(RSRP, -100);
+        assertEquals(List.of(KEY_IMS), crossed);
+
+        crossed = sample(RSRP, -80);
+        assertEquals(List.of(KEY_MMS), crossed);
+    }
+
+    @Test
+    public void testNoNotificationWithoutCrossing() {
+        mIndex.update(KEY_IMS, new Threshold[] {rsrp(-110, QnsConstants.THRESHOLD_EQUAL_OR_LARGER)});
+
+        assertEquals(1, sample(RSRP, -100).size());
+        assertTrue(sample(RSRP, -105).isEmpty());
+        assertTrue(sample(RSRP, -100).isEmpty());
+        // crossing back is not reported, only becoming matched is.
+        assertTrue(sample(RSRP, -115).isEmpty());
+        assertEquals(1, sample(RSRP, -110).size());
+    }
+
+    @Test
+    public void testSmallerAndEqualMatchTypes() {
+        mIndex.update(
+                KEY_IMS,
+                new Threshold[] {
+                    rsrp(-110, QnsConstants.THRESHOLD_EQUAL_OR_SMALLER),
+                    rsrp(-100, QnsConstants.THRESHOLD_MATCH_TYPE_EQUAL_TO)
+                });
+
+        assertTrue(sample(RSRP, -105).isEmpty());
+        assertEquals(1, sample(RSRP, -100).size());
+        assertTrue(sample(RSRP, -99).isEmpty());
+        assertEquals(1, sample(RSRP, -120).size());
+        assertTrue(mIndex.isMatched(KEY_IMS, rsrp(-110, QnsConstants.THRESHOLD_EQUAL_OR_SMALLER)));
+        assertFalse(
+                mIndex.isMatched(KEY_IMS, rsrp(-100, QnsConstants.THRESHOLD_MATCH_TYPE_EQUAL_TO)));
+    }
+
+    @Test
+    public void testUpdateKeepsStateOfIdenticalThresholds() {
+        Threshold th = rsrp(-110, QnsConstants.THRESHOLD_EQUAL_OR_LARGER);
+        mIndex.update(KEY_IMS, new Threshold[] {th});
+        assertEquals(1, sample(RSRP, -100).size());
+
+        mIndex.update(
+                KEY_IMS,
+                new Threshold[] {th, rsrp(-105, QnsConstants.THRESHOLD_EQUAL_OR_LARGER)});
+        // only the new threshold is reported.
+        assertEquals(List.of(KEY_IMS), sample(RSRP, -100));
+        assertTrue(sample(RSRP, -100).isEmpty());
+    }
+
+    @Test
+    public void testResetAndRemove() {
+        mIndex.update(KEY_IMS, new Threshold[] {rsrp(-110, QnsConstants.THRESHOLD_EQUAL_OR_LARGER)});
+        mIndex.update(
+                KEY_MMS,
+                new Threshold[] {
+                    new Threshold(
+                            EUTRAN,
+                            RSRQ,
+                            -10,
+                            QnsConstants.THRESHOLD_EQUAL_OR_LARGER,
+                            QnsConstants.INVALID_ID)
+                });
+        assertEquals(2, mIndex.getGroupCount());
+        assertEquals(1, sample(RSRP, -100).size());
+
+        mIndex.reset(EUTRAN, RSRP);
+        assertEquals(1, sample(RSRP, -100).size());
+
+        mIndex.remove(KEY_IMS);
+        assertEquals(1, mIndex.getGroupCount());
+        assertEquals(EUTRAN, mIndex.getAccessNetworkAt(0));
+        assertEquals(RSRQ, mIndex.getMeasurementTypeAt(0));
+        assertTrue(sample(RSRP, -90).isEmpty());
+
+        mIndex.clear();
+        assertEquals(0, mIndex.getGroupCount());
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.net.NetworkCapabilities;
+import android.os.test.TestLooper;
+import android.telephony.AccessNetworkConstants.AccessNetworkType;
+import android.telephony.SignalThresholdInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class ThresholdNotificationGateTest {
+    private static final int IMS = NetworkCapabilities.NET_CAPABILITY_IMS;
+    private static final String KEY_IMS = IMS + "_0";
+    private static final String KEY_OTHER = IMS + "_1";
+    private static final long INTERVAL = 1000;
+
+    private TestLooper mTestLooper;
+    private ThresholdNotificationGate mGate;
+    private long mTime;
+    private final List<Threshold[]> mDelivered = new ArrayList<>();
+    private final Threshold mTh1 = rssi(-70, QnsConstants.THRESHOLD_EQUAL_OR_LARGER);
+    private final Threshold mTh2 = rssi(-80, QnsConstants.THRESHOLD_EQUAL_OR_SMALLER);
+
+    @Before
+    public void setUp() {
+        mTestLooper = new TestLooper();
+        mTime = 10000;
+        mGate =
+                new ThresholdNotificationGate(
+                        "test", mTestLooper.getLooper(), (key, ths) -> mDelivered.add(ths)) {
+                    @Override
+                    long getTimeMillis() {
+                        return mTime;
+                    }
+                };
+        mGate.onThresholdsUpdated(KEY_IMS, IMS, new Threshold[] {mTh1, mTh2});
+    }
+
+    private static Threshold rssi(int value, int matchType) {
+        return new Threshold(
+                AccessNetworkType.IWLAN,
+                SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSI,
+                value,
+                matchType,
+                QnsConstants.INVALID_ID);
+    }
+
+    private void moveTimeForward(long millis) {
+        mTime += millis;
+        mTestLooper.moveTimeForward(millis);
+        mTestLooper.dispatchAll();
+    }
+
+    @Test
+    public void testNewCrossingOfSameSetIsDelivered() {
+        mGate.submit(KEY_IMS, new Threshold[] {mTh1.copy()});
+        mGate.submit(KEY_IMS, new Threshold[] {mTh1.copy()});
+        assertEquals(2, mDelivered.size());
+
+        // a held notification of a new crossing is delivered at the trailing edge as well.
+        mGate.setMinInterval(KEY_IMS, IMS, INTERVAL);
+        mGate.submit(KEY_IMS, new Threshold[] {mTh1.copy()});
+        moveTimeForward(INTERVAL);
+        assertEquals(3, mDelivered.size());
+    }
+
+    @Test
+    public void testTrailingEdgeDelivery() {
+        mGate.setMinInterval(KEY_IMS, IMS, INTERVAL);
+        mGate.submit(KEY_IMS, new Threshold[] {mTh1.copy()});
+        assertEquals(1, mDelivered.size());
+
+        moveTimeForward(100);
+        mGate.submit(KEY_IMS, new Threshold[] {mTh2.copy()});
+        Threshold[] latest = new Threshold[] {mTh1.copy(), mTh2.copy()};
+        mGate.submit(KEY_IMS, latest);
+        assertEquals(1, mDelivered.size());
+        assertEquals(1, mGate.getSuppressedByIntervalCount(IMS));
+
+        moveTimeForward(INTERVAL - 200);
+        assertEquals(1, mDelivered.size());
+        moveTimeForward(100);
+        assertEquals(2, mDelivered.size());
+        assertSame(latest, mDelivered.get(1));
+    }
+
+    @Test
+    public void testHeldSameSetIsDeliveredAtTrailingEdge() {
+        mGate.setMinInterval(KEY_IMS, IMS, INTERVAL);
+        mGate.submit(KEY_IMS, new Threshold[] {mTh1.copy()});
+        mGate.submit(KEY_IMS, new Threshold[] {mTh2.copy()});
+        Threshold[] latest = new Threshold[] {mTh1.copy()};
+        mGate.submit(KEY_IMS, latest);
+
+        moveTimeForward(INTERVAL);
+        assertEquals(2, mDelivered.size());
+        assertSame(latest, mDelivered.get(1));
+    }
+
+    @Test
+    public void testHeldNotificationFollowsRegistration() {
+        mGate.setMinInterval(KEY_IMS, IMS, INTERVAL);
+        mGate.submit(KEY_IMS, new Threshold[] {mTh2.copy()});
+        mGate.submit(KEY_IMS, new Threshold[] {mTh1.copy(), mTh2.copy()});
+
+        // mTh2 is not registered anymore, only mTh1 is delivered.
+        mGate.onThresholdsUpdated(KEY_IMS, IMS, new Threshold[] {mTh1});
+        moveTimeForward(INTERVAL);
+        assertEquals(2, mDelivered.size());
+        assertEquals(1, mDelivered.get(1).length);
+        assertEquals(mTh1.getThresholdId(), mDelivered.get(1)[0].getThresholdId());
+
+        // nothing left to deliver once all held thresholds are unregistered.
+        mGate.submit(KEY_IMS, new Threshold[] {mTh1.copy(), mTh2.copy()});
+        mGate.onThresholdsUpdated(KEY_IMS, IMS, null);
+        moveTimeForward(INTERVAL);
+        assertEquals(2, mDelivered.size());
+    }
+
+    @Test
+    public void testNoStateForKeyWithoutThresholds() {
+        mGate.onThresholdsUpdated(KEY_OTHER, IMS, null);
+        StringWriter sw = new StringWriter();
+        mGate.dump(new PrintWriter(sw), "");
+        assertFalse(sw.toString().contains(KEY_OTHER));
+    }
+
+    @Test
+    public void testUnknownKeyIsNotGated() {
+        mGate.remove(KEY_IMS);
+        mGate.submit(KEY_IMS, new Threshold[] {mTh1.copy()});
+        mGate.submit(KEY_IMS, new Threshold[] {mTh1.copy()});
+        assertEquals(2, mDelivered.size());
+        assertTrue(mTestLooper.isIdle());
+    }
+}
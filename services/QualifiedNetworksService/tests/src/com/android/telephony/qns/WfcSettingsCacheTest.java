@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.telephony.qns;
+
+import static com.android.telephony.qns.WfcSettingsCache.SETTING_WFC_ENABLED;
+import static com.android.telephony.qns.WfcSettingsCache.SETTING_WFC_MODE;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@RunWith(JUnit4.class)
+public class WfcSettingsCacheTest {
+    private final WfcSettingsCache mCache = new WfcSettingsCache();
+    private int mMode;
+    private int mModeQueries;
+
+    private int queryMode() {
+        mModeQueries++;
+        return mMode;
+    }
+
+    @Test
+    public void testReadServedFromCacheUntilInvalidated() {
+        mMode = 1;
+        assertEquals(1, mCache.get(SETTING_WFC_MODE, this::queryMode));
+        mMode = 2;
+        assertEquals(1, mCache.get(SETTING_WFC_MODE, this::queryMode));
+        assertEquals(1, mModeQueries);
+
+        mCache.invalidate(SETTING_WFC_MODE);
+        assertEquals(2, mCache.get(SETTING_WFC_MODE, this::queryMode));
+        assertEquals(2, mCache.get(SETTING_WFC_MODE, this::queryMode));
+        assertEquals(2, mModeQueries);
+        assertEquals(2, mCache.getQueryCount(SETTING_WFC_MODE));
+        assertEquals(2, mCache.getHitCount(SETTING_WFC_MODE));
+    }
+
+    @Test
+    public void testInvalidateOnlyTheSetting() {
+        assertTrue(mCache.getBoolean(SETTING_WFC_ENABLED, () -> true));
+        mCache.get(SETTING_WFC_MODE, this::queryMode);
+
+        mCache.invalidate(SETTING_WFC_MODE);
+        assertTrue(mCache.getBoolean(SETTING_WFC_ENABLED, () -> false));
+        mCache.get(SETTING_WFC_MODE, this::queryMode);
+        assertEquals(1, mCache.getQueryCount(SETTING_WFC_ENABLED));
+        assertEquals(2, mCache.getQueryCount(SETTING_WFC_MODE));
+
+        mCache.invalidateAll();
+        assertFalse(mCache.getBoolean(SETTING_WFC_ENABLED, () -> false));
+        assertEquals(2, mCache.getQueryCount(SETTING_WFC_ENABLED));
+    }
+
+    @Test
+    public void testValueLoadedWhileInvalidatedNotKept() {
+        mMode = 1;
+        assertEquals(
+                1,
+                mCache.get(
+                        SETTING_WFC_MODE,
+                        () -> {
+                            // the setting changes while it is queried.
+                            mCache.invalidate(SETTING_WFC_MODE);
+                            return queryMode();
+                        }));
+        mMode = 2;
+        assertEquals(2, mCache.get(SETTING_WFC_MODE, this::queryMode));
+        assertEquals(2, mModeQueries);
+    }
+
+    @Test
+    public void testDump() {
+        mCache.recordEvent();
+        mCache.recordEvent();
+        mCache.get(SETTING_WFC_MODE, this::queryMode);
+        mCache.get(SETTING_WFC_MODE, this::queryMode);
+        StringWriter sw = new StringWriter();
+        mCache.dump(new PrintWriter(sw, true), "");
+
+        String dump = sw.toString();
+        assertTrue(dump.contains("events=2, queries=1, queriesPerEvent=0.50"));
+        assertTrue(dump.contains("wfcMode[generation=0, queries=1, hits=1]"));
+    }
+}
@@ -16,7 +16,6 @@
 
 package com.android.telephony.qns;
 
-import static com.android.dx.mockito.inline.extended.ExtendedMockito.mockitoSession;
 import static com.android.telephony.qns.QnsConstants.INVALID_ID;
 
 import static org.junit.Assert.assertEquals;
@@ -25,14 +24,11 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.anyInt;
-import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.isA;
-import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
 
 import android.net.ConnectivityManager.NetworkCallback;
 import android.net.LinkProperties;
@@ -42,44 +38,48 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.telephony.AccessNetworkConstants;
 
-import com.android.dx.mockito.inline.extended.StaticMockitoSession;
-
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-import org.mockito.stubbing.Answer;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WifiBackhaulMonitorTest extends QnsTest {
 
     private static final int EVENT_START_RTT_CHECK = 1;
     private static final int EVENT_IMS_REGISTRATION_STATE_CHANGED = 2;
 
+    private static final int NO_REPLY = -1;
+
     @Mock private Network mMockNetwork;
-    @Mock private Process mProcessV4;
-    @Mock private Process mProcessV6;
-    @Mock private Runtime mRuntime;
 
     private WifiBackhaulMonitor mWbm;
 
     private Handler mHandler;
-    private StaticMockitoSession mMockitoSession;
     private LinkProperties mLinkProperties = new LinkProperties();
     private String mServerAddress;
     private QnsTimer mQnsTimer;
     private int[] mRttConfigs;
+    private int mRttMillisV4;
+    private int mRttMillisV6;
+    private CountDownLatch mTransportsClosed;
+    private final AtomicInteger mTransportCount = new AtomicInteger();
+    private InetAddress[] mInetAddresses;
+    private RttServerAddressCache mRttServerAddressCache;
+    private Network mResolvedNetwork;
 
     HandlerThread mHt =
             new HandlerThread("") {
@@ -102,6 +102,46 @@ public class WifiBackhaulMonitorTest extends QnsTest {
     private CountDownLatch mLatch;
     private QnsAsyncResult mAsyncResult;
 
+    /** Echo stand-in replying to every request after a fixed round trip time. */
+    private class FakeEchoTransport implements RttProber.EchoTransport {
+        private final int mRttMillis;
+        private final ArrayDeque<long[]> mPendingReplies = new ArrayDeque<>();
+
+        FakeEchoTransport(int rttMillis) {
+            mRttMillis = rttMillis;
+            mTransportCount.incrementAndGet();
+        }
+
+        @Override
+        public void send(int sequence, byte[] payload) {
+            if (mRttMillis != NO_REPLY) {
+                mPendingReplies.add(
+                        new long[] {sequence, SystemClock.elapsedRealtime() + mRttMillis});
+            }
+        }
+
+        @Override
+        public int receive(int timeoutMillis) throws IOException {
+            long[] reply = mPendingReplies.peek();
+            long wait =
+                    reply != null ? reply[1] - SystemClock.elapsedRealtime() : timeoutMillis + 1;
+            try {
+                Thread.sleep(Math.max(0, Math.min(wait, timeoutMillis)));
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            if (wait > timeoutMillis) {
+                return -1;
+            }
+            return (int) mPendingReplies.poll()[0];
+        }
+
+        @Override
+        public void close() {
+            mTransportsClosed.countDown();
+        }
+    }
+
     private class TestHandler extends Handler {
 
         TestHandler(Looper looper) {
@@ -126,44 +166,40 @@ public class WifiBackhaulMonitorTest extends QnsTest {
 
         mServerAddress = "";
         mRttConfigs = null;
+        mRttMillisV4 = NO_REPLY;
+        mRttMillisV6 = NO_REPLY;
         mLinkProperties.setInterfaceName("iwlan0");
         mLatch = new CountDownLatch(1);
+        mTransportsClosed = new CountDownLatch(2);
         mQnsTimer = new QnsTimer(sMockContext);
 
-        mMockitoSession =
-                mockitoSession()
-                        .mockStatic(Runtime.class)
-                        .spyStatic(InetAddress.class)
-                        .startMocking();
         mockDefaults();
         mHt.start();
         waitUntilReady();
+        mRttServerAddressCache =
+                new RttServerAddressCache(
+                        (network, host) -> {
+                            mResolvedNetwork = network;
+                            return mInetAddresses;
+                        });
+        mWbm.setRttServerAddressCache(mRttServerAddressCache);
+        mWbm.setEchoTransportFactory(
+                address ->
+                        new FakeEchoTransport(
+                                address instanceof Inet4Address ? mRttMillisV4 : mRttMillisV6));
         mHandlerThread = new HandlerThread("");
         mHandlerThread.start();
         mHandler = new TestHandler(mHandlerThread.getLooper());
     }
 
     private void mockDefaults() throws IOException {
-
-        lenient().when(Runtime.getRuntime()).thenReturn(mRuntime);
-
-        InetAddress[] inetAddresses = new InetAddress[2];
-        inetAddresses[0] = InetAddress.getByAddress(new byte[] {0, 0, 0, 0});
-        inetAddresses[1] =
+        mInetAddresses = new InetAddress[2];
+        mInetAddresses[0] = InetAddress.getByAddress(new byte[] {0, 0, 0, 0});
+        mInetAddresses[1] =
                 InetAddress.getByAddress(
                         new byte[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
-        lenient().when(InetAddress.getAllByName(anyString())).thenReturn(inetAddresses);
 
         doReturn(mLinkProperties).when(mMockConnectivityManager).getLinkProperties(mMockNetwork);
-        when(mRuntime.exec(anyString()))
-                .thenAnswer((Answer<Process>)
-                    invocation -> {
-                        String arg = invocation.getArgument(0);
-                        if (arg.startsWith("ping6")) {
-                            return mProcessV6;
-                        }
-                        return mProcessV4;
-                    });
         doAnswer(ret -> mServerAddress).when(mMockQnsConfigManager).getWlanRttServerAddressConfig();
         doAnswer(invocation -> mRttConfigs).when(mMockQnsConfigManager).getWlanRttOtherConfigs();
     }
@@ -172,7 +208,6 @@ public class WifiBackhaulMonitorTest extends QnsTest {
     public void tearDown() {
         mAsyncResult = null;
         mWbm.close();
-        mMockitoSession.finishMocking();
         mHandlerThread.quit();
     }
 
@@ -224,10 +259,8 @@ public class WifiBackhaulMonitorTest extends QnsTest {
 
     @Test
     public void testRttPassed_v4() throws InterruptedException {
-        mRttConfigs = new int[] {5, 200, 32, 100, 60000};
-        InputStream stream =
-                new ByteArrayInputStream(getCommandOutputs()[0].getBytes(StandardCharsets.UTF_8));
-        doReturn(stream).when(mProcessV4).getInputStream();
+        mRttConfigs = new int[] {3, 200, 32, 100, 60000};
+        mRttMillisV4 = 50;
 
         mWbm.registerForRttStatusChange(mHandler, 1);
         captureNetworkCallback();
@@ -238,13 +271,9 @@ public class WifiBackhaulMonitorTest extends QnsTest {
 
     @Test
     public void testRtt_v4Failed_v6Passed() throws InterruptedException {
-        mRttConfigs = new int[] {5, 200, 32, 70, 60000};
-        InputStream stream_v4 =
-                new ByteArrayInputStream(getCommandOutputs()[0].getBytes(StandardCharsets.UTF_8));
-        InputStream stream_v6 =
-                new ByteArrayInputStream(getCommandOutputs()[1].getBytes(StandardCharsets.UTF_8));
-        doReturn(stream_v4).when(mProcessV4).getInputStream();
-        doReturn(stream_v6).when(mProcessV6).getInputStream();
+        mRttConfigs = new int[] {3, 200, 32, 70, 60000};
+        mRttMillisV4 = 100;
+        mRttMillisV6 = 30;
 
         mWbm.registerForRttStatusChange(mHandler, 1);
         captureNetworkCallback();
@@ -255,13 +284,183 @@ public class WifiBackhaulMonitorTest extends QnsTest {
 
     @Test
     public void testRtt_v4v6Failed() throws InterruptedException {
-        mRttConfigs = new int[] {5, 200, 32, 60, 60000};
-        InputStream stream_v4 =
-                new ByteArrayInputStream(getCommandOutputs()[0].getBytes(StandardCharsets.UTF_8));
-        InputStream stream_v6 =
-                new ByteArrayInputStream(getCommandOutputs()[1].getBytes(StandardCharsets.UTF_8));
-        doReturn(stream_v4).when(mProcessV4).getInputStream();
-        doReturn(stream_v6).when(mProcessV6).getInputStream();
+        mRttConfigs = new int[] {3, 200, 32, 60, 60000};
+        mRttMillisV4 = 100;
+        mRttMillisV6 = 80;
+
+        mWbm.registerForRttStatusChange(mHandler, 1);
+        captureNetworkCallback();
+        mCallback.onAvailable(mMockNetwork);
+        mWbm.requestRttCheck();
+        verifyResultAs(false);
+    }
+
+    @Test
+    public void testRttWithoutReplies() throws InterruptedException {
+        mRttConfigs = new int[] {1, 200, 32, 60, 60000};
+
+        mWbm.registerForRttStatusChange(mHandler, 1);
+        captureNetworkCallback();
+        mCallback.onAvailable(mMockNetwork);
+        mWbm.requestRttCheck();
+        // a server not answering echo requests does not fail the check.
+        verifyResultAs(true);
+    }
+
+    @Test
+    public void testRttCancelledOnWifiLost() throws InterruptedException {
+        mRttConfigs = new int[] {20, 500, 32, 100, 60000};
+        mRttMillisV4 = 50;
+
+        mWbm.registerForRttStatusChange(mHandler, 1);
+        captureNetworkCallback();
+        mCallback.onAvailable(mMockNetwork);
+        mWbm.requestRttCheck();
+        Thread.sleep(200);
+        mCallback.onLost(mMockNetwork);
+        verifyResultAs(false);
+    }
+
+    @Test
+    public void testRttNotDelayedByDeadAddress() throws InterruptedException {
+        mRttConfigs = new int[] {3, 200, 32, 100, 60000};
+        mRttMillisV6 = 30;
+
+        mWbm.registerForRttStatusChange(mHandler, 1);
+        captureNetworkCallback();
+        mCallback.onAvailable(mMockNetwork);
+        long start = SystemClock.elapsedRealtime();
+        mWbm.requestRttCheck();
+        verifyResultAs(true);
+
+        // the IPv6 probe starts while the IPv4 one is still waiting for replies, and ends it.
+        assertTrue(
+                SystemClock.elapsedRealtime() - start
+                        < 2 * 200 + RttProber.REPLY_TIMEOUT_MILLIS);
+        assertTrue(mTransportsClosed.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, mWbm.getWinCount(WifiBackhaulMonitor.FAMILY_IPV6));
+        assertEquals(0, mWbm.getWinCount(WifiBackhaulMonitor.FAMILY_IPV4));
+    }
+
+    @Test
+    public void testRttCheckDeadline() throws InterruptedException {
+        mRttConfigs = new int[] {1, 200, 32, 100, 60000};
+        mWbm.setEchoTransportFactory(
+                address -> {
+                    try {
+                        // a transport hanging in its creation.
+                        Thread.sleep(10000);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                    return new FakeEchoTransport(NO_REPLY);
+                });
+
+        mWbm.registerForRttStatusChange(mHandler, 1);
+        captureNetworkCallback();
+        mCallback.onAvailable(mMockNetwork);
+        mWbm.requestRttCheck();
+        // no address replied, so the result is left as is.
+        verifyResultAs(true);
+    }
+
+    @Test
+    public void testRttResultReusedForSameNetwork() throws InterruptedException {
+        mRttConfigs = new int[] {1, 200, 32, 60, 60000};
+        mRttMillisV4 = 30;
+        mRttMillisV6 = 30;
+        doReturn(60000).when(mMockQnsConfigManager).getWlanRttResultCacheTtl();
+
+        mWbm.registerForRttStatusChange(mHandler, 1);
+        captureNetworkCallback();
+        mCallback.onAvailable(mMockNetwork);
+        mWbm.requestRttCheck();
+        verifyResultAs(true);
+        int transportCount = mTransportCount.get();
+
+        mLatch = new CountDownLatch(1);
+        mWbm.requestRttCheck();
+        verifyResultAs(true);
+        assertEquals(transportCount, mTransportCount.get());
+        assertEquals(1, mWbm.getRttResultCache().getHitCount());
+
+        // a change of the link invalidates the result.
+        LinkProperties lp = new LinkProperties(mLinkProperties);
+        lp.setMtu(1280);
+        mCallback.onLinkPropertiesChanged(mMockNetwork, lp);
+        mLatch = new CountDownLatch(1);
+        mWbm.requestRttCheck();
+        verifyResultAs(true);
+        assertTrue(mTransportCount.get() > transportCount);
+    }
+
+    @Test
+    public void testRttServerResolvedOverWifiOnAvailable() throws InterruptedException {
+        mRttConfigs = new int[] {1, 200, 32, 60, 60000};
+        mRttMillisV4 = 30;
+
+        mWbm.registerForRttStatusChange(mHandler, 1);
+        captureNetworkCallback();
+        mCallback.onAvailable(mMockNetwork);
+        waitForResolveCount(1);
+        assertEquals(mMockNetwork, mResolvedNetwork);
+
+        mWbm.requestRttCheck();
+        verifyResultAs(true);
+        // the check uses the prefetched addresses.
+        assertEquals(1, mRttServerAddressCache.getResolveCount());
+        assertEquals(1, mRttServerAddressCache.getHitCount());
+
+        mCallback.onLost(mMockNetwork);
+        mCallback.onAvailable(mMockNetwork);
+        // the addresses are not kept across connections.
+        waitForResolveCount(2);
+    }
+
+    private void waitForResolveCount(int count) throws InterruptedException {
+        for (int i = 0; i < 20 && mRttServerAddressCache.getResolveCount() < count; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(count, mRttServerAddressCache.getResolveCount());
+    }
+
+    @Test
+    public void testRttCriteria() {
+        int[] config = new int[] {5, 200, 32, 100, 60000, 90, 150, 40, 20};
+        // 1 of 5 lost, p90 is the largest of the 4 replies.
+        RttProber.Result result =
+                new RttProber.Result(5, new long[] {50000, 60000, 80000, 140000}, 30000, false);
+        assertTrue(WifiBackhaulMonitor.meetsRttCriteria(result, config));
+
+        result = new RttProber.Result(5, new long[] {50000, 60000, 80000, 160000}, 30000, false);
+        assertFalse(WifiBackhaulMonitor.meetsRttCriteria(result, config));
+
+        result = new RttProber.Result(5, new long[] {50000, 60000, 80000, 140000}, 50000, false);
+        assertFalse(WifiBackhaulMonitor.meetsRttCriteria(result, config));
+
+        result = new RttProber.Result(5, new long[] {50000, 60000, 80000}, 30000, false);
+        assertFalse(WifiBackhaulMonitor.meetsRttCriteria(result, config));
+
+        // only the average is applied without the optional criteria.
+        assertTrue(
+                WifiBackhaulMonitor.meetsRttCriteria(result, new int[] {5, 200, 32, 100, 60000}));
+    }
+
+    @Test
+    public void testRttFailedOnLossCriteria() throws InterruptedException {
+        mRttConfigs = new int[] {3, 200, 32, 100, 60000, 0, 0, 0, 20};
+        mRttMillisV4 = 30;
+        // every second ping is lost.
+        mWbm.setEchoTransportFactory(
+                address ->
+                        new FakeEchoTransport(mRttMillisV4) {
+                            @Override
+                            public void send(int sequence, byte[] payload) {
+                                if (sequence % 2 == 0) {
+                                    super.send(sequence, payload);
+                                }
+                            }
+                        });
 
         mWbm.registerForRttStatusChange(mHandler, 1);
         captureNetworkCallback();
@@ -344,47 +543,11 @@ public class WifiBackhaulMonitorTest extends QnsTest {
     }
 
     private void verifyResultAs(boolean expected) throws InterruptedException {
-        assertTrue(mLatch.await(1000, TimeUnit.MILLISECONDS));
+        assertTrue(mLatch.await(3000, TimeUnit.MILLISECONDS));
         assertNotNull(mAsyncResult);
         assertEquals(expected, mAsyncResult.mResult);
     }
 
-    private String[] getCommandOutputs() {
-        return new String[] {
-            "PING www.google.com (172.217.163.196) from 172.20.10.2 wlan0: 32(60) bytes of"
-                    + " data.\n"
-                    + "40 bytes from maa05s06-in-f4.1e100.net (172.217.163.196): icmp_seq=1"
-                    + " ttl=53 time=119 ms\n"
-                    + "40 bytes from maa05s06-in-f4.1e100.net (172.217.163.196): icmp_seq=2"
-                    + " ttl=53 time=110 ms\n"
-                    + "40 bytes from maa05s06-in-f4.1e100.net (172.217.163.196): icmp_seq=3"
-                    + " ttl=53 time=66.8 ms\n"
-                    + "40 bytes from maa05s06-in-f4.1e100.net (172.217.163.196): icmp_seq=4"
-                    + " ttl=53 time=63.7 ms\n"
-                    + "40 bytes from maa05s06-in-f4.1e100.net (172.217.163.196): icmp_seq=5"
-                    + " ttl=53 time=49.9 ms\n"
-                    + "\n"
-                    + "--- www.google.com ping statistics ---\n"
-                    + "5 packets transmitted, 5 received, 0% packet loss, time 805ms\n"
-                    + "rtt min/avg/max/mdev = 49.952/80.066/119.469/27.539 ms",
-            "PING maa05s21-in-x04.1e100.net(maa05s21-in-x04.1e100.net) 56 data bytes\n"
-                    + "64 bytes from maa05s21-in-x04.1e100.net: icmp_seq=1 ttl=56 time=56.0"
-                    + " ms\n"
-                    + "64 bytes from maa05s21-in-x04.1e100.net: icmp_seq=2 ttl=56 time=54.3"
-                    + " ms\n"
-                    + "64 bytes from maa05s21-in-x04.1e100.net: icmp_seq=3 ttl=56 time=51.2"
-                    + " ms\n"
-                    + "64 bytes from maa05s21-in-x04.1e100.net: icmp_seq=4 ttl=56 time=89.2"
-                    + " ms\n"
-                    + "64 bytes from maa05s21-in-x04.1e100.net: icmp_seq=5 ttl=56 time=88.0"
-                    + " ms\n"
-                    + "\n"
-                    + "--- maa05s21-in-x04.1e100.net ping statistics ---\n"
-                    + "5 packets transmitted, 5 received, 0% packet loss, time 807ms\n"
-                    + "rtt min/avg/max/mdev = 51.282/65.793/89.228/17.110 ms"
-        };
-    }
-
     private void captureNetworkCallback() {
         ArgumentCaptor<NetworkCallback> argumentCaptor =
                 ArgumentCaptor.forClass(NetworkCallback.class);
@@ -49,6 +49,7 @@ import org.mockito.MockitoAnnotations;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 @RunWith(JUnit4.class)
 public class WifiQualityMonitorTest extends QnsTest {
@@ -350,6 +351,144 @@ public class WifiQualityMonitorTest extends QnsTest {
         assertFalse(mWifiQualityMonitor.mHandler.hasMessages(EVENT_WIFI_RSSI_CHANGED));
     }
 
+    @Test
+    public void testRssiFilterSuppressesShortDip() throws InterruptedException {
+        mThs1[0] =
+                new Threshold(
+                        AccessNetworkConstants.AccessNetworkType.IWLAN,
+                        SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSI,
+                        -70,
+                        QnsConstants.THRESHOLD_EQUAL_OR_SMALLER,
+                        0);
+        mWifiQualityMonitor.registerThresholdChange(
+                mThresholdListener, NetworkCapabilities.NET_CAPABILITY_IMS, mThs1, 0);
+        mWifiQualityMonitor.setSignalFilter(0, "median,3");
+
+        mWifiQualityMonitor.mHandler.obtainMessage(EVENT_WIFI_RSSI_CHANGED, -60, 0).sendToTarget();
+        mWifiQualityMonitor.mHandler.obtainMessage(EVENT_WIFI_RSSI_CHANGED, -60, 0).sendToTarget();
+        mWifiQualityMonitor.mHandler.obtainMessage(EVENT_WIFI_RSSI_CHANGED, -75, 0).sendToTarget();
+        // a single low sample is filtered out by the median.
+        assertFalse(mLatch.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, mWifiQualityMonitor.getFilteredOutCrossingCount());
+
+        mWifiQualityMonitor.mHandler.obtainMessage(EVENT_WIFI_RSSI_CHANGED, -76, 0).sendToTarget();
+        assertTrue(mLatch.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(-75, mRetThresholds[0].getThreshold());
+    }
+
+    @Test
+    public void testBackhaulTimerExpiryDoesNotAdvanceFilter() throws InterruptedException {
+        mWifiInfo = new WifiInfo.Builder().setRssi(-90).build();
+        when(mWifiManager.getConnectionInfo()).thenReturn(mWifiInfo);
+        mThs1[0] =
+                new Threshold(
+                        AccessNetworkConstants.AccessNetworkType.IWLAN,
+                        SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSI,
+                        -70,
+                        QnsConstants.THRESHOLD_EQUAL_OR_LARGER,
+                        100);
+        mWifiQualityMonitor.registerThresholdChange(
+                mThresholdListener, NetworkCapabilities.NET_CAPABILITY_IMS, mThs1, 0);
+        mWifiQualityMonitor.setSignalFilter(0, "min,3");
+
+        mWifiQualityMonitor.mHandler.obtainMessage(EVENT_WIFI_RSSI_CHANGED, -60, 0).sendToTarget();
+        // the RSSI read at the expiry of the backhaul timer is not a sample of the filter.
+        assertTrue(mLatch.await(1000, TimeUnit.MILLISECONDS));
+        assertEquals(-60, mRetThresholds[0].getThreshold());
+    }
+
+    @Test
+    public void testSignalFilterOfUnregisteredSlotRemoved() {
+        mWifiQualityMonitor.registerThresholdChange(
+                mThresholdListener, NetworkCapabilities.NET_CAPABILITY_IMS, null, 0);
+        mWifiQualityMonitor.registerThresholdChange(
+                mThresholdListener, NetworkCapabilities.NET_CAPABILITY_EIMS, null, 0);
+        mWifiQualityMonitor.registerThresholdChange(
+                mThresholdListener, NetworkCapabilities.NET_CAPABILITY_IMS, null, 1);
+        mWifiQualityMonitor.setSignalFilter(0, "min,3");
+        mWifiQualityMonitor.setSignalFilter(1, "median,3");
+        assertEquals(SignalFilter.TYPE_MIN, mWifiQualityMonitor.getRssiFilterType());
+
+        // the filter of slot 0 is kept while a listener of the slot remains.
+        mWifiQualityMonitor.unregisterThresholdChange(NetworkCapabilities.NET_CAPABILITY_IMS, 0);
+        assertEquals(SignalFilter.TYPE_MIN, mWifiQualityMonitor.getRssiFilterType());
+        mWifiQualityMonitor.unregisterThresholdChange(NetworkCapabilities.NET_CAPABILITY_EIMS, 0);
+        assertEquals(SignalFilter.TYPE_MEDIAN, mWifiQualityMonitor.getRssiFilterType());
+        mWifiQualityMonitor.unregisterThresholdChange(NetworkCapabilities.NET_CAPABILITY_IMS, 1);
+        assertEquals(SignalFilter.TYPE_NONE, mWifiQualityMonitor.getRssiFilterType());
+    }
+
+    @Test
+    public void testReducedFidelityDropsSmallRssiChanges() throws InterruptedException {
+        mThs1[0] =
+                new Threshold(
+                        AccessNetworkConstants.AccessNetworkType.IWLAN,
+                        SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSI,
+                        -70,
+                        QnsConstants.THRESHOLD_EQUAL_OR_SMALLER,
+                        0);
+        mWifiQualityMonitor.registerThresholdChange(
+                mThresholdListener, NetworkCapabilities.NET_CAPABILITY_IMS, mThs1, 0);
+        mWifiQualityMonitor
+                .mHandler
+                .obtainMessage(
+                        QualityMonitor.EVENT_MONITORING_FIDELITY_CHANGED,
+                        new QnsAsyncResult(null, QnsMonitoringPolicy.FIDELITY_MINIMAL, null))
+                .sendToTarget();
+        waitForDelayedHandlerAction(mWifiQualityMonitor.mHandler, 10, 200);
+
+        mWifiQualityMonitor.validateWqmStatus(-68);
+        // within the deadband of the last processed sample.
+        mWifiQualityMonitor.validateWqmStatus(-71);
+        assertFalse(mLatch.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(
+                1,
+                mWifiQualityMonitor.getDroppedRssiSampleCount(
+                        QnsMonitoringPolicy.FIDELITY_MINIMAL));
+
+        mWifiQualityMonitor.validateWqmStatus(-73);
+        assertTrue(mLatch.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(-73, mRetThresholds[0].getThreshold());
+    }
+
+    @Test
+    public void testDeadbandKeptBelowThresholdGap() throws InterruptedException {
+        Threshold[] ths =
+                new Threshold[] {
+                    new Threshold(
+                            AccessNetworkConstants.AccessNetworkType.IWLAN,
+                            SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSI,
+                            -70,
+                            QnsConstants.THRESHOLD_EQUAL_OR_LARGER,
+                            0),
+                    new Threshold(
+                            AccessNetworkConstants.AccessNetworkType.IWLAN,
+                            SignalThresholdInfo.SIGNAL_MEASUREMENT_TYPE_RSSI,
+                            -72,
+                            QnsConstants.THRESHOLD_EQUAL_OR_SMALLER,
+                            0)
+                };
+        mWifiQualityMonitor.registerThresholdChange(
+                mThresholdListener, NetworkCapabilities.NET_CAPABILITY_IMS, ths, 0);
+        mWifiQualityMonitor
+                .mHandler
+                .obtainMessage(
+                        QualityMonitor.EVENT_MONITORING_FIDELITY_CHANGED,
+                        new QnsAsyncResult(null, QnsMonitoringPolicy.FIDELITY_MINIMAL, null))
+                .sendToTarget();
+        waitForDelayedHandlerAction(mWifiQualityMonitor.mHandler, 10, 200);
+
+        mWifiQualityMonitor.validateWqmStatus(-71);
+        // the deadband of the minimal fidelity would hide the threshold 2dB away.
+        mWifiQualityMonitor.validateWqmStatus(-73);
+        assertTrue(mLatch.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(-73, mRetThresholds[0].getThreshold());
+        assertEquals(
+                0,
+                mWifiQualityMonitor.getDroppedRssiSampleCount(
+                        QnsMonitoringPolicy.FIDELITY_MINIMAL));
+    }
+
     @Test
     public void testUpdateThresholdsForNetCapabilityException() {
         assertThrows(